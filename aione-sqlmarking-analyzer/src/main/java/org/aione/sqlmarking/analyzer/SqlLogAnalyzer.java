@@ -0,0 +1,184 @@
+package org.aione.sqlmarking.analyzer;
+
+import lombok.extern.slf4j.Slf4j;
+import org.aione.sqlmarking.SqlMarkingConfig;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * SQL标记日志离线分析工具
+ * <p>
+ * 以内存映射方式流式读取MySQL慢查询日志或通用查询日志，按分块并行解析，
+ * 提取SQL中的染色标记，并按statementId、userId、traceId、SQL摘要聚合耗时、扫描行数和执行次数，
+ * 用于事后将数据库侧的开销归因到具体的代码路径。整个文件不会一次性载入内存。
+ * <p>
+ * 用法：
+ * <pre>
+ * java -jar aione-sqlmarking-analyzer.jar [options] &lt;logFile&gt;
+ *   --format=slow|general        日志格式，默认slow
+ *   --group-by=statement,user,trace,digest,transaction  聚合维度，默认全部
+ *   --threads=N                  并行解析线程数，默认CPU核数
+ *   --chunk-mb=N                 分块大小（MB），默认64
+ *   --top=N                      每个维度输出的最大行数，默认20
+ *   --prefix=... --suffix=... --separator=...  标记格式，默认与SqlMarkingConfig一致
+ * </pre>
+ *
+ * @author Billy
+ */
+@Slf4j
+public class SqlLogAnalyzer {
+
+    /**
+     * 分块大小上限（MB），分块加上尾部读取范围必须能用一次int寻址的内存映射覆盖
+     */
+    static final long MAX_CHUNK_MB = (Integer.MAX_VALUE - SqlLogChunkParser.TAIL_BYTES - 1) / (1024 * 1024);
+
+    private final Path file;
+    private final SqlLogFormat format;
+    private final Set<SqlLogDimension> dimensions;
+    private final SqlMarkingConfig config;
+    private final int threads;
+    private final long chunkSize;
+
+    public SqlLogAnalyzer(Path file, SqlLogFormat format, Set<SqlLogDimension> dimensions,
+                          SqlMarkingConfig config, int threads, long chunkSize) {
+        this.file = file;
+        this.format = format;
+        this.dimensions = dimensions;
+        this.config = config;
+        this.threads = threads;
+        this.chunkSize = chunkSize;
+    }
+
+    /**
+     * 分析整个日志文件
+     *
+     * @return 合并后的分析结果
+     * @throws IOException 读取文件失败
+     */
+    public SqlLogReport analyze() throws IOException {
+        SqlLogReport report = new SqlLogReport(dimensions);
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long fileSize = channel.size();
+            List<Future<SqlLogReport>> futures = new ArrayList<>();
+            for (long start = 0; start < fileSize; start += chunkSize) {
+                long end = Math.min(fileSize, start + chunkSize);
+                futures.add(executor.submit(
+                        new SqlLogChunkParser(channel, fileSize, start, end, format, dimensions, config)));
+            }
+            for (Future<SqlLogReport> future : futures) {
+                report.merge(future.get());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("日志分析被中断", e);
+        } catch (ExecutionException e) {
+            throw new IOException("日志分块解析失败: " + e.getCause().getMessage(), e.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+        return report;
+    }
+
+    public static void main(String[] args) {
+        SqlMarkingConfig config = new SqlMarkingConfig();
+        SqlLogFormat format = SqlLogFormat.SLOW;
+        Set<SqlLogDimension> dimensions = EnumSet.allOf(SqlLogDimension.class);
+        int threads = Runtime.getRuntime().availableProcessors();
+        long chunkMb = 64;
+        int top = 20;
+        Path file = null;
+
+        try {
+            for (String arg : args) {
+                if (!arg.startsWith("--")) {
+                    file = Paths.get(arg);
+                    continue;
+                }
+                int eq = arg.indexOf('=');
+                String name = eq > 0 ? arg.substring(2, eq) : arg.substring(2);
+                String value = eq > 0 ? arg.substring(eq + 1) : "";
+                switch (name) {
+                    case "format":
+                        format = SqlLogFormat.of(value);
+                        break;
+                    case "group-by":
+                        dimensions = EnumSet.noneOf(SqlLogDimension.class);
+                        for (String dimension : value.split(",")) {
+                            dimensions.add(SqlLogDimension.of(dimension));
+                        }
+                        break;
+                    case "threads":
+                        threads = Integer.parseInt(value);
+                        break;
+                    case "chunk-mb":
+                        chunkMb = Long.parseLong(value);
+                        break;
+                    case "top":
+                        top = Integer.parseInt(value);
+                        break;
+                    case "prefix":
+                        config.setMarkPrefix(value);
+                        break;
+                    case "suffix":
+                        config.setMarkSuffix(value);
+                        break;
+                    case "separator":
+                        config.setInfoSeparator(value);
+                        break;
+                    default:
+                        throw new IllegalArgumentException("未知参数: " + arg);
+                }
+            }
+            if (file == null || threads <= 0 || chunkMb <= 0 || chunkMb > MAX_CHUNK_MB || top <= 0 || !config.isValid()) {
+                throw new IllegalArgumentException("缺少日志文件路径或参数取值无效");
+            }
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            printUsage();
+            System.exit(2);
+            return;
+        }
+
+        long begin = System.nanoTime();
+        try {
+            SqlLogAnalyzer analyzer = new SqlLogAnalyzer(file, format, dimensions, config, threads, chunkMb * 1024 * 1024);
+            SqlLogReport report = analyzer.analyze();
+            long elapsedMillis = (System.nanoTime() - begin) / 1_000_000;
+
+            System.out.printf("=== SQL标记日志分析完成 - 文件: %s, 格式: %s, 标记SQL: %d, 耗时: %dms ===%n",
+                    file, format, report.getMarkedCount(), elapsedMillis);
+            if (report.getTruncatedCount() > 0) {
+                System.out.printf("警告: %d 条记录超出分块结尾之后 %dMB 的读取范围，未计入统计%n",
+                        report.getTruncatedCount(), SqlLogChunkParser.TAIL_BYTES / (1024 * 1024));
+            }
+            report.print(System.out, format, top);
+        } catch (IOException e) {
+            log.error("SQL标记日志分析失败: {}", e.getMessage(), e);
+            System.exit(1);
+        }
+    }
+
+    private static void printUsage() {
+        System.err.println("用法: java -jar aione-sqlmarking-analyzer.jar [options] <logFile>");
+        System.err.println("  --format=slow|general            日志格式，默认slow");
+        System.err.println("  --group-by=statement,user,trace,digest,transaction  聚合维度，默认全部");
+        System.err.println("  --threads=N                      并行解析线程数，默认CPU核数");
+        System.err.println("  --chunk-mb=N                     分块大小（MB），默认64，最大" + MAX_CHUNK_MB);
+        System.err.println("  --top=N                          每个维度输出的最大行数，默认20");
+        System.err.println("  --prefix=... --suffix=... --separator=...  标记格式，默认与插件配置一致");
+    }
+}
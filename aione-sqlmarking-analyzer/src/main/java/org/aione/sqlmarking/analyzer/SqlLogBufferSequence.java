@@ -0,0 +1,51 @@
+package org.aione.sqlmarking.analyzer;
+
+import java.nio.ByteBuffer;
+
+/**
+ * 以字符序列的方式访问内存映射的日志内容
+ * 每个字节对应一个字符（ISO-8859-1），下标与缓冲区下标一致，供标记解析器直接扫描而无需解码整行
+ * <p>
+ * 标记前缀、后缀和分隔符需为ASCII字符；字段值中的非ASCII字符在生成聚合键时按UTF-8解码。
+ *
+ * @author Billy
+ */
+class SqlLogBufferSequence implements CharSequence {
+
+    private final ByteBuffer buffer;
+
+    SqlLogBufferSequence(ByteBuffer buffer) {
+        this.buffer = buffer;
+    }
+
+    @Override
+    public int length() {
+        return buffer.limit();
+    }
+
+    @Override
+    public char charAt(int index) {
+        return (char) (buffer.get(index) & 0xFF);
+    }
+
+    @Override
+    public CharSequence subSequence(int start, int end) {
+        return toString(start, end);
+    }
+
+    /**
+     * 将指定区间按ISO-8859-1生成字符串
+     */
+    private String toString(int start, int end) {
+        char[] chars = new char[end - start];
+        for (int i = 0; i < chars.length; i++) {
+            chars[i] = charAt(start + i);
+        }
+        return new String(chars);
+    }
+
+    @Override
+    public String toString() {
+        return toString(0, length());
+    }
+}
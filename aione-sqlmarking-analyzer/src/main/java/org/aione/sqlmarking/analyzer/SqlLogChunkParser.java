@@ -0,0 +1,289 @@
+package org.aione.sqlmarking.analyzer;
+
+import org.aione.sqlmarking.SqlMarkingConfig;
+import org.aione.sqlmarking.SqlMarkingParser;
+import org.aione.sqlmarking.SqlMarkingView;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+
+/**
+ * 日志分块解析器
+ * 通过内存映射读取文件中的一个分块，按行扫描SQL标记并累计统计信息
+ * <p>
+ * 分块边界规则：
+ * 1. 分块起始位置不在行首时，跳过第一行残缺内容（由前一个分块负责）
+ * 2. 只处理起始位置落在本分块内的行
+ * 3. 慢查询日志中，本分块内出现的Query_time行对应的SQL可能落在下一个分块，
+ *    此时继续向后读取，直到找到该条记录的标记或遇到下一条记录的头部
+ * 4. 向后最多读取TAIL_BYTES，超出该范围的记录计入截断数量，不静默丢弃
+ *
+ * @author Billy
+ */
+public class SqlLogChunkParser implements Callable<SqlLogReport> {
+
+    /**
+     * 分块结尾之后额外映射的字节数，用于读取跨越分块边界的慢查询记录
+     */
+    static final long TAIL_BYTES = 4L * 1024 * 1024;
+
+    private static final byte[] QUERY_TIME = ascii("# Query_time:");
+    private static final byte[] LOCK_TIME = ascii("Lock_time:");
+    private static final byte[] ROWS_SENT = ascii("Rows_sent:");
+    private static final byte[] ROWS_EXAMINED = ascii("Rows_examined:");
+    private static final byte[] PREPARE_COMMAND = ascii(" Prepare\t");
+
+    private final FileChannel channel;
+    private final long fileSize;
+    private final long start;
+    private final long end;
+    private final SqlLogFormat format;
+    private final Set<SqlLogDimension> dimensions;
+
+    private final byte[] prefix;
+    private final SqlMarkingParser parser;
+    private final SqlMarkingView view = new SqlMarkingView();
+    private final Map<SqlLogDimension, String> keys = new EnumMap<>(SqlLogDimension.class);
+
+    /**
+     * 当前慢查询记录的指标，找到对应标记前有效
+     */
+    private boolean pending;
+    private long queryMicros;
+    private long lockMicros;
+    private long rowsSent;
+    private long rowsExamined;
+
+    public SqlLogChunkParser(FileChannel channel, long fileSize, long start, long end,
+                             SqlLogFormat format, Set<SqlLogDimension> dimensions, SqlMarkingConfig config) {
+        this.channel = channel;
+        this.fileSize = fileSize;
+        this.start = start;
+        this.end = end;
+        this.format = format;
+        this.dimensions = dimensions;
+        this.prefix = config.getMarkPrefix().getBytes(StandardCharsets.UTF_8);
+        this.parser = new SqlMarkingParser(config);
+    }
+
+    @Override
+    public SqlLogReport call() throws IOException {
+        SqlLogReport report = new SqlLogReport(dimensions);
+
+        // 多映射前一个字节，用于判断分块起始位置是否在行首
+        long mapStart = start > 0 ? start - 1 : 0;
+        long mapEnd = Math.min(fileSize, end + TAIL_BYTES);
+        MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, mapStart, mapEnd - mapStart);
+
+        SqlLogBufferSequence text = new SqlLogBufferSequence(buffer);
+        int limit = buffer.limit();
+        int chunkLimit = (int) (end - mapStart);
+        int pos = 0;
+        if (start > 0) {
+            int newline = indexOf(buffer, (byte) '\n', 0, limit);
+            pos = newline < 0 ? limit : newline + 1;
+        }
+
+        // 尾部映射范围已读完，本分块内未结束的记录无法再补全
+        boolean tailExhausted = false;
+        while (pos < limit) {
+            if (pos >= chunkLimit) {
+                // 超出分块范围，只为补全本分块内未结束的慢查询记录继续读取
+                if (format == SqlLogFormat.GENERAL || !pending || buffer.get(pos) == '#') {
+                    break;
+                }
+            }
+
+            int lineEnd = indexOf(buffer, (byte) '\n', pos, limit);
+            if (lineEnd < 0) {
+                if (mapEnd < fileSize) {
+                    // 行尾超出映射范围，按截断记录统计，不解析残缺内容
+                    tailExhausted = true;
+                    if (format == SqlLogFormat.GENERAL) {
+                        report.addTruncated();
+                    }
+                    break;
+                }
+                lineEnd = limit;
+            }
+
+            if (format == SqlLogFormat.SLOW) {
+                parseSlowLine(buffer, text, pos, lineEnd, report);
+            } else {
+                parseGeneralLine(buffer, text, pos, lineEnd, report);
+            }
+            pos = lineEnd + 1;
+        }
+        if (pos >= limit) {
+            tailExhausted = true;
+        }
+        if (pending && tailExhausted && mapEnd < fileSize) {
+            // 慢查询记录延伸到分块结尾TAIL_BYTES之后仍未找到标记，无法归属；
+            // 在下一条记录的头部停止时，该记录只是没有标记，不算截断
+            report.addTruncated();
+        }
+        return report;
+    }
+
+    /**
+     * 解析慢查询日志中的一行
+     */
+    private void parseSlowLine(MappedByteBuffer buffer, SqlLogBufferSequence text, int from, int to, SqlLogReport report) {
+        if (startsWith(buffer, from, to, QUERY_TIME)) {
+            pending = true;
+            queryMicros = parseMicros(buffer, from + QUERY_TIME.length, to);
+            lockMicros = parseMicros(buffer, fieldValue(buffer, from, to, LOCK_TIME), to);
+            rowsSent = parseLong(buffer, fieldValue(buffer, from, to, ROWS_SENT), to);
+            rowsExamined = parseLong(buffer, fieldValue(buffer, from, to, ROWS_EXAMINED), to);
+            return;
+        }
+        if (!pending || buffer.get(from) == '#') {
+            return;
+        }
+        if (recordMarker(buffer, text, from, to, report)) {
+            pending = false;
+        }
+    }
+
+    /**
+     * 解析通用查询日志中的一行
+     * 服务端预编译时Prepare和Execute都会记录SQL，只统计Execute避免重复计数
+     */
+    private void parseGeneralLine(MappedByteBuffer buffer, SqlLogBufferSequence text, int from, int to, SqlLogReport report) {
+        int markerStart = indexOf(buffer, prefix, from, to);
+        if (markerStart < 0 || indexOf(buffer, PREPARE_COMMAND, from, markerStart) >= 0) {
+            return;
+        }
+        recordMarker(buffer, text, markerStart, to, report);
+    }
+
+    /**
+     * 在行内查找标记并累计统计
+     * 聚合键只在字段存在时按UTF-8解码，其余字段不生成字符串
+     *
+     * @return 是否找到标记
+     */
+    private boolean recordMarker(MappedByteBuffer buffer, SqlLogBufferSequence text, int from, int to,
+                                 SqlLogReport report) {
+        if (!parser.parse(text, from, to, view)) {
+            return false;
+        }
+
+        keys.clear();
+        for (SqlLogDimension dimension : dimensions) {
+            if (view.has(dimension.getField())) {
+                keys.put(dimension, decode(buffer, view.start(dimension.getField()), view.end(dimension.getField())));
+            }
+        }
+        report.add(keys, queryMicros, lockMicros, rowsSent, rowsExamined);
+        return true;
+    }
+
+    /**
+     * 查找字段名之后的值起始位置，未找到时返回行尾
+     */
+    private static int fieldValue(MappedByteBuffer buffer, int from, int to, byte[] name) {
+        int index = indexOf(buffer, name, from, to);
+        return index < 0 ? to : index + name.length;
+    }
+
+    /**
+     * 解析以秒为单位的小数（如 0.000123），返回微秒
+     */
+    private static long parseMicros(MappedByteBuffer buffer, int from, int to) {
+        int pos = skipSpaces(buffer, from, to);
+        long seconds = 0;
+        while (pos < to && isDigit(buffer.get(pos))) {
+            seconds = seconds * 10 + (buffer.get(pos++) - '0');
+        }
+        long micros = 0;
+        int digits = 0;
+        if (pos < to && buffer.get(pos) == '.') {
+            pos++;
+            while (pos < to && isDigit(buffer.get(pos))) {
+                if (digits < 6) {
+                    micros = micros * 10 + (buffer.get(pos) - '0');
+                    digits++;
+                }
+                pos++;
+            }
+        }
+        while (digits++ < 6) {
+            micros *= 10;
+        }
+        return seconds * 1_000_000 + micros;
+    }
+
+    /**
+     * 解析非负整数
+     */
+    private static long parseLong(MappedByteBuffer buffer, int from, int to) {
+        int pos = skipSpaces(buffer, from, to);
+        long value = 0;
+        while (pos < to && isDigit(buffer.get(pos))) {
+            value = value * 10 + (buffer.get(pos++) - '0');
+        }
+        return value;
+    }
+
+    private static int skipSpaces(MappedByteBuffer buffer, int from, int to) {
+        int pos = from;
+        while (pos < to && buffer.get(pos) == ' ') {
+            pos++;
+        }
+        return pos;
+    }
+
+    private static boolean isDigit(byte b) {
+        return b >= '0' && b <= '9';
+    }
+
+    private static boolean startsWith(MappedByteBuffer buffer, int from, int to, byte[] pattern) {
+        if (to - from < pattern.length) {
+            return false;
+        }
+        for (int i = 0; i < pattern.length; i++) {
+            if (buffer.get(from + i) != pattern[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int indexOf(MappedByteBuffer buffer, byte target, int from, int to) {
+        for (int i = from; i < to; i++) {
+            if (buffer.get(i) == target) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static int indexOf(MappedByteBuffer buffer, byte[] pattern, int from, int to) {
+        int last = to - pattern.length;
+        for (int i = from; i <= last; i++) {
+            if (buffer.get(i) == pattern[0] && startsWith(buffer, i, to, pattern)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static String decode(MappedByteBuffer buffer, int from, int to) {
+        byte[] bytes = new byte[to - from];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = buffer.get(from + i);
+        }
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static byte[] ascii(String value) {
+        return value.getBytes(StandardCharsets.US_ASCII);
+    }
+}
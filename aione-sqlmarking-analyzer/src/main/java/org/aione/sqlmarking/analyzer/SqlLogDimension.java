@@ -0,0 +1,64 @@
+package org.aione.sqlmarking.analyzer;
+
+import org.aione.sqlmarking.SqlMarkingField;
+
+/**
+ * 日志聚合维度，对应标记信息中的字段
+ *
+ * @author Billy
+ */
+public enum SqlLogDimension {
+
+    /**
+     * 按MyBatis StatementId聚合
+     */
+    STATEMENT(SqlMarkingField.STATEMENT),
+
+    /**
+     * 按用户ID聚合
+     */
+    USER(SqlMarkingField.USER_ID),
+
+    /**
+     * 按链路追踪ID聚合
+     */
+    TRACE(SqlMarkingField.TRACE_ID),
+
+    /**
+     * 按规范化SQL摘要聚合，字面量和IN列表长度不同的SQL归为一组
+     */
+    DIGEST(SqlMarkingField.DIGEST),
+
+    /**
+     * 按Spring事务标识聚合，统计每个事务的SQL数量和耗时
+     */
+    TRANSACTION(SqlMarkingField.TRANSACTION_ID);
+
+    /**
+     * 对应的标记字段
+     */
+    private final SqlMarkingField field;
+
+    SqlLogDimension(SqlMarkingField field) {
+        this.field = field;
+    }
+
+    /**
+     * 获取对应的标记字段
+     *
+     * @return 标记字段
+     */
+    public SqlMarkingField getField() {
+        return field;
+    }
+
+    /**
+     * 根据名称解析聚合维度（忽略大小写）
+     *
+     * @param name 维度名称
+     * @return 对应的聚合维度
+     */
+    public static SqlLogDimension of(String name) {
+        return valueOf(name.trim().toUpperCase());
+    }
+}
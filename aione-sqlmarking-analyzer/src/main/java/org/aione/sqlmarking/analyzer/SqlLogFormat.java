@@ -0,0 +1,29 @@
+package org.aione.sqlmarking.analyzer;
+
+/**
+ * 数据库日志格式
+ *
+ * @author Billy
+ */
+public enum SqlLogFormat {
+
+    /**
+     * MySQL慢查询日志，包含Query_time、Lock_time、Rows_sent、Rows_examined等耗时信息
+     */
+    SLOW,
+
+    /**
+     * MySQL通用查询日志，仅包含执行记录，只统计执行次数
+     */
+    GENERAL;
+
+    /**
+     * 根据名称解析日志格式（忽略大小写）
+     *
+     * @param name 格式名称
+     * @return 对应的日志格式
+     */
+    public static SqlLogFormat of(String name) {
+        return valueOf(name.trim().toUpperCase());
+    }
+}
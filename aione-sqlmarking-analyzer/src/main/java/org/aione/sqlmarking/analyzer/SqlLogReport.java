@@ -0,0 +1,151 @@
+package org.aione.sqlmarking.analyzer;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * 日志分析结果
+ * 每个分块解析器产出一个实例，最终合并为整个文件的结果
+ *
+ * @author Billy
+ */
+public class SqlLogReport {
+
+    /**
+     * 标记信息中缺少某个字段时使用的聚合键
+     */
+    public static final String MISSING_KEY = "<none>";
+
+    /**
+     * 各维度的统计信息
+     */
+    private final Map<SqlLogDimension, Map<String, SqlLogStats>> stats = new EnumMap<>(SqlLogDimension.class);
+
+    /**
+     * 已识别的标记SQL数量
+     */
+    private long markedCount;
+
+    /**
+     * 超出分块尾部读取范围而未能统计的记录数量
+     */
+    private long truncatedCount;
+
+    public SqlLogReport(Set<SqlLogDimension> dimensions) {
+        for (SqlLogDimension dimension : dimensions) {
+            stats.put(dimension, new HashMap<>());
+        }
+    }
+
+    /**
+     * 累加一条标记SQL记录
+     *
+     * @param keys        各维度的聚合键，缺失的维度为null
+     * @param queryMicros 执行耗时
+     * @param lockMicros  锁等待耗时
+     * @param sent        返回行数
+     * @param examined    扫描行数
+     */
+    public void add(Map<SqlLogDimension, String> keys, long queryMicros, long lockMicros, long sent, long examined) {
+        markedCount++;
+        for (Map.Entry<SqlLogDimension, Map<String, SqlLogStats>> entry : stats.entrySet()) {
+            String key = keys.get(entry.getKey());
+            entry.getValue()
+                    .computeIfAbsent(key != null ? key : MISSING_KEY, k -> new SqlLogStats())
+                    .add(queryMicros, lockMicros, sent, examined);
+        }
+    }
+
+    /**
+     * 记录一条超出分块尾部读取范围的记录
+     */
+    public void addTruncated() {
+        truncatedCount++;
+    }
+
+    /**
+     * 合并另一个分块的分析结果
+     *
+     * @param other 另一个分析结果
+     */
+    public void merge(SqlLogReport other) {
+        markedCount += other.markedCount;
+        truncatedCount += other.truncatedCount;
+        for (Map.Entry<SqlLogDimension, Map<String, SqlLogStats>> entry : other.stats.entrySet()) {
+            Map<String, SqlLogStats> target = stats.get(entry.getKey());
+            entry.getValue().forEach((key, value) ->
+                    target.computeIfAbsent(key, k -> new SqlLogStats()).merge(value));
+        }
+    }
+
+    /**
+     * 获取已识别的标记SQL数量
+     *
+     * @return 标记SQL数量
+     */
+    public long getMarkedCount() {
+        return markedCount;
+    }
+
+    /**
+     * 获取超出分块尾部读取范围而未能统计的记录数量
+     *
+     * @return 截断记录数量
+     */
+    public long getTruncatedCount() {
+        return truncatedCount;
+    }
+
+    /**
+     * 获取指定维度的统计信息
+     *
+     * @param dimension 聚合维度
+     * @return 聚合键到统计信息的映射，未统计该维度时返回null
+     */
+    public Map<String, SqlLogStats> getStats(SqlLogDimension dimension) {
+        return stats.get(dimension);
+    }
+
+    /**
+     * 按维度输出TopN统计表
+     * 慢查询日志按累计耗时排序，通用查询日志按执行次数排序
+     *
+     * @param out    输出流
+     * @param format 日志格式
+     * @param top    每个维度输出的最大行数
+     */
+    public void print(PrintStream out, SqlLogFormat format, int top) {
+        Comparator<Map.Entry<String, SqlLogStats>> order = format == SqlLogFormat.SLOW
+                ? Comparator.comparingLong(e -> e.getValue().getTotalQueryMicros())
+                : Comparator.comparingLong(e -> e.getValue().getCount());
+
+        for (Map.Entry<SqlLogDimension, Map<String, SqlLogStats>> entry : stats.entrySet()) {
+            List<Map.Entry<String, SqlLogStats>> rows = new ArrayList<>(entry.getValue().entrySet());
+            rows.sort(order.reversed());
+
+            out.println();
+            out.printf("=== 按 %s 聚合 (共 %d 项，显示前 %d 项) ===%n",
+                    entry.getKey().getField().getKey(), rows.size(), Math.min(top, rows.size()));
+            out.printf("%12s %12s %10s %10s %12s %14s %12s  %s%n",
+                    "count", "total(ms)", "avg(ms)", "max(ms)", "lock(ms)", "rows_examined", "rows_sent", "key");
+            for (Map.Entry<String, SqlLogStats> row : rows.subList(0, Math.min(top, rows.size()))) {
+                SqlLogStats s = row.getValue();
+                out.printf("%12d %12.3f %10.3f %10.3f %12.3f %14d %12d  %s%n",
+                        s.getCount(),
+                        s.getTotalQueryMicros() / 1000.0,
+                        s.getAvgQueryMicros() / 1000.0,
+                        s.getMaxQueryMicros() / 1000.0,
+                        s.getTotalLockMicros() / 1000.0,
+                        s.getRowsExamined(),
+                        s.getRowsSent(),
+                        row.getKey());
+            }
+        }
+    }
+}
@@ -0,0 +1,87 @@
+package org.aione.sqlmarking.analyzer;
+
+import lombok.Getter;
+
+/**
+ * 单个聚合键的统计信息
+ * 时间单位均为微秒
+ *
+ * @author Billy
+ */
+@Getter
+public class SqlLogStats {
+
+    /**
+     * 执行次数
+     */
+    private long count;
+
+    /**
+     * 累计执行耗时
+     */
+    private long totalQueryMicros;
+
+    /**
+     * 最大执行耗时
+     */
+    private long maxQueryMicros;
+
+    /**
+     * 累计锁等待耗时
+     */
+    private long totalLockMicros;
+
+    /**
+     * 累计返回行数
+     */
+    private long rowsSent;
+
+    /**
+     * 累计扫描行数
+     */
+    private long rowsExamined;
+
+    /**
+     * 累加一条日志记录
+     *
+     * @param queryMicros  执行耗时
+     * @param lockMicros   锁等待耗时
+     * @param sent         返回行数
+     * @param examined     扫描行数
+     */
+    public void add(long queryMicros, long lockMicros, long sent, long examined) {
+        count++;
+        totalQueryMicros += queryMicros;
+        totalLockMicros += lockMicros;
+        rowsSent += sent;
+        rowsExamined += examined;
+        if (queryMicros > maxQueryMicros) {
+            maxQueryMicros = queryMicros;
+        }
+    }
+
+    /**
+     * 合并另一个分块的统计信息
+     *
+     * @param other 另一个统计信息
+     */
+    public void merge(SqlLogStats other) {
+        count += other.count;
+        totalQueryMicros += other.totalQueryMicros;
+        totalLockMicros += other.totalLockMicros;
+        rowsSent += other.rowsSent;
+        rowsExamined += other.rowsExamined;
+        if (other.maxQueryMicros > maxQueryMicros) {
+            maxQueryMicros = other.maxQueryMicros;
+        }
+    }
+
+    /**
+     * 获取平均执行耗时
+     *
+     * @return 平均执行耗时，没有记录时返回0
+     */
+    public long getAvgQueryMicros() {
+        return count > 0 ? totalQueryMicros / count : 0;
+    }
+}
@@ -12,7 +12,7 @@ import org.springframework.core.env.ConfigurableEnvironment;
  * @author Billy
  */
 @SpringBootApplication(scanBasePackages = {"org.aione"})
-@MapperScan("org.aione.*.**")
+@MapperScan("org.aione.sqlmarking.example.mapper")
 public class ExampleApplication {
 
     public static void main(String[] args) {
@@ -34,6 +34,22 @@ public class ExampleApplication {
         System.out.println("POST " + host + "/api/sql-marking/test/comprehensive - 综合测试所有CRUD操作");
         System.out.println("GET  " + host + "/api/sql-marking/test/config - 测试配置功能");
         System.out.println("GET  " + host + "/api/sql-marking/test/exception-handling - 测试异常处理");
+        System.out.println("GET  " + host + "/api/sql-marking/test/n-plus-one - 测试N+1查询检测");
+        System.out.println("GET  " + host + "/api/sql-marking/test/profile - 测试数据库性能剖析");
+        System.out.println("GET  " + host + "/api/sql-marking/test/routing - 测试读写路由标记");
+        System.out.println("GET  " + host + "/api/sql-marking/test/shard-hint - 测试分片键提示");
+        System.out.println("GET  " + host + "/api/sql-marking/test/opentelemetry - 测试OpenTelemetry追踪上下文桥接");
+        System.out.println("GET  " + host + "/api/sql-marking/test/jdbc - 测试DataSource代理标记");
+        System.out.println("GET  " + host + "/api/sql-marking/test/row-guard - 测试查询返回行数上限");
+        System.out.println("GET  " + host + "/api/sql-marking/test/hot-key - 测试热点参数检测");
+        System.out.println("GET  " + host + "/api/sql-marking/test/context-cache - 测试上下文查询缓存");
+        System.out.println("GET  " + host + "/api/sql-marking/test/digest - 测试SQL摘要");
+        System.out.println("GET  " + host + "/api/sql-marking/test/explain - 测试慢SQL执行计划采集");
+        System.out.println("GET  " + host + "/api/sql-marking/test/batch-load - 测试单键查询合并");
+        System.out.println("GET  " + host + "/api/sql-marking/test/concurrency-limit - 测试自适应并发限制");
+        System.out.println("GET  " + host + "/api/sql-marking/test/accounting - 测试租户数据库耗时统计和配额");
+        System.out.println("GET  " + host + "/api/sql-marking/test/transaction-profile - 测试事务剖析和长事务检测");
+        System.out.println("GET  " + host + "/api/sql-marking/test/lock-conflict - 测试死锁和锁等待超时归因");
         System.out.println("GET  " + host + "/api/sql-marking/test/status - 获取拦截器状态");
         System.out.println("POST " + host + "/api/sql-marking/test/reset-count - 重置执行计数");
     }
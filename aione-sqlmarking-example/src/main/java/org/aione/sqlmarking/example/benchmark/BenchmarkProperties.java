@@ -0,0 +1,79 @@
+package org.aione.sqlmarking.example.benchmark;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 端到端压测配置
+ *
+ * @author Billy
+ */
+@Data
+@ConfigurationProperties(prefix = "benchmark")
+public class BenchmarkProperties {
+
+    /**
+     * 是否在启动后执行压测
+     */
+    private boolean enabled = false;
+
+    /**
+     * 并发线程数，默认为CPU核数
+     */
+    private int workers = Runtime.getRuntime().availableProcessors();
+
+    /**
+     * 每种模式的预热时长（秒），预热阶段不计入结果
+     */
+    private int warmupSeconds = 3;
+
+    /**
+     * 每种模式每轮的测量时长（秒）
+     */
+    private int durationSeconds = 10;
+
+    /**
+     * 测量轮数，各模式按轮次交替执行，结果合并
+     */
+    private int rounds = 3;
+
+    /**
+     * 压测前预置的用户数量
+     */
+    private int seedRows = 1000;
+
+    /**
+     * findByIds每次查询的ID数量
+     */
+    private int batchSize = 10;
+
+    /**
+     * 依次执行的模式，内置 off、simple、full、direct、features、datasource，也可以在modeProperties中自定义
+     */
+    private List<String> modes = Arrays.asList("off", "simple", "full", "direct", "features");
+
+    /**
+     * 自定义模式或覆盖内置模式，键为模式名，值为SqlMarkingConfig#loadFromProperties支持的配置项
+     */
+    private Map<String, Map<String, String>> modeProperties = new LinkedHashMap<>();
+
+    /**
+     * 操作权重，依次为 insert、select、update、delete、findByIds
+     */
+    private List<Integer> mix = Arrays.asList(15, 25, 20, 15, 25);
+
+    /**
+     * 结果追加写入的CSV文件，为空时只输出到控制台
+     */
+    private String outputFile;
+
+    /**
+     * 压测结束后是否退出应用
+     */
+    private boolean exitOnFinish = true;
+}
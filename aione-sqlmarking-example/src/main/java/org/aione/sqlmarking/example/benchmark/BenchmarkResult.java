@@ -0,0 +1,61 @@
+package org.aione.sqlmarking.example.benchmark;
+
+import lombok.Data;
+
+/**
+ * 单个模式的压测结果
+ *
+ * @author Billy
+ */
+@Data
+public class BenchmarkResult {
+
+    /**
+     * 模式名
+     */
+    private String mode;
+
+    /**
+     * 并发线程数
+     */
+    private int workers;
+
+    /**
+     * 测量时长（纳秒）
+     */
+    private long elapsedNanos;
+
+    /**
+     * 完成的操作数
+     */
+    private long operations;
+
+    /**
+     * 失败的操作数
+     */
+    private long errors;
+
+    /**
+     * 延迟分位数（微秒）
+     */
+    private double p50Micros;
+    private double p99Micros;
+    private double maxMicros;
+
+    /**
+     * 工作线程分配的字节数，JVM不支持线程分配统计时为-1
+     */
+    private long allocatedBytes;
+
+    public double getQps() {
+        return elapsedNanos > 0 ? operations * 1_000_000_000.0 / elapsedNanos : 0;
+    }
+
+    public double getAllocatedBytesPerOperation() {
+        return allocatedBytes >= 0 && operations > 0 ? (double) allocatedBytes / operations : -1;
+    }
+
+    public double getAllocationMegabytesPerSecond() {
+        return allocatedBytes >= 0 && elapsedNanos > 0 ? allocatedBytes * 1000.0 / elapsedNanos : -1;
+    }
+}
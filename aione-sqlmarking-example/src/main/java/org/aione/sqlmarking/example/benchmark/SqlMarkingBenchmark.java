@@ -0,0 +1,385 @@
+package org.aione.sqlmarking.example.benchmark;
+
+import lombok.extern.slf4j.Slf4j;
+import org.aione.sqlmarking.SqlMarkingContext;
+import org.aione.sqlmarking.SqlMarkingInterceptor;
+import org.aione.sqlmarking.example.entity.User;
+import org.aione.sqlmarking.example.service.UserService;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.boot.SpringApplication;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * 端到端吞吐量压测
+ * <p>
+ * 启动参数 --spring.profiles.active=benchmark 时在应用启动后执行：依次切换到每种模式，
+ * 多个线程按权重执行 insert、select、update、delete、findByIds 混合操作，
+ * 先逐个模式预热，再按轮次交替测量各模式并合并结果，输出QPS、延迟分位数和工作线程的内存分配速率，结束后退出应用。
+ * <p>
+ * 模式通过SqlMarkingInterceptor#reloadConfig切换，每种模式都在启动配置的基础上覆盖，互不影响：
+ * off 关闭插件；simple 简化格式；full 完整格式；direct 完整格式并直接装饰Executor（其他模式使用动态代理）；
+ * features 完整格式并启用读写路由、分片提示和优化器提示；
+ * datasource 完整格式并启用DataSource代理，需同时以 --mybatis.sql-marking.data-source-proxy-enabled=true 启动，
+ * 此时所有模式都经过代理，只有datasource模式在代理中检查SQL，差值即为代理识别已标记SQL的开销
+ *
+ * @author Billy
+ */
+@Slf4j
+@Component
+@ConditionalOnProperty(prefix = "benchmark", name = "enabled", havingValue = "true")
+@EnableConfigurationProperties(BenchmarkProperties.class)
+public class SqlMarkingBenchmark implements ApplicationRunner {
+
+    private static final String[] OPERATIONS = {"insert", "select", "update", "delete", "findByIds"};
+
+    private final UserService userService;
+    private final SqlMarkingInterceptor sqlMarkingInterceptor;
+    private final BenchmarkProperties properties;
+    private final ConfigurableApplicationContext applicationContext;
+
+    private List<Long> seedIds;
+
+    public SqlMarkingBenchmark(UserService userService, SqlMarkingInterceptor sqlMarkingInterceptor,
+                               BenchmarkProperties properties, ConfigurableApplicationContext applicationContext) {
+        this.userService = userService;
+        this.sqlMarkingInterceptor = sqlMarkingInterceptor;
+        this.properties = properties;
+        this.applicationContext = applicationContext;
+    }
+
+    @Override
+    public void run(ApplicationArguments args) throws Exception {
+        log.info("=== 开始SQL标记端到端压测 workers={}, warmup={}s, duration={}s, rounds={}, modes={} ===",
+                properties.getWorkers(), properties.getWarmupSeconds(), properties.getDurationSeconds(),
+                properties.getRounds(), properties.getModes());
+
+        seedIds = seed(properties.getSeedRows());
+        Properties baseline = sqlMarkingInterceptor.getConfig().toProperties();
+
+        // 各模式交替执行多轮后合并，避免JIT预热、表数据增长等随时间变化的因素偏向某个模式
+        Map<String, BenchmarkResult> results = new LinkedHashMap<>();
+        Map<String, List<long[]>> latencies = new HashMap<>();
+        try {
+            for (String mode : properties.getModes()) {
+                switchMode(baseline, mode);
+                runPhase(mode, properties.getWarmupSeconds(), null, null);
+            }
+            for (int round = 1; round <= properties.getRounds(); round++) {
+                for (String mode : properties.getModes()) {
+                    switchMode(baseline, mode);
+                    System.gc();
+                    BenchmarkResult result = results.computeIfAbsent(mode, key -> new BenchmarkResult());
+                    runPhase(mode, properties.getDurationSeconds(), result,
+                            latencies.computeIfAbsent(mode, key -> new ArrayList<>()));
+                }
+                log.info("第 {}/{} 轮完成", round, properties.getRounds());
+            }
+        } finally {
+            sqlMarkingInterceptor.reloadConfig(baseline);
+        }
+        results.forEach((mode, result) -> summarize(result, latencies.get(mode)));
+
+        String report = formatReport(results.values());
+        System.out.println(report);
+        if (properties.getOutputFile() != null && !properties.getOutputFile().isEmpty()) {
+            writeCsv(Paths.get(properties.getOutputFile()), results.values());
+        }
+        log.info("=== SQL标记端到端压测结束 ===");
+
+        if (properties.isExitOnFinish()) {
+            System.exit(SpringApplication.exit(applicationContext));
+        }
+    }
+
+    /**
+     * 在启动配置的基础上应用模式配置
+     */
+    private void switchMode(Properties baseline, String mode) {
+        Properties modeConfig = new Properties();
+        modeConfig.putAll(baseline);
+        modeConfig.putAll(modeProperties(mode));
+        sqlMarkingInterceptor.reloadConfig(modeConfig);
+    }
+
+    /**
+     * 获取模式对应的配置项
+     */
+    private Map<String, String> modeProperties(String mode) {
+        Map<String, String> custom = properties.getModeProperties().get(mode);
+        if (custom != null) {
+            return custom;
+        }
+        boolean features = "features".equals(mode);
+        boolean dataSource = "datasource".equals(mode);
+        boolean direct = "direct".equals(mode);
+        if (!"off".equals(mode) && !"simple".equals(mode) && !"full".equals(mode) && !features && !dataSource && !direct) {
+            throw new IllegalArgumentException("未知的压测模式: " + mode + "，请在benchmark.mode-properties中定义");
+        }
+        Map<String, String> values = new HashMap<>();
+        values.put("enabled", String.valueOf(!"off".equals(mode)));
+        values.put("includeFullInfo", String.valueOf(!"simple".equals(mode)));
+        values.put("routeEnabled", String.valueOf(features));
+        values.put("shardHintEnabled", String.valueOf(features));
+        values.put("shardHintTemplate", features ? "/* SHARDINGSPHERE_HINT: SHARDING_DATABASE_VALUE={value} */" : "");
+        values.put("optimizerHints", features ? "*.UserMapper.findByIds=MAX_EXECUTION_TIME(1000)" : "");
+        values.put("dataSourceProxyEnabled", String.valueOf(dataSource));
+        values.put("interceptMode", direct ? "direct" : "proxy");
+        return values;
+    }
+
+    /**
+     * 预置数据，select、update、findByIds从这些ID中随机选取
+     */
+    private List<Long> seed(int rows) {
+        List<Long> ids = new ArrayList<>(rows);
+        for (int i = 0; i < rows; i++) {
+            User user = new User("bench-seed-" + i, "bench-seed-" + i + "@bench.test", 20 + i % 40);
+            userService.save(user);
+            ids.add(user.getId());
+        }
+        return ids;
+    }
+
+    /**
+     * 执行一个阶段，所有线程同时开始，到达时长后停止
+     *
+     * @param result    累加本阶段结果，预热阶段为null
+     * @param latencies 收集本阶段各线程的延迟，预热阶段为null
+     */
+    private void runPhase(String mode, int seconds, BenchmarkResult result, List<long[]> latencies)
+            throws InterruptedException {
+        int workers = properties.getWorkers();
+        Worker[] tasks = new Worker[workers];
+        Thread[] threads = new Thread[workers];
+        CountDownLatch ready = new CountDownLatch(workers);
+        CountDownLatch start = new CountDownLatch(1);
+        for (int i = 0; i < workers; i++) {
+            tasks[i] = new Worker(i, ready, start);
+            threads[i] = new Thread(tasks[i], "benchmark-" + mode + "-" + i);
+            threads[i].start();
+        }
+        ready.await();
+        long startNanos = System.nanoTime();
+        long deadline = startNanos + seconds * 1_000_000_000L;
+        for (Worker task : tasks) {
+            task.deadline = deadline;
+        }
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        long elapsedNanos = System.nanoTime() - startNanos;
+        if (result == null) {
+            return;
+        }
+
+        result.setMode(mode);
+        result.setWorkers(workers);
+        result.setElapsedNanos(result.getElapsedNanos() + elapsedNanos);
+        for (Worker task : tasks) {
+            result.setOperations(result.getOperations() + task.count);
+            result.setErrors(result.getErrors() + task.errors);
+            result.setAllocatedBytes(task.allocatedBytes < 0 || result.getAllocatedBytes() < 0
+                    ? -1 : result.getAllocatedBytes() + task.allocatedBytes);
+            latencies.add(Arrays.copyOf(task.latencies, task.count));
+        }
+    }
+
+    /**
+     * 合并各轮延迟并计算分位数
+     */
+    private void summarize(BenchmarkResult result, List<long[]> latencies) {
+        int total = latencies.stream().mapToInt(values -> values.length).sum();
+        long[] merged = new long[total];
+        int offset = 0;
+        for (long[] values : latencies) {
+            System.arraycopy(values, 0, merged, offset, values.length);
+            offset += values.length;
+        }
+        Arrays.sort(merged);
+        if (total > 0) {
+            result.setP50Micros(merged[(int) (total * 0.50)] / 1000.0);
+            result.setP99Micros(merged[Math.min(total - 1, (int) (total * 0.99))] / 1000.0);
+            result.setMaxMicros(merged[total - 1] / 1000.0);
+        }
+    }
+
+    private String formatReport(Collection<BenchmarkResult> results) {
+        StringBuilder report = new StringBuilder();
+        report.append("=== SQL标记端到端压测结果 ===\n");
+        report.append(String.format("%-10s %8s %10s %10s %10s %10s %10s %12s %12s %10s%n",
+                "mode", "workers", "ops", "errors", "qps", "p50(us)", "p99(us)", "alloc(B/op)", "alloc(MB/s)", "qps-diff"));
+        double baseQps = results.stream().filter(r -> "off".equals(r.getMode()))
+                .mapToDouble(BenchmarkResult::getQps).findFirst().orElse(0);
+        for (BenchmarkResult r : results) {
+            String diff = baseQps > 0 ? String.format("%+.1f%%", (r.getQps() / baseQps - 1) * 100) : "-";
+            report.append(String.format("%-10s %8d %10d %10d %10.0f %10.1f %10.1f %12.0f %12.1f %10s%n",
+                    r.getMode(), r.getWorkers(), r.getOperations(), r.getErrors(), r.getQps(), r.getP50Micros(),
+                    r.getP99Micros(), r.getAllocatedBytesPerOperation(), r.getAllocationMegabytesPerSecond(), diff));
+        }
+        return report.toString();
+    }
+
+    private void writeCsv(Path file, Collection<BenchmarkResult> results) throws IOException {
+        List<String> lines = new ArrayList<>();
+        if (!Files.exists(file)) {
+            if (file.getParent() != null) {
+                Files.createDirectories(file.getParent());
+            }
+            lines.add("time,mode,workers,rounds,durationSeconds,operations,errors,qps,p50Micros,p99Micros,maxMicros,allocBytesPerOp,allocMBps");
+        }
+        String time = LocalDateTime.now().withNano(0).toString();
+        for (BenchmarkResult r : results) {
+            lines.add(String.format("%s,%s,%d,%d,%d,%d,%d,%.0f,%.1f,%.1f,%.1f,%.0f,%.1f", time, r.getMode(), r.getWorkers(),
+                    properties.getRounds(), properties.getDurationSeconds(), r.getOperations(), r.getErrors(), r.getQps(), r.getP50Micros(),
+                    r.getP99Micros(), r.getMaxMicros(), r.getAllocatedBytesPerOperation(), r.getAllocationMegabytesPerSecond()));
+        }
+        Files.write(file, lines, StandardCharsets.UTF_8, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+        log.info("压测结果已写入: {}", file.toAbsolutePath());
+    }
+
+    /**
+     * 压测线程，每个操作模拟一次请求：创建上下文、执行SQL、清除上下文
+     */
+    private final class Worker implements Runnable {
+
+        private final int index;
+        private final CountDownLatch ready;
+        private final CountDownLatch start;
+        private final ArrayDeque<Long> insertedIds = new ArrayDeque<>();
+        private final int[] cumulativeWeights;
+
+        private volatile long deadline;
+        private long[] latencies = new long[1 << 16];
+        private int count;
+        private long errors;
+        private long allocatedBytes;
+        private long sequence;
+
+        Worker(int index, CountDownLatch ready, CountDownLatch start) {
+            this.index = index;
+            this.ready = ready;
+            this.start = start;
+            List<Integer> mix = properties.getMix();
+            this.cumulativeWeights = new int[OPERATIONS.length];
+            int sum = 0;
+            for (int i = 0; i < OPERATIONS.length; i++) {
+                sum += i < mix.size() ? mix.get(i) : 0;
+                cumulativeWeights[i] = sum;
+            }
+        }
+
+        @Override
+        public void run() {
+            ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+            com.sun.management.ThreadMXBean allocationBean = threadMXBean instanceof com.sun.management.ThreadMXBean
+                    && ((com.sun.management.ThreadMXBean) threadMXBean).isThreadAllocatedMemorySupported()
+                    ? (com.sun.management.ThreadMXBean) threadMXBean : null;
+            long threadId = Thread.currentThread().getId();
+
+            ready.countDown();
+            try {
+                start.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+
+            long allocatedBefore = allocationBean != null ? allocationBean.getThreadAllocatedBytes(threadId) : -1;
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            long now = System.nanoTime();
+            while (now < deadline) {
+                int pick = random.nextInt(cumulativeWeights[cumulativeWeights.length - 1]);
+                int operation = 0;
+                while (pick >= cumulativeWeights[operation]) {
+                    operation++;
+                }
+
+                SqlMarkingContext.create("bench-user-" + index);
+                try {
+                    execute(operation, random);
+                } catch (Exception e) {
+                    errors++;
+                    if (errors == 1) {
+                        log.warn("压测操作失败 operation={}: {}", OPERATIONS[operation], e.getMessage());
+                    }
+                } finally {
+                    SqlMarkingContext.clearCurrentContext();
+                }
+
+                long end = System.nanoTime();
+                if (count == latencies.length) {
+                    latencies = Arrays.copyOf(latencies, count * 2);
+                }
+                latencies[count++] = end - now;
+                now = end;
+            }
+            allocatedBytes = allocationBean != null ? allocationBean.getThreadAllocatedBytes(threadId) - allocatedBefore : -1;
+        }
+
+        private void execute(int operation, ThreadLocalRandom random) {
+            switch (operation) {
+                case 0:
+                    insert(random);
+                    break;
+                case 1:
+                    userService.getById(randomSeedId(random));
+                    break;
+                case 2:
+                    userService.updateStatus(randomSeedId(random), random.nextBoolean() ? "ACTIVE" : "INACTIVE");
+                    break;
+                case 3:
+                    Long id = insertedIds.poll();
+                    if (id != null) {
+                        userService.removeById(id);
+                    } else {
+                        insert(random);
+                    }
+                    break;
+                default:
+                    List<Long> ids = new ArrayList<>(properties.getBatchSize());
+                    for (int i = 0; i < properties.getBatchSize(); i++) {
+                        ids.add(randomSeedId(random));
+                    }
+                    userService.findByIds(ids);
+                    break;
+            }
+        }
+
+        private void insert(ThreadLocalRandom random) {
+            String name = "bench-" + index + "-" + (sequence++) + "-" + System.nanoTime();
+            User user = new User(name, name + "@bench.test", 20 + random.nextInt(40));
+            userService.save(user);
+            insertedIds.add(user.getId());
+        }
+
+        private Long randomSeedId(ThreadLocalRandom random) {
+            return seedIds.get(random.nextInt(seedIds.size()));
+        }
+    }
+}
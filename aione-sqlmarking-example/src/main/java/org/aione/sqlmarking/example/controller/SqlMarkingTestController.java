@@ -1,21 +1,39 @@
 package org.aione.sqlmarking.example.controller;
 
 import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
+import io.opentelemetry.api.trace.Span;
+import io.opentelemetry.api.trace.Tracer;
+import io.opentelemetry.context.Scope;
+import io.opentelemetry.sdk.trace.SdkTracerProvider;
 import lombok.extern.slf4j.Slf4j;
+import org.aione.sqlmarking.SqlBatchLoader;
+import org.aione.sqlmarking.SqlDigest;
+import org.aione.sqlmarking.SqlHotKeyDetector;
 import org.aione.sqlmarking.SqlMarkingConfig;
 import org.aione.sqlmarking.SqlMarkingContext;
 import org.aione.sqlmarking.SqlMarkingInterceptor;
+import org.aione.sqlmarking.SqlMarkingProfile;
+import org.aione.sqlmarking.SqlMarkingRejectedException;
+import org.aione.sqlmarking.SqlTransactionTracker;
 import org.aione.sqlmarking.example.entity.User;
+import org.aione.sqlmarking.example.mapper.UserMapper;
 import org.aione.sqlmarking.example.service.UserService;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.support.TransactionTemplate;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RestController;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Properties;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.CyclicBarrier;
 import java.util.stream.Collectors;
 
 /**
@@ -35,6 +53,17 @@ public class SqlMarkingTestController {
     @Autowired
     private SqlMarkingInterceptor sqlMarkingInterceptor;
 
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+
+    /**
+     * 演示用Tracer，实际项目中通常由OpenTelemetry Java Agent或SDK自动配置提供
+     */
+    private static final Tracer TRACER = SdkTracerProvider.builder().build().get("aione-sqlmarking-example");
+
     /**
      * 测试INSERT操作的SQL标记功能
      */
@@ -368,6 +397,7 @@ public class SqlMarkingTestController {
             // 测试禁用特定操作的标记
             boolean originalSelectSetting = config.isMarkSelect();
             config.setMarkSelect(false);
+            sqlMarkingInterceptor.refreshConfig();
 
             long beforeCount = sqlMarkingInterceptor.getExecutionCount();
 
@@ -380,6 +410,7 @@ public class SqlMarkingTestController {
 
             // 恢复配置
             config.setMarkSelect(originalSelectSetting);
+            sqlMarkingInterceptor.refreshConfig();
 
             // 再次执行SELECT操作，应该触发标记
             users = userService.list();
@@ -543,12 +574,14 @@ public class SqlMarkingTestController {
             boolean originalEnabled = config.isEnabled();
 
             config.setEnabled(false);
+            sqlMarkingInterceptor.refreshConfig();
             List<User> users3 = userService.list();
             result.put("disabledConfigTest", users3 != null);
             result.put("disabledConfigUserCount", users3.size());
 
             // 恢复配置
             config.setEnabled(originalEnabled);
+            sqlMarkingInterceptor.refreshConfig();
 
             result.put("success", true);
             result.put("message", "SQL标记异常处理测试完成");
@@ -565,6 +598,852 @@ public class SqlMarkingTestController {
         return result;
     }
 
+    /**
+     * 测试N+1查询检测：在同一上下文中循环按邮箱查询
+     */
+    @GetMapping("/n-plus-one")
+    public Map<String, Object> testNPlusOneDetection() {
+        log.info("=== 开始测试N+1查询检测 ===");
+
+        Map<String, Object> result = new HashMap<>();
+
+        SqlMarkingContext context = SqlMarkingContext.create("test_user_n_plus_one");
+
+        try {
+            SqlMarkingConfig config = sqlMarkingInterceptor.getConfig();
+            long beforeDetected = sqlMarkingInterceptor.getNPlusOneDetectedCount();
+
+            // 循环次数超过阈值，模拟逐条查询
+            int loops = config.getRepeatedQueryThreshold() + 1;
+            for (int i = 0; i < loops; i++) {
+                userService.findByEmail("zhangsan@test.com");
+            }
+
+            long afterDetected = sqlMarkingInterceptor.getNPlusOneDetectedCount();
+            result.put("detectEnabled", config.isRepeatedQueryDetectEnabled());
+            result.put("threshold", config.getRepeatedQueryThreshold());
+            result.put("loops", loops);
+            result.put("detected", afterDetected > beforeDetected);
+            result.put("statementCounts", context.getStatementCounts().toString());
+
+            result.put("success", true);
+            result.put("message", "N+1查询检测测试完成");
+
+            log.info("N+1查询检测测试结果: {}", result);
+
+        } catch (Exception e) {
+            log.error("N+1查询检测测试异常", e);
+            result.put("success", false);
+            result.put("error", e.getMessage());
+        } finally {
+            SqlMarkingContext.clearCurrentContext();
+        }
+
+        log.info("=== N+1查询检测测试结束 ===");
+        return result;
+    }
+
+    /**
+     * 测试读写路由标记，日志中Preparing行的rw字段依次为 r、r、w、w（写后读粘滞）
+     */
+    @GetMapping("/routing")
+    public Map<String, Object> testRouting() {
+        log.info("=== 开始测试读写路由标记 ===");
+
+        Map<String, Object> result = new HashMap<>();
+
+        SqlMarkingContext context = SqlMarkingContext.create("test_user_routing");
+
+        try {
+            // 读操作，路由到从库
+            List<User> users = userService.list();
+            result.put("readUserCount", users.size());
+            List<Long> ids = users.stream().limit(3).map(User::getId).collect(Collectors.toList());
+            result.put("findByIdsCount", ids.isEmpty() ? 0 : userService.findByIds(ids).size());
+            result.put("writeOccurredBeforeUpdate", context.isWriteOccurred());
+
+            // 写操作，路由到主库
+            if (!users.isEmpty()) {
+                userService.updateStatus(users.get(0).getId(), users.get(0).getStatus());
+            }
+            result.put("writeOccurredAfterUpdate", context.isWriteOccurred());
+
+            // 写后读，同一上下文中继续路由到主库
+            result.put("readAfterWriteUserCount", userService.list().size());
+
+            result.put("routeEnabled", sqlMarkingInterceptor.getConfig().isRouteEnabled());
+            result.put("success", true);
+            result.put("message", "读写路由标记测试完成");
+
+            log.info("读写路由标记测试结果: {}", result);
+
+        } catch (Exception e) {
+            log.error("读写路由标记测试异常", e);
+            result.put("success", false);
+            result.put("error", e.getMessage());
+        } finally {
+            SqlMarkingContext.clearCurrentContext();
+        }
+
+        log.info("=== 读写路由标记测试结束 ===");
+        return result;
+    }
+
+    /**
+     * 测试分片键提示，日志中Preparing行依次带有 shard=1001、shard=test_user_shard，
+     * 最后一条SQL的userId包含不安全字符，不追加分片提示
+     */
+    @GetMapping("/shard-hint")
+    public Map<String, Object> testShardHint() {
+        log.info("=== 开始测试分片键提示 ===");
+
+        Map<String, Object> result = new HashMap<>();
+
+        SqlMarkingContext context = SqlMarkingContext.create("test_user_shard");
+
+        try {
+            // 上下文中显式设置的分片键优先
+            context.setShardKey("1001");
+            result.put("explicitShardKeyUserCount", userService.list().size());
+
+            // 未设置分片键时使用userId
+            context.setShardKey(null);
+            result.put("userIdShardKeyUserCount", userService.list().size());
+
+            // 包含注释结束符等不安全字符时不追加分片提示
+            context.setUserId("bad */ value");
+            result.put("unsafeShardKeyUserCount", userService.list().size());
+
+            result.put("shardHintEnabled", sqlMarkingInterceptor.getConfig().isShardHintEnabled());
+            result.put("shardHintTemplate", sqlMarkingInterceptor.getConfig().getShardHintTemplate());
+            result.put("success", true);
+            result.put("message", "分片键提示测试完成");
+
+            log.info("分片键提示测试结果: {}", result);
+
+        } catch (Exception e) {
+            log.error("分片键提示测试异常", e);
+            result.put("success", false);
+            result.put("error", e.getMessage());
+        } finally {
+            SqlMarkingContext.clearCurrentContext();
+        }
+
+        log.info("=== 分片键提示测试结束 ===");
+        return result;
+    }
+
+    /**
+     * 测试查询返回行数统计和上限检查，临时将上限改为3行，
+     * warn模式下返回全部结果并输出带标记信息的告警，reject模式下抛出SqlMarkingRejectedException
+     */
+    @GetMapping("/row-guard")
+    public Map<String, Object> testRowGuard() {
+        log.info("=== 开始测试查询返回行数上限 ===");
+
+        Map<String, Object> result = new HashMap<>();
+
+        SqlMarkingConfig config = sqlMarkingInterceptor.getConfig();
+        Properties original = new Properties();
+        original.setProperty("maxRows", String.valueOf(config.getMaxRows()));
+        original.setProperty("maxRowsAction", config.getMaxRowsAction());
+        SqlMarkingContext.create("test_user_row_guard");
+
+        try {
+            Properties limit = new Properties();
+            limit.setProperty("maxRows", "3");
+            limit.setProperty("maxRowsAction", "warn");
+            sqlMarkingInterceptor.reloadConfig(limit);
+            result.put("warnModeUserCount", userService.findByAgeRange(0, 100).size());
+
+            limit.setProperty("maxRowsAction", "reject");
+            sqlMarkingInterceptor.reloadConfig(limit);
+            try {
+                userService.findByAgeRange(0, 100);
+                result.put("rejected", false);
+            } catch (Exception e) {
+                result.put("rejected", e.getCause() instanceof SqlMarkingRejectedException);
+                result.put("rejectMessage", e.getCause() != null ? e.getCause().getMessage() : e.getMessage());
+            }
+
+            // 未超过上限的查询不受影响
+            result.put("boundedUserCount", userService.findByAgeRange(25, 26).size());
+
+            result.put("exceededCount", sqlMarkingInterceptor.getRowCountTracker().getExceededCount());
+            result.put("rowCounts", sqlMarkingInterceptor.getRowCountTracker().snapshot());
+            result.put("success", true);
+            result.put("message", "查询返回行数上限测试完成");
+
+            log.info("查询返回行数上限测试结果: {}", result);
+
+        } catch (Exception e) {
+            log.error("查询返回行数上限测试异常", e);
+            result.put("success", false);
+            result.put("error", e.getMessage());
+        } finally {
+            sqlMarkingInterceptor.reloadConfig(original);
+            SqlMarkingContext.clearCurrentContext();
+        }
+
+        log.info("=== 查询返回行数上限测试结束 ===");
+        return result;
+    }
+
+    /**
+     * 测试热点参数检测，按8:2的比例查询一个热点邮箱和其他邮箱，
+     * 热点列表中的指纹与按已知邮箱计算的指纹一致，统计中不保存邮箱原值
+     */
+    @GetMapping("/hot-key")
+    public Map<String, Object> testHotKey() {
+        log.info("=== 开始测试热点参数检测 ===");
+
+        Map<String, Object> result = new HashMap<>();
+
+        try {
+            String[] emails = {"lisi@test.com", "wangwu@test.com", "zhaoliu@test.com", "test1@example.com"};
+            for (int i = 0; i < 100; i++) {
+                userService.findByEmail(i % 5 != 0 ? "zhangsan@test.com" : emails[i / 5 % emails.length]);
+            }
+
+            String statementId = UserMapper.class.getName() + ".findByEmail";
+            result.put("expectedFingerprint",
+                    Long.toHexString(SqlHotKeyDetector.fingerprint(statementId, "zhangsan@test.com")));
+            result.put("hotKeys", sqlMarkingInterceptor.getHotKeys());
+            result.put("sampledCount", sqlMarkingInterceptor.getHotKeySampledCount());
+            result.put("success", true);
+            result.put("message", "热点参数检测测试完成");
+
+            log.info("热点参数检测测试结果: {}", result);
+
+        } catch (Exception e) {
+            log.error("热点参数检测测试异常", e);
+            result.put("success", false);
+            result.put("error", e.getMessage());
+        }
+
+        log.info("=== 热点参数检测测试结束 ===");
+        return result;
+    }
+
+    /**
+     * 测试上下文查询缓存，同一上下文中重复的查询命中缓存不再执行SQL，
+     * 更新后缓存失效，再次查询读取到更新后的状态
+     */
+    @GetMapping("/context-cache")
+    public Map<String, Object> testContextCache() {
+        log.info("=== 开始测试上下文查询缓存 ===");
+
+        Map<String, Object> result = new HashMap<>();
+
+        Properties original = new Properties();
+        original.setProperty("contextQueryCacheEnabled",
+                String.valueOf(sqlMarkingInterceptor.getConfig().isContextQueryCacheEnabled()));
+        SqlMarkingContext context = SqlMarkingContext.create("test_user_context_cache");
+
+        try {
+            Properties enable = new Properties();
+            enable.setProperty("contextQueryCacheEnabled", "true");
+            sqlMarkingInterceptor.reloadConfig(enable);
+
+            long hitsBefore = sqlMarkingInterceptor.getContextCacheHitCount();
+            User user = userService.findByEmail("zhangsan@test.com");
+            for (int i = 0; i < 3; i++) {
+                userService.findByEmail("zhangsan@test.com");
+            }
+            result.put("cacheHits", sqlMarkingInterceptor.getContextCacheHitCount() - hitsBefore);
+            result.put("cachedQueries", context.getQueryCacheSize());
+
+            String originalStatus = user.getStatus();
+            userService.updateStatus(user.getId(), "INACTIVE");
+            result.put("cachedQueriesAfterUpdate", context.getQueryCacheSize());
+            result.put("statusAfterUpdate", userService.findByEmail("zhangsan@test.com").getStatus());
+            userService.updateStatus(user.getId(), originalStatus);
+
+            result.put("success", true);
+            result.put("message", "上下文查询缓存测试完成");
+
+            log.info("上下文查询缓存测试结果: {}", result);
+
+        } catch (Exception e) {
+            log.error("上下文查询缓存测试异常", e);
+            result.put("success", false);
+            result.put("error", e.getMessage());
+        } finally {
+            sqlMarkingInterceptor.reloadConfig(original);
+            SqlMarkingContext.clearCurrentContext();
+        }
+
+        log.info("=== 上下文查询缓存测试结束 ===");
+        return result;
+    }
+
+    /**
+     * 测试SQL摘要，IN列表长度不同的findByIds和拼接了字面量的JdbcTemplate查询在日志中带有相同的dg字段
+     */
+    @GetMapping("/digest")
+    public Map<String, Object> testDigest() {
+        log.info("=== 开始测试SQL摘要 ===");
+
+        Map<String, Object> result = new HashMap<>();
+
+        SqlMarkingContext.create("test_user_digest");
+
+        try {
+            result.put("oneId", userService.findByIds(Arrays.asList(1L)).size());
+            result.put("threeIds", userService.findByIds(Arrays.asList(1L, 2L, 3L)).size());
+            String literalSql = "SELECT * FROM test_user WHERE id IN (1, 2, 3, 4, 5)";
+            result.put("jdbcFiveIds", jdbcTemplate.queryForList(literalSql).size());
+
+            int maxLength = sqlMarkingInterceptor.getConfig().getDigestMaxLength();
+            result.put("normalizedSql", SqlDigest.normalize(literalSql, maxLength));
+            result.put("digest", SqlDigest.digestHex(literalSql, maxLength));
+            result.put("success", true);
+            result.put("message", "SQL摘要测试完成");
+
+            log.info("SQL摘要测试结果: {}", result);
+
+        } catch (Exception e) {
+            log.error("SQL摘要测试异常", e);
+            result.put("success", false);
+            result.put("error", e.getMessage());
+        } finally {
+            SqlMarkingContext.clearCurrentContext();
+        }
+
+        log.info("=== SQL摘要测试结束 ===");
+        return result;
+    }
+
+    /**
+     * 测试慢SQL执行计划采集，临时将阈值改为0使每次查询都超过阈值，
+     * 在name列上创建索引前后各执行一次findByName，第二次采集的执行计划标记为planChanged
+     */
+    @GetMapping("/explain")
+    public Map<String, Object> testExplain() {
+        log.info("=== 开始测试慢SQL执行计划采集 ===");
+
+        Map<String, Object> result = new HashMap<>();
+
+        SqlMarkingConfig config = sqlMarkingInterceptor.getConfig();
+        Properties original = new Properties();
+        original.setProperty("explainEnabled", String.valueOf(config.isExplainEnabled()));
+        original.setProperty("explainThresholdMillis", String.valueOf(config.getExplainThresholdMillis()));
+        original.setProperty("explainMinIntervalSeconds", String.valueOf(config.getExplainMinIntervalSeconds()));
+        SqlMarkingContext.create("test_user_explain");
+
+        try {
+            Properties explain = new Properties();
+            explain.setProperty("explainEnabled", "true");
+            explain.setProperty("explainThresholdMillis", "0");
+            explain.setProperty("explainMinIntervalSeconds", "0");
+            sqlMarkingInterceptor.reloadConfig(explain);
+
+            userService.findByName("张三");
+            awaitExplain(1);
+            jdbcTemplate.execute("CREATE INDEX idx_test_user_name ON test_user(name)");
+            try {
+                userService.findByName("张三");
+                awaitExplain(2);
+            } finally {
+                jdbcTemplate.execute("DROP INDEX idx_test_user_name");
+            }
+
+            result.put("explains", sqlMarkingInterceptor.getExplainResults()
+                    .get(UserMapper.class.getName() + ".findByName"));
+            result.put("success", true);
+            result.put("message", "慢SQL执行计划采集测试完成");
+
+            log.info("慢SQL执行计划采集测试结果: {}", result);
+
+        } catch (Exception e) {
+            log.error("慢SQL执行计划采集测试异常", e);
+            result.put("success", false);
+            result.put("error", e.getMessage());
+        } finally {
+            sqlMarkingInterceptor.reloadConfig(original);
+            SqlMarkingContext.clearCurrentContext();
+        }
+
+        log.info("=== 慢SQL执行计划采集测试结束 ===");
+        return result;
+    }
+
+    /**
+     * 等待后台线程完成指定次数的执行计划采集，最多等待2秒
+     */
+    private void awaitExplain(long count) throws InterruptedException {
+        for (int i = 0; i < 100 && sqlMarkingInterceptor.getExplainCapture().getCapturedCount() < count; i++) {
+            Thread.sleep(20);
+        }
+    }
+
+    /**
+     * 测试单键查询合并，5个线程以不同的userId同时按id加载用户，合并为一次findByIds，
+     * 日志中这条IN查询的标记带有 batch=5/5 和 batchUsers
+     */
+    @GetMapping("/batch-load")
+    public Map<String, Object> testBatchLoad() {
+        log.info("=== 开始测试单键查询合并 ===");
+
+        Map<String, Object> result = new HashMap<>();
+
+        SqlMarkingConfig config = sqlMarkingInterceptor.getConfig();
+        Properties original = new Properties();
+        original.setProperty("batchLoadEnabled", String.valueOf(config.isBatchLoadEnabled()));
+        original.setProperty("batchLoadWindowMillis", String.valueOf(config.getBatchLoadWindowMillis()));
+
+        try {
+            Properties batch = new Properties();
+            batch.setProperty("batchLoadEnabled", "true");
+            // 演示中放宽窗口，保证5个线程都能进入同一批
+            batch.setProperty("batchLoadWindowMillis", "50");
+            sqlMarkingInterceptor.reloadConfig(batch);
+
+            SqlBatchLoader<Long, User> loader = sqlMarkingInterceptor.newBatchLoader("userById",
+                    userService::findByIds, User::getId);
+            Map<String, Object> loaded = new ConcurrentHashMap<>();
+            CountDownLatch start = new CountDownLatch(1);
+            List<Thread> threads = new ArrayList<>();
+            for (long id = 1; id <= 5; id++) {
+                long userId = id;
+                Thread thread = new Thread(() -> {
+                    SqlMarkingContext.create("test_user_batch_" + userId);
+                    try {
+                        start.await();
+                        User user = loader.load(userId);
+                        loaded.put(String.valueOf(userId), user != null ? user.getName() : "null");
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    } finally {
+                        SqlMarkingContext.clearCurrentContext();
+                    }
+                }, "batch-load-" + id);
+                thread.start();
+                threads.add(thread);
+            }
+            start.countDown();
+            for (Thread thread : threads) {
+                thread.join();
+            }
+
+            result.put("loaded", loaded);
+            result.put("requestCount", loader.getRequestCount());
+            result.put("queryCount", loader.getQueryCount());
+            result.put("success", true);
+            result.put("message", "单键查询合并测试完成");
+
+            log.info("单键查询合并测试结果: {}", result);
+
+        } catch (Exception e) {
+            log.error("单键查询合并测试异常", e);
+            result.put("success", false);
+            result.put("error", e.getMessage());
+        } finally {
+            sqlMarkingInterceptor.reloadConfig(original);
+        }
+
+        log.info("=== 单键查询合并测试结束 ===");
+        return result;
+    }
+
+    /**
+     * 测试自适应并发限制，将selectList的并发上限固定为2且不等待，5个线程同时执行耗时200ms的报表查询，
+     * 超出上限的3个被拒绝，期间其他statementId的查询不受影响
+     */
+    @GetMapping("/concurrency-limit")
+    public Map<String, Object> testConcurrencyLimit() {
+        log.info("=== 开始测试自适应并发限制 ===");
+
+        Map<String, Object> result = new HashMap<>();
+
+        SqlMarkingConfig config = sqlMarkingInterceptor.getConfig();
+        Properties original = new Properties();
+        original.setProperty("concurrencyLimitEnabled", String.valueOf(config.isConcurrencyLimitEnabled()));
+        original.setProperty("concurrencyLimitInitial", String.valueOf(config.getConcurrencyLimitInitial()));
+        original.setProperty("concurrencyLimitMin", String.valueOf(config.getConcurrencyLimitMin()));
+        original.setProperty("concurrencyLimitMax", String.valueOf(config.getConcurrencyLimitMax()));
+        original.setProperty("concurrencyLimitQueueMillis", String.valueOf(config.getConcurrencyLimitQueueMillis()));
+
+        try {
+            Properties limit = new Properties();
+            limit.setProperty("concurrencyLimitEnabled", "true");
+            limit.setProperty("concurrencyLimitInitial", "2");
+            limit.setProperty("concurrencyLimitMin", "2");
+            limit.setProperty("concurrencyLimitMax", "2");
+            limit.setProperty("concurrencyLimitQueueMillis", "0");
+            sqlMarkingInterceptor.reloadConfig(limit);
+            sqlMarkingInterceptor.getConcurrencyLimiter().reset();
+            jdbcTemplate.execute("CREATE ALIAS IF NOT EXISTS TEST_SLEEP FOR \""
+                    + SqlMarkingTestController.class.getName() + ".sleepMillis\"");
+
+            Map<String, Object> reports = new ConcurrentHashMap<>();
+            CountDownLatch start = new CountDownLatch(1);
+            List<Thread> threads = new ArrayList<>();
+            for (int i = 1; i <= 5; i++) {
+                String name = "report_" + i;
+                Thread thread = new Thread(() -> {
+                    SqlMarkingContext.create("test_user_" + name);
+                    try {
+                        start.await();
+                        reports.put(name, userService.list(new QueryWrapper<User>().apply("TEST_SLEEP(200) = 0")).size());
+                    } catch (Exception e) {
+                        // Spring将SqlMarkingRejectedException转换为MyBatisSystemException
+                        reports.put(name, e.getCause() instanceof SqlMarkingRejectedException ? "rejected" : e.getMessage());
+                    } finally {
+                        SqlMarkingContext.clearCurrentContext();
+                    }
+                }, "concurrency-" + i);
+                thread.start();
+                threads.add(thread);
+            }
+            start.countDown();
+            Thread.sleep(50);
+            // 报表查询占满上限时，其他statementId仍可执行
+            result.put("otherStatementUsers", userService.findByIds(Arrays.asList(1L, 2L)).size());
+            for (Thread thread : threads) {
+                thread.join();
+            }
+
+            result.put("reports", reports);
+            result.put("limits", sqlMarkingInterceptor.getConcurrencyLimiter().snapshot());
+            result.put("success", true);
+            result.put("message", "自适应并发限制测试完成");
+
+            log.info("自适应并发限制测试结果: {}", result);
+
+        } catch (Exception e) {
+            log.error("自适应并发限制测试异常", e);
+            result.put("success", false);
+            result.put("error", e.getMessage());
+        } finally {
+            sqlMarkingInterceptor.reloadConfig(original);
+            sqlMarkingInterceptor.getConcurrencyLimiter().reset();
+        }
+
+        log.info("=== 自适应并发限制测试结束 ===");
+        return result;
+    }
+
+    /**
+     * 测试按租户的数据库耗时统计和配额，以自定义信息tenantId为统计标识，
+     * tenant_noisy每秒只有100ms配额，连续执行耗时的查询，超出配额后被拒绝，tenant_quiet不受影响
+     */
+    @GetMapping("/accounting")
+    public Map<String, Object> testAccounting() {
+        log.info("=== 开始测试租户数据库耗时统计和配额 ===");
+
+        Map<String, Object> result = new HashMap<>();
+
+        SqlMarkingConfig config = sqlMarkingInterceptor.getConfig();
+        Properties original = new Properties();
+        original.setProperty("accountingEnabled", String.valueOf(config.isAccountingEnabled()));
+        original.setProperty("accountingKey", config.getAccountingKey());
+        original.setProperty("accountingQuotaOverrides",
+                config.getAccountingQuotaOverrides() != null ? config.getAccountingQuotaOverrides() : "");
+
+        try {
+            Properties accounting = new Properties();
+            accounting.setProperty("accountingEnabled", "true");
+            accounting.setProperty("accountingKey", "tenantId");
+            accounting.setProperty("accountingQuotaOverrides", "tenant_noisy=100");
+            sqlMarkingInterceptor.reloadConfig(accounting);
+            sqlMarkingInterceptor.getAccounting().reset();
+            jdbcTemplate.execute("CREATE ALIAS IF NOT EXISTS TEST_SLEEP FOR \""
+                    + SqlMarkingTestController.class.getName() + ".sleepMillis\"");
+
+            SqlMarkingContext.create("test_user_noisy").addCustomInfo("tenantId", "tenant_noisy");
+            int executed = 0;
+            int rejected = 0;
+            for (int i = 0; i < 6; i++) {
+                try {
+                    userService.list(new QueryWrapper<User>().eq("id", 1).apply("TEST_SLEEP(50) = 0"));
+                    executed++;
+                } catch (Exception e) {
+                    if (!(e.getCause() instanceof SqlMarkingRejectedException)) {
+                        throw e;
+                    }
+                    rejected++;
+                }
+            }
+            result.put("noisyExecuted", executed);
+            result.put("noisyRejected", rejected);
+
+            SqlMarkingContext.create("test_user_quiet").addCustomInfo("tenantId", "tenant_quiet");
+            result.put("quietUsers", userService.findByIds(Arrays.asList(1L, 2L)).size());
+
+            result.put("top", sqlMarkingInterceptor.getTopAccounts());
+            result.put("success", true);
+            result.put("message", "租户数据库耗时统计和配额测试完成");
+
+            log.info("租户数据库耗时统计和配额测试结果: {}", result);
+
+        } catch (Exception e) {
+            log.error("租户数据库耗时统计和配额测试异常", e);
+            result.put("success", false);
+            result.put("error", e.getMessage());
+        } finally {
+            sqlMarkingInterceptor.reloadConfig(original);
+            SqlMarkingContext.clearCurrentContext();
+        }
+
+        log.info("=== 租户数据库耗时统计和配额测试结束 ===");
+        return result;
+    }
+
+    /**
+     * 测试事务剖析和长事务检测，阈值为100ms，事务中两次SQL之间模拟150ms的远程调用，
+     * 事务结束后被识别为长事务，空闲时间和最长间隔接近远程调用耗时
+     */
+    @GetMapping("/transaction-profile")
+    public Map<String, Object> testTransactionProfile() {
+        log.info("=== 开始测试事务剖析 ===");
+
+        Map<String, Object> result = new HashMap<>();
+
+        SqlMarkingConfig config = sqlMarkingInterceptor.getConfig();
+        Properties original = new Properties();
+        original.setProperty("transactionProfileEnabled", String.valueOf(config.isTransactionProfileEnabled()));
+        original.setProperty("transactionThresholdMillis", String.valueOf(config.getTransactionThresholdMillis()));
+
+        try {
+            Properties transaction = new Properties();
+            transaction.setProperty("transactionProfileEnabled", "true");
+            transaction.setProperty("transactionThresholdMillis", "100");
+            sqlMarkingInterceptor.reloadConfig(transaction);
+            sqlMarkingInterceptor.getTransactionTracker().reset();
+
+            SqlMarkingContext.create("test_user_tx").setTraceId("trace_tx_001");
+            result.put("updated", userService.updateStatusAfterRemoteCall(1L, "ACTIVE", 150));
+            // 事务外的SQL不带事务标识，也不计入事务
+            result.put("userCount", userService.count());
+
+            SqlTransactionTracker tracker = sqlMarkingInterceptor.getTransactionTracker();
+            result.put("transactionCount", tracker.getTransactionCount());
+            result.put("longTransactions", tracker.getLongTransactions());
+            result.put("success", true);
+            result.put("message", "事务剖析测试完成");
+
+            log.info("事务剖析测试结果: {}", result);
+
+        } catch (Exception e) {
+            log.error("事务剖析测试异常", e);
+            result.put("success", false);
+            result.put("error", e.getMessage());
+        } finally {
+            sqlMarkingInterceptor.reloadConfig(original);
+            SqlMarkingContext.clearCurrentContext();
+        }
+
+        log.info("=== 事务剖析测试结束 ===");
+        return result;
+    }
+
+    /**
+     * 测试死锁和锁等待超时归因，两个事务以相反的顺序更新两行，
+     * 其中一个事务因死锁（或锁等待超时）失败，按statementId和userId聚合并带有标记信息
+     */
+    @GetMapping("/lock-conflict")
+    public Map<String, Object> testLockConflict() {
+        log.info("=== 开始测试锁冲突归因 ===");
+
+        Map<String, Object> result = new HashMap<>();
+
+        SqlMarkingConfig config = sqlMarkingInterceptor.getConfig();
+        Properties original = new Properties();
+        original.setProperty("lockConflictEnabled", String.valueOf(config.isLockConflictEnabled()));
+
+        try {
+            Properties lockConflict = new Properties();
+            lockConflict.setProperty("lockConflictEnabled", "true");
+            sqlMarkingInterceptor.reloadConfig(lockConflict);
+            sqlMarkingInterceptor.getLockConflictTracker().reset();
+
+            Map<String, Object> transactions = new ConcurrentHashMap<>();
+            CyclicBarrier barrier = new CyclicBarrier(2);
+            List<Thread> threads = new ArrayList<>();
+            long[][] orders = {{1L, 2L}, {2L, 1L}};
+            for (long[] order : orders) {
+                String name = "tx_" + order[0] + "_" + order[1];
+                Thread thread = new Thread(() -> {
+                    SqlMarkingContext.create("test_user_" + name);
+                    try {
+                        transactionTemplate.executeWithoutResult(status -> {
+                            userService.updateStatus(order[0], "ACTIVE");
+                            try {
+                                barrier.await();
+                            } catch (Exception e) {
+                                throw new IllegalStateException(e);
+                            }
+                            userService.updateStatus(order[1], "ACTIVE");
+                        });
+                        transactions.put(name, "committed");
+                    } catch (Exception e) {
+                        transactions.put(name, e.getClass().getSimpleName());
+                    } finally {
+                        SqlMarkingContext.clearCurrentContext();
+                    }
+                }, "lock-conflict-" + name);
+                thread.start();
+                threads.add(thread);
+            }
+            for (Thread thread : threads) {
+                thread.join();
+            }
+
+            result.put("transactions", transactions);
+            result.put("conflictCount", sqlMarkingInterceptor.getLockConflictTracker().getConflictCount());
+            result.put("conflicts", sqlMarkingInterceptor.getLockConflictTracker().snapshot());
+            result.put("success", true);
+            result.put("message", "锁冲突归因测试完成");
+
+            log.info("锁冲突归因测试结果: {}", result);
+
+        } catch (Exception e) {
+            log.error("锁冲突归因测试异常", e);
+            result.put("success", false);
+            result.put("error", e.getMessage());
+        } finally {
+            sqlMarkingInterceptor.reloadConfig(original);
+        }
+
+        log.info("=== 锁冲突归因测试结束 ===");
+        return result;
+    }
+
+    /**
+     * H2中模拟慢查询的函数
+     *
+     * @param millis 等待时间（毫秒）
+     * @return 0
+     */
+    public static int sleepMillis(int millis) throws InterruptedException {
+        Thread.sleep(millis);
+        return 0;
+    }
+
+    /**
+     * 测试DataSource代理标记，JdbcTemplate执行的SQL在日志中带有stmt=jdbc的标记，
+     * 同一请求中MyBatis执行的SQL只带有拦截器的标记
+     */
+    @GetMapping("/jdbc")
+    public Map<String, Object> testJdbc() {
+        log.info("=== 开始测试DataSource代理标记 ===");
+
+        Map<String, Object> result = new HashMap<>();
+
+        SqlMarkingContext context = SqlMarkingContext.create("test_user_jdbc");
+
+        try {
+            context.addCustomInfo("source", "jdbcTemplate");
+
+            // PreparedStatement
+            result.put("activeUserCount", jdbcTemplate.queryForObject(
+                    "SELECT COUNT(*) FROM test_user WHERE status = ? AND deleted = 0", Long.class, "ACTIVE"));
+            result.put("updatedRows", jdbcTemplate.update(
+                    "UPDATE test_user SET update_time = CURRENT_TIMESTAMP WHERE status = ?", "INACTIVE"));
+
+            // Statement
+            result.put("userNames", jdbcTemplate.queryForList("SELECT name FROM test_user WHERE deleted = 0", String.class));
+
+            // MyBatis执行的SQL已由拦截器标记，DataSource代理不会重复标记
+            result.put("mybatisUserCount", userService.list().size());
+
+            result.put("dataSourceProxyEnabled", sqlMarkingInterceptor.getConfig().isDataSourceProxyEnabled());
+            result.put("success", true);
+            result.put("message", "DataSource代理标记测试完成");
+
+            log.info("DataSource代理标记测试结果: {}", result);
+
+        } catch (Exception e) {
+            log.error("DataSource代理标记测试异常", e);
+            result.put("success", false);
+            result.put("error", e.getMessage());
+        } finally {
+            SqlMarkingContext.clearCurrentContext();
+        }
+
+        log.info("=== DataSource代理标记测试结束 ===");
+        return result;
+    }
+
+    /**
+     * 测试OpenTelemetry追踪上下文桥接，不创建SqlMarkingContext，
+     * 日志中Preparing行的trace、pf字段分别为当前Span的TraceId和SpanId
+     */
+    @GetMapping("/opentelemetry")
+    public Map<String, Object> testOpenTelemetry() {
+        log.info("=== 开始测试OpenTelemetry追踪上下文桥接 ===");
+
+        Map<String, Object> result = new HashMap<>();
+
+        Span span = TRACER.spanBuilder("sql-marking-opentelemetry-test").startSpan();
+        try (Scope ignored = span.makeCurrent()) {
+            result.put("userCount", userService.list().size());
+
+            result.put("traceId", span.getSpanContext().getTraceId());
+            result.put("spanId", span.getSpanContext().getSpanId());
+            result.put("traceBridge", sqlMarkingInterceptor.getConfig().getTraceBridge());
+            result.put("success", true);
+            result.put("message", "OpenTelemetry追踪上下文桥接测试完成");
+
+            log.info("OpenTelemetry追踪上下文桥接测试结果: {}", result);
+
+        } catch (Exception e) {
+            log.error("OpenTelemetry追踪上下文桥接测试异常", e);
+            result.put("success", false);
+            result.put("error", e.getMessage());
+        } finally {
+            span.end();
+        }
+
+        log.info("=== OpenTelemetry追踪上下文桥接测试结束 ===");
+        return result;
+    }
+
+    /**
+     * 测试按上下文的数据库性能剖析和Chrome Trace导出
+     */
+    @GetMapping("/profile")
+    public Map<String, Object> testProfile() {
+        log.info("=== 开始测试数据库性能剖析 ===");
+
+        Map<String, Object> result = new HashMap<>();
+
+        SqlMarkingContext context = SqlMarkingContext.create("test_user_profile");
+
+        try {
+            List<User> users = userService.list();
+            userService.findByAgeRange(20, 35);
+            if (!users.isEmpty()) {
+                userService.updateStatus(users.get(0).getId(), users.get(0).getStatus());
+            }
+
+            SqlMarkingProfile profile = context.getProfile();
+            result.put("profileEnabled", sqlMarkingInterceptor.getConfig().isProfileEnabled());
+            if (profile != null) {
+                result.put("summary", profile.getSummary());
+                result.put("timelineSize", profile.getTimeline().size());
+                result.put("chromeTrace", profile.toChromeTrace(context));
+            }
+
+            result.put("success", true);
+            result.put("message", "数据库性能剖析测试完成");
+
+            log.info("数据库性能剖析测试结果: {}", result);
+
+        } catch (Exception e) {
+            log.error("数据库性能剖析测试异常", e);
+            result.put("success", false);
+            result.put("error", e.getMessage());
+        } finally {
+            // 清除上下文时剖析数据发送给监听器（配置了导出目录时写入Chrome Trace文件）
+            SqlMarkingContext.clearCurrentContext();
+        }
+
+        log.info("=== 数据库性能剖析测试结束 ===");
+        return result;
+    }
+
     /**
      * 获取当前SQL标记拦截器状态
      */
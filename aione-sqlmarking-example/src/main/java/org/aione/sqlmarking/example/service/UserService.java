@@ -6,6 +6,7 @@ import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
 import org.aione.sqlmarking.example.entity.User;
 import org.aione.sqlmarking.example.mapper.UserMapper;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
 
 import java.util.List;
 
@@ -81,4 +82,14 @@ public class UserService extends ServiceImpl<UserMapper, User> {
                      .set("status", newStatus);
         return update(null, updateWrapper);
     }
-}
\ No newline at end of file
+
+    /**
+     * 在事务中查询用户并更新状态，两次SQL之间模拟耗时的远程调用，用于演示长事务检测
+     */
+    @Transactional(rollbackFor = Exception.class)
+    public boolean updateStatusAfterRemoteCall(Long id, String status, long remoteCallMillis) throws InterruptedException {
+        User user = getById(id);
+        Thread.sleep(remoteCallMillis);
+        return user != null && updateStatus(id, status) > 0;
+    }
+}
@@ -0,0 +1,95 @@
+package org.aione.sqlmarking.example.smoke;
+
+import lombok.extern.slf4j.Slf4j;
+import org.aione.sqlmarking.SqlMarkingContext;
+import org.aione.sqlmarking.SqlMarkingInfo;
+import org.aione.sqlmarking.SqlMarkingInterceptor;
+import org.aione.sqlmarking.SqlMarkingProcessor;
+import org.aione.sqlmarking.SqlMarkingProfile;
+import org.aione.sqlmarking.example.entity.User;
+import org.aione.sqlmarking.example.service.UserService;
+import org.apache.ibatis.mapping.SqlCommandType;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.boot.SpringApplication;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * 冒烟测试
+ * <p>
+ * 启动参数 --spring.profiles.active=smoke 时在应用启动后执行一遍增删改查和findByIds，
+ * 检查每条SQL都经过拦截器标记并计入剖析，DataSource代理标记的SQL可以被解析回相同的用户和追踪标识，
+ * 全部通过时以0退出，否则以1退出。主要用于验证native-image构建的可执行文件，在JVM中同样可以运行
+ *
+ * @author Billy
+ */
+@Slf4j
+@Component
+@ConditionalOnProperty(prefix = "smoke", name = "enabled", havingValue = "true")
+public class SqlMarkingSmokeRunner implements ApplicationRunner {
+
+    private final UserService userService;
+    private final SqlMarkingInterceptor sqlMarkingInterceptor;
+    private final ConfigurableApplicationContext applicationContext;
+
+    public SqlMarkingSmokeRunner(UserService userService, SqlMarkingInterceptor sqlMarkingInterceptor,
+                                 ConfigurableApplicationContext applicationContext) {
+        this.userService = userService;
+        this.sqlMarkingInterceptor = sqlMarkingInterceptor;
+        this.applicationContext = applicationContext;
+    }
+
+    @Override
+    public void run(ApplicationArguments args) {
+        log.info("=== 开始SQL标记冒烟测试 interceptMode={} ===", sqlMarkingInterceptor.getConfig().getInterceptMode());
+
+        List<String> failures = new ArrayList<>();
+        SqlMarkingContext context = SqlMarkingContext.create("smoke_user");
+        try {
+            long executionsBefore = sqlMarkingInterceptor.getExecutionCount();
+
+            User user = new User("smoke", "smoke@test.com", 30);
+            check(failures, "insert", userService.save(user) && user.getId() != null);
+            check(failures, "select", userService.getById(user.getId()) != null);
+            check(failures, "update", userService.updateStatus(user.getId(), "INACTIVE") == 1);
+            check(failures, "findByIds", userService.findByIds(Arrays.asList(1L, user.getId())).size() == 2);
+            check(failures, "delete", userService.removeById(user.getId()));
+
+            check(failures, "marked", sqlMarkingInterceptor.getExecutionCount() - executionsBefore >= 5);
+            SqlMarkingProfile profile = context.getProfile();
+            check(failures, "profile", profile != null && profile.getSqlCount() >= 5
+                    && profile.getCount(SqlCommandType.SELECT) >= 2);
+
+            String marked = sqlMarkingInterceptor.markJdbcSql("SELECT COUNT(*) FROM test_user");
+            SqlMarkingInfo info = new SqlMarkingProcessor(sqlMarkingInterceptor.getConfig()).parseMarkingInfo(marked);
+            check(failures, "jdbcMarker", info != null && "smoke_user".equals(info.getUserId())
+                    && info.getTraceId() != null);
+        } catch (Exception e) {
+            log.error("冒烟测试异常", e);
+            failures.add("exception: " + e.getMessage());
+        } finally {
+            SqlMarkingContext.clearCurrentContext();
+        }
+
+        if (failures.isEmpty()) {
+            log.info("=== SQL标记冒烟测试通过 ===");
+        } else {
+            log.error("=== SQL标记冒烟测试失败: {} ===", failures);
+        }
+        int exitCode = failures.isEmpty() ? 0 : 1;
+        System.exit(SpringApplication.exit(applicationContext, () -> exitCode));
+    }
+
+    private static void check(List<String> failures, String name, boolean passed) {
+        if (!passed) {
+            failures.add(name);
+        }
+        log.info("冒烟测试 {}: {}", name, passed ? "通过" : "失败");
+    }
+}
@@ -0,0 +1,298 @@
+package org.aione.sqlmarking;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+/**
+ * 单键查询合并加载器
+ * <p>
+ * 并发调用{@link #load(Object)}的不同键，在合并窗口内或达到批量上限时合并为一次批量查询（如 findByIds 的 IN 查询），
+ * 结果按键分发给各调用方。第一个调用方负责等待窗口结束并在自己的线程中执行批量查询，不需要额外的线程池。
+ * <p>
+ * 批量查询在合并后的染色上下文中执行：各调用方相同的userId、traceId、分片键原样保留，
+ * 不同时记录在自定义信息 batchUsers、batchTraces 中，写后读粘滞和强制主库只要任一调用方需要就生效。
+ * 处于Spring事务中的调用方不参与合并，直接查询，避免在其他调用方的事务之外读取。
+ * batchLoadEnabled=false时每次调用都直接查询
+ *
+ * @param <K> 键类型
+ * @param <V> 结果类型
+ * @author Billy
+ */
+@Slf4j
+public class SqlBatchLoader<K, V> {
+
+    /**
+     * 自定义信息中最多列出的不同userId、traceId数量
+     */
+    static final int MAX_ATTRIBUTIONS = 16;
+
+    private final String name;
+
+    private final SqlMarkingInterceptor interceptor;
+
+    /**
+     * 批量查询，传入去重后的键，返回的结果顺序和数量不限
+     */
+    private final Function<List<K>, List<V>> batchFunction;
+
+    /**
+     * 从结果中取出键，用于将结果分发给调用方
+     */
+    private final Function<V, K> keyFunction;
+
+    private final Object lock = new Object();
+
+    /**
+     * 正在收集键的批次，为null时下一个调用方创建新批次
+     */
+    private Batch<K, V> current;
+
+    private final AtomicLong requestCount = new AtomicLong(0);
+    private final AtomicLong queryCount = new AtomicLong(0);
+
+    public SqlBatchLoader(String name, SqlMarkingInterceptor interceptor, Function<List<K>, List<V>> batchFunction,
+                          Function<V, K> keyFunction) {
+        this.name = name;
+        this.interceptor = interceptor;
+        this.batchFunction = batchFunction;
+        this.keyFunction = keyFunction;
+    }
+
+    /**
+     * 按键加载结果
+     *
+     * @param key 键
+     * @return 键对应的结果，不存在时返回null
+     */
+    public V load(K key) {
+        requestCount.incrementAndGet();
+        SqlMarkingConfigSnapshot snapshot = interceptor.getSnapshot();
+        if (!snapshot.isBatchLoadEnabled() || TransactionSynchronizationManager.isActualTransactionActive()) {
+            queryCount.incrementAndGet();
+            return find(batchFunction.apply(Collections.singletonList(key)), key);
+        }
+
+        Batch<K, V> batch;
+        CompletableFuture<V> future;
+        boolean leader = false;
+        synchronized (lock) {
+            if (current == null) {
+                current = new Batch<>();
+                leader = true;
+            }
+            batch = current;
+            future = batch.add(key, SqlMarkingContext.getCurrentContext());
+            if (batch.size() >= snapshot.getBatchLoadMaxSize()) {
+                current = null;
+                batch.markFull();
+            }
+        }
+
+        if (leader) {
+            batch.awaitFull(TimeUnit.MILLISECONDS.toNanos(snapshot.getBatchLoadWindowMillis()));
+            synchronized (lock) {
+                if (current == batch) {
+                    current = null;
+                }
+            }
+            dispatch(batch);
+        }
+        return join(future);
+    }
+
+    /**
+     * 获取调用次数
+     *
+     * @return load调用次数
+     */
+    public long getRequestCount() {
+        return requestCount.get();
+    }
+
+    /**
+     * 获取实际执行的查询次数
+     *
+     * @return 查询次数
+     */
+    public long getQueryCount() {
+        return queryCount.get();
+    }
+
+    /**
+     * 获取加载器名称
+     *
+     * @return 名称
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * 在合并后的上下文中执行批量查询，并将结果分发给各调用方
+     */
+    private void dispatch(Batch<K, V> batch) {
+        queryCount.incrementAndGet();
+        List<K> keys = new ArrayList<>(batch.futures.keySet());
+        SqlMarkingContext previous = SqlMarkingContext.getCurrentContext();
+        SqlMarkingContext.setCurrentContext(mergeContexts(batch.contexts, keys.size()));
+        try {
+            List<V> results = batchFunction.apply(keys);
+            Map<K, V> byKey = new LinkedHashMap<>();
+            if (results != null) {
+                for (V result : results) {
+                    if (result != null) {
+                        byKey.putIfAbsent(keyFunction.apply(result), result);
+                    }
+                }
+            }
+            batch.futures.forEach((key, futures) -> futures.forEach(future -> future.complete(byKey.get(key))));
+            log.debug("合并查询 {} - 调用方: {}, 键: {}", name, batch.size(), keys.size());
+        } catch (Throwable e) {
+            batch.futures.values().forEach(futures -> futures.forEach(future -> future.completeExceptionally(e)));
+        } finally {
+            SqlMarkingContext.setCurrentContext(previous);
+        }
+    }
+
+    /**
+     * 合并各调用方的染色上下文
+     * 所有调用方相同的字段原样保留，不同的userId、traceId记录在自定义信息中
+     */
+    static SqlMarkingContext mergeContexts(List<SqlMarkingContext> contexts, int keyCount) {
+        SqlMarkingContext merged = new SqlMarkingContext();
+        Set<String> users = new LinkedHashSet<>();
+        Set<String> traces = new LinkedHashSet<>();
+        Set<String> shardKeys = new LinkedHashSet<>();
+        Set<String> pFinderIds = new LinkedHashSet<>();
+        for (SqlMarkingContext context : contexts) {
+            if (context == null) {
+                continue;
+            }
+            addAttribution(users, context.getUserId());
+            addAttribution(traces, context.getTraceId());
+            shardKeys.add(context.getShardKey());
+            pFinderIds.add(context.getPFinderId());
+            if (context.isForceWriteRoute()) {
+                merged.setForceWriteRoute(true);
+            }
+            if (context.isWriteOccurred()) {
+                merged.markWriteOccurred();
+            }
+        }
+        if (users.size() == 1) {
+            merged.setUserId(users.iterator().next());
+        }
+        if (traces.size() == 1) {
+            merged.setTraceId(traces.iterator().next());
+        }
+        if (shardKeys.size() == 1) {
+            merged.setShardKey(shardKeys.iterator().next());
+        }
+        if (pFinderIds.size() == 1) {
+            merged.setPFinderId(pFinderIds.iterator().next());
+        }
+        merged.addCustomInfo("batch", contexts.size() + "/" + keyCount);
+        if (users.size() > 1) {
+            merged.addCustomInfo("batchUsers", String.join("+", users));
+        }
+        if (traces.size() > 1) {
+            merged.addCustomInfo("batchTraces", String.join("+", traces));
+        }
+        return merged;
+    }
+
+    private static void addAttribution(Set<String> values, String value) {
+        if (value != null && values.size() < MAX_ATTRIBUTIONS) {
+            values.add(value);
+        }
+    }
+
+    private V find(List<V> results, K key) {
+        if (results != null) {
+            for (V result : results) {
+                if (result != null && Objects.equals(keyFunction.apply(result), key)) {
+                    return result;
+                }
+            }
+        }
+        return null;
+    }
+
+    private static <V> V join(CompletableFuture<V> future) {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("合并查询等待被中断", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IllegalStateException(cause);
+        }
+    }
+
+    /**
+     * 一次合并的键、等待结果的调用方和调用方的染色上下文
+     */
+    private static final class Batch<K, V> {
+
+        private final Map<K, List<CompletableFuture<V>>> futures = new LinkedHashMap<>();
+        private final List<SqlMarkingContext> contexts = new ArrayList<>();
+        private boolean full;
+
+        /**
+         * 在加载器的锁内调用
+         */
+        CompletableFuture<V> add(K key, SqlMarkingContext context) {
+            CompletableFuture<V> future = new CompletableFuture<>();
+            futures.computeIfAbsent(key, k -> new ArrayList<>(1)).add(future);
+            contexts.add(context);
+            return future;
+        }
+
+        int size() {
+            return contexts.size();
+        }
+
+        synchronized void markFull() {
+            full = true;
+            notifyAll();
+        }
+
+        /**
+         * 等待批次达到上限或窗口结束
+         */
+        synchronized void awaitFull(long windowNanos) {
+            long deadline = System.nanoTime() + windowNanos;
+            long remaining = windowNanos;
+            while (!full && remaining > 0) {
+                try {
+                    TimeUnit.NANOSECONDS.timedWait(this, remaining);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+                remaining = deadline - System.nanoTime();
+            }
+        }
+    }
+}
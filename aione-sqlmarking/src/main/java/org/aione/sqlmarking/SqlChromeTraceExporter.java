@@ -0,0 +1,93 @@
+package org.aione.sqlmarking;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Chrome Trace导出监听器
+ * 将每个染色上下文的剖析数据写入指定目录，文件可直接在 chrome://tracing 或 Perfetto 中打开
+ * <p>
+ * 回调发生在业务线程清除上下文时，序列化和写文件交给单个后台守护线程执行，
+ * 等待队列已满时丢弃本次导出，不阻塞业务线程
+ *
+ * @author Billy
+ */
+@Slf4j
+public class SqlChromeTraceExporter implements SqlProfileListener {
+
+    /**
+     * 等待写入的导出文件最大数量
+     */
+    static final int QUEUE_SIZE = 64;
+
+    /**
+     * 导出目录
+     */
+    private final Path directory;
+
+    /**
+     * 数据库总耗时低于该值（毫秒）的上下文不导出
+     */
+    private final long minTotalMillis;
+
+    private final ThreadPoolExecutor worker;
+
+    private final AtomicLong droppedCount = new AtomicLong(0);
+
+    public SqlChromeTraceExporter(String directory, long minTotalMillis) {
+        this.directory = Paths.get(directory);
+        this.minTotalMillis = minTotalMillis;
+        this.worker = new ThreadPoolExecutor(1, 1, 60, TimeUnit.SECONDS, new ArrayBlockingQueue<>(QUEUE_SIZE),
+                runnable -> {
+                    Thread thread = new Thread(runnable, "sql-marking-trace-export");
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        this.worker.allowCoreThreadTimeOut(true);
+    }
+
+    @Override
+    public void onProfile(SqlMarkingContext context, SqlMarkingProfile profile) {
+        if (profile.getTotalNanos() < minTotalMillis * 1_000_000L) {
+            return;
+        }
+        String name = String.format("sql-profile-%d-%d-%d.json",
+                context.getCreateTime(), context.getThreadId(), System.identityHashCode(context));
+        try {
+            worker.execute(() -> export(name, context, profile));
+        } catch (RejectedExecutionException e) {
+            long dropped = droppedCount.incrementAndGet();
+            log.debug("SQL剖析数据导出队列已满，丢弃本次导出 - 累计丢弃: {}", dropped);
+        }
+    }
+
+    /**
+     * 获取因队列已满而丢弃的导出数量
+     *
+     * @return 丢弃数量
+     */
+    public long getDroppedCount() {
+        return droppedCount.get();
+    }
+
+    private void export(String name, SqlMarkingContext context, SqlMarkingProfile profile) {
+        try {
+            Files.createDirectories(directory);
+            Path file = directory.resolve(name);
+            Files.write(file, profile.toChromeTrace(context).getBytes(StandardCharsets.UTF_8));
+            log.debug("SQL剖析数据已导出 - 文件: {}, {}", file, profile.getSummary());
+        } catch (IOException e) {
+            log.warn("SQL剖析数据导出失败 - 目录: {}, error: {}", directory, e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,271 @@
+package org.aione.sqlmarking;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 按statementId（或Mapper）的自适应并发限制
+ * <p>
+ * 每个键维护一个并发上限，按梯度算法根据执行耗时调整：
+ * 长期平均耗时与本次耗时之比为梯度，耗时变长时按比例降低上限，耗时正常时每次最多增加 √上限；
+ * 执行失败（包括语句超时）时上限乘以BACKOFF_RATIO，数据库过载时往往先出现超时而不是耗时平稳变长。
+ * 并发数达到上限时，新的执行最多等待queueMillis，仍没有空位则拒绝，
+ * 一条变慢的报表查询只能占用它自己的上限，不会拿走连接池中全部连接拖垮其他SQL。
+ * 并发数不到上限一半时说明上限不是瓶颈，不再增加上限
+ *
+ * @author Billy
+ */
+public class SqlConcurrencyLimiter {
+
+    /**
+     * 梯度容忍度，耗时超过长期平均的1.5倍才开始降低上限
+     */
+    static final double TOLERANCE = 1.5;
+
+    /**
+     * 新上限的平滑系数
+     */
+    static final double SMOOTHING = 0.2;
+
+    /**
+     * 执行失败时上限的乘数
+     */
+    static final double BACKOFF_RATIO = 0.9;
+
+    /**
+     * 长期平均耗时的窗口（次数）
+     */
+    static final int LONG_WINDOW = 600;
+
+    private final ConcurrentMap<String, Limit> limits = new ConcurrentHashMap<>();
+
+    /**
+     * 获取键对应的并发限制，不存在时以初始上限创建
+     *
+     * @param key          statementId或Mapper命名空间
+     * @param initialLimit 初始上限
+     * @return 并发限制
+     */
+    public Limit getLimit(String key, int initialLimit) {
+        Limit limit = limits.get(key);
+        return limit != null ? limit : limits.computeIfAbsent(key, k -> new Limit(k, initialLimit));
+    }
+
+    /**
+     * 获取各键当前的并发限制状态
+     *
+     * @return 键到状态，按键排序
+     */
+    public Map<String, Map<String, Object>> snapshot() {
+        Map<String, Map<String, Object>> result = new TreeMap<>();
+        limits.forEach((key, limit) -> result.put(key, limit.describe()));
+        return result;
+    }
+
+    /**
+     * 获取全部键的拒绝次数
+     *
+     * @return 拒绝次数
+     */
+    public long getRejectedCount() {
+        long rejected = 0;
+        for (Limit limit : limits.values()) {
+            rejected += limit.rejectedCount.get();
+        }
+        return rejected;
+    }
+
+    /**
+     * 清除全部并发限制，下次执行时以当前的初始上限重新开始
+     */
+    public void reset() {
+        limits.clear();
+    }
+
+    /**
+     * 一个键的并发限制
+     */
+    public static final class Limit {
+
+        private final String key;
+
+        private final AtomicInteger inFlight = new AtomicInteger(0);
+
+        /**
+         * 当前上限，只在持有本对象的锁时修改
+         */
+        private volatile int limit;
+
+        /**
+         * 调整上限使用的精确值
+         */
+        private double estimatedLimit;
+
+        /**
+         * 长期平均耗时（纳秒），为0表示还没有样本
+         */
+        private double longRttNanos;
+
+        /**
+         * 等待名额的线程数
+         */
+        private volatile int waiters;
+
+        private final AtomicLong rejectedCount = new AtomicLong(0);
+
+        Limit(String key, int initialLimit) {
+            this.key = key;
+            this.limit = initialLimit;
+            this.estimatedLimit = initialLimit;
+        }
+
+        /**
+         * 获取一个执行名额，已达上限时最多等待waitMillis
+         *
+         * @param waitMillis 最长等待时间（毫秒），为0时不等待
+         * @return 获取成功返回true，等待超时或被中断返回false
+         */
+        public boolean acquire(long waitMillis) {
+            if (tryAcquire()) {
+                return true;
+            }
+            if (waitMillis > 0) {
+                long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(waitMillis);
+                synchronized (this) {
+                    // 先登记再检查，与release中先归还再检查等待数的顺序相反，保证不会错过唤醒
+                    waiters++;
+                    try {
+                        while (true) {
+                            if (tryAcquire()) {
+                                return true;
+                            }
+                            long remaining = deadline - System.nanoTime();
+                            if (remaining <= 0) {
+                                break;
+                            }
+                            TimeUnit.NANOSECONDS.timedWait(this, remaining);
+                        }
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    } finally {
+                        waiters--;
+                    }
+                }
+            }
+            rejectedCount.incrementAndGet();
+            return false;
+        }
+
+        /**
+         * 归还执行名额并调整上限
+         * 执行成功时以本次耗时按梯度调整，失败时按BACKOFF_RATIO降低，失败的耗时不计入长期平均
+         *
+         * @param elapsedNanos 执行耗时
+         * @param success      是否执行成功
+         * @param minLimit     上限的最小值
+         * @param maxLimit     上限的最大值
+         */
+        public void release(long elapsedNanos, boolean success, int minLimit, int maxLimit) {
+            int current = inFlight.getAndDecrement();
+            synchronized (this) {
+                if (success) {
+                    update(elapsedNanos, current, minLimit, maxLimit);
+                } else {
+                    estimatedLimit = Math.max(minLimit, Math.min(maxLimit, estimatedLimit * BACKOFF_RATIO));
+                    limit = (int) estimatedLimit;
+                }
+                if (waiters > 0) {
+                    notifyAll();
+                }
+            }
+        }
+
+        private boolean tryAcquire() {
+            while (true) {
+                int current = inFlight.get();
+                if (current >= limit) {
+                    return false;
+                }
+                if (inFlight.compareAndSet(current, current + 1)) {
+                    return true;
+                }
+            }
+        }
+
+        /**
+         * 梯度算法调整上限，在持有本对象的锁时调用
+         *
+         * @param inFlight 本次执行结束时（包括本次）的并发数
+         */
+        private void update(long rttNanos, int inFlight, int minLimit, int maxLimit) {
+            double rtt = Math.max(rttNanos, 1);
+            if (longRttNanos == 0) {
+                longRttNanos = rtt;
+            } else {
+                longRttNanos += (rtt - longRttNanos) / LONG_WINDOW;
+            }
+            // 耗时恢复后长期平均较快回落，避免之前的慢查询使长期平均一直偏高、上限不再下降
+            if (longRttNanos / rtt > 2) {
+                longRttNanos *= 0.95;
+            }
+
+            double gradient = Math.max(0.5, Math.min(1.0, TOLERANCE * longRttNanos / rtt));
+            // 并发数不到上限一半时上限不是瓶颈，只允许降低
+            double queueSize = inFlight < estimatedLimit / 2 ? 0 : Math.sqrt(estimatedLimit);
+            double newLimit = estimatedLimit * gradient + queueSize;
+            newLimit = estimatedLimit * (1 - SMOOTHING) + newLimit * SMOOTHING;
+            estimatedLimit = Math.max(minLimit, Math.min(maxLimit, newLimit));
+            limit = (int) estimatedLimit;
+        }
+
+        /**
+         * 获取当前上限
+         *
+         * @return 上限
+         */
+        public int getLimit() {
+            return limit;
+        }
+
+        /**
+         * 获取当前并发数
+         *
+         * @return 并发数
+         */
+        public int getInFlight() {
+            return inFlight.get();
+        }
+
+        /**
+         * 获取拒绝次数
+         *
+         * @return 拒绝次数
+         */
+        public long getRejectedCount() {
+            return rejectedCount.get();
+        }
+
+        /**
+         * 获取键
+         *
+         * @return statementId或Mapper命名空间
+         */
+        public String getKey() {
+            return key;
+        }
+
+        private synchronized Map<String, Object> describe() {
+            Map<String, Object> result = new TreeMap<>();
+            result.put("limit", limit);
+            result.put("inFlight", inFlight.get());
+            result.put("rejectedCount", rejectedCount.get());
+            result.put("longRttMillis", Math.round(longRttNanos / 10_000) / 100.0);
+            return result;
+        }
+    }
+}
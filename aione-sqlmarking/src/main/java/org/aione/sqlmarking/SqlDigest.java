@@ -0,0 +1,322 @@
+package org.aione.sqlmarking;
+
+/**
+ * SQL摘要
+ * <p>
+ * 将SQL规范化后计算64位FNV-1a哈希，只随SQL结构变化：
+ * 跳过注释，关键字和标识符转为小写，空白统一，字符串、数字和占位符替换为 ?，
+ * 只包含字面量的括号列表（如IN列表、VALUES的每一行）折叠为 (...)，连续多个折叠为一个。
+ * 因此 IN 列表长度不同的findByIds、拼接了不同字面量的同一条SQL得到相同的摘要。
+ * <p>
+ * 单次顺序扫描，边规范化边计算哈希，不创建中间字符串；规范化结果超过最大长度后停止，
+ * 与MySQL的max_digest_length一样，超出部分不参与摘要
+ *
+ * @author Billy
+ */
+public final class SqlDigest {
+
+    private static final long FNV_OFFSET_BASIS = 0xCBF29CE484222325L;
+    private static final long FNV_PRIME = 0x100000001B3L;
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private SqlDigest() {
+    }
+
+    /**
+     * 计算SQL摘要
+     *
+     * @param sql       SQL文本
+     * @param maxLength 参与摘要的规范化SQL最大长度
+     * @return 摘要
+     */
+    public static long digest(CharSequence sql, int maxLength) {
+        Normalizer normalizer = new Normalizer(sql, maxLength, null);
+        normalizer.run();
+        return normalizer.hash;
+    }
+
+    /**
+     * 计算SQL摘要，返回16位十六进制字符串，即标记中dg字段的值
+     *
+     * @param sql       SQL文本
+     * @param maxLength 参与摘要的规范化SQL最大长度
+     * @return 十六进制摘要
+     */
+    public static String digestHex(CharSequence sql, int maxLength) {
+        return toHex(digest(sql, maxLength));
+    }
+
+    /**
+     * 获取规范化后的SQL，即参与摘要计算的文本，用于排查两条SQL的摘要为什么相同或不同
+     *
+     * @param sql       SQL文本
+     * @param maxLength 规范化SQL最大长度
+     * @return 规范化后的SQL
+     */
+    public static String normalize(CharSequence sql, int maxLength) {
+        Normalizer normalizer = new Normalizer(sql, maxLength, new StringBuilder(Math.min(sql.length(), maxLength)));
+        normalizer.run();
+        return normalizer.out.toString();
+    }
+
+    /**
+     * 将摘要转换为固定16位的十六进制字符串
+     *
+     * @param digest 摘要
+     * @return 十六进制字符串
+     */
+    public static String toHex(long digest) {
+        char[] chars = new char[16];
+        for (int i = 15; i >= 0; i--) {
+            chars[i] = HEX[(int) (digest & 0xF)];
+            digest >>>= 4;
+        }
+        return new String(chars);
+    }
+
+    /**
+     * 规范化扫描器，每个词法单元之间以一个空格分隔，左括号和点号之后、右括号逗号和点号之前不加空格
+     */
+    private static final class Normalizer {
+
+        private final CharSequence text;
+        private final int length;
+        private final int maxLength;
+        private final StringBuilder out;
+
+        private int pos;
+        private int emitted;
+        private long hash = FNV_OFFSET_BASIS;
+
+        /**
+         * 上一个输出的字符，用于决定是否需要空格
+         */
+        private char last;
+
+        Normalizer(CharSequence text, int maxLength, StringBuilder out) {
+            this.text = text;
+            this.length = text.length();
+            this.maxLength = maxLength;
+            this.out = out;
+        }
+
+        void run() {
+            while (pos < length && emitted < maxLength) {
+                char c = text.charAt(pos);
+                if (Character.isWhitespace(c)) {
+                    pos++;
+                } else if (c == '/' && peek(pos + 1) == '*') {
+                    int end = indexOf("*/", pos + 2);
+                    pos = end < 0 ? length : end + 2;
+                } else if (c == '-' && peek(pos + 1) == '-') {
+                    int end = indexOf("\n", pos + 2);
+                    pos = end < 0 ? length : end + 1;
+                } else if (c == '(') {
+                    int end = literalListEnd(pos);
+                    if (end < 0) {
+                        token('(');
+                        pos++;
+                    } else {
+                        // IN列表、多行VALUES只保留一个(...)
+                        pos = skipRepeatedLists(end);
+                        separate('(');
+                        emit('(');
+                        emit('.');
+                        emit('.');
+                        emit('.');
+                        emit(')');
+                    }
+                } else if (isLiteralStart(c)) {
+                    pos = literalEnd(pos);
+                    token('?');
+                } else if (isWordStart(c)) {
+                    separate(c);
+                    while (pos < length && isWordPart(text.charAt(pos))) {
+                        emit(toLowerCase(text.charAt(pos++)));
+                    }
+                } else if (c == '`') {
+                    int end = indexOf("`", pos + 1);
+                    end = end < 0 ? length : end + 1;
+                    separate(c);
+                    while (pos < end) {
+                        emit(text.charAt(pos++));
+                    }
+                } else if (isOperator(c)) {
+                    separate(c);
+                    while (pos < length && isOperator(text.charAt(pos))) {
+                        emit(text.charAt(pos++));
+                    }
+                } else {
+                    token(c);
+                    pos++;
+                }
+            }
+        }
+
+        private boolean isLiteralStart(char c) {
+            return c == '?' || c == '\'' || c == '"' || isDigit(c) || (c == '.' && isDigit(peek(pos + 1)));
+        }
+
+        /**
+         * 获取从指定位置开始的字面量（?、字符串、数字）的结束位置
+         *
+         * @return 结束位置（不包含），不是字面量时返回-1
+         */
+        private int literalEnd(int from) {
+            char c = text.charAt(from);
+            if (c == '?') {
+                return from + 1;
+            }
+            if (c == '\'' || c == '"') {
+                int i = from + 1;
+                while (i < length) {
+                    char ch = text.charAt(i);
+                    if (ch == '\\') {
+                        i += 2;
+                    } else if (ch == c) {
+                        if (peek(i + 1) != c) {
+                            return i + 1;
+                        }
+                        i += 2;
+                    } else {
+                        i++;
+                    }
+                }
+                return length;
+            }
+            if (isDigit(c) || (c == '.' && isDigit(peek(from + 1)))) {
+                int i = from + 1;
+                while (i < length) {
+                    char ch = text.charAt(i);
+                    if ((ch == '+' || ch == '-') && (text.charAt(i - 1) == 'e' || text.charAt(i - 1) == 'E')) {
+                        i++;
+                    } else if (isWordPart(ch) || ch == '.') {
+                        i++;
+                    } else {
+                        break;
+                    }
+                }
+                return i;
+            }
+            return -1;
+        }
+
+        /**
+         * 判断括号内是否只包含以逗号分隔的字面量，数字前可以带负号
+         *
+         * @return 右括号之后的位置，不是字面量列表时返回-1
+         */
+        private int literalListEnd(int open) {
+            int i = skipWhitespace(open + 1);
+            while (i < length) {
+                if (text.charAt(i) == '-' && peek(i + 1) != '-') {
+                    i = skipWhitespace(i + 1);
+                    if (i >= length) {
+                        return -1;
+                    }
+                }
+                int end = literalEnd(i);
+                if (end < 0) {
+                    return -1;
+                }
+                i = skipWhitespace(end);
+                if (i >= length) {
+                    return -1;
+                }
+                char c = text.charAt(i);
+                if (c == ')') {
+                    return i + 1;
+                }
+                if (c != ',') {
+                    return -1;
+                }
+                i = skipWhitespace(i + 1);
+            }
+            return -1;
+        }
+
+        private int skipRepeatedLists(int from) {
+            int end = from;
+            while (true) {
+                int comma = skipWhitespace(end);
+                if (comma >= length || text.charAt(comma) != ',') {
+                    return end;
+                }
+                int open = skipWhitespace(comma + 1);
+                if (open >= length || text.charAt(open) != '(') {
+                    return end;
+                }
+                int next = literalListEnd(open);
+                if (next < 0) {
+                    return end;
+                }
+                end = next;
+            }
+        }
+
+        private void token(char c) {
+            separate(c);
+            emit(c);
+        }
+
+        private void separate(char next) {
+            if (emitted > 0 && last != '(' && last != '.' && next != ')' && next != ',' && next != '.') {
+                emit(' ');
+            }
+        }
+
+        private void emit(char c) {
+            if (emitted >= maxLength) {
+                return;
+            }
+            hash = (hash ^ c) * FNV_PRIME;
+            if (out != null) {
+                out.append(c);
+            }
+            last = c;
+            emitted++;
+        }
+
+        private int skipWhitespace(int from) {
+            int i = from;
+            while (i < length && Character.isWhitespace(text.charAt(i))) {
+                i++;
+            }
+            return i;
+        }
+
+        private int indexOf(String pattern, int from) {
+            for (int i = from; i <= length - pattern.length(); i++) {
+                if (SqlMarkingField.regionEquals(text, i, i + pattern.length(), pattern)) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        private char peek(int index) {
+            return index < length ? text.charAt(index) : 0;
+        }
+    }
+
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+
+    private static boolean isWordStart(char c) {
+        return Character.isLetter(c) || c == '_' || c == '$' || c == '@';
+    }
+
+    private static boolean isWordPart(char c) {
+        return Character.isLetterOrDigit(c) || c == '_' || c == '$' || c == '@';
+    }
+
+    private static boolean isOperator(char c) {
+        return c == '<' || c == '>' || c == '=' || c == '!' || c == '|' || c == '&' || c == ':';
+    }
+
+    private static char toLowerCase(char c) {
+        return c >= 'A' && c <= 'Z' ? (char) (c + ('a' - 'A')) : c;
+    }
+}
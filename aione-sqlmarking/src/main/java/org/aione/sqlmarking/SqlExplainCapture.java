@@ -0,0 +1,330 @@
+package org.aione.sqlmarking;
+
+import lombok.extern.slf4j.Slf4j;
+import org.apache.ibatis.mapping.BoundSql;
+import org.apache.ibatis.mapping.Environment;
+import org.apache.ibatis.mapping.MappedStatement;
+import org.apache.ibatis.mapping.ParameterMapping;
+import org.apache.ibatis.mapping.ParameterMode;
+import org.apache.ibatis.reflection.MetaObject;
+import org.apache.ibatis.session.Configuration;
+import org.apache.ibatis.type.JdbcType;
+import org.apache.ibatis.type.TypeHandler;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 慢SQL执行计划采集
+ * <p>
+ * 执行耗时超过阈值的SQL，在业务线程中只取出SQL和参数值放入有界队列，
+ * 由后台线程从MyBatis Environment的DataSource获取单独的连接执行 EXPLAIN，不占用业务连接和事务。
+ * 同一statementId在最小间隔内只采集一次，队列已满时丢弃，每个statementId保留最近几次的结果，
+ * 执行计划与上一次不同时输出告警
+ *
+ * @author Billy
+ */
+@Slf4j
+public class SqlExplainCapture {
+
+    /**
+     * 每次EXPLAIN最多读取的行数
+     */
+    static final int MAX_PLAN_ROWS = 100;
+
+    /**
+     * EXPLAIN的查询超时（秒）
+     */
+    private static final int EXPLAIN_TIMEOUT_SECONDS = 5;
+
+    private final int queueSize;
+    private final int historySize;
+
+    private final ThreadPoolExecutor worker;
+
+    /**
+     * 各statementId上次采集的时间，用于限制采集频率
+     */
+    private final ConcurrentMap<String, AtomicLong> lastCaptureMillis = new ConcurrentHashMap<>();
+
+    /**
+     * 各statementId最近的采集结果，最新的在前
+     */
+    private final ConcurrentMap<String, Deque<SqlExplainResult>> history = new ConcurrentHashMap<>();
+
+    private final AtomicLong capturedCount = new AtomicLong(0);
+    private final AtomicLong droppedCount = new AtomicLong(0);
+
+    /**
+     * @param queueSize   等待执行的EXPLAIN最大数量
+     * @param historySize 每个statementId保留的结果数量
+     */
+    public SqlExplainCapture(int queueSize, int historySize) {
+        this.queueSize = queueSize;
+        this.historySize = historySize;
+        this.worker = new ThreadPoolExecutor(1, 1, 60, TimeUnit.SECONDS, new ArrayBlockingQueue<>(queueSize),
+                runnable -> {
+                    Thread thread = new Thread(runnable, "sql-marking-explain");
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        this.worker.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * 判断是否与指定的大小相同，配置变更后大小不同时需要重新创建
+     */
+    public boolean hasSize(int queueSize, int historySize) {
+        return this.queueSize == queueSize && this.historySize == historySize;
+    }
+
+    /**
+     * 提交一次执行计划采集
+     * 在业务线程中调用，只取出参数值，EXPLAIN在后台线程中执行
+     *
+     * @param mappedStatement   MappedStatement
+     * @param boundSql          本次执行的BoundSql（不含标记）
+     * @param parameter         执行参数
+     * @param marker            本次执行的标记信息
+     * @param elapsedMillis     本次执行耗时
+     * @param minIntervalMillis 同一statementId两次采集的最小间隔
+     * @return 已放入队列返回true，被频率限制或队列已满时返回false
+     */
+    public boolean submit(MappedStatement mappedStatement, BoundSql boundSql, Object parameter, String marker,
+                          long elapsedMillis, long minIntervalMillis) {
+        String statementId = mappedStatement.getId();
+        if (!acquire(statementId, minIntervalMillis)) {
+            return false;
+        }
+        Environment environment = mappedStatement.getConfiguration().getEnvironment();
+        if (environment == null || environment.getDataSource() == null) {
+            return false;
+        }
+        List<Binding> bindings = resolveBindings(mappedStatement, boundSql, parameter);
+        String sql = boundSql.getSql();
+        DataSource dataSource = environment.getDataSource();
+        try {
+            worker.execute(() -> explain(dataSource, statementId, marker, sql, bindings, elapsedMillis));
+            return true;
+        } catch (RejectedExecutionException e) {
+            droppedCount.incrementAndGet();
+            return false;
+        }
+    }
+
+    /**
+     * 获取各statementId最近的采集结果
+     *
+     * @return statementId到结果列表（最新的在前），按statementId排序
+     */
+    public Map<String, List<SqlExplainResult>> snapshot() {
+        Map<String, List<SqlExplainResult>> result = new TreeMap<>();
+        history.forEach((statementId, results) -> {
+            synchronized (results) {
+                result.put(statementId, new ArrayList<>(results));
+            }
+        });
+        return result;
+    }
+
+    /**
+     * 获取已完成的采集次数
+     *
+     * @return 采集次数
+     */
+    public long getCapturedCount() {
+        return capturedCount.get();
+    }
+
+    /**
+     * 获取因队列已满丢弃的次数
+     *
+     * @return 丢弃次数
+     */
+    public long getDroppedCount() {
+        return droppedCount.get();
+    }
+
+    /**
+     * 停止后台线程，丢弃尚未执行的采集
+     */
+    public void shutdown() {
+        worker.shutdownNow();
+    }
+
+    /**
+     * 同一statementId在最小间隔内只允许一次采集
+     */
+    private boolean acquire(String statementId, long minIntervalMillis) {
+        long now = System.currentTimeMillis();
+        AtomicLong last = lastCaptureMillis.get(statementId);
+        if (last == null) {
+            last = lastCaptureMillis.computeIfAbsent(statementId, id -> new AtomicLong(Long.MIN_VALUE / 2));
+        }
+        long previous = last.get();
+        return now - previous >= minIntervalMillis && last.compareAndSet(previous, now);
+    }
+
+    /**
+     * 按MyBatis DefaultParameterHandler取参数值的方式，在业务线程中取出每个占位符的值和TypeHandler，
+     * 避免后台执行时参数对象已被业务修改
+     */
+    private static List<Binding> resolveBindings(MappedStatement mappedStatement, BoundSql boundSql, Object parameter) {
+        List<ParameterMapping> parameterMappings = boundSql.getParameterMappings();
+        if (parameterMappings == null || parameterMappings.isEmpty()) {
+            return Collections.emptyList();
+        }
+        Configuration configuration = mappedStatement.getConfiguration();
+        boolean simpleParameter = parameter != null
+                && configuration.getTypeHandlerRegistry().hasTypeHandler(parameter.getClass());
+        MetaObject metaObject = null;
+        List<Binding> bindings = new ArrayList<>(parameterMappings.size());
+        for (ParameterMapping parameterMapping : parameterMappings) {
+            if (parameterMapping.getMode() == ParameterMode.OUT) {
+                continue;
+            }
+            String property = parameterMapping.getProperty();
+            Object value;
+            if (boundSql.hasAdditionalParameter(property)) {
+                value = boundSql.getAdditionalParameter(property);
+            } else if (parameter == null) {
+                value = null;
+            } else if (simpleParameter) {
+                value = parameter;
+            } else {
+                if (metaObject == null) {
+                    metaObject = configuration.newMetaObject(parameter);
+                }
+                value = metaObject.getValue(property);
+            }
+            JdbcType jdbcType = parameterMapping.getJdbcType();
+            if (value == null && jdbcType == null) {
+                jdbcType = configuration.getJdbcTypeForNull();
+            }
+            bindings.add(new Binding(value, parameterMapping.getTypeHandler(), jdbcType));
+        }
+        return bindings;
+    }
+
+    /**
+     * 在后台线程中执行EXPLAIN并保存结果
+     */
+    private void explain(DataSource dataSource, String statementId, String marker, String sql, List<Binding> bindings,
+                         long elapsedMillis) {
+        // 后台线程可能从创建它的业务线程继承了染色上下文，EXPLAIN不属于该上下文
+        SqlMarkingContext.setCurrentContext(null);
+        List<Map<String, Object>> plan = new ArrayList<>();
+        String error = null;
+        try (Connection connection = dataSource.getConnection();
+             PreparedStatement statement = connection.prepareStatement("EXPLAIN " + sql)) {
+            statement.setQueryTimeout(EXPLAIN_TIMEOUT_SECONDS);
+            bind(statement, bindings);
+            try (ResultSet resultSet = statement.executeQuery()) {
+                ResultSetMetaData metaData = resultSet.getMetaData();
+                while (plan.size() < MAX_PLAN_ROWS && resultSet.next()) {
+                    Map<String, Object> row = new LinkedHashMap<>();
+                    for (int i = 1; i <= metaData.getColumnCount(); i++) {
+                        row.put(metaData.getColumnLabel(i), resultSet.getObject(i));
+                    }
+                    plan.add(row);
+                }
+            }
+        } catch (Exception e) {
+            error = e.getMessage();
+            log.debug("执行计划采集失败 statementId: {}, error: {}", statementId, error);
+        }
+
+        Deque<SqlExplainResult> results = history.computeIfAbsent(statementId, id -> new ArrayDeque<>(historySize));
+        synchronized (results) {
+            SqlExplainResult previous = results.peekFirst();
+            boolean planChanged = error == null && previous != null && previous.getError() == null
+                    && !samePlan(previous.getPlan(), plan);
+            if (planChanged) {
+                log.warn("SQL执行计划变化 - StatementId: {}, 耗时: {}ms, 标记: {}, 之前: {}, 现在: {}",
+                        statementId, elapsedMillis, marker, previous.getPlan(), plan);
+            }
+            results.addFirst(new SqlExplainResult(statementId, marker, sql, elapsedMillis, System.currentTimeMillis(),
+                    plan, planChanged, error));
+            while (results.size() > historySize) {
+                results.removeLast();
+            }
+        }
+        capturedCount.incrementAndGet();
+    }
+
+    private static void bind(PreparedStatement statement, List<Binding> bindings) throws SQLException {
+        for (int i = 0; i < bindings.size(); i++) {
+            Binding binding = bindings.get(i);
+            @SuppressWarnings("unchecked")
+            TypeHandler<Object> typeHandler = (TypeHandler<Object>) binding.typeHandler;
+            if (typeHandler != null) {
+                typeHandler.setParameter(statement, i + 1, binding.value, binding.jdbcType);
+            } else {
+                statement.setObject(i + 1, binding.value);
+            }
+        }
+    }
+
+    /**
+     * 比较两次执行计划，忽略随统计信息变化的估算列（rows、filtered、cost）
+     */
+    static boolean samePlan(List<Map<String, Object>> previous, List<Map<String, Object>> current) {
+        if (previous.size() != current.size()) {
+            return false;
+        }
+        for (int i = 0; i < previous.size(); i++) {
+            Map<String, Object> before = previous.get(i);
+            Map<String, Object> after = current.get(i);
+            if (!before.keySet().equals(after.keySet())) {
+                return false;
+            }
+            for (Map.Entry<String, Object> column : before.entrySet()) {
+                String name = column.getKey();
+                if ("rows".equalsIgnoreCase(name) || "filtered".equalsIgnoreCase(name) || "cost".equalsIgnoreCase(name)) {
+                    continue;
+                }
+                Object value = column.getValue();
+                Object other = after.get(name);
+                if (value == null ? other != null : !value.equals(other)) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 一个占位符的值、TypeHandler和JdbcType
+     */
+    private static final class Binding {
+
+        private final Object value;
+        private final TypeHandler<?> typeHandler;
+        private final JdbcType jdbcType;
+
+        Binding(Object value, TypeHandler<?> typeHandler, JdbcType jdbcType) {
+            this.value = value;
+            this.typeHandler = typeHandler;
+            this.jdbcType = jdbcType;
+        }
+    }
+}
@@ -0,0 +1,68 @@
+package org.aione.sqlmarking;
+
+import lombok.Getter;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 慢SQL的执行计划
+ * 由SqlExplainCapture在后台线程中使用单独的连接执行EXPLAIN得到
+ *
+ * @author Billy
+ */
+@Getter
+public class SqlExplainResult {
+
+    /**
+     * MyBatis StatementId
+     */
+    private final String statementId;
+
+    /**
+     * 触发采集的那次执行的标记信息，可以据此在数据库日志中找到对应的SQL
+     */
+    private final String marker;
+
+    /**
+     * 执行EXPLAIN的SQL（不含标记注释）
+     */
+    private final String sql;
+
+    /**
+     * 触发采集的那次执行的耗时（毫秒）
+     */
+    private final long elapsedMillis;
+
+    /**
+     * 采集时间
+     */
+    private final long capturedAt;
+
+    /**
+     * EXPLAIN返回的行，列名到值，失败时为空列表
+     */
+    private final List<Map<String, Object>> plan;
+
+    /**
+     * 与该statementId上一次采集的执行计划是否不同
+     */
+    private final boolean planChanged;
+
+    /**
+     * EXPLAIN执行失败时的错误信息
+     */
+    private final String error;
+
+    public SqlExplainResult(String statementId, String marker, String sql, long elapsedMillis, long capturedAt,
+                            List<Map<String, Object>> plan, boolean planChanged, String error) {
+        this.statementId = statementId;
+        this.marker = marker;
+        this.sql = sql;
+        this.elapsedMillis = elapsedMillis;
+        this.capturedAt = capturedAt;
+        this.plan = plan;
+        this.planChanged = planChanged;
+        this.error = error;
+    }
+}
@@ -0,0 +1,40 @@
+package org.aione.sqlmarking;
+
+import lombok.Getter;
+
+/**
+ * 热点参数组合
+ * 只包含参数指纹，不包含参数原值
+ *
+ * @author Billy
+ */
+@Getter
+public class SqlHotKey {
+
+    /**
+     * MyBatis StatementId
+     */
+    private final String statementId;
+
+    /**
+     * statementId和参数值的64位指纹，十六进制
+     */
+    private final String fingerprint;
+
+    /**
+     * 采样到的次数（Count-Min Sketch估计值，只会偏大）
+     */
+    private final long sampledCount;
+
+    /**
+     * 按采样率换算的执行次数估计
+     */
+    private final long estimatedCount;
+
+    public SqlHotKey(String statementId, String fingerprint, long sampledCount, long estimatedCount) {
+        this.statementId = statementId;
+        this.fingerprint = fingerprint;
+        this.sampledCount = sampledCount;
+        this.estimatedCount = estimatedCount;
+    }
+}
@@ -0,0 +1,310 @@
+package org.aione.sqlmarking;
+
+import org.apache.ibatis.mapping.BoundSql;
+import org.apache.ibatis.mapping.MappedStatement;
+import org.apache.ibatis.mapping.ParameterMapping;
+import org.apache.ibatis.mapping.ParameterMode;
+import org.apache.ibatis.reflection.MetaObject;
+import org.apache.ibatis.session.Configuration;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 热点参数检测器
+ * <p>
+ * 将statementId和绑定参数值计算为64位指纹，累加到固定大小的Count-Min Sketch中，
+ * 估计次数较高的指纹进入容量为topK两倍的候选列表。内存占用只取决于sketch宽度和topK，
+ * 与请求量和参数取值的数量无关，也不保存参数原值。
+ * <p>
+ * Count-Min Sketch的估计值只会偏大，偏差约为 采样总次数 / 宽度，宽度应明显大于需要区分的热点数量
+ *
+ * @author Billy
+ */
+public class SqlHotKeyDetector {
+
+    /**
+     * sketch行数，每行使用不同的哈希位置
+     */
+    static final int DEPTH = 4;
+
+    private final int width;
+    private final int mask;
+    private final int topK;
+    private final int capacity;
+
+    /**
+     * DEPTH行 × width列计数器
+     */
+    private final AtomicLongArray counters;
+
+    /**
+     * 候选热点，按指纹索引
+     */
+    private final Map<Long, Candidate> candidates = new ConcurrentHashMap<>();
+
+    /**
+     * 候选列表已满时进入列表需要超过的次数，即列表中最小的次数
+     */
+    private volatile long admissionThreshold;
+
+    /**
+     * 采样总次数
+     */
+    private final LongAdder sampledCount = new LongAdder();
+
+    /**
+     * @param width sketch宽度，向上取整为2的幂
+     * @param topK  报告的热点数量
+     */
+    public SqlHotKeyDetector(int width, int topK) {
+        this.width = roundUpToPowerOfTwo(width);
+        this.mask = this.width - 1;
+        this.topK = topK;
+        this.capacity = topK * 2;
+        this.counters = new AtomicLongArray(DEPTH * this.width);
+    }
+
+    /**
+     * 判断是否与指定的大小相同，配置变更后大小不同时需要重新创建
+     */
+    public boolean hasSize(int width, int topK) {
+        return this.width == roundUpToPowerOfTwo(width) && this.topK == topK;
+    }
+
+    /**
+     * 记录一次查询
+     *
+     * @param mappedStatement MappedStatement
+     * @param boundSql        本次执行的BoundSql
+     * @param parameter       执行参数
+     */
+    public void record(MappedStatement mappedStatement, BoundSql boundSql, Object parameter) {
+        record(mappedStatement.getId(), fingerprint(mappedStatement, boundSql, parameter));
+    }
+
+    /**
+     * 记录一次指纹
+     *
+     * @param statementId MyBatis StatementId
+     * @param fingerprint 指纹
+     */
+    public void record(String statementId, long fingerprint) {
+        sampledCount.increment();
+        long estimate = add(fingerprint);
+        Candidate candidate = candidates.get(fingerprint);
+        if (candidate != null) {
+            candidate.count = estimate;
+            return;
+        }
+        // 只出现一次的参数组合不进入候选列表，列表已满时需要超过其中最小的次数
+        if (estimate < 2 || (candidates.size() >= capacity && estimate <= admissionThreshold)) {
+            return;
+        }
+        synchronized (this) {
+            candidates.computeIfAbsent(fingerprint, key -> new Candidate(statementId, key)).count = estimate;
+            if (candidates.size() > capacity) {
+                evictSmallest();
+            }
+        }
+    }
+
+    /**
+     * 获取当前的热点
+     *
+     * @param minCount   最小采样次数
+     * @param sampleRate 采样率，用于换算执行次数
+     * @return 按次数从高到低排序的热点，最多topK个
+     */
+    public List<SqlHotKey> getHotKeys(long minCount, int sampleRate) {
+        List<SqlHotKey> result = new ArrayList<>();
+        for (Candidate candidate : candidates.values()) {
+            long count = estimate(candidate.fingerprint);
+            if (count >= minCount) {
+                result.add(new SqlHotKey(candidate.statementId, Long.toHexString(candidate.fingerprint),
+                        count, count * Math.max(sampleRate, 1)));
+            }
+        }
+        result.sort(Comparator.comparingLong(SqlHotKey::getSampledCount).reversed());
+        return result.size() > topK ? new ArrayList<>(result.subList(0, topK)) : result;
+    }
+
+    /**
+     * 获取采样总次数
+     *
+     * @return 采样次数
+     */
+    public long getSampledCount() {
+        return sampledCount.sum();
+    }
+
+    /**
+     * 清空计数，开始新的统计周期
+     */
+    public synchronized void reset() {
+        for (int i = 0; i < counters.length(); i++) {
+            counters.set(i, 0);
+        }
+        candidates.clear();
+        admissionThreshold = 0;
+        sampledCount.reset();
+    }
+
+    /**
+     * 计算statementId和参数值的指纹，与拦截器记录时的计算方式一致，
+     * 可以用来确认某个已知的参数值是否为报告中的热点
+     *
+     * @param statementId MyBatis StatementId
+     * @param values      按SQL中占位符顺序排列的参数值
+     * @return 指纹
+     */
+    public static long fingerprint(String statementId, Object... values) {
+        long hash = mix64(statementId.hashCode());
+        for (Object value : values) {
+            hash = combine(hash, value);
+        }
+        return hash;
+    }
+
+    /**
+     * 按MyBatis DefaultParameterHandler取参数值的方式，依次取得每个占位符的值计算指纹
+     */
+    static long fingerprint(MappedStatement mappedStatement, BoundSql boundSql, Object parameter) {
+        long hash = mix64(mappedStatement.getId().hashCode());
+        List<ParameterMapping> parameterMappings = boundSql.getParameterMappings();
+        if (parameterMappings == null || parameterMappings.isEmpty()) {
+            return hash;
+        }
+        Configuration configuration = mappedStatement.getConfiguration();
+        boolean simpleParameter = parameter != null
+                && configuration.getTypeHandlerRegistry().hasTypeHandler(parameter.getClass());
+        MetaObject metaObject = null;
+        for (ParameterMapping parameterMapping : parameterMappings) {
+            if (parameterMapping.getMode() == ParameterMode.OUT) {
+                continue;
+            }
+            String property = parameterMapping.getProperty();
+            Object value;
+            if (boundSql.hasAdditionalParameter(property)) {
+                value = boundSql.getAdditionalParameter(property);
+            } else if (parameter == null) {
+                value = null;
+            } else if (simpleParameter) {
+                value = parameter;
+            } else {
+                if (metaObject == null) {
+                    metaObject = configuration.newMetaObject(parameter);
+                }
+                value = metaObject.getValue(property);
+            }
+            hash = combine(hash, value);
+        }
+        return hash;
+    }
+
+    private long add(long fingerprint) {
+        int h1 = (int) fingerprint;
+        int h2 = (int) (fingerprint >>> 32) | 1;
+        long min = Long.MAX_VALUE;
+        for (int i = 0; i < DEPTH; i++) {
+            min = Math.min(min, counters.incrementAndGet(i * width + ((h1 + i * h2) & mask)));
+        }
+        return min;
+    }
+
+    private long estimate(long fingerprint) {
+        int h1 = (int) fingerprint;
+        int h2 = (int) (fingerprint >>> 32) | 1;
+        long min = Long.MAX_VALUE;
+        for (int i = 0; i < DEPTH; i++) {
+            min = Math.min(min, counters.get(i * width + ((h1 + i * h2) & mask)));
+        }
+        return min;
+    }
+
+    private void evictSmallest() {
+        Candidate smallest = null;
+        for (Candidate candidate : candidates.values()) {
+            if (smallest == null || candidate.count < smallest.count) {
+                smallest = candidate;
+            }
+        }
+        candidates.remove(smallest.fingerprint);
+        long threshold = Long.MAX_VALUE;
+        for (Candidate candidate : candidates.values()) {
+            threshold = Math.min(threshold, candidate.count);
+        }
+        admissionThreshold = threshold;
+    }
+
+    /**
+     * 将参数值合并到指纹中
+     * Long、Double和String按完整的64位取值，避免hashCode折叠为32位后不同参数值碰撞
+     */
+    private static long combine(long hash, Object value) {
+        long valueHash;
+        if (value == null) {
+            valueHash = 0;
+        } else if (value instanceof Long) {
+            valueHash = (Long) value;
+        } else if (value instanceof Double) {
+            valueHash = Double.doubleToLongBits((Double) value);
+        } else if (value instanceof String) {
+            valueHash = fnv1a64((String) value);
+        } else if (value instanceof byte[]) {
+            valueHash = Arrays.hashCode((byte[]) value) & 0xFFFFFFFFL;
+        } else if (value instanceof Object[]) {
+            valueHash = Arrays.deepHashCode((Object[]) value) & 0xFFFFFFFFL;
+        } else {
+            valueHash = value.hashCode() & 0xFFFFFFFFL;
+        }
+        return mix64(hash + 0x9E3779B97F4A7C15L + valueHash);
+    }
+
+    /**
+     * FNV-1a的64位字符串哈希
+     */
+    private static long fnv1a64(String value) {
+        long hash = 0xCBF29CE484222325L;
+        for (int i = 0; i < value.length(); i++) {
+            hash ^= value.charAt(i);
+            hash *= 0x100000001B3L;
+        }
+        return hash;
+    }
+
+    /**
+     * MurmurHash3的64位混合函数
+     */
+    private static long mix64(long z) {
+        z = (z ^ (z >>> 33)) * 0xFF51AFD7ED558CCDL;
+        z = (z ^ (z >>> 33)) * 0xC4CEB9FE1A85EC53L;
+        return z ^ (z >>> 33);
+    }
+
+    private static int roundUpToPowerOfTwo(int value) {
+        int n = Math.max(value, 16);
+        return Integer.bitCount(n) == 1 ? n : Integer.highestOneBit(n) << 1;
+    }
+
+    /**
+     * 候选热点
+     */
+    private static final class Candidate {
+
+        private final String statementId;
+        private final long fingerprint;
+        private volatile long count;
+
+        Candidate(String statementId, long fingerprint) {
+            this.statementId = statementId;
+            this.fingerprint = fingerprint;
+        }
+    }
+}
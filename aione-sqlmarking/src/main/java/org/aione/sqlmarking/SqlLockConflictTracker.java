@@ -0,0 +1,410 @@
+package org.aione.sqlmarking;
+
+import lombok.extern.slf4j.Slf4j;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 锁等待超时和死锁归因
+ * <p>
+ * 执行SQL抛出的异常按SQLState和错误码识别为死锁或锁等待超时，
+ * 按 类型、statementId、对方statementId、userId 聚合次数，并保留最近一次的标记信息和调用位置。
+ * MySQL发生死锁时，由后台线程读取 SHOW ENGINE INNODB STATUS 中最近一次死锁的SQL，
+ * 其中包含本方标记时从另一事务SQL的标记中取得对方statementId（需要PROCESS权限）；
+ * 其他情况对方未知，记为 {@link #UNKNOWN}
+ *
+ * @author Billy
+ */
+@Slf4j
+public class SqlLockConflictTracker {
+
+    /**
+     * 对方statementId未知
+     */
+    public static final String UNKNOWN = "?";
+
+    /**
+     * 异常原因链的最大检查深度
+     */
+    static final int MAX_CAUSE_DEPTH = 8;
+
+    /**
+     * 按异常类所在的包识别驱动
+     */
+    private static final String[] MYSQL_DRIVERS = {"com.mysql.", "org.mariadb."};
+    private static final String[] SQL_SERVER_DRIVERS = {"com.microsoft.sqlserver.", "net.sourceforge.jtds."};
+
+    /**
+     * SHOW ENGINE INNODB STATUS的查询超时（秒）
+     */
+    private static final int STATUS_TIMEOUT_SECONDS = 5;
+
+    /**
+     * 等待读取死锁信息的最大数量，已满时不再读取，对方记为未知
+     */
+    private static final int QUEUE_SIZE = 16;
+
+    private static final String DEADLOCK_SECTION = "LATEST DETECTED DEADLOCK";
+
+    private final ConcurrentMap<String, Conflict> conflicts = new ConcurrentHashMap<>();
+
+    private final AtomicLong conflictCount = new AtomicLong(0);
+    private final AtomicLong droppedCount = new AtomicLong(0);
+
+    /**
+     * 读取死锁信息的后台线程，首次需要时创建，空闲时退出
+     */
+    private volatile ThreadPoolExecutor worker;
+
+    /**
+     * 锁冲突类型
+     */
+    public enum Kind {
+
+        /**
+         * 死锁（含序列化冲突），事务已被数据库回滚
+         */
+        DEADLOCK("deadlock"),
+
+        /**
+         * 锁等待超时或NOWAIT加锁失败
+         */
+        LOCK_WAIT_TIMEOUT("lockWaitTimeout");
+
+        private final String code;
+
+        Kind(String code) {
+            this.code = code;
+        }
+
+        public String getCode() {
+            return code;
+        }
+    }
+
+    /**
+     * 识别异常是否为死锁或锁等待超时，依次检查异常原因链中的SQLException
+     * <p>
+     * 死锁：SQLState 40001（MySQL 1213、SQL Server 1205、H2）、40P01（PostgreSQL）、Oracle ORA-00060；
+     * 锁等待超时：MySQL 1205、3572（NOWAIT），SQL Server 1222，H2 50200，PostgreSQL 55P03，Oracle ORA-00054、ORA-30006。
+     * 各数据库的错误码互相重叠（如MySQL 1222是SELECT列数不一致，SQL Server 1205是死锁），
+     * 错误码只在SQLState或驱动匹配时使用
+     *
+     * @param throwable 执行SQL抛出的异常
+     * @return 锁冲突类型，不是锁冲突时返回null
+     */
+    public static Kind classify(Throwable throwable) {
+        Throwable current = throwable;
+        for (int depth = 0; current != null && depth < MAX_CAUSE_DEPTH; depth++) {
+            if (current instanceof SQLException) {
+                Kind kind = classify((SQLException) current);
+                if (kind != null) {
+                    return kind;
+                }
+            }
+            if (current.getCause() == current) {
+                break;
+            }
+            current = current.getCause();
+        }
+        return null;
+    }
+
+    private static Kind classify(SQLException e) {
+        String sqlState = e.getSQLState();
+        int errorCode = e.getErrorCode();
+        if ((errorCode == 1205 || errorCode == 3572) && isMySqlLockWaitState(sqlState, e)) {
+            return Kind.LOCK_WAIT_TIMEOUT;
+        }
+        if ("40001".equals(sqlState) || "40P01".equals(sqlState)) {
+            return Kind.DEADLOCK;
+        }
+        if ("61000".equals(sqlState)) {
+            // Oracle
+            return errorCode == 60 ? Kind.DEADLOCK
+                    : errorCode == 54 || errorCode == 30006 ? Kind.LOCK_WAIT_TIMEOUT : null;
+        }
+        if ("55P03".equals(sqlState)
+                || errorCode == 1222 && isDriver(e, SQL_SERVER_DRIVERS)
+                || errorCode == 50200 && "HYT00".equals(sqlState)) {
+            return Kind.LOCK_WAIT_TIMEOUT;
+        }
+        return null;
+    }
+
+    /**
+     * MySQL服务端返回HY000，Connector/J默认转换为40001（X/Open模式为41000）；
+     * SQL Server的1205同样是40001但表示死锁，40001只在MySQL驱动抛出时按锁等待超时处理
+     */
+    private static boolean isMySqlLockWaitState(String sqlState, SQLException e) {
+        return "HY000".equals(sqlState) || "41000".equals(sqlState)
+                || "40001".equals(sqlState) && isDriver(e, MYSQL_DRIVERS);
+    }
+
+    private static boolean isDriver(SQLException e, String[] packages) {
+        String className = e.getClass().getName();
+        for (String prefix : packages) {
+            if (className.startsWith(prefix)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 记录一次锁冲突，MySQL死锁时在后台线程中读取对方statementId后再聚合
+     *
+     * @param kind         锁冲突类型
+     * @param statementId  本方statementId
+     * @param userId       本方userId
+     * @param marker       本方的标记信息
+     * @param callSite     本方的调用位置
+     * @param dataSource   读取死锁信息使用的数据源，为null时不读取
+     * @param parser       标记解析器
+     * @param maxKeys      聚合项数量上限
+     */
+    public void record(Kind kind, String statementId, String userId, String marker, String callSite,
+                       DataSource dataSource, SqlMarkingParser parser, int maxKeys) {
+        conflictCount.incrementAndGet();
+        if (kind == Kind.DEADLOCK && dataSource != null) {
+            String pFinderId = pFinderId(marker, parser);
+            if (pFinderId != null) {
+                try {
+                    worker().execute(() -> {
+                        // 后台线程可能从业务线程继承了染色上下文，读取死锁信息不属于该上下文
+                        SqlMarkingContext.setCurrentContext(null);
+                        Counterpart counterpart = resolveCounterpart(dataSource, parser, pFinderId);
+                        aggregate(kind, statementId, userId, marker, callSite, counterpart, maxKeys);
+                    });
+                    return;
+                } catch (RejectedExecutionException e) {
+                    log.debug("死锁信息读取队列已满，对方记为未知 statementId: {}", statementId);
+                }
+            }
+        }
+        aggregate(kind, statementId, userId, marker, callSite, null, maxKeys);
+    }
+
+    /**
+     * 获取聚合的锁冲突，按次数从高到低排序
+     *
+     * @return 锁冲突列表
+     */
+    public List<Map<String, Object>> snapshot() {
+        List<Conflict> sorted = new ArrayList<>(conflicts.values());
+        sorted.sort(Comparator.comparingLong((Conflict conflict) -> conflict.count.get()).reversed());
+        List<Map<String, Object>> result = new ArrayList<>(sorted.size());
+        for (Conflict conflict : sorted) {
+            result.add(conflict.describe());
+        }
+        return result;
+    }
+
+    /**
+     * 获取锁冲突总次数
+     *
+     * @return 次数
+     */
+    public long getConflictCount() {
+        return conflictCount.get();
+    }
+
+    /**
+     * 获取因聚合项数量达到上限未聚合的次数
+     *
+     * @return 次数
+     */
+    public long getDroppedCount() {
+        return droppedCount.get();
+    }
+
+    /**
+     * 清空统计
+     */
+    public void reset() {
+        conflicts.clear();
+        conflictCount.set(0);
+        droppedCount.set(0);
+    }
+
+    private void aggregate(Kind kind, String statementId, String userId, String marker, String callSite,
+                           Counterpart counterpart, int maxKeys) {
+        String counterpartStatementId = counterpart != null ? counterpart.statementId : UNKNOWN;
+        String key = kind.code + '|' + statementId + '|' + counterpartStatementId + '|' + userId;
+        Conflict conflict = conflicts.get(key);
+        if (conflict == null) {
+            if (conflicts.size() >= maxKeys) {
+                droppedCount.incrementAndGet();
+                return;
+            }
+            conflict = conflicts.computeIfAbsent(key,
+                    k -> new Conflict(kind, statementId, counterpartStatementId, userId));
+        }
+        conflict.record(marker, callSite, counterpart != null ? counterpart.marker : null);
+        log.warn("SQL锁冲突 - 类型: {}, StatementId: {}, 对方: {}, 用户: {}, 次数: {}, 调用位置: {}, 标记: {}, 对方标记: {}",
+                kind.code, statementId, counterpartStatementId, userId, conflict.count.get(), callSite, marker,
+                counterpart != null ? counterpart.marker : "-");
+    }
+
+    /**
+     * 从最近一次死锁的SQL中找出对方的标记，最近一次死锁不包含本方标记时返回null
+     */
+    private static Counterpart resolveCounterpart(DataSource dataSource, SqlMarkingParser parser, String pFinderId) {
+        String status;
+        try (Connection connection = dataSource.getConnection()) {
+            String product = connection.getMetaData().getDatabaseProductName();
+            if (product == null || !(product.contains("MySQL") || product.contains("MariaDB"))) {
+                return null;
+            }
+            try (Statement statement = connection.createStatement()) {
+                statement.setQueryTimeout(STATUS_TIMEOUT_SECONDS);
+                try (ResultSet resultSet = statement.executeQuery("SHOW ENGINE INNODB STATUS")) {
+                    status = resultSet.next() ? resultSet.getString("Status") : null;
+                }
+            }
+        } catch (Exception e) {
+            log.debug("读取死锁信息失败 error: {}", e.getMessage());
+            return null;
+        }
+        if (status == null) {
+            return null;
+        }
+        int from = status.indexOf(DEADLOCK_SECTION);
+        if (from < 0) {
+            return null;
+        }
+        int to = status.indexOf("\nTRANSACTIONS\n", from);
+        return findCounterpart(status, from, to > 0 ? to : status.length(), parser, pFinderId);
+    }
+
+    /**
+     * 在死锁信息中查找全部标记，包含本方标记时返回其他标记中的statementId，多个时以+连接
+     */
+    static Counterpart findCounterpart(CharSequence text, int from, int to, SqlMarkingParser parser,
+                                       String pFinderId) {
+        boolean found = false;
+        Set<String> statementIds = new LinkedHashSet<>();
+        String marker = null;
+        SqlMarkingView view = new SqlMarkingView();
+        int position = from;
+        while (position < to && parser.parse(text, position, to, view)) {
+            if (view.matches(SqlMarkingField.PFINDER_ID, pFinderId)) {
+                found = true;
+            } else if (view.has(SqlMarkingField.STATEMENT)) {
+                statementIds.add(view.get(SqlMarkingField.STATEMENT));
+                if (marker == null) {
+                    marker = text.subSequence(view.getMarkerStart(), view.getMarkerEnd()).toString();
+                }
+            }
+            position = view.getMarkerEnd();
+        }
+        return found && !statementIds.isEmpty() ? new Counterpart(String.join("+", statementIds), marker) : null;
+    }
+
+    private static String pFinderId(String marker, SqlMarkingParser parser) {
+        SqlMarkingView view = new SqlMarkingView();
+        return marker != null && parser.parse(marker, view) ? view.get(SqlMarkingField.PFINDER_ID) : null;
+    }
+
+    private ThreadPoolExecutor worker() {
+        ThreadPoolExecutor executor = worker;
+        if (executor == null) {
+            synchronized (this) {
+                executor = worker;
+                if (executor == null) {
+                    executor = new ThreadPoolExecutor(1, 1, 60, TimeUnit.SECONDS,
+                            new ArrayBlockingQueue<>(QUEUE_SIZE), runnable -> {
+                        Thread thread = new Thread(runnable, "sql-marking-lock-conflict");
+                        thread.setDaemon(true);
+                        return thread;
+                    });
+                    executor.allowCoreThreadTimeOut(true);
+                    worker = executor;
+                }
+            }
+        }
+        return executor;
+    }
+
+    /**
+     * 死锁中对方的statementId和标记
+     */
+    static final class Counterpart {
+
+        final String statementId;
+        final String marker;
+
+        Counterpart(String statementId, String marker) {
+            this.statementId = statementId;
+            this.marker = marker;
+        }
+    }
+
+    /**
+     * 一个 类型、statementId、对方statementId、userId 组合的聚合
+     */
+    private static final class Conflict {
+
+        private final Kind kind;
+        private final String statementId;
+        private final String counterpartStatementId;
+        private final String userId;
+
+        private final AtomicLong count = new AtomicLong(0);
+        private final long firstTime = System.currentTimeMillis();
+        private volatile long lastTime;
+        private volatile String lastMarker;
+        private volatile String lastCallSite;
+        private volatile String lastCounterpartMarker;
+
+        Conflict(Kind kind, String statementId, String counterpartStatementId, String userId) {
+            this.kind = kind;
+            this.statementId = statementId;
+            this.counterpartStatementId = counterpartStatementId;
+            this.userId = userId;
+        }
+
+        void record(String marker, String callSite, String counterpartMarker) {
+            count.incrementAndGet();
+            lastTime = System.currentTimeMillis();
+            lastMarker = marker;
+            lastCallSite = callSite;
+            if (counterpartMarker != null) {
+                lastCounterpartMarker = counterpartMarker;
+            }
+        }
+
+        Map<String, Object> describe() {
+            Map<String, Object> result = new LinkedHashMap<>();
+            result.put("kind", kind.code);
+            result.put("statementId", statementId);
+            result.put("counterpartStatementId", counterpartStatementId);
+            result.put("userId", userId);
+            result.put("count", count.get());
+            result.put("firstTime", firstTime);
+            result.put("lastTime", lastTime);
+            result.put("lastCallSite", lastCallSite);
+            result.put("lastMarker", lastMarker);
+            result.put("lastCounterpartMarker", lastCounterpartMarker);
+            return result;
+        }
+    }
+}
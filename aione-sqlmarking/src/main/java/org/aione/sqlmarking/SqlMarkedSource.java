@@ -2,42 +2,100 @@ package org.aione.sqlmarking;
 
 import org.apache.ibatis.mapping.BoundSql;
 import org.apache.ibatis.mapping.ParameterMapping;
+import org.apache.ibatis.mapping.SqlSource;
+import org.apache.ibatis.reflection.property.PropertyTokenizer;
 import org.apache.ibatis.session.Configuration;
 
-import java.util.List;
+import java.util.function.UnaryOperator;
 
 /**
- * 染色SQL源实现，继承自MyBatis的StaticSqlSource
- * 用于创建带有数据源染色标记的BoundSql对象
- * 主要功能是在SQL执行时标记其使用的数据源类型（读/写）
- * 
+ * 染色SQL源实现，包装原MappedStatement的SqlSource
+ * 用于在Executor.update执行时生成带有标记（含读写路由）的BoundSql
+ * <p>
+ * Executor.update没有BoundSql参数，执行器内部会重新调用MappedStatement.getBoundSql。
+ * 拦截器为每个MappedStatement缓存一个使用本类的副本，执行前在当前线程设置标记函数，
+ * 执行器获取BoundSql时再对SQL进行标记，动态SQL只计算一次，且在主键生成之后计算。
+ * 生成的SQL在恢复标记函数前保留在当前线程，执行失败时拦截器从中取得标记信息。
+ *
  * @author Billy
- * @version 1.0 
+ * @version 1.0
  * @since 2025-05-13
  */
-public class SqlMarkedSource extends org.apache.ibatis.builder.StaticSqlSource {
+public class SqlMarkedSource implements SqlSource {
 
-    private final String sql;
-    private final List<ParameterMapping> parameterMappings;
-    private final Configuration configuration;
+    private static final ThreadLocal<UnaryOperator<String>> MARKER = new ThreadLocal<>();
 
-    public SqlMarkedSource(Configuration configuration, String sql) {
-        super(configuration, sql);
-        this.configuration = configuration;
-        this.sql = sql;
-        this.parameterMappings = null;
-    }
+    /**
+     * 当前标记函数最近一次生成的SQL，执行失败时用于记录标记信息
+     */
+    private static final ThreadLocal<String> MARKED_SQL = new ThreadLocal<>();
 
-    public SqlMarkedSource(Configuration configuration, String sql, List<ParameterMapping> parameterMappings) {
-        super(configuration, sql, parameterMappings);
+    private final Configuration configuration;
+    private final SqlSource delegate;
+
+    public SqlMarkedSource(Configuration configuration, SqlSource delegate) {
         this.configuration = configuration;
-        this.sql = sql;
-        this.parameterMappings = parameterMappings;
+        this.delegate = delegate;
     }
 
     @Override
     public BoundSql getBoundSql(Object parameterObject) {
-        BoundSql boundSql = new BoundSql(configuration, sql, parameterMappings, parameterObject);
-        return boundSql;
+        BoundSql boundSql = delegate.getBoundSql(parameterObject);
+        UnaryOperator<String> marker = MARKER.get();
+        if (marker == null) {
+            return boundSql;
+        }
+        String markedSql = marker.apply(boundSql.getSql());
+        if (markedSql == null) {
+            return boundSql;
+        }
+        MARKED_SQL.set(markedSql);
+        return withSql(configuration, boundSql, markedSql);
+    }
+
+    /**
+     * 设置当前线程的标记函数，函数返回null表示不标记
+     *
+     * @param marker 标记函数，为null时清除
+     * @return 设置前的标记函数，用于执行结束后恢复
+     */
+    static UnaryOperator<String> setMarker(UnaryOperator<String> marker) {
+        UnaryOperator<String> previous = MARKER.get();
+        MARKED_SQL.remove();
+        if (marker == null) {
+            MARKER.remove();
+        } else {
+            MARKER.set(marker);
+        }
+        return previous;
+    }
+
+    /**
+     * 获取当前标记函数最近一次生成的SQL，在设置标记函数之后、恢复之前调用
+     *
+     * @return 标记后的SQL，尚未生成或未标记时返回null
+     */
+    static String getMarkedSql() {
+        return MARKED_SQL.get();
+    }
+
+    /**
+     * 使用新的SQL复制BoundSql
+     * 附加参数（foreach、bind生成的参数）按参数映射中的属性名逐个复制，不依赖反射
+     *
+     * @param configuration MyBatis配置
+     * @param boundSql      原BoundSql
+     * @param sql           新的SQL
+     * @return 新的BoundSql
+     */
+    public static BoundSql withSql(Configuration configuration, BoundSql boundSql, String sql) {
+        BoundSql copy = new BoundSql(configuration, sql, boundSql.getParameterMappings(), boundSql.getParameterObject());
+        for (ParameterMapping parameterMapping : boundSql.getParameterMappings()) {
+            String name = new PropertyTokenizer(parameterMapping.getProperty()).getName();
+            if (boundSql.hasAdditionalParameter(name) && !copy.hasAdditionalParameter(name)) {
+                copy.setAdditionalParameter(name, boundSql.getAdditionalParameter(name));
+            }
+        }
+        return copy;
     }
-}
\ No newline at end of file
+}
@@ -3,13 +3,20 @@ package org.aione.sqlmarking;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.ibatis.session.SqlSessionFactory;
 import org.springframework.beans.BeansException;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.SmartInitializingSingleton;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.beans.factory.config.BeanPostProcessor;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnClass;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.boot.context.properties.EnableConfigurationProperties;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 
+import javax.sql.DataSource;
+import java.io.IOException;
+import java.nio.file.Paths;
+
 /**
  * SQL染色插件自动配置类
  * 使用BeanPostProcessor避免循环依赖问题
@@ -30,14 +37,61 @@ public class SqlMarkingAutoConfiguration {
         return interceptor;
     }
 
+    /**
+     * 配置了热加载文件时监听文件变化，修改后自动替换配置快照
+     */
+    @Bean(destroyMethod = "close")
+    @ConditionalOnProperty(prefix = "mybatis.sql-marking", name = "reload-file")
+    public SqlMarkingConfigWatcher sqlMarkingConfigWatcher(SqlMarkingInterceptor sqlMarkingInterceptor,
+                                                           SqlMarkingConfig sqlMarkingConfig) throws IOException {
+        SqlMarkingConfigWatcher watcher = new SqlMarkingConfigWatcher(sqlMarkingInterceptor,
+                Paths.get(sqlMarkingConfig.getReloadFile()));
+        watcher.start();
+        return watcher;
+    }
+
+    /**
+     * 所有单例创建完成后注册性能剖析监听器，避免在BeanPostProcessor阶段提前创建业务Bean
+     */
+    @Bean
+    public SmartInitializingSingleton sqlProfileListenerRegistrar(SqlMarkingConfig sqlMarkingConfig,
+                                                                  ObjectProvider<SqlProfileListener> profileListeners) {
+        return () -> {
+            String exportDir = sqlMarkingConfig.getProfileExportDir();
+            if (exportDir != null && !exportDir.isEmpty()) {
+                SqlMarkingContext.addProfileListener(
+                        new SqlChromeTraceExporter(exportDir, sqlMarkingConfig.getProfileExportMinMillis()));
+            }
+            profileListeners.orderedStream().forEach(SqlMarkingContext::addProfileListener);
+        };
+    }
+
+    /**
+     * 全部单例创建完成后预热拦截器，此时SqlSessionFactory已加载完所有Mapper
+     */
+    @Bean
+    @ConditionalOnProperty(prefix = "mybatis.sql-marking", name = "warm-up-enabled", matchIfMissing = true)
+    public SmartInitializingSingleton sqlMarkingWarmUp(SqlMarkingInterceptor sqlMarkingInterceptor,
+                                                       ObjectProvider<SqlSessionFactory> sqlSessionFactories) {
+        return () -> sqlSessionFactories.orderedStream().forEach(sqlSessionFactory -> {
+            try {
+                sqlMarkingInterceptor.warmUp(sqlSessionFactory.getConfiguration());
+            } catch (Exception e) {
+                log.warn("SQL标记预热失败，首次执行时再编译: {}", e.getMessage(), e);
+            }
+        });
+    }
+
     @Bean
     public BeanPostProcessor sqlMarkingBeanPostProcessor(SqlMarkingInterceptor sqlMarkingInterceptor) {
         return new BeanPostProcessor() {
             @Override
             public Object postProcessAfterInitialization(Object bean, String beanName) throws BeansException {
                 if (bean instanceof SqlSessionFactory) {
-                    if (sqlMarkingInterceptor.getConfig().isEnabled()) {
-                        SqlSessionFactory sqlSessionFactory = (SqlSessionFactory) bean;
+                    SqlSessionFactory sqlSessionFactory = (SqlSessionFactory) bean;
+                    // MyBatis Plus等自动配置会收集Interceptor类型的Bean，避免重复注册导致同一SQL被拦截两次
+                    // 未启用时同样注册，拦截器按配置快照直接放行，支持运行时热更新启用
+                    if (!sqlSessionFactory.getConfiguration().getInterceptors().contains(sqlMarkingInterceptor)) {
                         sqlSessionFactory.getConfiguration().addInterceptor(sqlMarkingInterceptor);
                         log.info("SQL染色拦截器已添加到SqlSessionFactory: {} ({})",
                                 sqlSessionFactory.getClass().getSimpleName(), beanName);
@@ -47,4 +101,35 @@ public class SqlMarkingAutoConfiguration {
             }
         };
     }
+
+    /**
+     * 启用DataSource代理时包装所有DataSource Bean，标记JdbcTemplate等不经过MyBatis的SQL
+     */
+    @Bean
+    @ConditionalOnProperty(prefix = "mybatis.sql-marking", name = "data-source-proxy-enabled", havingValue = "true")
+    public BeanPostProcessor sqlMarkingDataSourcePostProcessor(SqlMarkingInterceptor sqlMarkingInterceptor) {
+        return new BeanPostProcessor() {
+            @Override
+            public Object postProcessAfterInitialization(Object bean, String beanName) throws BeansException {
+                if (bean instanceof DataSource && !(bean instanceof SqlMarkingDataSource)) {
+                    log.info("DataSource已包装为SqlMarkingDataSource: {}", beanName);
+                    return new SqlMarkingDataSource((DataSource) bean, sqlMarkingInterceptor);
+                }
+                return bean;
+            }
+        };
+    }
+
+    /**
+     * 存在Actuator时注册配置查看与热更新端点
+     */
+    @Configuration
+    @ConditionalOnClass(name = "org.springframework.boot.actuate.endpoint.annotation.Endpoint")
+    static class SqlMarkingEndpointConfiguration {
+
+        @Bean
+        public SqlMarkingEndpoint sqlMarkingEndpoint(SqlMarkingInterceptor sqlMarkingInterceptor) {
+            return new SqlMarkingEndpoint(sqlMarkingInterceptor);
+        }
+    }
 }
\ No newline at end of file
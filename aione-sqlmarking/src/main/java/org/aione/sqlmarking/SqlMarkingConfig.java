@@ -90,6 +90,338 @@ public class SqlMarkingConfig {
      */
     private String infoSeparator = "|";
 
+    /**
+     * 是否启用N+1查询检测（需要设置SqlMarkingContext）
+     */
+    private boolean repeatedQueryDetectEnabled = false;
+
+    /**
+     * 同一上下文中同一statementId和参数形态的执行次数告警阈值
+     */
+    private int repeatedQueryThreshold = 50;
+
+    /**
+     * 是否启用按上下文的数据库性能剖析（需要设置SqlMarkingContext）
+     */
+    private boolean profileEnabled = false;
+
+    /**
+     * 每个上下文时间线的最大记录数
+     */
+    private int profileMaxEvents = 1000;
+
+    /**
+     * Chrome Trace导出目录，为空时不导出文件
+     */
+    private String profileExportDir;
+
+    /**
+     * 数据库总耗时低于该值（毫秒）的上下文不导出
+     */
+    private long profileExportMinMillis = 0;
+
+    /**
+     * 是否启用读写路由标记
+     */
+    private boolean routeEnabled = false;
+
+    /**
+     * 路由提示格式：marker（只写入标记字段rw）、shardingsphere（写操作追加WRITE_ROUTE_ONLY提示）、
+     * custom（使用routeReadHint、routeWriteHint）
+     */
+    private String routeHintStyle = "marker";
+
+    /**
+     * 自定义读路由提示，如 /* route=replica *&#47;，为空时不追加；必须是一个完整的注释
+     */
+    private String routeReadHint;
+
+    /**
+     * 自定义写路由提示，如 /* route=primary *&#47;，为空时不追加；必须是一个完整的注释
+     */
+    private String routeWriteHint;
+
+    /**
+     * 同一上下文中执行写操作后，后续读操作是否也路由到主库
+     */
+    private boolean routeStickyWrite = true;
+
+    /**
+     * 是否启用分片键提示
+     */
+    private boolean shardHintEnabled = false;
+
+    /**
+     * 从SQL参数中读取分片键的属性名，多个用逗号分隔，按顺序取第一个非空值，如 userId,et.userId
+     */
+    private String shardKeyParameter;
+
+    /**
+     * 上下文和SQL参数中都没有分片键时，是否使用上下文中的userId
+     */
+    private boolean shardKeyFromUserId = true;
+
+    /**
+     * 分片提示模板，{value}替换为分片键，追加在SQL开头，为空时只写入标记字段shard；
+     * 必须是一个完整的注释并且只包含一个{value}
+     */
+    private String shardHintTemplate;
+
+    /**
+     * 优化器提示规则，多条用分号分隔，格式为 statementId通配符=提示内容，
+     * 如 *.UserMapper.findByAgeRange=MAX_EXECUTION_TIME(1000)，提示以 /*+ ... *&#47; 形式插入到SQL关键字之后
+     */
+    private String optimizerHints;
+
+    /**
+     * 节点标识，用于生成PFinderId和TraceId，为空时根据网卡地址在后台自动解析
+     * 1-8位十六进制直接使用，其他字符串（如主机名、Pod名）取32位哈希
+     */
+    private String nodeId;
+
+    /**
+     * 追踪上下文桥接：none 使用上下文或本地生成的标识；opentelemetry 优先使用当前Span的TraceId和SpanId
+     */
+    private String traceBridge = "none";
+
+    /**
+     * 是否在启动完成后预热：预先编译静态SQL的标记计划，触发节点标识解析
+     */
+    private boolean warmUpEnabled = true;
+
+    /**
+     * 是否按statementId统计查询返回行数的分布
+     */
+    private boolean rowCountTrackEnabled = false;
+
+    /**
+     * 查询返回行数上限，为0时不检查；调用方传入ResultHandler或带limit的RowBounds时不检查
+     */
+    private int maxRows = 0;
+
+    /**
+     * 返回行数超过上限时的处理：warn 输出告警日志并正常返回；reject 最多读取maxRows+1行后抛出SqlMarkingRejectedException
+     */
+    private String maxRowsAction = "warn";
+
+    /**
+     * 是否按statementId和参数值指纹统计热点查询
+     */
+    private boolean hotKeyDetectEnabled = false;
+
+    /**
+     * 热点统计采样率，每N次查询记录1次，为1时全部记录
+     */
+    private int hotKeySampleRate = 1;
+
+    /**
+     * 报告的热点数量
+     */
+    private int hotKeyTopK = 20;
+
+    /**
+     * Count-Min Sketch宽度，向上取整为2的幂，内存占用为 4 × 宽度 × 8 字节
+     */
+    private int hotKeySketchWidth = 4096;
+
+    /**
+     * 报告的最小采样次数
+     */
+    private int hotKeyMinCount = 10;
+
+    /**
+     * 热点报告周期（秒），每个周期输出一次日志并重新统计，为0时不输出日志、持续累计
+     */
+    private int hotKeyReportSeconds = 60;
+
+    /**
+     * 是否在标记中输出规范化SQL摘要（dg字段），字面量和IN列表长度不同的SQL摘要相同
+     */
+    private boolean digestEnabled = false;
+
+    /**
+     * 参与摘要计算的规范化SQL最大长度，超出部分不参与摘要
+     */
+    private int digestMaxLength = 1024;
+
+    /**
+     * 是否对执行耗时超过阈值的SQL在后台采集执行计划（EXPLAIN）
+     */
+    private boolean explainEnabled = false;
+
+    /**
+     * 触发执行计划采集的执行耗时阈值（毫秒）
+     */
+    private long explainThresholdMillis = 1000L;
+
+    /**
+     * 执行计划采集采样率，每N次超过阈值的执行采集1次
+     */
+    private int explainSampleRate = 1;
+
+    /**
+     * 同一statementId两次采集执行计划的最小间隔（秒）
+     */
+    private int explainMinIntervalSeconds = 60;
+
+    /**
+     * 等待执行的EXPLAIN最大数量，队列已满时丢弃新的采集
+     */
+    private int explainQueueSize = 16;
+
+    /**
+     * 每个statementId保留的执行计划数量
+     */
+    private int explainHistorySize = 5;
+
+    /**
+     * 是否在同一个SqlMarkingContext内缓存相同statementId和参数的查询结果，上下文中执行写操作或上下文清除时丢弃；
+     * Spring事务中的查询和加锁读不缓存，缓存的结果对象在请求内共享
+     */
+    private boolean contextQueryCacheEnabled = false;
+
+    /**
+     * 每个上下文最多缓存的查询数量，达到上限后不再缓存新的查询
+     */
+    private int contextQueryCacheMaxEntries = 256;
+
+    /**
+     * 是否合并SqlBatchLoader的并发单键查询，关闭时每次调用都直接查询
+     */
+    private boolean batchLoadEnabled = false;
+
+    /**
+     * 合并窗口（毫秒），第一个调用方最多等待的时间
+     */
+    private long batchLoadWindowMillis = 2L;
+
+    /**
+     * 一次合并的最大调用方数量，达到后立即查询
+     */
+    private int batchLoadMaxSize = 100;
+
+    /**
+     * 是否按statementId限制并发执行数，上限根据执行耗时自适应调整
+     */
+    private boolean concurrencyLimitEnabled = false;
+
+    /**
+     * 并发限制的范围：statement 每个statementId单独限制；mapper 同一Mapper的语句共用一个限制
+     */
+    private String concurrencyLimitScope = "statement";
+
+    /**
+     * 并发上限的初始值
+     */
+    private int concurrencyLimitInitial = 20;
+
+    /**
+     * 并发上限的最小值
+     */
+    private int concurrencyLimitMin = 2;
+
+    /**
+     * 并发上限的最大值，通常不超过连接池大小
+     */
+    private int concurrencyLimitMax = 100;
+
+    /**
+     * 达到并发上限时最多等待的时间（毫秒），为0时立即拒绝
+     */
+    private long concurrencyLimitQueueMillis = 10L;
+
+    /**
+     * 是否按用户或租户统计数据库耗时和SQL执行次数
+     */
+    private boolean accountingEnabled = false;
+
+    /**
+     * 统计使用的标识：userId 使用上下文中的userId；其他值为上下文自定义信息的键，如 tenantId
+     */
+    private String accountingKey = "userId";
+
+    /**
+     * 统计的用户或租户数量上限，超出后新的标识计入 ~other
+     */
+    private int accountingMaxKeys = 1024;
+
+    /**
+     * 报告的数据库耗时最高的用户或租户数量
+     */
+    private int accountingTopN = 20;
+
+    /**
+     * 每个用户或租户每秒的数据库耗时配额（毫秒），为0时不限制
+     */
+    private long accountingQuotaMillisPerSecond = 0L;
+
+    /**
+     * 单独指定的配额，多条用分号分隔，格式为 标识=每秒毫秒数，如 tenantA=500;tenantB=0，为0表示不限制该标识
+     */
+    private String accountingQuotaOverrides;
+
+    /**
+     * 超过配额后的处理方式：reject 拒绝执行；delay 延迟执行，降低该用户或租户的执行速率，Spring事务中不延迟
+     */
+    private String accountingQuotaAction = "reject";
+
+    /**
+     * delay方式每条SQL延迟的时间（毫秒）
+     */
+    private long accountingQuotaDelayMillis = 50L;
+
+    /**
+     * 是否剖析Spring事务：标记中增加事务标识tx，记录事务耗时、SQL数量和SQL之间的空闲时间
+     */
+    private boolean transactionProfileEnabled = false;
+
+    /**
+     * 长事务阈值（毫秒），事务耗时超过该值时输出告警并记录SQL列表
+     */
+    private long transactionThresholdMillis = 1000L;
+
+    /**
+     * 每个事务记录的SQL数量上限，超出后只计数
+     */
+    private int transactionMaxStatements = 100;
+
+    /**
+     * 是否识别死锁和锁等待超时，按statementId、对方statementId和userId聚合
+     */
+    private boolean lockConflictEnabled = false;
+
+    /**
+     * MySQL死锁时是否读取 SHOW ENGINE INNODB STATUS 解析对方SQL的标记，需要PROCESS权限
+     */
+    private boolean lockConflictInnodbStatus = true;
+
+    /**
+     * 锁冲突聚合项数量上限，超出后新的组合只计数
+     */
+    private int lockConflictMaxKeys = 256;
+
+    /**
+     * 拦截方式：proxy 使用Plugin.wrap动态代理；direct 直接装饰Executor，省去代理和反射调用，
+     * 切换后对新打开的SqlSession生效
+     */
+    private String interceptMode = "proxy";
+
+    /**
+     * 是否包装DataSource，在prepareStatement/createStatement时标记不经过MyBatis的SQL（如JdbcTemplate）
+     * 启动时为false则不包装，运行时可以关闭已包装的DataSource的标记
+     */
+    private boolean dataSourceProxyEnabled = false;
+
+    /**
+     * DataSource代理按SQL文本缓存标记计划的最大条数，超出后不再缓存新的SQL，为0时不缓存
+     */
+    private int dataSourceSqlCacheSize = 1024;
+
+    /**
+     * 热加载配置文件路径（Properties格式，键名与loadFromProperties一致），为空时不监听
+     */
+    private String reloadFile;
+
 
     /**
      * 从Properties加载配置
@@ -141,6 +473,334 @@ public class SqlMarkingConfig {
         if (properties.containsKey("infoSeparator")) {
             this.infoSeparator = properties.getProperty("infoSeparator");
         }
+        if (properties.containsKey("repeatedQueryDetectEnabled")) {
+            this.repeatedQueryDetectEnabled = Boolean.parseBoolean(properties.getProperty("repeatedQueryDetectEnabled"));
+        }
+        if (properties.containsKey("repeatedQueryThreshold")) {
+            this.repeatedQueryThreshold = Integer.parseInt(properties.getProperty("repeatedQueryThreshold"));
+        }
+        if (properties.containsKey("profileEnabled")) {
+            this.profileEnabled = Boolean.parseBoolean(properties.getProperty("profileEnabled"));
+        }
+        if (properties.containsKey("profileMaxEvents")) {
+            this.profileMaxEvents = Integer.parseInt(properties.getProperty("profileMaxEvents"));
+        }
+        if (properties.containsKey("profileExportDir")) {
+            this.profileExportDir = properties.getProperty("profileExportDir");
+        }
+        if (properties.containsKey("profileExportMinMillis")) {
+            this.profileExportMinMillis = Long.parseLong(properties.getProperty("profileExportMinMillis"));
+        }
+        if (properties.containsKey("routeEnabled")) {
+            this.routeEnabled = Boolean.parseBoolean(properties.getProperty("routeEnabled"));
+        }
+        if (properties.containsKey("routeHintStyle")) {
+            this.routeHintStyle = properties.getProperty("routeHintStyle");
+        }
+        if (properties.containsKey("routeReadHint")) {
+            this.routeReadHint = properties.getProperty("routeReadHint");
+        }
+        if (properties.containsKey("routeWriteHint")) {
+            this.routeWriteHint = properties.getProperty("routeWriteHint");
+        }
+        if (properties.containsKey("routeStickyWrite")) {
+            this.routeStickyWrite = Boolean.parseBoolean(properties.getProperty("routeStickyWrite"));
+        }
+        if (properties.containsKey("shardHintEnabled")) {
+            this.shardHintEnabled = Boolean.parseBoolean(properties.getProperty("shardHintEnabled"));
+        }
+        if (properties.containsKey("shardKeyParameter")) {
+            this.shardKeyParameter = properties.getProperty("shardKeyParameter");
+        }
+        if (properties.containsKey("shardKeyFromUserId")) {
+            this.shardKeyFromUserId = Boolean.parseBoolean(properties.getProperty("shardKeyFromUserId"));
+        }
+        if (properties.containsKey("shardHintTemplate")) {
+            this.shardHintTemplate = properties.getProperty("shardHintTemplate");
+        }
+        if (properties.containsKey("optimizerHints")) {
+            this.optimizerHints = properties.getProperty("optimizerHints");
+        }
+        if (properties.containsKey("nodeId")) {
+            this.nodeId = properties.getProperty("nodeId");
+        }
+        if (properties.containsKey("traceBridge")) {
+            this.traceBridge = properties.getProperty("traceBridge");
+        }
+        if (properties.containsKey("warmUpEnabled")) {
+            this.warmUpEnabled = Boolean.parseBoolean(properties.getProperty("warmUpEnabled"));
+        }
+        if (properties.containsKey("rowCountTrackEnabled")) {
+            this.rowCountTrackEnabled = Boolean.parseBoolean(properties.getProperty("rowCountTrackEnabled"));
+        }
+        if (properties.containsKey("maxRows")) {
+            this.maxRows = Integer.parseInt(properties.getProperty("maxRows"));
+        }
+        if (properties.containsKey("maxRowsAction")) {
+            this.maxRowsAction = properties.getProperty("maxRowsAction");
+        }
+        if (properties.containsKey("hotKeyDetectEnabled")) {
+            this.hotKeyDetectEnabled = Boolean.parseBoolean(properties.getProperty("hotKeyDetectEnabled"));
+        }
+        if (properties.containsKey("hotKeySampleRate")) {
+            this.hotKeySampleRate = Integer.parseInt(properties.getProperty("hotKeySampleRate"));
+        }
+        if (properties.containsKey("hotKeyTopK")) {
+            this.hotKeyTopK = Integer.parseInt(properties.getProperty("hotKeyTopK"));
+        }
+        if (properties.containsKey("hotKeySketchWidth")) {
+            this.hotKeySketchWidth = Integer.parseInt(properties.getProperty("hotKeySketchWidth"));
+        }
+        if (properties.containsKey("hotKeyMinCount")) {
+            this.hotKeyMinCount = Integer.parseInt(properties.getProperty("hotKeyMinCount"));
+        }
+        if (properties.containsKey("hotKeyReportSeconds")) {
+            this.hotKeyReportSeconds = Integer.parseInt(properties.getProperty("hotKeyReportSeconds"));
+        }
+        if (properties.containsKey("digestEnabled")) {
+            this.digestEnabled = Boolean.parseBoolean(properties.getProperty("digestEnabled"));
+        }
+        if (properties.containsKey("digestMaxLength")) {
+            this.digestMaxLength = Integer.parseInt(properties.getProperty("digestMaxLength"));
+        }
+        if (properties.containsKey("explainEnabled")) {
+            this.explainEnabled = Boolean.parseBoolean(properties.getProperty("explainEnabled"));
+        }
+        if (properties.containsKey("explainThresholdMillis")) {
+            this.explainThresholdMillis = Long.parseLong(properties.getProperty("explainThresholdMillis"));
+        }
+        if (properties.containsKey("explainSampleRate")) {
+            this.explainSampleRate = Integer.parseInt(properties.getProperty("explainSampleRate"));
+        }
+        if (properties.containsKey("explainMinIntervalSeconds")) {
+            this.explainMinIntervalSeconds = Integer.parseInt(properties.getProperty("explainMinIntervalSeconds"));
+        }
+        if (properties.containsKey("explainQueueSize")) {
+            this.explainQueueSize = Integer.parseInt(properties.getProperty("explainQueueSize"));
+        }
+        if (properties.containsKey("explainHistorySize")) {
+            this.explainHistorySize = Integer.parseInt(properties.getProperty("explainHistorySize"));
+        }
+        if (properties.containsKey("contextQueryCacheEnabled")) {
+            this.contextQueryCacheEnabled = Boolean.parseBoolean(properties.getProperty("contextQueryCacheEnabled"));
+        }
+        if (properties.containsKey("contextQueryCacheMaxEntries")) {
+            this.contextQueryCacheMaxEntries = Integer.parseInt(properties.getProperty("contextQueryCacheMaxEntries"));
+        }
+        if (properties.containsKey("batchLoadEnabled")) {
+            this.batchLoadEnabled = Boolean.parseBoolean(properties.getProperty("batchLoadEnabled"));
+        }
+        if (properties.containsKey("batchLoadWindowMillis")) {
+            this.batchLoadWindowMillis = Long.parseLong(properties.getProperty("batchLoadWindowMillis"));
+        }
+        if (properties.containsKey("batchLoadMaxSize")) {
+            this.batchLoadMaxSize = Integer.parseInt(properties.getProperty("batchLoadMaxSize"));
+        }
+        if (properties.containsKey("concurrencyLimitEnabled")) {
+            this.concurrencyLimitEnabled = Boolean.parseBoolean(properties.getProperty("concurrencyLimitEnabled"));
+        }
+        if (properties.containsKey("concurrencyLimitScope")) {
+            this.concurrencyLimitScope = properties.getProperty("concurrencyLimitScope");
+        }
+        if (properties.containsKey("concurrencyLimitInitial")) {
+            this.concurrencyLimitInitial = Integer.parseInt(properties.getProperty("concurrencyLimitInitial"));
+        }
+        if (properties.containsKey("concurrencyLimitMin")) {
+            this.concurrencyLimitMin = Integer.parseInt(properties.getProperty("concurrencyLimitMin"));
+        }
+        if (properties.containsKey("concurrencyLimitMax")) {
+            this.concurrencyLimitMax = Integer.parseInt(properties.getProperty("concurrencyLimitMax"));
+        }
+        if (properties.containsKey("concurrencyLimitQueueMillis")) {
+            this.concurrencyLimitQueueMillis = Long.parseLong(properties.getProperty("concurrencyLimitQueueMillis"));
+        }
+        if (properties.containsKey("accountingEnabled")) {
+            this.accountingEnabled = Boolean.parseBoolean(properties.getProperty("accountingEnabled"));
+        }
+        if (properties.containsKey("accountingKey")) {
+            this.accountingKey = properties.getProperty("accountingKey");
+        }
+        if (properties.containsKey("accountingMaxKeys")) {
+            this.accountingMaxKeys = Integer.parseInt(properties.getProperty("accountingMaxKeys"));
+        }
+        if (properties.containsKey("accountingTopN")) {
+            this.accountingTopN = Integer.parseInt(properties.getProperty("accountingTopN"));
+        }
+        if (properties.containsKey("accountingQuotaMillisPerSecond")) {
+            this.accountingQuotaMillisPerSecond = Long.parseLong(properties.getProperty("accountingQuotaMillisPerSecond"));
+        }
+        if (properties.containsKey("accountingQuotaOverrides")) {
+            this.accountingQuotaOverrides = properties.getProperty("accountingQuotaOverrides");
+        }
+        if (properties.containsKey("accountingQuotaAction")) {
+            this.accountingQuotaAction = properties.getProperty("accountingQuotaAction");
+        }
+        if (properties.containsKey("accountingQuotaDelayMillis")) {
+            this.accountingQuotaDelayMillis = Long.parseLong(properties.getProperty("accountingQuotaDelayMillis"));
+        }
+        if (properties.containsKey("transactionProfileEnabled")) {
+            this.transactionProfileEnabled = Boolean.parseBoolean(properties.getProperty("transactionProfileEnabled"));
+        }
+        if (properties.containsKey("transactionThresholdMillis")) {
+            this.transactionThresholdMillis = Long.parseLong(properties.getProperty("transactionThresholdMillis"));
+        }
+        if (properties.containsKey("transactionMaxStatements")) {
+            this.transactionMaxStatements = Integer.parseInt(properties.getProperty("transactionMaxStatements"));
+        }
+        if (properties.containsKey("lockConflictEnabled")) {
+            this.lockConflictEnabled = Boolean.parseBoolean(properties.getProperty("lockConflictEnabled"));
+        }
+        if (properties.containsKey("lockConflictInnodbStatus")) {
+            this.lockConflictInnodbStatus = Boolean.parseBoolean(properties.getProperty("lockConflictInnodbStatus"));
+        }
+        if (properties.containsKey("lockConflictMaxKeys")) {
+            this.lockConflictMaxKeys = Integer.parseInt(properties.getProperty("lockConflictMaxKeys"));
+        }
+        if (properties.containsKey("interceptMode")) {
+            this.interceptMode = properties.getProperty("interceptMode");
+        }
+        if (properties.containsKey("dataSourceProxyEnabled")) {
+            this.dataSourceProxyEnabled = Boolean.parseBoolean(properties.getProperty("dataSourceProxyEnabled"));
+        }
+        if (properties.containsKey("dataSourceSqlCacheSize")) {
+            this.dataSourceSqlCacheSize = Integer.parseInt(properties.getProperty("dataSourceSqlCacheSize"));
+        }
+    }
+
+    /**
+     * 导出为Properties，键名与loadFromProperties一致，取值为null的配置项不导出
+     * @return 包含全部配置项的Properties对象
+     */
+    public Properties toProperties() {
+        Properties properties = new Properties();
+        properties.setProperty("enabled", String.valueOf(enabled));
+        properties.setProperty("markSelect", String.valueOf(markSelect));
+        properties.setProperty("markInsert", String.valueOf(markInsert));
+        properties.setProperty("markUpdate", String.valueOf(markUpdate));
+        properties.setProperty("markDelete", String.valueOf(markDelete));
+        properties.setProperty("debugEnabled", String.valueOf(debugEnabled));
+        properties.setProperty("verboseLogging", String.valueOf(verboseLogging));
+        if (markPrefix != null) {
+            properties.setProperty("markPrefix", markPrefix);
+        }
+        if (markSuffix != null) {
+            properties.setProperty("markSuffix", markSuffix);
+        }
+        properties.setProperty("includeFullInfo", String.valueOf(includeFullInfo));
+        properties.setProperty("includeTimestamp", String.valueOf(includeTimestamp));
+        properties.setProperty("includeThreadInfo", String.valueOf(includeThreadInfo));
+        properties.setProperty("includeCustomInfo", String.valueOf(includeCustomInfo));
+        properties.setProperty("maxCustomInfoLength", String.valueOf(maxCustomInfoLength));
+        if (infoSeparator != null) {
+            properties.setProperty("infoSeparator", infoSeparator);
+        }
+        properties.setProperty("repeatedQueryDetectEnabled", String.valueOf(repeatedQueryDetectEnabled));
+        properties.setProperty("repeatedQueryThreshold", String.valueOf(repeatedQueryThreshold));
+        properties.setProperty("profileEnabled", String.valueOf(profileEnabled));
+        properties.setProperty("profileMaxEvents", String.valueOf(profileMaxEvents));
+        if (profileExportDir != null) {
+            properties.setProperty("profileExportDir", profileExportDir);
+        }
+        properties.setProperty("profileExportMinMillis", String.valueOf(profileExportMinMillis));
+        properties.setProperty("routeEnabled", String.valueOf(routeEnabled));
+        if (routeHintStyle != null) {
+            properties.setProperty("routeHintStyle", routeHintStyle);
+        }
+        if (routeReadHint != null) {
+            properties.setProperty("routeReadHint", routeReadHint);
+        }
+        if (routeWriteHint != null) {
+            properties.setProperty("routeWriteHint", routeWriteHint);
+        }
+        properties.setProperty("routeStickyWrite", String.valueOf(routeStickyWrite));
+        properties.setProperty("shardHintEnabled", String.valueOf(shardHintEnabled));
+        if (shardKeyParameter != null) {
+            properties.setProperty("shardKeyParameter", shardKeyParameter);
+        }
+        properties.setProperty("shardKeyFromUserId", String.valueOf(shardKeyFromUserId));
+        if (shardHintTemplate != null) {
+            properties.setProperty("shardHintTemplate", shardHintTemplate);
+        }
+        if (optimizerHints != null) {
+            properties.setProperty("optimizerHints", optimizerHints);
+        }
+        if (nodeId != null) {
+            properties.setProperty("nodeId", nodeId);
+        }
+        if (traceBridge != null) {
+            properties.setProperty("traceBridge", traceBridge);
+        }
+        properties.setProperty("warmUpEnabled", String.valueOf(warmUpEnabled));
+        properties.setProperty("rowCountTrackEnabled", String.valueOf(rowCountTrackEnabled));
+        properties.setProperty("maxRows", String.valueOf(maxRows));
+        if (maxRowsAction != null) {
+            properties.setProperty("maxRowsAction", maxRowsAction);
+        }
+        properties.setProperty("hotKeyDetectEnabled", String.valueOf(hotKeyDetectEnabled));
+        properties.setProperty("hotKeySampleRate", String.valueOf(hotKeySampleRate));
+        properties.setProperty("hotKeyTopK", String.valueOf(hotKeyTopK));
+        properties.setProperty("hotKeySketchWidth", String.valueOf(hotKeySketchWidth));
+        properties.setProperty("hotKeyMinCount", String.valueOf(hotKeyMinCount));
+        properties.setProperty("hotKeyReportSeconds", String.valueOf(hotKeyReportSeconds));
+        properties.setProperty("digestEnabled", String.valueOf(digestEnabled));
+        properties.setProperty("digestMaxLength", String.valueOf(digestMaxLength));
+        properties.setProperty("explainEnabled", String.valueOf(explainEnabled));
+        properties.setProperty("explainThresholdMillis", String.valueOf(explainThresholdMillis));
+        properties.setProperty("explainSampleRate", String.valueOf(explainSampleRate));
+        properties.setProperty("explainMinIntervalSeconds", String.valueOf(explainMinIntervalSeconds));
+        properties.setProperty("explainQueueSize", String.valueOf(explainQueueSize));
+        properties.setProperty("explainHistorySize", String.valueOf(explainHistorySize));
+        properties.setProperty("contextQueryCacheEnabled", String.valueOf(contextQueryCacheEnabled));
+        properties.setProperty("contextQueryCacheMaxEntries", String.valueOf(contextQueryCacheMaxEntries));
+        properties.setProperty("batchLoadEnabled", String.valueOf(batchLoadEnabled));
+        properties.setProperty("batchLoadWindowMillis", String.valueOf(batchLoadWindowMillis));
+        properties.setProperty("batchLoadMaxSize", String.valueOf(batchLoadMaxSize));
+        properties.setProperty("concurrencyLimitEnabled", String.valueOf(concurrencyLimitEnabled));
+        if (concurrencyLimitScope != null) {
+            properties.setProperty("concurrencyLimitScope", concurrencyLimitScope);
+        }
+        properties.setProperty("concurrencyLimitInitial", String.valueOf(concurrencyLimitInitial));
+        properties.setProperty("concurrencyLimitMin", String.valueOf(concurrencyLimitMin));
+        properties.setProperty("concurrencyLimitMax", String.valueOf(concurrencyLimitMax));
+        properties.setProperty("concurrencyLimitQueueMillis", String.valueOf(concurrencyLimitQueueMillis));
+        properties.setProperty("accountingEnabled", String.valueOf(accountingEnabled));
+        if (accountingKey != null) {
+            properties.setProperty("accountingKey", accountingKey);
+        }
+        properties.setProperty("accountingMaxKeys", String.valueOf(accountingMaxKeys));
+        properties.setProperty("accountingTopN", String.valueOf(accountingTopN));
+        properties.setProperty("accountingQuotaMillisPerSecond", String.valueOf(accountingQuotaMillisPerSecond));
+        if (accountingQuotaOverrides != null) {
+            properties.setProperty("accountingQuotaOverrides", accountingQuotaOverrides);
+        }
+        if (accountingQuotaAction != null) {
+            properties.setProperty("accountingQuotaAction", accountingQuotaAction);
+        }
+        properties.setProperty("accountingQuotaDelayMillis", String.valueOf(accountingQuotaDelayMillis));
+        properties.setProperty("transactionProfileEnabled", String.valueOf(transactionProfileEnabled));
+        properties.setProperty("transactionThresholdMillis", String.valueOf(transactionThresholdMillis));
+        properties.setProperty("transactionMaxStatements", String.valueOf(transactionMaxStatements));
+        properties.setProperty("lockConflictEnabled", String.valueOf(lockConflictEnabled));
+        properties.setProperty("lockConflictInnodbStatus", String.valueOf(lockConflictInnodbStatus));
+        properties.setProperty("lockConflictMaxKeys", String.valueOf(lockConflictMaxKeys));
+        if (interceptMode != null) {
+            properties.setProperty("interceptMode", interceptMode);
+        }
+        properties.setProperty("dataSourceProxyEnabled", String.valueOf(dataSourceProxyEnabled));
+        properties.setProperty("dataSourceSqlCacheSize", String.valueOf(dataSourceSqlCacheSize));
+        return properties;
+    }
+
+    /**
+     * 复制配置
+     * @return 与当前配置内容相同的新对象
+     */
+    public SqlMarkingConfig copy() {
+        SqlMarkingConfig copy = new SqlMarkingConfig();
+        copy.loadFromProperties(toProperties());
+        copy.setProfileExportDir(profileExportDir);
+        copy.setReloadFile(reloadFile);
+        return copy;
     }
 
     /**
@@ -149,7 +809,64 @@ public class SqlMarkingConfig {
      */
     public boolean isValid() {
         return markPrefix != null && markSuffix != null &&
-                infoSeparator != null && maxCustomInfoLength > 0;
+                infoSeparator != null && maxCustomInfoLength > 0 && repeatedQueryThreshold > 0
+                && profileMaxEvents >= 0 && dataSourceSqlCacheSize >= 0 && maxRows >= 0
+                && hotKeySampleRate > 0 && hotKeyTopK > 0 && hotKeyMinCount > 0 && hotKeyReportSeconds >= 0
+                && hotKeySketchWidth > 0 && hotKeySketchWidth <= (1 << 24) && contextQueryCacheMaxEntries > 0
+                && digestMaxLength > 0
+                && explainThresholdMillis >= 0 && explainSampleRate > 0 && explainMinIntervalSeconds >= 0
+                && explainQueueSize > 0 && explainHistorySize > 0
+                && batchLoadWindowMillis >= 0 && batchLoadMaxSize > 0
+                && concurrencyLimitMin > 0 && concurrencyLimitMin <= concurrencyLimitInitial
+                && concurrencyLimitInitial <= concurrencyLimitMax && concurrencyLimitQueueMillis >= 0
+                && ("statement".equals(concurrencyLimitScope) || "mapper".equals(concurrencyLimitScope))
+                && accountingKey != null && !accountingKey.isEmpty() && accountingMaxKeys > 0 && accountingTopN > 0
+                && accountingQuotaMillisPerSecond >= 0 && accountingQuotaDelayMillis >= 0
+                && ("reject".equals(accountingQuotaAction) || "delay".equals(accountingQuotaAction))
+                && transactionThresholdMillis >= 0 && transactionMaxStatements >= 0 && lockConflictMaxKeys > 0
+                && ("marker".equals(routeHintStyle) || "shardingsphere".equals(routeHintStyle)
+                || "custom".equals(routeHintStyle))
+                && isEmptyOrSingleComment(routeReadHint) && isEmptyOrSingleComment(routeWriteHint)
+                && isValidShardHintTemplate(shardHintTemplate)
+                && ("none".equals(traceBridge) || "opentelemetry".equals(traceBridge))
+                && ("proxy".equals(interceptMode) || "direct".equals(interceptMode))
+                && ("warn".equals(maxRowsAction) || "reject".equals(maxRowsAction));
+    }
+
+    /**
+     * 判断追加在SQL开头的提示是否为空或者是一个完整的注释
+     * 提示原样拼接在每条SQL之前，并且可以通过端点在运行时修改，注释之外的内容会成为SQL的一部分
+     *
+     * @param hint 提示内容
+     * @return 为空，或以 /* 开头、以 *&#47; 结尾且中间没有其他注释符时返回true
+     */
+    static boolean isEmptyOrSingleComment(String hint) {
+        if (hint == null || hint.trim().isEmpty()) {
+            return true;
+        }
+        String trimmed = hint.trim();
+        if (trimmed.length() < 4 || !trimmed.startsWith("/*") || !trimmed.endsWith("*/")) {
+            return false;
+        }
+        String body = trimmed.substring(2, trimmed.length() - 2);
+        return !body.contains("/*") && !body.contains("*/");
+    }
+
+    /**
+     * 判断分片提示模板是否为空，或者是只包含一个{value}的完整注释
+     * 分片键只做字符白名单校验，依赖模板保证替换后的值仍在注释之内
+     *
+     * @param template 分片提示模板
+     * @return 模板可用时返回true
+     */
+    static boolean isValidShardHintTemplate(String template) {
+        if (template == null || template.trim().isEmpty()) {
+            return true;
+        }
+        int valueIndex = template.indexOf(SqlMarkingConfigSnapshot.SHARD_VALUE_PLACEHOLDER);
+        return valueIndex >= 0
+                && template.indexOf(SqlMarkingConfigSnapshot.SHARD_VALUE_PLACEHOLDER, valueIndex + 1) < 0
+                && isEmptyOrSingleComment(template);
     }
 
     /**
@@ -0,0 +1,512 @@
+package org.aione.sqlmarking;
+
+import lombok.AccessLevel;
+import lombok.Getter;
+import org.apache.ibatis.builder.StaticSqlSource;
+import org.apache.ibatis.mapping.MappedStatement;
+import org.apache.ibatis.mapping.SqlCommandType;
+import org.apache.ibatis.mapping.SqlSource;
+import org.apache.ibatis.scripting.defaults.RawSqlSource;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * SQL标记配置快照
+ * <p>
+ * 由SqlMarkingConfig编译得到的不可变对象，拦截器和处理器通过同一个volatile引用持有，
+ * 每次拦截只读取一次引用，整个执行过程看到的是同一份配置。
+ * 运行时修改配置后重新编译快照并整体替换，不会出现部分字段已更新、部分字段未更新的情况。
+ *
+ * @author Billy
+ */
+@Getter
+public final class SqlMarkingConfigSnapshot {
+
+    private final boolean enabled;
+    private final boolean markSelect;
+    private final boolean markInsert;
+    private final boolean markUpdate;
+    private final boolean markDelete;
+    private final boolean debugEnabled;
+    private final boolean verboseLogging;
+    private final String markPrefix;
+    private final String markSuffix;
+    private final boolean includeFullInfo;
+    private final boolean includeTimestamp;
+    private final boolean includeThreadInfo;
+    private final boolean includeCustomInfo;
+    private final int maxCustomInfoLength;
+    private final String infoSeparator;
+    private final boolean repeatedQueryDetectEnabled;
+    private final int repeatedQueryThreshold;
+    private final boolean profileEnabled;
+    private final int profileMaxEvents;
+    private final String profileExportDir;
+    private final long profileExportMinMillis;
+    private final String nodeId;
+    private final boolean routeEnabled;
+    private final boolean dataSourceProxyEnabled;
+    private final boolean rowCountTrackEnabled;
+    private final boolean hotKeyDetectEnabled;
+    private final int hotKeySampleRate;
+    private final int hotKeyTopK;
+    private final int hotKeySketchWidth;
+    private final int hotKeyMinCount;
+    private final int hotKeyReportSeconds;
+    private final boolean contextQueryCacheEnabled;
+    private final int contextQueryCacheMaxEntries;
+    private final boolean batchLoadEnabled;
+    private final long batchLoadWindowMillis;
+    private final int batchLoadMaxSize;
+    private final boolean concurrencyLimitEnabled;
+    private final boolean concurrencyLimitByMapper;
+    private final int concurrencyLimitInitial;
+    private final int concurrencyLimitMin;
+    private final int concurrencyLimitMax;
+    private final long concurrencyLimitQueueMillis;
+    private final boolean accountingEnabled;
+    private final boolean accountingByUserId;
+    private final String accountingKey;
+    private final int accountingMaxKeys;
+    private final int accountingTopN;
+    private final long accountingQuotaMillisPerSecond;
+    private final boolean accountingQuotaEnabled;
+    private final boolean accountingQuotaDelay;
+    private final long accountingQuotaDelayMillis;
+
+    /**
+     * 单独指定的每秒数据库耗时配额（纳秒），标识到配额
+     */
+    @Getter(AccessLevel.NONE)
+    private final Map<String, Long> accountingQuotaOverrides;
+
+    private final boolean transactionProfileEnabled;
+    private final long transactionThresholdMillis;
+    private final int transactionMaxStatements;
+    private final boolean lockConflictEnabled;
+    private final boolean lockConflictInnodbStatus;
+    private final int lockConflictMaxKeys;
+    private final boolean digestEnabled;
+    private final int digestMaxLength;
+    private final boolean explainEnabled;
+    private final long explainThresholdMillis;
+    private final int explainSampleRate;
+    private final int explainMinIntervalSeconds;
+    private final int explainQueueSize;
+    private final int explainHistorySize;
+    private final int maxRows;
+
+    /**
+     * 返回行数超过上限时是否拒绝，maxRowsAction=reject时为true
+     */
+    private final boolean maxRowsReject;
+
+    /**
+     * 是否直接装饰Executor，interceptMode=direct时为true
+     */
+    private final boolean directIntercept;
+    private final int dataSourceSqlCacheSize;
+
+    /**
+     * 是否从OpenTelemetry当前Span读取追踪标识，配置为opentelemetry且API存在时为true
+     */
+    private final boolean openTelemetryBridge;
+    private final boolean routeStickyWrite;
+
+    /**
+     * 编译后的读写路由提示，为null时不追加
+     */
+    private final String routeReadHint;
+    private final String routeWriteHint;
+
+    private final boolean shardHintEnabled;
+    private final boolean shardKeyFromUserId;
+
+    /**
+     * 读取分片键的参数属性名，未配置时为空列表
+     */
+    private final List<String> shardKeyParameters;
+
+    /**
+     * 分片提示模板中{value}之前和之后的部分，未配置模板时为null
+     */
+    private final String shardHintPrefix;
+    private final String shardHintSuffix;
+
+    /**
+     * 优化器提示规则，按配置顺序匹配，未配置时为空列表
+     */
+    private final List<SqlOptimizerHintRule> optimizerHintRules;
+
+    /**
+     * 按statementId编译的标记计划，随快照一起替换，配置变更后自动失效
+     */
+    @Getter(AccessLevel.NONE)
+    private final ConcurrentMap<String, SqlMarkingPlan> plans = new ConcurrentHashMap<>();
+
+    /**
+     * DataSource代理按SQL文本编译的标记计划，条数不超过dataSourceSqlCacheSize
+     */
+    @Getter(AccessLevel.NONE)
+    private final ConcurrentMap<String, SqlMarkingPlan> jdbcPlans = new ConcurrentHashMap<>();
+
+    /**
+     * DataSource代理标记的SQL使用的statementId
+     */
+    public static final String JDBC_STATEMENT_ID = "jdbc";
+
+    /**
+     * ShardingSphere SQL注释提示，强制路由到主库（需开启sqlCommentParseEnabled）
+     */
+    static final String SHARDINGSPHERE_WRITE_HINT = "/* SHARDINGSPHERE_HINT: WRITE_ROUTE_ONLY=true */";
+
+    /**
+     * 分片提示模板中的分片键占位符
+     */
+    static final String SHARD_VALUE_PLACEHOLDER = "{value}";
+
+    /**
+     * 与标记格式一致的解析器，随快照一起替换
+     */
+    private final SqlMarkingParser parser;
+
+    /**
+     * 快照版本号，每次编译递增
+     */
+    private final long version;
+
+    private SqlMarkingConfigSnapshot(SqlMarkingConfig config, long version) {
+        this.enabled = config.isEnabled();
+        this.markSelect = config.isMarkSelect();
+        this.markInsert = config.isMarkInsert();
+        this.markUpdate = config.isMarkUpdate();
+        this.markDelete = config.isMarkDelete();
+        this.debugEnabled = config.isDebugEnabled();
+        this.verboseLogging = config.isVerboseLogging();
+        this.markPrefix = config.getMarkPrefix();
+        this.markSuffix = config.getMarkSuffix();
+        this.includeFullInfo = config.isIncludeFullInfo();
+        this.includeTimestamp = config.isIncludeTimestamp();
+        this.includeThreadInfo = config.isIncludeThreadInfo();
+        this.includeCustomInfo = config.isIncludeCustomInfo();
+        this.maxCustomInfoLength = config.getMaxCustomInfoLength();
+        this.infoSeparator = config.getInfoSeparator();
+        this.repeatedQueryDetectEnabled = config.isRepeatedQueryDetectEnabled();
+        this.repeatedQueryThreshold = config.getRepeatedQueryThreshold();
+        this.profileEnabled = config.isProfileEnabled();
+        this.profileMaxEvents = config.getProfileMaxEvents();
+        this.profileExportDir = config.getProfileExportDir();
+        this.profileExportMinMillis = config.getProfileExportMinMillis();
+        this.nodeId = config.getNodeId();
+        this.openTelemetryBridge = "opentelemetry".equals(config.getTraceBridge()) && SqlMarkingOpenTelemetry.isAvailable();
+        this.shardHintEnabled = config.isShardHintEnabled();
+        this.shardKeyFromUserId = config.isShardKeyFromUserId();
+        this.shardKeyParameters = splitNames(config.getShardKeyParameter());
+        // 模板已经过isValid校验，非空时是只包含一个{value}的完整注释
+        String template = emptyToNull(config.getShardHintTemplate());
+        if (template != null) {
+            int valueIndex = template.indexOf(SHARD_VALUE_PLACEHOLDER);
+            this.shardHintPrefix = template.substring(0, valueIndex);
+            this.shardHintSuffix = template.substring(valueIndex + SHARD_VALUE_PLACEHOLDER.length());
+        } else {
+            this.shardHintPrefix = null;
+            this.shardHintSuffix = null;
+        }
+        this.routeEnabled = config.isRouteEnabled();
+        this.dataSourceProxyEnabled = config.isDataSourceProxyEnabled();
+        this.directIntercept = "direct".equals(config.getInterceptMode());
+        this.rowCountTrackEnabled = config.isRowCountTrackEnabled();
+        this.hotKeyDetectEnabled = config.isHotKeyDetectEnabled();
+        this.hotKeySampleRate = config.getHotKeySampleRate();
+        this.hotKeyTopK = config.getHotKeyTopK();
+        this.hotKeySketchWidth = config.getHotKeySketchWidth();
+        this.hotKeyMinCount = config.getHotKeyMinCount();
+        this.hotKeyReportSeconds = config.getHotKeyReportSeconds();
+        this.contextQueryCacheEnabled = config.isContextQueryCacheEnabled();
+        this.contextQueryCacheMaxEntries = config.getContextQueryCacheMaxEntries();
+        this.batchLoadEnabled = config.isBatchLoadEnabled();
+        this.batchLoadWindowMillis = config.getBatchLoadWindowMillis();
+        this.batchLoadMaxSize = config.getBatchLoadMaxSize();
+        this.concurrencyLimitEnabled = config.isConcurrencyLimitEnabled();
+        this.concurrencyLimitByMapper = "mapper".equals(config.getConcurrencyLimitScope());
+        this.concurrencyLimitInitial = config.getConcurrencyLimitInitial();
+        this.concurrencyLimitMin = config.getConcurrencyLimitMin();
+        this.concurrencyLimitMax = config.getConcurrencyLimitMax();
+        this.concurrencyLimitQueueMillis = config.getConcurrencyLimitQueueMillis();
+        this.accountingEnabled = config.isAccountingEnabled();
+        this.accountingByUserId = "userId".equals(config.getAccountingKey());
+        this.accountingKey = config.getAccountingKey();
+        this.accountingMaxKeys = config.getAccountingMaxKeys();
+        this.accountingTopN = config.getAccountingTopN();
+        this.accountingQuotaMillisPerSecond = config.getAccountingQuotaMillisPerSecond();
+        this.accountingQuotaOverrides = parseAccountingQuotaOverrides(config.getAccountingQuotaOverrides());
+        this.accountingQuotaEnabled = accountingQuotaMillisPerSecond > 0 || !accountingQuotaOverrides.isEmpty();
+        this.accountingQuotaDelay = "delay".equals(config.getAccountingQuotaAction());
+        this.accountingQuotaDelayMillis = config.getAccountingQuotaDelayMillis();
+        this.transactionProfileEnabled = config.isTransactionProfileEnabled();
+        this.transactionThresholdMillis = config.getTransactionThresholdMillis();
+        this.transactionMaxStatements = config.getTransactionMaxStatements();
+        this.lockConflictEnabled = config.isLockConflictEnabled();
+        this.lockConflictInnodbStatus = config.isLockConflictInnodbStatus();
+        this.lockConflictMaxKeys = config.getLockConflictMaxKeys();
+        this.digestEnabled = config.isDigestEnabled();
+        this.digestMaxLength = config.getDigestMaxLength();
+        this.explainEnabled = config.isExplainEnabled();
+        this.explainThresholdMillis = config.getExplainThresholdMillis();
+        this.explainSampleRate = config.getExplainSampleRate();
+        this.explainMinIntervalSeconds = config.getExplainMinIntervalSeconds();
+        this.explainQueueSize = config.getExplainQueueSize();
+        this.explainHistorySize = config.getExplainHistorySize();
+        this.maxRows = config.getMaxRows();
+        this.maxRowsReject = "reject".equals(config.getMaxRowsAction());
+        this.dataSourceSqlCacheSize = config.getDataSourceSqlCacheSize();
+        this.routeStickyWrite = config.isRouteStickyWrite();
+        if ("shardingsphere".equals(config.getRouteHintStyle())) {
+            this.routeReadHint = null;
+            this.routeWriteHint = SHARDINGSPHERE_WRITE_HINT;
+        } else if ("custom".equals(config.getRouteHintStyle())) {
+            this.routeReadHint = emptyToNull(config.getRouteReadHint());
+            this.routeWriteHint = emptyToNull(config.getRouteWriteHint());
+        } else {
+            this.routeReadHint = null;
+            this.routeWriteHint = null;
+        }
+        this.optimizerHintRules = parseOptimizerHintRules(config.getOptimizerHints());
+        this.parser = new SqlMarkingParser(markPrefix, markSuffix, infoSeparator);
+        this.version = version;
+    }
+
+    /**
+     * 编译配置快照
+     *
+     * @param config  当前配置
+     * @param version 快照版本号
+     * @return 配置快照
+     * @throws IllegalArgumentException 配置无效时抛出，调用方保留原快照
+     */
+    public static SqlMarkingConfigSnapshot compile(SqlMarkingConfig config, long version) {
+        if (config == null || !config.isValid()) {
+            throw new IllegalArgumentException("SQL标记配置无效: " + (config == null ? null : config.getConfigSummary()));
+        }
+        return new SqlMarkingConfigSnapshot(config, version);
+    }
+
+    /**
+     * 判断是否需要对此SQL类型进行标记
+     *
+     * @param sqlCommandType SQL类型
+     * @return 是否需要标记
+     */
+    public boolean shouldMark(SqlCommandType sqlCommandType) {
+        switch (sqlCommandType) {
+            case SELECT:
+                return markSelect;
+            case INSERT:
+                return markInsert;
+            case UPDATE:
+                return markUpdate;
+            case DELETE:
+                return markDelete;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * 获取读写路由对应的提示
+     *
+     * @param route 读写路由
+     * @return 路由提示，无需追加时返回null
+     */
+    public String getRouteHint(SqlMarkingRoute route) {
+        if (route == null) {
+            return null;
+        }
+        return route == SqlMarkingRoute.WRITE ? routeWriteHint : routeReadHint;
+    }
+
+    /**
+     * 获取分片键对应的提示
+     *
+     * @param shardKey 分片键
+     * @return 分片提示，未配置模板或分片键为空时返回null
+     */
+    public String getShardHint(String shardKey) {
+        if (shardKey == null || shardHintPrefix == null) {
+            return null;
+        }
+        return shardHintPrefix + shardKey + shardHintSuffix;
+    }
+
+    /**
+     * 获取statementId对应的标记计划
+     * 首次访问时匹配优化器提示规则并缓存，之后直接返回
+     *
+     * @param statementId MyBatis StatementId
+     * @return 标记计划，statementId为null时返回null
+     */
+    public SqlMarkingPlan getPlan(String statementId) {
+        if (statementId == null) {
+            return null;
+        }
+        SqlMarkingPlan plan = plans.get(statementId);
+        return plan != null ? plan : plans.computeIfAbsent(statementId, id -> compilePlan(id, null, null));
+    }
+
+    /**
+     * 获取MappedStatement对应的标记计划
+     * 静态SQL在首次访问时预先计算标记注释的插入位置和优化器提示
+     *
+     * @param mappedStatement MappedStatement
+     * @return 标记计划
+     */
+    public SqlMarkingPlan getPlan(MappedStatement mappedStatement) {
+        SqlMarkingPlan plan = plans.get(mappedStatement.getId());
+        if (plan != null && (plan.getStaticSql() != null || !isStaticSqlSource(mappedStatement.getSqlSource()))) {
+            return plan;
+        }
+        return plans.compute(mappedStatement.getId(), (id, existing) -> existing != null && existing.getStaticSql() != null
+                ? existing : compilePlan(id, null, staticSqlOf(mappedStatement)));
+    }
+
+    /**
+     * 获取DataSource代理执行的SQL对应的标记计划
+     * 按SQL文本缓存SQL类型、标记注释的插入位置和优化器提示，缓存已满时每次重新计算，
+     * 避免拼接了参数值的SQL无限占用内存
+     *
+     * @param sql SQL文本
+     * @return 标记计划，无法识别SQL类型时计划中的sqlCommandType为UNKNOWN
+     */
+    public SqlMarkingPlan getJdbcPlan(String sql) {
+        SqlMarkingPlan plan = jdbcPlans.get(sql);
+        if (plan == null) {
+            plan = compilePlan(JDBC_STATEMENT_ID, SqlMarkingProcessor.detectCommandType(sql), sql);
+            if (jdbcPlans.size() < dataSourceSqlCacheSize) {
+                jdbcPlans.putIfAbsent(sql, plan);
+            }
+        }
+        return plan;
+    }
+
+    private SqlMarkingPlan compilePlan(String statementId, SqlCommandType sqlCommandType, String staticSql) {
+        StringBuilder hint = null;
+        for (SqlOptimizerHintRule rule : optimizerHintRules) {
+            if (rule.matches(statementId)) {
+                if (hint == null) {
+                    hint = new StringBuilder(rule.getHint());
+                } else {
+                    hint.append(' ').append(rule.getHint());
+                }
+            }
+        }
+        String optimizerHint = hint != null ? hint.toString() : null;
+
+        String markerHead = null;
+        if (includeFullInfo) {
+            StringBuilder head = new StringBuilder(markPrefix).append("stmt=").append(statementId);
+            SqlMarkingProcessor.neutralizeCommentDelimiters(head, markPrefix.length());
+            markerHead = head.toString();
+        }
+
+        if (staticSql == null || staticSql.trim().isEmpty()) {
+            return new SqlMarkingPlan(statementId, sqlCommandType, optimizerHint, markerHead, null, false, null, null, null);
+        }
+        String[] parts = SqlMarkingProcessor.splitAtMarker(staticSql);
+        String after = optimizerHint != null ? SqlMarkingProcessor.insertOptimizerHint(parts[1], optimizerHint) : parts[1];
+        String digest = digestEnabled ? SqlDigest.digestHex(staticSql, digestMaxLength) : null;
+        return new SqlMarkingPlan(statementId, sqlCommandType, optimizerHint, markerHead, staticSql, isAlreadyMarked(staticSql),
+                digest, parts[0], after);
+    }
+
+    private static boolean isStaticSqlSource(SqlSource sqlSource) {
+        return sqlSource instanceof RawSqlSource || sqlSource instanceof StaticSqlSource;
+    }
+
+    private static String staticSqlOf(MappedStatement mappedStatement) {
+        SqlSource sqlSource = mappedStatement.getSqlSource();
+        return isStaticSqlSource(sqlSource) ? sqlSource.getBoundSql(null).getSql() : null;
+    }
+
+    /**
+     * 检查SQL是否已经被标记
+     *
+     * @param sql SQL语句
+     * @return 是否已被标记
+     */
+    public boolean isAlreadyMarked(String sql) {
+        return sql != null && sql.contains(markPrefix) && sql.contains(markSuffix);
+    }
+
+    private static List<String> splitNames(String value) {
+        if (value == null || value.trim().isEmpty()) {
+            return Collections.emptyList();
+        }
+        return Collections.unmodifiableList(Arrays.stream(value.split(","))
+                .map(String::trim)
+                .filter(name -> !name.isEmpty())
+                .collect(Collectors.toList()));
+    }
+
+    private static List<SqlOptimizerHintRule> parseOptimizerHintRules(String value) {
+        if (value == null || value.trim().isEmpty()) {
+            return Collections.emptyList();
+        }
+        List<SqlOptimizerHintRule> rules = new ArrayList<>();
+        for (String rule : value.split(";")) {
+            if (!rule.trim().isEmpty()) {
+                rules.add(SqlOptimizerHintRule.parse(rule));
+            }
+        }
+        return Collections.unmodifiableList(rules);
+    }
+
+    /**
+     * 获取用户或租户每秒的数据库耗时配额
+     * ~other和~anonymous汇总了多个标识，不使用默认配额，只在单独设置时限制
+     *
+     * @param key 用户或租户标识
+     * @return 配额（纳秒），为0时不限制
+     */
+    public long getAccountingBudgetNanos(String key) {
+        Long override = key != null ? accountingQuotaOverrides.get(key) : null;
+        if (override != null) {
+            return override;
+        }
+        return SqlTenantAccounting.isReserved(key) ? 0 : TimeUnit.MILLISECONDS.toNanos(accountingQuotaMillisPerSecond);
+    }
+
+    private static Map<String, Long> parseAccountingQuotaOverrides(String value) {
+        if (value == null || value.trim().isEmpty()) {
+            return Collections.emptyMap();
+        }
+        Map<String, Long> overrides = new HashMap<>();
+        for (String rule : value.split(";")) {
+            if (rule.trim().isEmpty()) {
+                continue;
+            }
+            int eq = rule.indexOf('=');
+            if (eq <= 0 || eq == rule.length() - 1) {
+                throw new IllegalArgumentException("数据库耗时配额格式错误，应为 标识=每秒毫秒数: " + rule);
+            }
+            long millis = Long.parseLong(rule.substring(eq + 1).trim());
+            if (millis < 0) {
+                throw new IllegalArgumentException("数据库耗时配额不能为负数: " + rule);
+            }
+            overrides.put(rule.substring(0, eq).trim(), TimeUnit.MILLISECONDS.toNanos(millis));
+        }
+        return Collections.unmodifiableMap(overrides);
+    }
+
+    private static String emptyToNull(String value) {
+        return value == null || value.trim().isEmpty() ? null : value;
+    }
+}
@@ -0,0 +1,131 @@
+package org.aione.sqlmarking;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.FileTime;
+import java.util.Properties;
+
+/**
+ * SQL标记配置文件监听器
+ * <p>
+ * 监听本地Properties文件，文件创建或修改后重新读取并通过拦截器热更新配置快照。
+ * 文件中只需包含需要覆盖的配置项，键名与SqlMarkingConfig#loadFromProperties一致；
+ * 从文件中删除某一项不会恢复其默认值。文件内容无效时记录告警并保留原配置。
+ *
+ * @author Billy
+ */
+@Slf4j
+public class SqlMarkingConfigWatcher implements Closeable {
+
+    private final SqlMarkingInterceptor interceptor;
+    private final Path file;
+
+    private WatchService watchService;
+    private Thread thread;
+
+    /**
+     * 上次加载时文件的修改时间和大小，用于过滤同一次写入触发的重复事件
+     */
+    private FileTime lastModified;
+    private long lastSize = -1;
+
+    public SqlMarkingConfigWatcher(SqlMarkingInterceptor interceptor, Path file) {
+        this.interceptor = interceptor;
+        this.file = file.toAbsolutePath().normalize();
+    }
+
+    /**
+     * 加载一次配置文件并启动后台监听线程
+     *
+     * @throws IOException 无法监听文件所在目录时抛出
+     */
+    public synchronized void start() throws IOException {
+        if (thread != null) {
+            return;
+        }
+        reload();
+
+        // 目录不存在时先创建，之后放入的配置文件同样可以被监听到
+        Path directory = Files.createDirectories(file.getParent());
+        watchService = directory.getFileSystem().newWatchService();
+        directory.register(watchService, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+
+        WatchService service = watchService;
+        thread = new Thread(() -> watch(service), "sql-marking-config-watcher");
+        thread.setDaemon(true);
+        thread.start();
+        log.info("SQL标记配置文件监听已启动: {}", file);
+    }
+
+    private void watch(WatchService service) {
+        try {
+            while (true) {
+                WatchKey key = service.take();
+                boolean changed = false;
+                for (WatchEvent<?> event : key.pollEvents()) {
+                    Object context = event.context();
+                    if (context instanceof Path && file.getFileName().equals(context)) {
+                        changed = true;
+                    }
+                }
+                if (changed) {
+                    reload();
+                }
+                if (!key.reset()) {
+                    log.warn("SQL标记配置文件所在目录已不可访问，停止监听: {}", file);
+                    return;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ClosedWatchServiceException e) {
+            // 监听器已关闭
+        }
+    }
+
+    /**
+     * 重新读取配置文件并热更新，文件不存在或未发生变化时忽略
+     */
+    synchronized void reload() {
+        try {
+            if (!Files.isRegularFile(file)) {
+                return;
+            }
+            FileTime modified = Files.getLastModifiedTime(file);
+            long size = Files.size(file);
+            if (modified.equals(lastModified) && size == lastSize) {
+                return;
+            }
+
+            Properties properties = new Properties();
+            try (Reader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+                properties.load(reader);
+            }
+            lastModified = modified;
+            lastSize = size;
+            interceptor.reloadConfig(properties);
+        } catch (IOException | IllegalArgumentException e) {
+            log.warn("SQL标记配置文件加载失败，保留原配置: {}, error: {}", file, e.getMessage());
+        }
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (watchService != null) {
+            watchService.close();
+            watchService = null;
+        }
+        thread = null;
+    }
+}
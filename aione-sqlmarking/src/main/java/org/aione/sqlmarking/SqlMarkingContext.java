@@ -1,10 +1,18 @@
 package org.aione.sqlmarking;
 
+import lombok.AccessLevel;
 import lombok.Data;
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
+import lombok.Setter;
 import lombok.extern.slf4j.Slf4j;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * SQL染色上下文管理器
@@ -21,6 +29,11 @@ public class SqlMarkingContext {
      */
     private static final InheritableThreadLocal<SqlMarkingContext> CONTEXT_HOLDER = new InheritableThreadLocal<>();
 
+    /**
+     * 性能剖析监听器，上下文清除时回调
+     */
+    private static final List<SqlProfileListener> PROFILE_LISTENERS = new CopyOnWriteArrayList<>();
+
     /**
      * 线程ID
      */
@@ -51,6 +64,52 @@ public class SqlMarkingContext {
      */
     private Long createTime;
 
+    /**
+     * 分片键，启用分片提示时优先使用，未设置时按配置从SQL参数或userId中获取
+     */
+    private String shardKey;
+
+    /**
+     * 是否强制后续SQL路由到主库
+     */
+    private boolean forceWriteRoute;
+
+    /**
+     * 上下文中是否已经执行过写操作，用于写后读粘滞路由
+     */
+    @Setter(AccessLevel.NONE)
+    @EqualsAndHashCode.Exclude
+    private volatile boolean writeOccurred;
+
+    /**
+     * 上下文内各statementId（含参数形态）的执行次数，用于N+1查询检测
+     */
+    @Setter(AccessLevel.NONE)
+    @EqualsAndHashCode.Exclude
+    private final ConcurrentHashMap<String, AtomicInteger> statementCounts = new ConcurrentHashMap<>();
+
+    /**
+     * 上下文创建时的System.nanoTime，作为性能剖析时间线的基准
+     */
+    @Setter(AccessLevel.NONE)
+    @EqualsAndHashCode.Exclude
+    private final long createNanos = System.nanoTime();
+
+    /**
+     * 性能剖析数据，启用剖析后在首次执行SQL时创建
+     */
+    @Setter(AccessLevel.NONE)
+    @EqualsAndHashCode.Exclude
+    private volatile SqlMarkingProfile profile;
+
+    /**
+     * 上下文内的查询结果缓存，按MyBatis CacheKey索引，首次缓存时创建
+     */
+    @Getter(AccessLevel.NONE)
+    @Setter(AccessLevel.NONE)
+    @EqualsAndHashCode.Exclude
+    private volatile ConcurrentHashMap<Object, List<?>> queryCache;
+
     public SqlMarkingContext() {
         this.threadId = Thread.currentThread().getId();
         this.createTime = System.currentTimeMillis();
@@ -77,9 +136,140 @@ public class SqlMarkingContext {
 
     /**
      * 清除当前线程的染色上下文
+     * 上下文包含性能剖析数据时，通知已注册的剖析监听器
      */
     public static void clearCurrentContext() {
+        SqlMarkingContext context = CONTEXT_HOLDER.get();
         CONTEXT_HOLDER.remove();
+        if (context != null) {
+            context.clearQueryCache();
+            context.publishProfile();
+        }
+    }
+
+    /**
+     * 注册性能剖析监听器
+     *
+     * @param listener 监听器
+     */
+    public static void addProfileListener(SqlProfileListener listener) {
+        if (listener != null && !PROFILE_LISTENERS.contains(listener)) {
+            PROFILE_LISTENERS.add(listener);
+        }
+    }
+
+    /**
+     * 移除性能剖析监听器
+     *
+     * @param listener 监听器
+     */
+    public static void removeProfileListener(SqlProfileListener listener) {
+        PROFILE_LISTENERS.remove(listener);
+    }
+
+    /**
+     * 记录上下文中发生了写操作
+     */
+    public void markWriteOccurred() {
+        if (!writeOccurred) {
+            writeOccurred = true;
+        }
+    }
+
+    /**
+     * 获取缓存的查询结果
+     *
+     * @param key MyBatis CacheKey
+     * @return 结果的副本，未缓存时返回null
+     */
+    @SuppressWarnings("unchecked")
+    public <E> List<E> getCachedQuery(Object key) {
+        ConcurrentHashMap<Object, List<?>> cache = queryCache;
+        List<?> result = cache != null ? cache.get(key) : null;
+        return result != null ? new ArrayList<>((List<E>) result) : null;
+    }
+
+    /**
+     * 缓存查询结果，保存结果列表的副本，调用方修改返回的列表不影响缓存
+     *
+     * @param key        MyBatis CacheKey
+     * @param result     查询结果
+     * @param maxEntries 最多缓存的查询数量，达到上限后不再缓存
+     */
+    public void cacheQuery(Object key, List<?> result, int maxEntries) {
+        ConcurrentHashMap<Object, List<?>> cache = queryCache;
+        if (cache == null) {
+            synchronized (this) {
+                cache = queryCache;
+                if (cache == null) {
+                    cache = new ConcurrentHashMap<>();
+                    queryCache = cache;
+                }
+            }
+        }
+        if (cache.size() < maxEntries) {
+            cache.put(key, new ArrayList<>(result));
+        }
+    }
+
+    /**
+     * 丢弃上下文内缓存的查询结果，执行写操作时调用
+     */
+    public void clearQueryCache() {
+        ConcurrentHashMap<Object, List<?>> cache = queryCache;
+        if (cache != null) {
+            cache.clear();
+        }
+    }
+
+    /**
+     * 获取上下文内缓存的查询数量
+     *
+     * @return 缓存数量
+     */
+    public int getQueryCacheSize() {
+        ConcurrentHashMap<Object, List<?>> cache = queryCache;
+        return cache != null ? cache.size() : 0;
+    }
+
+    /**
+     * 获取性能剖析数据，不存在时创建
+     *
+     * @return 性能剖析数据
+     */
+    public SqlMarkingProfile obtainProfile() {
+        SqlMarkingProfile current = profile;
+        if (current == null) {
+            synchronized (this) {
+                current = profile;
+                if (current == null) {
+                    current = new SqlMarkingProfile(createNanos);
+                    profile = current;
+                }
+            }
+        }
+        return current;
+    }
+
+    /**
+     * 将性能剖析数据发送给监听器，每份数据只发送一次
+     */
+    private void publishProfile() {
+        SqlMarkingProfile current;
+        synchronized (this) {
+            current = profile;
+            profile = null;
+        }
+        if (current == null || current.getSqlCount() == 0) {
+            return;
+        }
+        for (SqlProfileListener listener : PROFILE_LISTENERS) {
+            try {
+                listener.onProfile(this, current);
+            } catch (Exception e) {
+                log.warn("SQL剖析监听器执行异常: {}", e.getMessage(), e);
+            }
+        }
     }
 
     /**
@@ -0,0 +1,147 @@
+package org.aione.sqlmarking;
+
+import org.springframework.jdbc.datasource.ConnectionProxy;
+import org.springframework.jdbc.datasource.DelegatingDataSource;
+
+import javax.sql.DataSource;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+/**
+ * 标记SQL的DataSource包装
+ * <p>
+ * 在Connection.prepareStatement、prepareCall以及Statement.execute、executeQuery、executeUpdate、addBatch
+ * 传入SQL时调用拦截器进行标记，JdbcTemplate等不经过MyBatis的SQL也带有相同格式的标记。
+ * 标记使用拦截器当前的配置快照和SqlMarkingContext，statementId固定为jdbc。
+ * <p>
+ * MyBatis执行的SQL在到达连接时已经由拦截器标记，包含标记的SQL直接放行，不会重复标记。
+ * 同一SQL文本的类型识别和标记位置按文本缓存在配置快照中，缓存条数由dataSourceSqlCacheSize限制。
+ * 配置data-source-proxy-enabled=true时自动配置会包装所有DataSource Bean，也可以手动包装：
+ *
+ * <pre>
+ * &#64;Bean
+ * public DataSource dataSource(SqlMarkingInterceptor sqlMarkingInterceptor) {
+ *     return new SqlMarkingDataSource(hikariDataSource(), sqlMarkingInterceptor);
+ * }
+ * </pre>
+ *
+ * @author Billy
+ */
+public class SqlMarkingDataSource extends DelegatingDataSource {
+
+    private final SqlMarkingInterceptor interceptor;
+
+    public SqlMarkingDataSource(DataSource targetDataSource, SqlMarkingInterceptor interceptor) {
+        super(targetDataSource);
+        this.interceptor = interceptor;
+    }
+
+    @Override
+    public Connection getConnection() throws SQLException {
+        return wrapConnection(getTargetDataSource().getConnection());
+    }
+
+    @Override
+    public Connection getConnection(String username, String password) throws SQLException {
+        return wrapConnection(getTargetDataSource().getConnection(username, password));
+    }
+
+    /**
+     * 包装连接，实现Spring的ConnectionProxy接口，DataSourceUtils等可以取得原始连接
+     */
+    private Connection wrapConnection(Connection target) {
+        return (Connection) Proxy.newProxyInstance(ConnectionProxy.class.getClassLoader(),
+                new Class<?>[]{ConnectionProxy.class}, new ConnectionHandler(target));
+    }
+
+    private static Object invoke(Object target, Method method, Object[] args) throws Throwable {
+        try {
+            return method.invoke(target, args);
+        } catch (InvocationTargetException e) {
+            throw e.getTargetException();
+        }
+    }
+
+    /**
+     * 连接代理，标记prepareStatement、prepareCall的SQL，createStatement返回的Statement同样被代理
+     */
+    private class ConnectionHandler implements InvocationHandler {
+
+        private final Connection target;
+
+        ConnectionHandler(Connection target) {
+            this.target = target;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            switch (method.getName()) {
+                case "getTargetConnection":
+                    return target;
+                case "equals":
+                    return proxy == args[0];
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "toString":
+                    return "SqlMarkingDataSource connection proxy for " + target;
+                case "prepareStatement":
+                case "prepareCall":
+                    if (args != null && args[0] instanceof String) {
+                        args[0] = interceptor.markJdbcSql((String) args[0]);
+                    }
+                    break;
+                case "createStatement":
+                    Statement statement = (Statement) SqlMarkingDataSource.invoke(target, method, args);
+                    return Proxy.newProxyInstance(ConnectionProxy.class.getClassLoader(),
+                            new Class<?>[]{Statement.class}, new StatementHandler(statement, (Connection) proxy));
+                default:
+                    break;
+            }
+            return SqlMarkingDataSource.invoke(target, method, args);
+        }
+    }
+
+    /**
+     * Statement代理，标记execute、executeQuery、executeUpdate、executeLargeUpdate、addBatch传入的SQL
+     */
+    private class StatementHandler implements InvocationHandler {
+
+        private final Statement target;
+
+        private final Connection connection;
+
+        StatementHandler(Statement target, Connection connection) {
+            this.target = target;
+            this.connection = connection;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            switch (method.getName()) {
+                case "getConnection":
+                    return connection;
+                case "equals":
+                    return proxy == args[0];
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "execute":
+                case "executeQuery":
+                case "executeUpdate":
+                case "executeLargeUpdate":
+                case "addBatch":
+                    if (args != null && args[0] instanceof String) {
+                        args[0] = interceptor.markJdbcSql((String) args[0]);
+                    }
+                    break;
+                default:
+                    break;
+            }
+            return SqlMarkingDataSource.invoke(target, method, args);
+        }
+    }
+}
@@ -0,0 +1,119 @@
+package org.aione.sqlmarking;
+
+import org.springframework.boot.actuate.endpoint.InvalidEndpointRequestException;
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.boot.actuate.endpoint.annotation.Selector;
+import org.springframework.boot.actuate.endpoint.annotation.WriteOperation;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+
+/**
+ * SQL标记配置Actuator端点
+ * <p>
+ * GET /actuator/sqlmarking 查看当前生效的配置快照；
+ * POST /actuator/sqlmarking {"name":"markSelect","value":"false"} 热更新单个配置项，
+ * 键名与SqlMarkingConfig#loadFromProperties一致；
+ * GET /actuator/sqlmarking/rowCounts 查看按statementId统计的查询返回行数分布；
+ * GET /actuator/sqlmarking/hotKeys 查看当前统计周期的热点参数组合；
+ * GET /actuator/sqlmarking/concurrency 查看各statementId的并发上限、并发数和拒绝次数；
+ * GET /actuator/sqlmarking/accounting 查看数据库耗时最高的用户或租户；
+ * GET /actuator/sqlmarking/transactions 查看最近的长事务及其SQL列表；
+ * GET /actuator/sqlmarking/lockConflicts 查看按statementId和对方statementId聚合的死锁和锁等待超时。
+ *
+ * @author Billy
+ */
+@Endpoint(id = "sqlmarking")
+public class SqlMarkingEndpoint {
+
+    private final SqlMarkingInterceptor interceptor;
+
+    public SqlMarkingEndpoint(SqlMarkingInterceptor interceptor) {
+        this.interceptor = interceptor;
+    }
+
+    @ReadOperation
+    public Map<String, Object> config() {
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("version", interceptor.getSnapshot().getVersion());
+        result.put("executionCount", interceptor.getExecutionCount());
+        result.put("contextCacheHitCount", interceptor.getContextCacheHitCount());
+        Map<String, String> properties = new TreeMap<>();
+        interceptor.getConfig().toProperties().forEach((key, value) -> properties.put((String) key, (String) value));
+        result.put("config", properties);
+        return result;
+    }
+
+    @ReadOperation
+    public Map<String, Object> detail(@Selector String name) {
+        if ("hotKeys".equals(name)) {
+            Map<String, Object> result = new LinkedHashMap<>();
+            result.put("sampledCount", interceptor.getHotKeySampledCount());
+            result.put("hotKeys", interceptor.getHotKeys());
+            return result;
+        }
+        if ("explains".equals(name)) {
+            SqlExplainCapture capture = interceptor.getExplainCapture();
+            Map<String, Object> result = new LinkedHashMap<>();
+            result.put("capturedCount", capture != null ? capture.getCapturedCount() : 0);
+            result.put("droppedCount", capture != null ? capture.getDroppedCount() : 0);
+            result.put("statements", interceptor.getExplainResults());
+            return result;
+        }
+        if ("concurrency".equals(name)) {
+            SqlConcurrencyLimiter limiter = interceptor.getConcurrencyLimiter();
+            Map<String, Object> result = new LinkedHashMap<>();
+            result.put("rejectedCount", limiter.getRejectedCount());
+            result.put("limits", limiter.snapshot());
+            return result;
+        }
+        if ("accounting".equals(name)) {
+            Map<String, Object> result = new LinkedHashMap<>();
+            result.put("keyCount", interceptor.getAccounting().size());
+            result.put("top", interceptor.getTopAccounts());
+            return result;
+        }
+        if ("transactions".equals(name)) {
+            SqlTransactionTracker tracker = interceptor.getTransactionTracker();
+            Map<String, Object> result = new LinkedHashMap<>();
+            result.put("transactionCount", tracker.getTransactionCount());
+            result.put("longTransactionCount", tracker.getLongTransactionCount());
+            result.put("longTransactions", tracker.getLongTransactions());
+            return result;
+        }
+        if ("lockConflicts".equals(name)) {
+            SqlLockConflictTracker tracker = interceptor.getLockConflictTracker();
+            Map<String, Object> result = new LinkedHashMap<>();
+            result.put("conflictCount", tracker.getConflictCount());
+            result.put("droppedCount", tracker.getDroppedCount());
+            result.put("conflicts", tracker.snapshot());
+            return result;
+        }
+        if (!"rowCounts".equals(name)) {
+            return null;
+        }
+        SqlRowCountTracker tracker = interceptor.getRowCountTracker();
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("exceededCount", tracker.getExceededCount());
+        result.put("statements", tracker.snapshot());
+        return result;
+    }
+
+    @WriteOperation
+    public Map<String, Object> update(String name, String value) {
+        if (!interceptor.getConfig().toProperties().containsKey(name)) {
+            throw new InvalidEndpointRequestException("未知的SQL标记配置项: " + name, "Unknown property: " + name);
+        }
+        Properties properties = new Properties();
+        properties.setProperty(name, value);
+        try {
+            interceptor.reloadConfig(properties);
+        } catch (IllegalArgumentException e) {
+            throw new InvalidEndpointRequestException("SQL标记配置无效: " + name + "=" + value, e.getMessage());
+        }
+        return config();
+    }
+}
@@ -0,0 +1,124 @@
+package org.aione.sqlmarking;
+
+import org.apache.ibatis.cache.CacheKey;
+import org.apache.ibatis.cursor.Cursor;
+import org.apache.ibatis.executor.BatchResult;
+import org.apache.ibatis.executor.Executor;
+import org.apache.ibatis.mapping.BoundSql;
+import org.apache.ibatis.mapping.MappedStatement;
+import org.apache.ibatis.reflection.MetaObject;
+import org.apache.ibatis.session.ResultHandler;
+import org.apache.ibatis.session.RowBounds;
+import org.apache.ibatis.transaction.Transaction;
+
+import java.sql.SQLException;
+import java.util.List;
+
+/**
+ * 直接装饰Executor的拦截方式
+ * <p>
+ * interceptMode=direct时，SqlMarkingInterceptor#plugin返回本装饰器而不是Plugin.wrap生成的JDK动态代理，
+ * update和4参数query直接调用拦截器的标记逻辑，其余方法直接转发，
+ * 省去每次调用的代理分发、签名查找、Invocation对象和Method.invoke反射调用。
+ * 标记行为与代理方式完全相同，其他插件仍可以在外层用Plugin.wrap包装本装饰器
+ *
+ * @author Billy
+ */
+public class SqlMarkingExecutor implements Executor {
+
+    private final Executor delegate;
+
+    private final SqlMarkingInterceptor interceptor;
+
+    public SqlMarkingExecutor(Executor delegate, SqlMarkingInterceptor interceptor) {
+        this.delegate = delegate;
+        this.interceptor = interceptor;
+    }
+
+    /**
+     * 获取被装饰的执行器
+     *
+     * @return 被装饰的执行器
+     */
+    public Executor getDelegate() {
+        return delegate;
+    }
+
+    @Override
+    public int update(MappedStatement ms, Object parameter) throws SQLException {
+        return interceptor.update(delegate, ms, parameter);
+    }
+
+    @Override
+    public <E> List<E> query(MappedStatement ms, Object parameter, RowBounds rowBounds, ResultHandler resultHandler)
+            throws SQLException {
+        return interceptor.query(delegate, ms, parameter, rowBounds, resultHandler);
+    }
+
+    @Override
+    public <E> List<E> query(MappedStatement ms, Object parameter, RowBounds rowBounds, ResultHandler resultHandler,
+                             CacheKey cacheKey, BoundSql boundSql) throws SQLException {
+        return delegate.query(ms, parameter, rowBounds, resultHandler, cacheKey, boundSql);
+    }
+
+    @Override
+    public <E> Cursor<E> queryCursor(MappedStatement ms, Object parameter, RowBounds rowBounds) throws SQLException {
+        return delegate.queryCursor(ms, parameter, rowBounds);
+    }
+
+    @Override
+    public List<BatchResult> flushStatements() throws SQLException {
+        return delegate.flushStatements();
+    }
+
+    @Override
+    public void commit(boolean required) throws SQLException {
+        delegate.commit(required);
+    }
+
+    @Override
+    public void rollback(boolean required) throws SQLException {
+        delegate.rollback(required);
+    }
+
+    @Override
+    public CacheKey createCacheKey(MappedStatement ms, Object parameterObject, RowBounds rowBounds, BoundSql boundSql) {
+        return delegate.createCacheKey(ms, parameterObject, rowBounds, boundSql);
+    }
+
+    @Override
+    public boolean isCached(MappedStatement ms, CacheKey key) {
+        return delegate.isCached(ms, key);
+    }
+
+    @Override
+    public void clearLocalCache() {
+        delegate.clearLocalCache();
+    }
+
+    @Override
+    public void deferLoad(MappedStatement ms, MetaObject resultObject, String property, CacheKey key,
+                          Class<?> targetType) {
+        delegate.deferLoad(ms, resultObject, property, key, targetType);
+    }
+
+    @Override
+    public Transaction getTransaction() {
+        return delegate.getTransaction();
+    }
+
+    @Override
+    public void close(boolean forceRollback) {
+        delegate.close(forceRollback);
+    }
+
+    @Override
+    public boolean isClosed() {
+        return delegate.isClosed();
+    }
+
+    @Override
+    public void setExecutorWrapper(Executor executor) {
+        delegate.setExecutorWrapper(executor);
+    }
+}
@@ -0,0 +1,138 @@
+package org.aione.sqlmarking;
+
+/**
+ * SQL标记字段
+ * 定义标记注释中各字段的名称，完整格式和简化格式共用同一组字段
+ *
+ * @author Billy
+ */
+public enum SqlMarkingField {
+
+    /**
+     * StatementId
+     */
+    STATEMENT("stmt"),
+
+    /**
+     * 分布式追踪标识符
+     */
+    PFINDER_ID("pf"),
+
+    /**
+     * 链路追踪ID
+     */
+    TRACE_ID("trace"),
+
+    /**
+     * 执行序号
+     */
+    EXECUTION_ID("exec"),
+
+    /**
+     * 执行线程ID，完整格式为thread，简化格式为t
+     */
+    THREAD_ID("thread", "t"),
+
+    /**
+     * 用户ID
+     */
+    USER_ID("user"),
+
+    /**
+     * 时间戳
+     */
+    TIMESTAMP("ts"),
+
+    /**
+     * 读写路由，r为读，w为写
+     */
+    ROUTE("rw"),
+
+    /**
+     * 分片键
+     */
+    SHARD_KEY("shard"),
+
+    /**
+     * 规范化SQL摘要，16位十六进制
+     */
+    DIGEST("dg"),
+
+    /**
+     * Spring事务标识，同一事务中的SQL相同
+     */
+    TRANSACTION_ID("tx"),
+
+    /**
+     * 自定义信息，总是位于标记末尾，其值可能包含分隔符
+     */
+    CUSTOM("custom");
+
+    private static final SqlMarkingField[] VALUES = values();
+
+    /**
+     * 完整格式中的字段名
+     */
+    private final String key;
+
+    /**
+     * 简化格式中的字段名
+     */
+    private final String simpleKey;
+
+    SqlMarkingField(String key) {
+        this(key, key);
+    }
+
+    SqlMarkingField(String key, String simpleKey) {
+        this.key = key;
+        this.simpleKey = simpleKey;
+    }
+
+    /**
+     * 获取完整格式中的字段名
+     *
+     * @return 字段名
+     */
+    public String getKey() {
+        return key;
+    }
+
+    /**
+     * 获取简化格式中的字段名
+     *
+     * @return 字段名
+     */
+    public String getSimpleKey() {
+        return simpleKey;
+    }
+
+    /**
+     * 根据字符序列中的区间匹配字段，不创建中间字符串
+     *
+     * @param text  字符序列
+     * @param start 字段名起始位置（包含）
+     * @param end   字段名结束位置（不包含）
+     * @return 匹配的字段，未知字段返回null
+     */
+    public static SqlMarkingField match(CharSequence text, int start, int end) {
+        for (SqlMarkingField field : VALUES) {
+            if (regionEquals(text, start, end, field.key) || regionEquals(text, start, end, field.simpleKey)) {
+                return field;
+            }
+        }
+        return null;
+    }
+
+    static boolean regionEquals(CharSequence text, int start, int end, String value) {
+        if (end - start != value.length()) {
+            return false;
+        }
+        for (int i = 0; i < value.length(); i++) {
+            if (text.charAt(start + i) != value.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -2,28 +2,68 @@ package org.aione.sqlmarking;
 
 import lombok.extern.slf4j.Slf4j;
 
+import java.lang.management.ManagementFactory;
+import java.net.Inet6Address;
 import java.net.InetAddress;
-import java.net.UnknownHostException;
+import java.net.NetworkInterface;
+import java.net.SocketException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Enumeration;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
 
 /**
  * SQL染色标识生成器
  * 用于生成分布式环境下的唯一追踪标识
+ * <p>
+ * 节点标识为8位十六进制（32位），优先使用配置的nodeId；未配置时先使用随机值，
+ * 首次生成标识时在后台线程中根据网卡地址和进程ID计算稳定的节点标识后替换。
+ * 构造过程不进行DNS解析或其他阻塞的网络调用，不影响应用启动。
+ * 运行时清空nodeId配置后恢复为随机值，下次生成标识时重新解析。
  * 
  * @author Billy
  */
 @Slf4j
 public class SqlMarkingIdGenerator {
 
+    private static final Pattern HEX_NODE_ID = Pattern.compile("[0-9A-Fa-f]{1,8}");
+
+    /**
+     * Linux内核记录IPv6地址标志的文件，每行依次为地址、接口序号、前缀长度、作用域、标志和接口名
+     */
+    private static final String IF_INET6 = "/proc/net/if_inet6";
+
+    /**
+     * IFA_F_TEMPORARY，隐私扩展（RFC 4941）生成的临时地址
+     */
+    private static final int IFA_F_TEMPORARY = 0x01;
+
     /**
-     * 机器标识（基于IP地址生成）
+     * 机器标识（8位十六进制，配置或根据网卡地址生成）
      */
-    private final String machineId;
+    private volatile String machineId;
     
     /**
-     * 进程标识（基于进程ID生成）
+     * 进程标识（4位十六进制，基于进程ID和启动时间生成）
+     */
+    private volatile String processId;
+
+    /**
+     * 节点标识是否由配置指定，指定后不再被后台解析结果覆盖
+     */
+    private volatile boolean configured;
+
+    /**
+     * 后台解析是否已启动
      */
-    private final String processId;
+    private final AtomicBoolean resolving = new AtomicBoolean(false);
 
     /**
      * PFinderId计数器
@@ -34,6 +74,11 @@ public class SqlMarkingIdGenerator {
      * TraceId计数器
      */
     private final AtomicLong traceIdCounter = new AtomicLong(0);
+
+    /**
+     * 事务标识计数器
+     */
+    private final AtomicLong transactionIdCounter = new AtomicLong(0);
     
     /**
      * 启动时间戳
@@ -41,11 +86,45 @@ public class SqlMarkingIdGenerator {
     private final long startupTime;
 
     public SqlMarkingIdGenerator() {
+        this(null);
+    }
+
+    /**
+     * @param nodeId 节点标识，为空时在后台自动解析
+     */
+    public SqlMarkingIdGenerator(String nodeId) {
         this.startupTime = System.currentTimeMillis();
-        this.machineId = generateMachineId();
-        this.processId = generateProcessId();
+        this.machineId = randomMachineId();
+        this.processId = generateProcessId(readProcFsPid());
+        if (nodeId != null && !nodeId.trim().isEmpty()) {
+            setNodeId(nodeId);
+        }
         
-        log.info("SQL染色ID生成器初始化完成 - MachineId: {}, ProcessId: {}", machineId, processId);
+        log.info("SQL染色ID生成器初始化完成 - MachineId: {}, ProcessId: {}, configured: {}",
+                machineId, processId, configured);
+    }
+
+    /**
+     * 设置节点标识
+     * 1-8位十六进制字符串直接使用，其他字符串（如主机名、Pod名）取32位哈希
+     *
+     * @param nodeId 节点标识，为空时取消配置，恢复为随机值并在下次生成标识时重新解析
+     */
+    public void setNodeId(String nodeId) {
+        if (nodeId == null || nodeId.trim().isEmpty()) {
+            if (configured) {
+                this.machineId = randomMachineId();
+                this.configured = false;
+                resolving.set(false);
+                log.info("SQL染色ID生成器节点标识配置已清除，重新解析 - MachineId: {}", machineId);
+            }
+            return;
+        }
+        String trimmed = nodeId.trim();
+        this.machineId = HEX_NODE_ID.matcher(trimmed).matches()
+                ? String.format("%08X", Long.parseLong(trimmed, 16))
+                : String.format("%08X", fnv1a32(trimmed, 0x811C9DC5));
+        this.configured = true;
     }
 
     /**
@@ -55,6 +134,7 @@ public class SqlMarkingIdGenerator {
      * @return 生成的PFinderId字符串
      */
     public String generatePFinderId() {
+        resolveInBackground();
         long counter = pFinderIdCounter.incrementAndGet();
         long timestamp = System.currentTimeMillis();
         
@@ -69,6 +149,7 @@ public class SqlMarkingIdGenerator {
      * @return 生成的TraceId字符串
      */
     public String generateTraceId() {
+        resolveInBackground();
         long counter = traceIdCounter.incrementAndGet();
         long timestamp = System.currentTimeMillis();
         
@@ -76,6 +157,17 @@ public class SqlMarkingIdGenerator {
             machineId, processId, timestamp, counter % 1000000);
     }
 
+    /**
+     * 生成事务标识
+     * 格式: {machineId}{processId}-{counter}，计数器为十六进制
+     *
+     * @return 生成的事务标识字符串
+     */
+    public String generateTransactionId() {
+        resolveInBackground();
+        return machineId + processId + "-" + Long.toHexString(transactionIdCounter.incrementAndGet());
+    }
+
     /**
      * 生成短格式的PFinderId（用于简化显示）
      * 格式: {machineId}-{counter}
@@ -83,54 +175,209 @@ public class SqlMarkingIdGenerator {
      * @return 生成的短格式PFinderId字符串
      */
     public String generateShortPFinderId() {
+        resolveInBackground();
         long counter = pFinderIdCounter.incrementAndGet();
         return String.format("%s-%d", machineId, counter);
     }
 
+    /**
+     * 首次生成标识时启动后台线程解析节点标识，未配置nodeId时才会执行
+     */
+    private void resolveInBackground() {
+        if (configured || resolving.get() || !resolving.compareAndSet(false, true)) {
+            return;
+        }
+        Thread thread = new Thread(this::resolve, "sql-marking-id-resolver");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * 解析节点标识和进程标识
+     */
+    void resolve() {
+        String resolvedProcessId = processId;
+        if (readProcFsPid() < 0) {
+            resolvedProcessId = generateProcessId(readMxBeanPid());
+        }
+        String resolvedMachineId = generateMachineId();
+        if (!configured && resolvedMachineId != null) {
+            machineId = resolvedMachineId;
+        }
+        processId = resolvedProcessId;
+        log.info("SQL染色ID生成器节点标识解析完成 - MachineId: {}, ProcessId: {}", machineId, processId);
+    }
+
     /**
      * 生成机器标识
-     * 基于本机IP地址的最后两段生成4位十六进制字符串
+     * 基于所有非回环网卡的硬件地址和稳定的IP地址计算32位哈希，不进行DNS解析
+     *
+     * @return 8位十六进制字符串，无可用网卡时返回null
      */
     private String generateMachineId() {
         try {
-            InetAddress localHost = InetAddress.getLocalHost();
-            byte[] address = localHost.getAddress();
-            
-            // 使用IP地址的最后两个字节生成机器ID
-            int machineHash = ((address[address.length - 2] & 0xFF) << 8) | 
-                             (address[address.length - 1] & 0xFF);
-            
-            return String.format("%04X", machineHash & 0xFFFF);
-            
-        } catch (UnknownHostException e) {
-            log.warn("无法获取本机IP地址，使用随机机器ID", e);
-            // 使用当前时间戳的低16位作为机器ID
-            return String.format("%04X", (int)(System.currentTimeMillis() & 0xFFFF));
+            int hash = 0x811C9DC5;
+            boolean found = false;
+            Set<String> temporaryAddresses = readTemporaryAddresses();
+            Enumeration<NetworkInterface> interfaces = networkInterfaces();
+            while (interfaces != null && interfaces.hasMoreElements()) {
+                NetworkInterface networkInterface = interfaces.nextElement();
+                if (networkInterface.isLoopback() || !networkInterface.isUp()) {
+                    continue;
+                }
+                byte[] hardwareAddress = networkInterface.getHardwareAddress();
+                if (hardwareAddress != null) {
+                    hash = fnv1a32(hardwareAddress, hash);
+                    found = true;
+                }
+                Enumeration<InetAddress> addresses = networkInterface.getInetAddresses();
+                while (addresses.hasMoreElements()) {
+                    InetAddress address = addresses.nextElement();
+                    if (isStableAddress(address, temporaryAddresses)) {
+                        hash = fnv1a32(address.getAddress(), hash);
+                        found = true;
+                    }
+                }
+            }
+            return found ? String.format("%08X", hash) : null;
+        } catch (Exception e) {
+            log.warn("无法获取网卡地址，继续使用随机机器ID: {}", e.getMessage());
+            return null;
         }
     }
 
+    /**
+     * 枚举本机网卡，只在后台线程中调用
+     */
+    Enumeration<NetworkInterface> networkInterfaces() throws SocketException {
+        return NetworkInterface.getNetworkInterfaces();
+    }
+
+    /**
+     * 判断地址是否在进程生命周期之外保持不变
+     * 链路本地地址每个网卡都有且不区分机器；IPv6临时地址会定期轮换，计入后重启前后的机器标识不同。
+     * 能读取内核标志时按IFA_F_TEMPORARY排除临时地址，否则只保留由EUI-64（MAC地址）生成接口标识的IPv6地址
+     *
+     * @param address            网卡地址
+     * @param temporaryAddresses 内核标记为临时地址的IPv6地址（32位十六进制），无法读取时为null
+     * @return 可用于计算机器标识时返回true
+     */
+    static boolean isStableAddress(InetAddress address, Set<String> temporaryAddresses) {
+        if (address.isLoopbackAddress() || address.isLinkLocalAddress() || address.isAnyLocalAddress()
+                || address.isMulticastAddress()) {
+            return false;
+        }
+        if (!(address instanceof Inet6Address)) {
+            return true;
+        }
+        byte[] bytes = address.getAddress();
+        if (temporaryAddresses != null) {
+            return !temporaryAddresses.contains(toHex(bytes));
+        }
+        return (bytes[11] & 0xFF) == 0xFF && (bytes[12] & 0xFF) == 0xFE;
+    }
+
+    /**
+     * 读取内核标记为临时地址的IPv6地址，非Linux环境返回null
+     */
+    private static Set<String> readTemporaryAddresses() {
+        try {
+            Path file = Paths.get(IF_INET6);
+            if (!Files.isReadable(file)) {
+                return null;
+            }
+            return parseTemporaryAddresses(Files.readAllLines(file));
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+    /**
+     * 解析/proc/net/if_inet6的内容，返回带IFA_F_TEMPORARY标志的地址
+     *
+     * @param lines 文件内容
+     * @return 临时地址（32位小写十六进制）
+     */
+    static Set<String> parseTemporaryAddresses(List<String> lines) {
+        Set<String> result = new HashSet<>();
+        for (String line : lines) {
+            String[] fields = line.trim().split("\\s+");
+            if (fields.length >= 5 && (Integer.parseInt(fields[4], 16) & IFA_F_TEMPORARY) != 0) {
+                result.add(fields[0].toLowerCase());
+            }
+        }
+        return result;
+    }
+
+    private static String toHex(byte[] bytes) {
+        StringBuilder sb = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            sb.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return sb.toString();
+    }
+
+    private String randomMachineId() {
+        return String.format("%08X", ThreadLocalRandom.current().nextInt() ^ System.identityHashCode(this));
+    }
+
     /**
      * 生成进程标识
-     * 基于进程ID和启动时间生成3位十六进制字符串
+     * 基于进程ID和启动时间生成4位十六进制字符串，进程ID未知时只使用启动时间
      */
-    private String generateProcessId() {
+    private String generateProcessId(long pid) {
+        long seed = pid < 0 ? startupTime : pid * 31 + (startupTime & 0xFFFF);
+        return String.format("%04X", (int) (seed & 0xFFFF));
+    }
+
+    /**
+     * 通过/proc/self读取进程ID，不加载JMX，非Linux环境返回-1
+     */
+    private static long readProcFsPid() {
         try {
-            // 获取进程ID
-            String processName = java.lang.management.ManagementFactory.getRuntimeMXBean().getName();
-            String pid = processName.split("@")[0];
-            
-            // 结合进程ID和启动时间生成进程标识
-            int processHash = (Integer.parseInt(pid) * 31 + (int)(startupTime & 0xFFFF)) & 0xFFF;
-            
-            return String.format("%03X", processHash);
-            
+            Path self = Paths.get("/proc/self");
+            if (!Files.exists(self)) {
+                return -1;
+            }
+            return Long.parseLong(Files.readSymbolicLink(self).getFileName().toString());
         } catch (Exception e) {
-            log.warn("无法获取进程ID，使用随机进程ID", e);
-            // 使用启动时间的低12位作为进程ID
-            return String.format("%03X", (int)(startupTime & 0xFFF));
+            return -1;
         }
     }
 
+    /**
+     * 通过RuntimeMXBean读取进程ID，只在后台线程中调用
+     * native-image中不使用JMX，该分支在构建时被裁剪，ManagementFactory不会进入镜像
+     */
+    private static long readMxBeanPid() {
+        if (NativeImage.ACTIVE) {
+            return -1;
+        }
+        try {
+            String processName = ManagementFactory.getRuntimeMXBean().getName();
+            return Long.parseLong(processName.split("@")[0]);
+        } catch (Exception e) {
+            log.warn("无法获取进程ID，使用启动时间生成进程ID: {}", e.getMessage());
+            return -1;
+        }
+    }
+
+    private static int fnv1a32(byte[] bytes, int hash) {
+        for (byte b : bytes) {
+            hash ^= b & 0xFF;
+            hash *= 0x01000193;
+        }
+        return hash;
+    }
+
+    private static int fnv1a32(String value, int hash) {
+        for (int i = 0; i < value.length(); i++) {
+            hash ^= value.charAt(i);
+            hash *= 0x01000193;
+        }
+        return hash;
+    }
+
     /**
      * 获取生成器统计信息
      * 
@@ -147,6 +394,7 @@ public class SqlMarkingIdGenerator {
     public void resetCounters() {
         pFinderIdCounter.set(0);
         traceIdCounter.set(0);
+        transactionIdCounter.set(0);
     }
 
     /**
@@ -166,4 +414,17 @@ public class SqlMarkingIdGenerator {
     public String getProcessId() {
         return processId;
     }
-}
\ No newline at end of file
+
+    /**
+     * 是否运行在GraalVM native-image中
+     * 本类在构建时初始化（见META-INF/native-image），构建时系统属性为buildtime，ACTIVE为常量true；
+     * 在JVM中运行时该属性不存在
+     */
+    static final class NativeImage {
+
+        static final boolean ACTIVE = System.getProperty("org.graalvm.nativeimage.imagecode") != null;
+
+        private NativeImage() {
+        }
+    }
+}
@@ -54,6 +54,26 @@ public class SqlMarkingInfo {
      */
     private String userId;
 
+    /**
+     * 分片键（可选）
+     */
+    private String shardKey;
+
+    /**
+     * 读写路由（可选）
+     */
+    private SqlMarkingRoute route;
+
+    /**
+     * 规范化SQL摘要（可选）
+     */
+    private String digest;
+
+    /**
+     * Spring事务标识（可选）
+     */
+    private String transactionId;
+
     /**
      * 自定义染色信息
      */
@@ -130,6 +150,16 @@ public class SqlMarkingInfo {
      * @return 包含所有染色信息的完整字符串
      */
     public String getFullInfoString() {
+        return getFullInfoString("|");
+    }
+
+    /**
+     * 获取染色信息的完整字符串表示
+     *
+     * @param separator 字段分隔符
+     * @return 包含所有染色信息的完整字符串
+     */
+    public String getFullInfoString(String separator) {
         StringBuilder sb = new StringBuilder();
         
         // StatementId
@@ -137,49 +167,84 @@ public class SqlMarkingInfo {
             sb.append("stmt=").append(getSimpleStatementId());
         }
 
+        appendFullInfo(sb, 0, separator);
+        return sb.toString();
+    }
+
+    /**
+     * 追加statementId之外的完整染色信息
+     * 处理器在已写入标记前缀和stmt字段后调用，避免重复拼接不变的部分
+     *
+     * @param sb        目标字符串
+     * @param start     染色信息在目标字符串中的起始位置，之后已有内容时先追加分隔符
+     * @param separator 字段分隔符
+     */
+    void appendFullInfo(StringBuilder sb, int start, String separator) {
+        // Digest
+        if (digest != null) {
+            if (sb.length() > start) sb.append(separator);
+            sb.append("dg=").append(digest);
+        }
+
         // PFinderId
         if (pFinderId != null) {
-            if (sb.length() > 0) sb.append("|");
+            if (sb.length() > start) sb.append(separator);
             sb.append("pf=").append(pFinderId);
         }
 
         // TraceId
         if (traceId != null) {
-            if (sb.length() > 0) sb.append("|");
+            if (sb.length() > start) sb.append(separator);
             sb.append("trace=").append(traceId);
         }
+
+        // TransactionId
+        if (transactionId != null) {
+            if (sb.length() > start) sb.append(separator);
+            sb.append("tx=").append(transactionId);
+        }
         
         // ExecutionId
         if (executionId != null) {
-            if (sb.length() > 0) sb.append("|");
+            if (sb.length() > start) sb.append(separator);
             sb.append("exec=").append(executionId);
         }
         
         // ThreadId
         if (threadId != null) {
-            if (sb.length() > 0) sb.append("|");
+            if (sb.length() > start) sb.append(separator);
             sb.append("thread=").append(threadId);
         }
         
         // UserId
         if (userId != null) {
-            if (sb.length() > 0) sb.append("|");
+            if (sb.length() > start) sb.append(separator);
             sb.append("user=").append(userId);
         }
+
+        // Route
+        if (route != null) {
+            if (sb.length() > start) sb.append(separator);
+            sb.append("rw=").append(route.getCode());
+        }
+
+        // ShardKey
+        if (shardKey != null) {
+            if (sb.length() > start) sb.append(separator);
+            sb.append("shard=").append(shardKey);
+        }
         
         // Timestamp
         if (timestamp != null) {
-            if (sb.length() > 0) sb.append("|");
+            if (sb.length() > start) sb.append(separator);
             sb.append("ts=").append(timestamp);
         }
         
         // Custom Info
         if (hasCustomInfo()) {
-            if (sb.length() > 0) sb.append("|");
+            if (sb.length() > start) sb.append(separator);
             sb.append("custom=").append(getCustomInfoString());
         }
-        
-        return sb.toString();
     }
 
     /**
@@ -188,6 +253,16 @@ public class SqlMarkingInfo {
      * @return 包含关键染色信息的简化字符串
      */
     public String getSimpleInfoString() {
+        return getSimpleInfoString("|");
+    }
+
+    /**
+     * 获取简化的染色信息字符串
+     *
+     * @param separator 字段分隔符
+     * @return 包含关键染色信息的简化字符串
+     */
+    public String getSimpleInfoString(String separator) {
         StringBuilder sb = new StringBuilder();
 
         // PFinderId (最重要的追踪标识)
@@ -195,17 +270,41 @@ public class SqlMarkingInfo {
             sb.append("pf=").append(pFinderId);
         }
 
+        // Digest
+        if (digest != null) {
+            if (sb.length() > 0) sb.append(separator);
+            sb.append("dg=").append(digest);
+        }
+
         // ExecutionId
         if (executionId != null) {
-            if (sb.length() > 0) sb.append("|");
+            if (sb.length() > 0) sb.append(separator);
             sb.append("exec=").append(executionId);
         }
+
+        // TransactionId
+        if (transactionId != null) {
+            if (sb.length() > 0) sb.append(separator);
+            sb.append("tx=").append(transactionId);
+        }
         
         // ThreadId
         if (threadId != null) {
-            if (sb.length() > 0) sb.append("|");
+            if (sb.length() > 0) sb.append(separator);
             sb.append("t=").append(threadId);
         }
+
+        // Route
+        if (route != null) {
+            if (sb.length() > 0) sb.append(separator);
+            sb.append("rw=").append(route.getCode());
+        }
+
+        // ShardKey
+        if (shardKey != null) {
+            if (sb.length() > 0) sb.append(separator);
+            sb.append("shard=").append(shardKey);
+        }
         
         return sb.toString();
     }
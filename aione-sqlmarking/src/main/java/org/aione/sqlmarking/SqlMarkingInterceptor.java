@@ -1,24 +1,44 @@
 package org.aione.sqlmarking;
 
-import lombok.Getter;
-import lombok.Setter;
 import lombok.extern.slf4j.Slf4j;
+import org.apache.ibatis.cache.CacheKey;
+import org.apache.ibatis.executor.BatchExecutor;
+import org.apache.ibatis.executor.CachingExecutor;
 import org.apache.ibatis.executor.Executor;
 import org.apache.ibatis.mapping.BoundSql;
+import org.apache.ibatis.mapping.Environment;
 import org.apache.ibatis.mapping.MappedStatement;
 import org.apache.ibatis.mapping.SqlCommandType;
+import org.apache.ibatis.mapping.StatementType;
 import org.apache.ibatis.plugin.*;
 import org.apache.ibatis.reflection.DefaultReflectorFactory;
 import org.apache.ibatis.reflection.MetaObject;
+import org.apache.ibatis.reflection.SystemMetaObject;
 import org.apache.ibatis.reflection.factory.DefaultObjectFactory;
 import org.apache.ibatis.reflection.wrapper.DefaultObjectWrapperFactory;
+import org.apache.ibatis.session.Configuration;
 import org.apache.ibatis.session.ResultHandler;
 import org.apache.ibatis.session.RowBounds;
 import org.apache.logging.log4j.util.Strings;
 
 import java.lang.reflect.Field;
+import java.sql.SQLException;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.function.UnaryOperator;
 
 /**
  * MyBatis SQL染色拦截器
@@ -41,15 +61,24 @@ import java.util.concurrent.atomic.AtomicLong;
 public class SqlMarkingInterceptor implements Interceptor {
 
     /**
-     * SQL染色配置
-     * -- GETTER --
-     * 获取当前配置
-     * -- SETTER --
-     * 设置染色配置
+     * 分片键最大长度
+     */
+    private static final int MAX_SHARD_KEY_LENGTH = 64;
+
+    /**
+     * CachingExecutor的delegate字段，用于判断被包装的是否为批量执行器
+     */
+    private static final Field CACHING_EXECUTOR_DELEGATE = findCachingExecutorDelegate();
+
+    /**
+     * SQL染色配置，修改后需调用refreshConfig使其生效
      */
-    @Setter
-    @Getter
-    private SqlMarkingConfig config;
+    private volatile SqlMarkingConfig config;
+
+    /**
+     * 当前生效的配置快照，拦截时只读取一次
+     */
+    private volatile SqlMarkingConfigSnapshot snapshot;
 
     /**
      * 分布式追踪标识生成器
@@ -61,126 +90,861 @@ public class SqlMarkingInterceptor implements Interceptor {
      */
     private final SqlMarkingProcessor processor;
 
+    /**
+     * N+1查询检测器
+     */
+    private final SqlNPlusOneDetector nPlusOneDetector;
+
+    /**
+     * 使用SqlMarkedSource的MappedStatement副本，按原MappedStatement缓存
+     */
+    private final Map<MappedStatement, MappedStatement> markedStatements = new ConcurrentHashMap<>();
+
+    /**
+     * 各MyBatis配置中是否有内层插件只拦截4参数的Executor.query，有时查询改走4参数重载
+     */
+    private final Map<Configuration, Boolean> innerQueryPlugins = new ConcurrentHashMap<>();
+
+    /**
+     * 查询返回行数统计
+     */
+    private final SqlRowCountTracker rowCountTracker = new SqlRowCountTracker();
+
+    /**
+     * 自适应并发限制
+     */
+    private final SqlConcurrencyLimiter concurrencyLimiter = new SqlConcurrencyLimiter();
+
+    /**
+     * 按用户或租户的数据库耗时统计
+     */
+    private final SqlTenantAccounting accounting = new SqlTenantAccounting();
+
+    /**
+     * Spring事务剖析
+     */
+    private final SqlTransactionTracker transactionTracker;
+
+    /**
+     * 死锁和锁等待超时归因
+     */
+    private final SqlLockConflictTracker lockConflictTracker = new SqlLockConflictTracker();
+
+    /**
+     * 热点参数检测器，未启用时为null
+     */
+    private volatile SqlHotKeyDetector hotKeyDetector;
+
+    /**
+     * 慢SQL执行计划采集，未启用时为null
+     */
+    private volatile SqlExplainCapture explainCapture;
+
+    /**
+     * 热点报告线程，首次启用周期报告时创建
+     */
+    private ScheduledExecutorService hotKeyReporter;
+    private ScheduledFuture<?> hotKeyReport;
+    private int hotKeyReportSeconds;
+
+    /**
+     * 已预热的MyBatis配置，配置热更新时为新快照重新编译标记计划
+     */
+    private final Set<Configuration> warmUpConfigurations = new CopyOnWriteArraySet<>();
+
     /**
      * 执行计数器
      */
     private final AtomicLong executionCounter = new AtomicLong(0);
 
+    /**
+     * 上下文查询缓存命中次数
+     */
+    private final AtomicLong contextCacheHitCount = new AtomicLong(0);
+
     public SqlMarkingInterceptor() {
         this.config = new SqlMarkingConfig();
         this.idGenerator = new SqlMarkingIdGenerator();
-        this.processor = new SqlMarkingProcessor();
+        this.processor = new SqlMarkingProcessor(config);
+        this.snapshot = processor.getSnapshot();
+        this.nPlusOneDetector = new SqlNPlusOneDetector();
+        this.transactionTracker = new SqlTransactionTracker(idGenerator);
     }
 
     @Override
     public Object intercept(Invocation invocation) throws Throwable {
+        Executor executor = (Executor) invocation.getTarget();
+        Object[] args = invocation.getArgs();
+        if (args.length == 4) {
+            return query(executor, (MappedStatement) args[0], args[1], (RowBounds) args[2], (ResultHandler<?>) args[3]);
+        }
+        return update(executor, (MappedStatement) args[0], args[1]);
+    }
+
+    /**
+     * 执行查询
+     * 标记后的BoundSql通过Executor.query的6参数重载传入执行器，缓存键仍按原始SQL生成，
+     * 避免每次不同的标记信息导致一级缓存和二级缓存失效。
+     * 6参数重载不经过内层插件的4参数拦截，存在只拦截4参数query的内层插件时，
+     * 改为与更新相同的方式，执行使用SqlMarkedSource的MappedStatement副本
+     *
+     * @param executor 被拦截的执行器
+     */
+    <E> List<E> query(Executor executor, MappedStatement mappedStatement, Object parameter, RowBounds rowBounds,
+                      ResultHandler<?> resultHandler) throws SQLException {
+        // 一次拦截只读取一次快照，保证整个执行过程配置一致
+        SqlMarkingConfigSnapshot snapshot = this.snapshot;
+
         // 检查染色功能是否启用
-        if (!config.isEnabled()) {
-            return invocation.proceed();
+        if (!snapshot.isEnabled()) {
+            return executor.query(mappedStatement, parameter, rowBounds, resultHandler);
         }
 
-        Object[] args = invocation.getArgs();
-        MappedStatement mappedStatement = (MappedStatement) args[0];
-        Object parameter = args[1];
+        SqlMarkingContext context = SqlMarkingContext.getCurrentContext();
+        detectRepeatedQuery(mappedStatement, parameter, context, snapshot);
+
+        // 上下文查询缓存，命中时不再执行SQL
+        BoundSql boundSql = null;
+        CacheKey contextCacheKey = null;
+        if (context != null && snapshot.isContextQueryCacheEnabled()) {
+            if (mappedStatement.isFlushCacheRequired()) {
+                context.clearQueryCache();
+            } else {
+                boundSql = mappedStatement.getBoundSql(parameter);
+                if (isContextCacheable(mappedStatement, boundSql, resultHandler)) {
+                    contextCacheKey = executor.createCacheKey(mappedStatement, parameter, rowBounds, boundSql);
+                    List<E> cached = context.getCachedQuery(contextCacheKey);
+                    if (cached != null) {
+                        contextCacheHitCount.incrementAndGet();
+                        if (snapshot.isDebugEnabled()) {
+                            log.debug("上下文查询缓存命中 - StatementId: {}", mappedStatement.getId());
+                        }
+                        return cached;
+                    }
+                }
+            }
+        }
+        SqlHotKeyDetector hotKeyDetector = sampleHotKey(snapshot);
+
+        // 超过行数上限时拒绝的，最多读取maxRows+1行，避免先在内存中创建全部结果对象
+        boolean rowGuarded = isRowGuarded(rowBounds, resultHandler, snapshot);
+        RowBounds executeRowBounds = rowGuarded && snapshot.isMaxRowsReject()
+                ? new RowBounds(rowBounds.getOffset(), snapshot.getMaxRows() < Integer.MAX_VALUE ? snapshot.getMaxRows() + 1 : snapshot.getMaxRows())
+                : rowBounds;
+
+        // 检查是否需要标记此SQL类型
+        SqlCommandType sqlCommandType = mappedStatement.getSqlCommandType();
+        boolean mark = snapshot.shouldMark(sqlCommandType);
+        if (!mark && !snapshot.isRouteEnabled()) {
+            if (hotKeyDetector != null) {
+                recordHotKey(hotKeyDetector, mappedStatement, mappedStatement.getBoundSql(parameter), parameter);
+            }
+            List<E> result = proceed(() -> executor.query(mappedStatement, parameter, executeRowBounds, resultHandler),
+                    mappedStatement, parameter, boundSql, null, true, context, snapshot);
+            return cacheContextQuery(contextCacheKey, checkRowCount(mappedStatement, result, resultHandler, rowGuarded,
+                    null, context, snapshot), context, snapshot);
+        }
+
+        if (boundSql == null) {
+            boundSql = mappedStatement.getBoundSql(parameter);
+        }
+        if (hotKeyDetector != null) {
+            recordHotKey(hotKeyDetector, mappedStatement, boundSql, parameter);
+        }
+        SqlMarkingRoute route = snapshot.isRouteEnabled()
+                ? SqlMarkingRoute.classify(sqlCommandType, boundSql.getSql(), context, snapshot.isRouteStickyWrite())
+                : null;
+        String markedSql = mark ? markSql(mappedStatement, parameter, boundSql.getSql(), sqlCommandType, route, context, snapshot) : null;
+        BoundSql executeBoundSql = markedSql != null
+                ? SqlMarkedSource.withSql(mappedStatement.getConfiguration(), boundSql, markedSql)
+                : boundSql;
+        CacheKey cacheKey = contextCacheKey != null && executeRowBounds == rowBounds
+                ? contextCacheKey
+                : executor.createCacheKey(mappedStatement, parameter, executeRowBounds, boundSql);
+
+        boolean innerPlugins = hasInnerQueryPlugins(mappedStatement.getConfiguration());
+        UnaryOperator<String> previousMarker = null;
+        if (innerPlugins && markedSql != null) {
+            // 内层插件按4参数重载获取BoundSql，原始SQL未被改写时直接使用已生成的标记
+            String originalSql = boundSql.getSql();
+            previousMarker = SqlMarkedSource.setMarker(sql -> sql.equals(originalSql) ? markedSql
+                    : markSql(mappedStatement, parameter, sql, sqlCommandType, route, context, snapshot));
+        }
+        MappedStatement executeStatement = innerPlugins && markedSql != null
+                ? markedStatements.computeIfAbsent(mappedStatement, this::copyMappedStatement)
+                : mappedStatement;
+        SqlMarkingRoute previousRoute = route != null ? SqlMarkingRoutingDataSource.setCurrentRoute(route) : null;
+        try {
+            List<E> result = proceed(() -> innerPlugins
+                            ? executor.query(executeStatement, parameter, executeRowBounds, resultHandler)
+                            : executor.query(mappedStatement, parameter, executeRowBounds, resultHandler, cacheKey,
+                            executeBoundSql),
+                    mappedStatement, parameter, boundSql, markedSql, true, context, snapshot);
+            return cacheContextQuery(contextCacheKey, checkRowCount(mappedStatement, result, resultHandler, rowGuarded,
+                    markedSql, context, snapshot), context, snapshot);
+        } finally {
+            if (innerPlugins && markedSql != null) {
+                SqlMarkedSource.setMarker(previousMarker);
+            }
+            if (route != null) {
+                SqlMarkingRoutingDataSource.setCurrentRoute(previousRoute);
+            }
+        }
+    }
+
+    /**
+     * 判断是否有内层插件只拦截4参数的Executor.query
+     * 先注册的插件先包装执行器，位于本拦截器内层，6参数重载不会进入这些插件的4参数拦截
+     */
+    private boolean hasInnerQueryPlugins(Configuration configuration) {
+        Boolean result = innerQueryPlugins.get(configuration);
+        if (result == null) {
+            result = innerQueryPlugins.computeIfAbsent(configuration, this::detectInnerQueryPlugins);
+        }
+        return result;
+    }
+
+    private Boolean detectInnerQueryPlugins(Configuration configuration) {
+        List<Interceptor> interceptors = configuration.getInterceptors();
+        int index = interceptors.indexOf(this);
+        StringBuilder names = new StringBuilder();
+        for (int i = 0; i < index; i++) {
+            Intercepts intercepts = interceptors.get(i).getClass().getAnnotation(Intercepts.class);
+            if (intercepts != null && interceptsOnlyFourArgQuery(intercepts)) {
+                names.append(names.length() > 0 ? ", " : "").append(interceptors.get(i).getClass().getName());
+            }
+        }
+        if (names.length() == 0) {
+            return Boolean.FALSE;
+        }
+        log.warn("SQL标记拦截器内层存在只拦截4参数Executor.query的插件: {}，查询改为执行标记SQL源的副本，"
+                + "一级缓存和二级缓存的缓存键将包含标记信息。将这些插件注册在SqlMarkingInterceptor之后，"
+                + "或同时拦截6参数的query，可恢复按原始SQL缓存", names);
+        return Boolean.TRUE;
+    }
+
+    private static boolean interceptsOnlyFourArgQuery(Intercepts intercepts) {
+        boolean fourArgs = false;
+        for (Signature signature : intercepts.value()) {
+            if (signature.type().isAssignableFrom(Executor.class) && "query".equals(signature.method())) {
+                if (signature.args().length == 6) {
+                    return false;
+                }
+                fourArgs |= signature.args().length == 4;
+            }
+        }
+        return fourArgs;
+    }
+
+    /**
+     * 判断查询结果是否可以缓存在上下文中
+     * 传入ResultHandler的查询没有返回结果，存储过程可能有输出参数，useCache=false的语句由调用方显式关闭缓存；
+     * 加锁读必须到数据库加锁，事务中其他连接提交的数据和事务回滚都会使缓存结果失效，这两种情况都不缓存
+     */
+    private static boolean isContextCacheable(MappedStatement mappedStatement, BoundSql boundSql,
+                                              ResultHandler<?> resultHandler) {
+        return resultHandler == null && mappedStatement.isUseCache()
+                && mappedStatement.getStatementType() != StatementType.CALLABLE
+                && !SqlMarkingRoute.isLockingRead(boundSql.getSql())
+                && !SqlTransactionTracker.isActualTransactionActive();
+    }
+
+    /**
+     * 将查询结果缓存到上下文中
+     *
+     * @return 查询结果
+     */
+    private static <E> List<E> cacheContextQuery(CacheKey contextCacheKey, List<E> result, SqlMarkingContext context,
+                                                 SqlMarkingConfigSnapshot snapshot) {
+        if (contextCacheKey != null && result != null) {
+            context.cacheQuery(contextCacheKey, result, snapshot.getContextQueryCacheMaxEntries());
+        }
+        return result;
+    }
+
+    /**
+     * 按采样率决定本次查询是否记录热点参数
+     *
+     * @return 需要记录时返回检测器，否则返回null
+     */
+    private SqlHotKeyDetector sampleHotKey(SqlMarkingConfigSnapshot snapshot) {
+        SqlHotKeyDetector detector = this.hotKeyDetector;
+        if (detector == null || !snapshot.isHotKeyDetectEnabled()) {
+            return null;
+        }
+        int sampleRate = snapshot.getHotKeySampleRate();
+        return sampleRate <= 1 || ThreadLocalRandom.current().nextInt(sampleRate) == 0 ? detector : null;
+    }
+
+    /**
+     * 记录热点参数，取参数值失败时忽略，不影响查询
+     */
+    private static void recordHotKey(SqlHotKeyDetector detector, MappedStatement mappedStatement, BoundSql boundSql,
+                                     Object parameter) {
+        try {
+            detector.record(mappedStatement, boundSql, parameter);
+        } catch (Exception e) {
+            log.debug("热点参数指纹计算失败 statementId: {}, error: {}", mappedStatement.getId(), e.getMessage());
+        }
+    }
+
+    /**
+     * 判断查询是否需要检查返回行数
+     * 调用方传入ResultHandler（流式处理）或带limit的RowBounds时已自行控制行数，不检查
+     */
+    private static boolean isRowGuarded(RowBounds rowBounds, ResultHandler<?> resultHandler,
+                                        SqlMarkingConfigSnapshot snapshot) {
+        return snapshot.getMaxRows() > 0 && resultHandler == null
+                && (rowBounds == null || rowBounds.getLimit() == RowBounds.NO_ROW_LIMIT);
+    }
+
+    /**
+     * 记录返回行数，超过上限时告警或拒绝
+     * 拒绝模式下最多读取maxRows+1行，行数分布中记为maxRows+1
+     *
+     * @return 查询结果
+     * @throws SqlMarkingRejectedException 返回行数超过上限且maxRowsAction=reject时抛出
+     */
+    private <E> List<E> checkRowCount(MappedStatement mappedStatement, List<E> result, ResultHandler<?> resultHandler,
+                                      boolean rowGuarded, String markedSql, SqlMarkingContext context,
+                                      SqlMarkingConfigSnapshot snapshot) {
+        if (result == null || resultHandler != null) {
+            return result;
+        }
+        int rows = result.size();
+        if (snapshot.isRowCountTrackEnabled()) {
+            rowCountTracker.record(mappedStatement.getId(), rows);
+        }
+        if (!rowGuarded || rows <= snapshot.getMaxRows()) {
+            return result;
+        }
+
+        rowCountTracker.recordExceeded();
+        String marker = describeMarker(markedSql, context, snapshot);
+        if (snapshot.isMaxRowsReject()) {
+            log.warn("查询返回行数超过上限，已拒绝 - StatementId: {}, 上限: {}, 调用位置: {}, 标记: {}",
+                    mappedStatement.getId(), snapshot.getMaxRows(), SqlNPlusOneDetector.findCallSite(), marker);
+            throw new SqlMarkingRejectedException(mappedStatement.getId(),
+                    "查询返回行数超过上限" + snapshot.getMaxRows() + "，已拒绝: " + mappedStatement.getId());
+        }
+        log.warn("查询返回行数超过上限 - StatementId: {}, 行数: {}, 上限: {}, 调用位置: {}, 标记: {}",
+                mappedStatement.getId(), rows, snapshot.getMaxRows(), SqlNPlusOneDetector.findCallSite(), marker);
+        return result;
+    }
+
+    /**
+     * 取出标记注释用于告警日志，未标记时使用上下文中的用户和追踪标识
+     */
+    private static String describeMarker(String markedSql, SqlMarkingContext context, SqlMarkingConfigSnapshot snapshot) {
+        if (markedSql != null) {
+            SqlMarkingView view = new SqlMarkingView();
+            if (snapshot.getParser().parse(markedSql, view)) {
+                return markedSql.substring(view.getMarkerStart(), view.getMarkerEnd());
+            }
+        }
+        return context != null ? "userId=" + context.getUserId() + ", traceId=" + context.getTraceId() : "-";
+    }
+
+    /**
+     * 执行更新
+     * Executor.update没有BoundSql参数，改为执行使用SqlMarkedSource的MappedStatement副本，
+     * 执行器获取BoundSql时再进行标记。批量执行器按SQL文本合并语句，标记会使每条SQL都不同，因此不标记
+     *
+     * @param executor 被拦截的执行器
+     */
+    int update(Executor executor, MappedStatement mappedStatement, Object parameter) throws SQLException {
+        // 一次拦截只读取一次快照，保证整个执行过程配置一致
+        SqlMarkingConfigSnapshot snapshot = this.snapshot;
+
+        // 检查染色功能是否启用
+        if (!snapshot.isEnabled()) {
+            return executor.update(mappedStatement, parameter);
+        }
 
-        // 获取原始SQL
-        BoundSql boundSql = mappedStatement.getBoundSql(parameter);
-        String originalSql = boundSql.getSql();
+        SqlMarkingContext context = SqlMarkingContext.getCurrentContext();
+        detectRepeatedQuery(mappedStatement, parameter, context, snapshot);
+        // 写操作后上下文中缓存的查询结果可能已过期，未启用缓存时为空操作
+        if (context != null) {
+            context.clearQueryCache();
+        }
 
         // 检查是否需要标记此SQL类型
         SqlCommandType sqlCommandType = mappedStatement.getSqlCommandType();
-        if (!shouldMarkSql(sqlCommandType)) {
-            return invocation.proceed();
+        boolean mark = snapshot.shouldMark(sqlCommandType);
+        // 批量执行器的update只是加入批次，SQL在flushStatements时才执行，不计入并发限制
+        boolean batch = (mark || snapshot.isConcurrencyLimitEnabled()) && isBatchExecutor(executor);
+        if (!mark && !snapshot.isRouteEnabled()) {
+            return proceed(() -> executor.update(mappedStatement, parameter), mappedStatement, parameter, null, null,
+                    !batch, context, snapshot);
         }
 
-        // 检查SQL是否已经被标记，避免重复标记
-        if (isAlreadyMarked(originalSql)) {
-            return invocation.proceed();
+        SqlMarkingRoute route = snapshot.isRouteEnabled()
+                ? SqlMarkingRoute.classify(sqlCommandType, null, context, snapshot.isRouteStickyWrite())
+                : null;
+        if (batch) {
+            mark = false;
+        }
+
+        MappedStatement executeStatement = mappedStatement;
+        UnaryOperator<String> previousMarker = null;
+        if (mark) {
+            executeStatement = markedStatements.computeIfAbsent(mappedStatement, this::copyMappedStatement);
+            previousMarker = SqlMarkedSource.setMarker(
+                    sql -> markSql(mappedStatement, parameter, sql, sqlCommandType, route, context, snapshot));
+        }
+        SqlMarkingRoute previousRoute = route != null ? SqlMarkingRoutingDataSource.setCurrentRoute(route) : null;
+        MappedStatement statement = executeStatement;
+        try {
+            return proceed(() -> executor.update(statement, parameter), mappedStatement, parameter, null, null,
+                    !batch, context, snapshot);
+        } finally {
+            if (mark) {
+                SqlMarkedSource.setMarker(previousMarker);
+            }
+            if (route != null) {
+                SqlMarkingRoutingDataSource.setCurrentRoute(previousRoute);
+            }
+        }
+    }
+
+    /**
+     * N+1查询检测
+     */
+    private void detectRepeatedQuery(MappedStatement mappedStatement, Object parameter, SqlMarkingContext context,
+                                     SqlMarkingConfigSnapshot snapshot) {
+        if (snapshot.isRepeatedQueryDetectEnabled() && context != null) {
+            nPlusOneDetector.record(context, mappedStatement, parameter, snapshot.getRepeatedQueryThreshold());
+        }
+    }
+
+    /**
+     * 生成标记后的SQL
+     * 异常情况下返回null，保留原始SQL，确保业务不受影响
+     *
+     * @return 标记后的SQL，SQL已被标记或标记失败时返回null
+     */
+    private String markSql(MappedStatement mappedStatement, Object parameter, String originalSql,
+                           SqlCommandType sqlCommandType, SqlMarkingRoute route, SqlMarkingContext context,
+                           SqlMarkingConfigSnapshot snapshot) {
+        // 检查SQL是否已经被标记，避免重复标记，静态SQL使用预先计算的结果
+        SqlMarkingPlan plan = snapshot.getPlan(mappedStatement);
+        if (plan.isStaticSql(originalSql) ? plan.isStaticSqlMarked() : snapshot.isAlreadyMarked(originalSql)) {
+            return null;
         }
 
         try {
             // 生成标记信息
-            SqlMarkingInfo markingInfo = createMarkingInfo(mappedStatement, sqlCommandType);
+            SqlMarkingInfo markingInfo = createMarkingInfo(mappedStatement.getId(), sqlCommandType, true, context,
+                    snapshot);
+            markingInfo.setRoute(route);
+            if (snapshot.isDigestEnabled()) {
+                markingInfo.setDigest(plan.isStaticSql(originalSql) ? plan.getStaticSqlDigest()
+                        : SqlDigest.digestHex(originalSql, snapshot.getDigestMaxLength()));
+            }
+            if (snapshot.isShardHintEnabled()) {
+                markingInfo.setShardKey(resolveShardKey(mappedStatement, parameter, context, snapshot));
+            }
 
             // 执行SQL标记
-            String markedSql = processor.markSql(originalSql, markingInfo);
+            String markedSql = processor.markSql(originalSql, markingInfo, snapshot, plan);
 
             // 记录标记信息（用于调试和监控）
-            if (config.isDebugEnabled()) {
-                logMarkingInfo(mappedStatement.getId(), originalSql, markedSql, markingInfo);
+            if (snapshot.isDebugEnabled()) {
+                logMarkingInfo(mappedStatement.getId(), originalSql, markedSql, markingInfo, snapshot);
             }
+            return markedSql;
+        } catch (Exception e) {
+            log.error("SQL标记处理异常，使用原始SQL执行 statementId: {}, error: {}",
+                    mappedStatement.getId(), e.getMessage(), e);
+            return null;
+        }
+    }
 
-            Field field = boundSql.getClass().getDeclaredField("sql");
-            field.setAccessible(true);
-            field.set(boundSql, markedSql);
+    /**
+     * 标记不经过MyBatis执行的SQL，由SqlMarkingDataSource在创建Statement时调用
+     * 已包含标记的SQL（MyBatis执行时已由拦截器标记）直接返回，不查询缓存；
+     * 其余SQL按文本取得缓存的标记计划，标记内容与MyBatis执行的SQL一致，statementId固定为jdbc
+     *
+     * @param sql 原始SQL
+     * @return 标记后的SQL，未启用、不需要标记或标记失败时返回原始SQL
+     */
+    public String markJdbcSql(String sql) {
+        SqlMarkingConfigSnapshot snapshot = this.snapshot;
+        if (!snapshot.isEnabled() || !snapshot.isDataSourceProxyEnabled() || sql == null
+                || snapshot.isAlreadyMarked(sql)) {
+            return sql;
+        }
 
-            // 执行标记后的SQL
-            return invocation.proceed();
+        SqlMarkingPlan plan = snapshot.getJdbcPlan(sql);
+        SqlCommandType sqlCommandType = plan.getSqlCommandType();
+        SqlMarkingContext context = SqlMarkingContext.getCurrentContext();
+        if (context != null && sqlCommandType != SqlCommandType.SELECT) {
+            context.clearQueryCache();
+        }
+        if (!snapshot.shouldMark(sqlCommandType)) {
+            return sql;
+        }
+
+        try {
+            SqlMarkingInfo markingInfo = createMarkingInfo(plan.getStatementId(), sqlCommandType, false, context,
+                    snapshot);
+            markingInfo.setDigest(plan.getStaticSqlDigest());
+            if (snapshot.isRouteEnabled()) {
+                markingInfo.setRoute(SqlMarkingRoute.classify(sqlCommandType, sql, context, snapshot.isRouteStickyWrite()));
+            }
+            if (snapshot.isShardHintEnabled()) {
+                markingInfo.setShardKey(resolveShardKey(null, null, context, snapshot));
+            }
+
+            String markedSql = processor.markSql(sql, markingInfo, snapshot, plan);
+            if (snapshot.isDebugEnabled()) {
+                logMarkingInfo(plan.getStatementId(), sql, markedSql, markingInfo, snapshot);
+            }
+            return markedSql;
         } catch (Exception e) {
             log.error("SQL标记处理异常，使用原始SQL执行 statementId: {}, error: {}",
-                    mappedStatement.getId(), e.getMessage(), e);
-            // 异常情况下使用原始SQL执行，确保业务不受影响
-            return invocation.proceed();
+                    plan.getStatementId(), e.getMessage(), e);
+            return sql;
+        }
+    }
+
+    /**
+     * 获取分片键
+     * 依次使用上下文中的shardKey、SQL参数中配置的属性、上下文中的userId
+     * DataSource代理标记的SQL没有MappedStatement和参数对象，只使用上下文
+     *
+     * @return 分片键，未找到或包含不安全字符时返回null（不追加分片提示，由中间件按原有规则路由）
+     */
+    private String resolveShardKey(MappedStatement mappedStatement, Object parameter, SqlMarkingContext context,
+                                   SqlMarkingConfigSnapshot snapshot) {
+        Object value = context != null ? context.getShardKey() : null;
+        if (value == null && mappedStatement != null && parameter != null && !snapshot.getShardKeyParameters().isEmpty()
+                && !mappedStatement.getConfiguration().getTypeHandlerRegistry().hasTypeHandler(parameter.getClass())) {
+            MetaObject metaObject = mappedStatement.getConfiguration().newMetaObject(parameter);
+            for (String name : snapshot.getShardKeyParameters()) {
+                if (metaObject.hasGetter(name)) {
+                    value = metaObject.getValue(name);
+                    if (value != null) {
+                        break;
+                    }
+                }
+            }
+        }
+        if (value == null && snapshot.isShardKeyFromUserId() && context != null) {
+            value = context.getUserId();
+        }
+        if (value == null) {
+            return null;
+        }
+
+        String shardKey = value.toString();
+        if (!isSafeShardKey(shardKey)) {
+            log.debug("分片键包含不安全字符或过长，不追加分片提示 statementId: {}",
+                    mappedStatement != null ? mappedStatement.getId() : SqlMarkingConfigSnapshot.JDBC_STATEMENT_ID);
+            return null;
+        }
+        return shardKey;
+    }
+
+    /**
+     * 分片键会直接写入SQL注释，只允许字母、数字和 _-.:@ ，长度不超过64；
+     * 不含 * 和 / ，无法闭合注释，模板本身由配置校验保证{value}位于唯一的注释之内
+     */
+    private static boolean isSafeShardKey(String value) {
+        if (value.isEmpty() || value.length() > MAX_SHARD_KEY_LENGTH) {
+            return false;
+        }
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            boolean safe = (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9')
+                    || c == '_' || c == '-' || c == '.' || c == ':' || c == '@';
+            if (!safe) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 执行SQL，启用耗时配额时先检查用户或租户的配额，启用并发限制时获取执行名额，
+     * 启用执行计划采集、并发限制、耗时统计或事务剖析时记录耗时，
+     * 耗时超过阈值（包括执行失败）时提交采集，并以耗时调整并发上限、累加到用户或租户和所在事务的统计中；
+     * 启用锁冲突归因时，执行抛出的死锁和锁等待超时异常在抛出前记录
+     *
+     * @param boundSql  本次执行的BoundSql（不含标记），为null时超过阈值后再生成
+     * @param markedSql 标记后的SQL，用于在采集结果、拒绝信息和锁冲突中记录标记信息
+     * @param limited   是否计入并发限制
+     * @throws SqlMarkingRejectedException 超过耗时配额，或达到并发上限且等待超时时抛出
+     */
+    private <T> T proceed(Execution<T> execution, MappedStatement mappedStatement, Object parameter, BoundSql boundSql,
+                          String markedSql, boolean limited, SqlMarkingContext context,
+                          SqlMarkingConfigSnapshot snapshot) throws SQLException {
+        SqlTenantAccounting.Account account = snapshot.isAccountingEnabled()
+                ? accounting.getAccount(accountingKey(context, snapshot), snapshot.getAccountingMaxKeys())
+                : null;
+        if (account != null && snapshot.isAccountingQuotaEnabled()) {
+            checkQuota(account, mappedStatement, markedSql, context, snapshot);
+        }
+        SqlConcurrencyLimiter.Limit limit = limited && snapshot.isConcurrencyLimitEnabled()
+                ? acquireConcurrency(mappedStatement, markedSql, context, snapshot)
+                : null;
+        SqlExplainCapture capture = snapshot.isExplainEnabled() ? explainCapture : null;
+        SqlTransactionTracker.Transaction transaction = currentTransaction(snapshot);
+        boolean lockConflict = snapshot.isLockConflictEnabled();
+        if (capture == null && limit == null && account == null && transaction == null && !lockConflict) {
+            return proceed(execution, mappedStatement, context, snapshot);
+        }
+        long startNanos = System.nanoTime();
+        boolean success = false;
+        try {
+            T result = proceed(execution, mappedStatement, context, snapshot);
+            success = true;
+            return result;
+        } catch (SQLException | RuntimeException e) {
+            if (lockConflict) {
+                // 更新语句在执行器获取BoundSql时才标记，从SqlMarkedSource取得标记后的SQL
+                recordLockConflict(e, mappedStatement, markedSql == null
+                        && mappedStatement.getSqlCommandType() != SqlCommandType.SELECT
+                        ? SqlMarkedSource.getMarkedSql() : markedSql, context, snapshot);
+            }
+            throw e;
+        } finally {
+            long elapsedNanos = System.nanoTime() - startNanos;
+            if (account != null) {
+                account.record(elapsedNanos);
+            }
+            if (transaction != null) {
+                transaction.record(mappedStatement.getId(), startNanos, elapsedNanos);
+            }
+            if (limit != null) {
+                limit.release(elapsedNanos, success, snapshot.getConcurrencyLimitMin(),
+                        snapshot.getConcurrencyLimitMax());
+            }
+            if (capture != null) {
+                captureExplain(capture, elapsedNanos, mappedStatement, parameter, boundSql, markedSql, context,
+                        snapshot);
+            }
         }
     }
 
-    private void copyAdditionalParameters(BoundSql boundSql, BoundSql newBoundSql) {
-        // 拷贝 boundSql 的 AdditionalParameters 到 newBoundSql 中
+    /**
+     * 执行异常为死锁或锁等待超时时记录，记录失败不影响原异常抛出
+     */
+    private void recordLockConflict(Exception exception, MappedStatement mappedStatement, String markedSql,
+                                    SqlMarkingContext context, SqlMarkingConfigSnapshot snapshot) {
+        SqlLockConflictTracker.Kind kind = SqlLockConflictTracker.classify(exception);
+        if (kind == null) {
+            return;
+        }
         try {
-            // 通过反射获取 additionalParameters 字段
-            Field additionalParametersField = BoundSql.class.getDeclaredField("additionalParameters");
-            additionalParametersField.setAccessible(true);
+            Environment environment = mappedStatement.getConfiguration().getEnvironment();
+            lockConflictTracker.record(kind, mappedStatement.getId(), context != null ? context.getUserId() : null,
+                    describeMarker(markedSql, context, snapshot), SqlNPlusOneDetector.findCallSite(),
+                    snapshot.isLockConflictInnodbStatus() && environment != null ? environment.getDataSource() : null,
+                    snapshot.getParser(), snapshot.getLockConflictMaxKeys());
+        } catch (Exception e) {
+            log.debug("锁冲突记录失败 statementId: {}, error: {}", mappedStatement.getId(), e.getMessage());
+        }
+    }
 
-            // 获取原始 BoundSql 的 additionalParameters
-            Object additionalParameters = additionalParametersField.get(boundSql);
+    /**
+     * 获取当前线程所在的Spring事务，未启用事务剖析或不在事务中时返回null
+     */
+    private SqlTransactionTracker.Transaction currentTransaction(SqlMarkingConfigSnapshot snapshot) {
+        return snapshot.isTransactionProfileEnabled()
+                ? transactionTracker.current(snapshot.getTransactionThresholdMillis(),
+                snapshot.getTransactionMaxStatements())
+                : null;
+    }
 
-            if (additionalParameters != null) {
-                // 设置到新的 BoundSql 中
-                additionalParametersField.set(newBoundSql, additionalParameters);
+    /**
+     * 获取统计使用的用户或租户标识
+     */
+    private static String accountingKey(SqlMarkingContext context, SqlMarkingConfigSnapshot snapshot) {
+        if (context == null) {
+            return null;
+        }
+        if (snapshot.isAccountingByUserId()) {
+            return context.getUserId();
+        }
+        Object value = context.getCustomInfo(snapshot.getAccountingKey());
+        return value != null ? value.toString() : null;
+    }
+
+    /**
+     * 检查用户或租户当前一秒内的数据库耗时，超过配额时按配置拒绝或延迟执行；
+     * 处于Spring事务中时不延迟，避免持有行锁和连接等待
+     */
+    private static void checkQuota(SqlTenantAccounting.Account account, MappedStatement mappedStatement,
+                                   String markedSql, SqlMarkingContext context, SqlMarkingConfigSnapshot snapshot) {
+        long budgetNanos = snapshot.getAccountingBudgetNanos(account.getKey());
+        if (budgetNanos <= 0 || !account.isOverBudget(budgetNanos)) {
+            return;
+        }
+        if (snapshot.isAccountingQuotaDelay()) {
+            if (SqlTransactionTracker.isActualTransactionActive()) {
+                return;
+            }
+            account.recordDelayed();
+            try {
+                Thread.sleep(snapshot.getAccountingQuotaDelayMillis());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
             }
-        } catch (NoSuchFieldException | IllegalAccessException e) {
-            log.warn("无法通过反射拷贝 AdditionalParameters: {}", e.getMessage());
+            return;
+        }
+        String marker = describeMarker(markedSql, context, snapshot);
+        if (account.recordRejected()) {
+            log.warn("数据库耗时超过配额，已拒绝 - 标识: {}, 配额: {}ms/s, StatementId: {}, 调用位置: {}, 标记: {}",
+                    account.getKey(), TimeUnit.NANOSECONDS.toMillis(budgetNanos), mappedStatement.getId(),
+                    SqlNPlusOneDetector.findCallSite(), marker);
+        }
+        throw new SqlMarkingRejectedException(mappedStatement.getId(),
+                "数据库耗时超过配额" + TimeUnit.NANOSECONDS.toMillis(budgetNanos) + "ms/s，已拒绝: "
+                        + mappedStatement.getId() + ", 标识: " + account.getKey() + ", 标记: " + marker);
+    }
+
+    /**
+     * 获取并发执行名额，达到上限且等待超时时拒绝执行
+     *
+     * @return 获取到名额的并发限制，执行结束后需要归还
+     */
+    private SqlConcurrencyLimiter.Limit acquireConcurrency(MappedStatement mappedStatement, String markedSql,
+                                                          SqlMarkingContext context,
+                                                          SqlMarkingConfigSnapshot snapshot) {
+        String statementId = mappedStatement.getId();
+        String key = snapshot.isConcurrencyLimitByMapper() && statementId.lastIndexOf('.') > 0
+                ? statementId.substring(0, statementId.lastIndexOf('.'))
+                : statementId;
+        SqlConcurrencyLimiter.Limit limit = concurrencyLimiter.getLimit(key, snapshot.getConcurrencyLimitInitial());
+        if (limit.acquire(snapshot.getConcurrencyLimitQueueMillis())) {
+            return limit;
+        }
+        String marker = describeMarker(markedSql, context, snapshot);
+        log.warn("SQL并发数达到上限，已拒绝 - StatementId: {}, 限制: {}, 上限: {}, 调用位置: {}, 标记: {}",
+                statementId, key, limit.getLimit(), SqlNPlusOneDetector.findCallSite(), marker);
+        throw new SqlMarkingRejectedException(statementId,
+                "SQL并发数达到上限" + limit.getLimit() + "，已拒绝: " + statementId + ", 标记: " + marker);
+    }
+
+    /**
+     * 执行耗时超过阈值的查询、更新和删除按采样率提交执行计划采集，存储过程和插入语句不采集
+     */
+    private static void captureExplain(SqlExplainCapture capture, long elapsedNanos, MappedStatement mappedStatement,
+                                       Object parameter, BoundSql boundSql, String markedSql, SqlMarkingContext context,
+                                       SqlMarkingConfigSnapshot snapshot) {
+        long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(elapsedNanos);
+        SqlCommandType sqlCommandType = mappedStatement.getSqlCommandType();
+        if (elapsedMillis < snapshot.getExplainThresholdMillis()
+                || (sqlCommandType != SqlCommandType.SELECT && sqlCommandType != SqlCommandType.UPDATE
+                && sqlCommandType != SqlCommandType.DELETE)
+                || mappedStatement.getStatementType() == StatementType.CALLABLE) {
+            return;
+        }
+        int sampleRate = snapshot.getExplainSampleRate();
+        if (sampleRate > 1 && ThreadLocalRandom.current().nextInt(sampleRate) != 0) {
+            return;
+        }
+        try {
+            capture.submit(mappedStatement, boundSql != null ? boundSql : mappedStatement.getBoundSql(parameter),
+                    parameter, describeMarker(markedSql, context, snapshot), elapsedMillis,
+                    TimeUnit.SECONDS.toMillis(snapshot.getExplainMinIntervalSeconds()));
+        } catch (Exception e) {
+            log.debug("执行计划采集提交失败 statementId: {}, error: {}", mappedStatement.getId(), e.getMessage());
         }
     }
 
     /**
-     * 判断是否需要对此SQL类型进行标记
+     * 执行SQL，启用性能剖析时记录到当前上下文的剖析数据中
      */
-    private boolean shouldMarkSql(SqlCommandType sqlCommandType) {
-        switch (sqlCommandType) {
-            case SELECT:
-                return config.isMarkSelect();
-            case INSERT:
-                return config.isMarkInsert();
-            case UPDATE:
-                return config.isMarkUpdate();
-            case DELETE:
-                return config.isMarkDelete();
-            default:
+    private <T> T proceed(Execution<T> execution, MappedStatement mappedStatement, SqlMarkingContext context,
+                          SqlMarkingConfigSnapshot snapshot) throws SQLException {
+        if (!snapshot.isProfileEnabled() || context == null) {
+            return execution.execute();
+        }
+
+        long startNanos = System.nanoTime();
+        boolean success = false;
+        try {
+            T result = execution.execute();
+            success = true;
+            return result;
+        } finally {
+            context.obtainProfile().record(mappedStatement.getId(), mappedStatement.getSqlCommandType(),
+                    startNanos, System.nanoTime() - startNanos, success, snapshot.getProfileMaxEvents());
+        }
+    }
+
+    /**
+     * 判断目标是否为批量执行器，开启二级缓存时批量执行器被CachingExecutor包装
+     */
+    private static boolean isBatchExecutor(Object target) {
+        if (target instanceof CachingExecutor) {
+            try {
+                target = CACHING_EXECUTOR_DELEGATE != null ? CACHING_EXECUTOR_DELEGATE.get(target)
+                        : SystemMetaObject.forObject(target).getValue("delegate");
+            } catch (Exception e) {
+                // native-image中未注册反射元数据时按非批量执行器处理
                 return false;
+            }
         }
+        return target instanceof BatchExecutor;
+    }
+
+    /**
+     * SystemMetaObject每次都会重新解析类的反射信息，更新操作的热点路径上改为只解析一次字段
+     */
+    private static Field findCachingExecutorDelegate() {
+        try {
+            Field field = CachingExecutor.class.getDeclaredField("delegate");
+            field.setAccessible(true);
+            return field;
+        } catch (Exception e) {
+            log.warn("无法访问CachingExecutor.delegate，批量执行器判断改用MetaObject: {}", e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * 一次SQL执行
+     */
+    @FunctionalInterface
+    private interface Execution<T> {
+        T execute() throws SQLException;
     }
 
     /**
      * 创建SQL标记信息
+     * 追踪标识依次取自上下文、OpenTelemetry当前Span，都没有时才在本地生成
+     *
+     * @param createTransaction 事务中还没有事务标识时是否创建，不记录执行耗时的调用方（如JDBC代理）只使用已有的事务
      */
-    private SqlMarkingInfo createMarkingInfo(MappedStatement mappedStatement, SqlCommandType sqlCommandType) {
+    private SqlMarkingInfo createMarkingInfo(String statementId, SqlCommandType sqlCommandType,
+                                             boolean createTransaction, SqlMarkingContext context,
+                                             SqlMarkingConfigSnapshot snapshot) {
         SqlMarkingInfo markingInfo = new SqlMarkingInfo();
 
         // 设置基础信息
-        markingInfo.setStatementId(mappedStatement.getId());
+        markingInfo.setStatementId(statementId);
         markingInfo.setSqlCommandType(sqlCommandType);
         markingInfo.setExecutionId(executionCounter.incrementAndGet());
 
-        // 生成分布式追踪标识
-        markingInfo.setPFinderId(idGenerator.generatePFinderId());
-        markingInfo.setTraceId(idGenerator.generateTraceId());
+        // 使用当前Span的追踪标识
+        if (snapshot.isOpenTelemetryBridge()) {
+            SqlMarkingOpenTelemetry.apply(markingInfo);
+        }
 
         // 设置时间戳
         markingInfo.setTimestamp(System.currentTimeMillis());
 
+        // 所在的Spring事务
+        SqlTransactionTracker.Transaction transaction = createTransaction ? currentTransaction(snapshot)
+                : snapshot.isTransactionProfileEnabled() ? transactionTracker.existing() : null;
+        if (transaction != null) {
+            markingInfo.setTransactionId(transaction.getId());
+        }
+
         // 获取自定义标记信息
-        SqlMarkingContext context = SqlMarkingContext.getCurrentContext();
         if (context != null) {
             markingInfo.setCustomInfo(context.getCustomInfo());
             markingInfo.setThreadId(context.getThreadId());
@@ -196,17 +960,25 @@ public class SqlMarkingInterceptor implements Interceptor {
             markingInfo.setThreadId(Thread.currentThread().getId());
         }
 
+        // 生成分布式追踪标识
+        if (markingInfo.getPFinderId() == null) {
+            markingInfo.setPFinderId(idGenerator.generatePFinderId());
+        }
+        if (markingInfo.getTraceId() == null) {
+            markingInfo.setTraceId(idGenerator.generateTraceId());
+        }
+
         return markingInfo;
     }
 
     /**
-     * 复制MappedStatement，使用新的BoundSql
+     * 复制MappedStatement，使用包装原SqlSource的SqlMarkedSource
      */
-    private MappedStatement copyMappedStatement(MappedStatement original, BoundSql newBoundSql) {
+    private MappedStatement copyMappedStatement(MappedStatement original) {
         MappedStatement.Builder builder = new MappedStatement.Builder(
                 original.getConfiguration(),
                 original.getId(),
-                new SqlMarkedSource(original.getConfiguration(), newBoundSql.getSql(), newBoundSql.getParameterMappings()),
+                new SqlMarkedSource(original.getConfiguration(), original.getSqlSource()),
                 original.getSqlCommandType()
         );
 
@@ -234,7 +1006,8 @@ public class SqlMarkingInterceptor implements Interceptor {
     /**
      * 记录标记信息日志
      */
-    private void logMarkingInfo(String statementId, String originalSql, String markedSql, SqlMarkingInfo markingInfo) {
+    private void logMarkingInfo(String statementId, String originalSql, String markedSql, SqlMarkingInfo markingInfo,
+                                SqlMarkingConfigSnapshot snapshot) {
         log.debug("SQL标记执行 - StatementId: {}, PFinderId: {}, TraceId: {}, ExecutionId: {}, ThreadId: {}",
                 statementId,
                 markingInfo.getPFinderId(),
@@ -243,24 +1016,22 @@ public class SqlMarkingInterceptor implements Interceptor {
                 markingInfo.getThreadId()
         );
 
-        if (config.isVerboseLogging()) {
+        if (snapshot.isVerboseLogging()) {
             log.debug("原始SQL: {}", originalSql.replaceAll("\\s+", " ").trim());
             log.debug("标记SQL: {}", markedSql.replaceAll("\\s+", " ").trim());
         }
     }
 
     /**
-     * 检查SQL是否已经被标记
+     * 包装执行器
+     * MyBatis每次打开SqlSession创建执行器时调用，interceptMode=direct时返回直接装饰的SqlMarkingExecutor，
+     * 否则使用Plugin.wrap生成动态代理。按当前快照选择，热更新后对新打开的SqlSession生效
      */
-    private boolean isAlreadyMarked(String sql) {
-        if (sql == null) {
-            return false;
-        }
-        return sql.contains(config.getMarkPrefix()) && sql.contains(config.getMarkSuffix());
-    }
-
     @Override
     public Object plugin(Object target) {
+        if (target instanceof Executor && snapshot.isDirectIntercept()) {
+            return new SqlMarkingExecutor((Executor) target, this);
+        }
         return Plugin.wrap(target, this);
     }
 
@@ -268,10 +1039,321 @@ public class SqlMarkingInterceptor implements Interceptor {
     public void setProperties(Properties properties) {
         // 从配置文件中读取配置参数
         if (properties != null) {
-            config.loadFromProperties(properties);
+            reloadConfig(properties);
+        }
+    }
+
+    /**
+     * 获取当前配置
+     *
+     * @return 当前配置
+     */
+    public SqlMarkingConfig getConfig() {
+        return config;
+    }
+
+    /**
+     * 设置染色配置，编译新的配置快照后整体替换
+     *
+     * @param config 染色配置
+     * @throws IllegalArgumentException 配置无效时抛出，原配置继续生效
+     */
+    public synchronized void setConfig(SqlMarkingConfig config) {
+        publish(config, SqlMarkingConfigSnapshot.compile(config, snapshot.getVersion() + 1));
+    }
+
+    /**
+     * 重新编译当前配置，修改getConfig()返回的配置对象后调用使其生效
+     *
+     * @throws IllegalArgumentException 配置无效时抛出，原快照继续生效
+     */
+    public synchronized void refreshConfig() {
+        setConfig(config);
+    }
+
+    /**
+     * 按Properties热更新配置，键名与SqlMarkingConfig#loadFromProperties一致
+     * 先在副本上应用并校验，校验通过后再写回当前配置并替换快照
+     *
+     * @param properties 需要修改的配置项
+     * @return 新的配置快照
+     * @throws IllegalArgumentException 配置项取值无效时抛出，原配置继续生效
+     */
+    public synchronized SqlMarkingConfigSnapshot reloadConfig(Properties properties) {
+        SqlMarkingConfig candidate = config.copy();
+        candidate.loadFromProperties(properties);
+        SqlMarkingConfigSnapshot compiled = SqlMarkingConfigSnapshot.compile(candidate, snapshot.getVersion() + 1);
+        config.loadFromProperties(properties);
+        publish(config, compiled);
+        log.info("SQL标记配置已热更新: version={}, {}", compiled.getVersion(), config.getConfigSummary());
+        return compiled;
+    }
+
+    /**
+     * 启动预热
+     * 遍历全部MappedStatement，为静态SQL预先编译标记计划，为写操作预先创建SqlMarkedSource副本，
+     * 并触发ID生成器的节点标识解析和标记处理相关类的加载，消除首次请求的延迟尖刺。
+     * 之后配置热更新时，新快照会重新编译已预热语句的标记计划
+     *
+     * @param configuration MyBatis配置
+     */
+    public void warmUp(Configuration configuration) {
+        long startNanos = System.nanoTime();
+        SqlMarkingConfigSnapshot snapshot = this.snapshot;
+        // 同一个MappedStatement会以完整ID和简短ID注册两次，简短ID冲突时值为Ambiguity对象
+        Set<MappedStatement> statements = Collections.newSetFromMap(new IdentityHashMap<>());
+        for (Object value : configuration.getMappedStatements()) {
+            if (value instanceof MappedStatement) {
+                statements.add((MappedStatement) value);
+            }
+        }
+
+        int staticCount = 0;
+        MappedStatement sample = null;
+        for (MappedStatement mappedStatement : statements) {
+            if (snapshot.getPlan(mappedStatement).getStaticSql() != null) {
+                staticCount++;
+                sample = sample != null ? sample : mappedStatement;
+            }
+            if (mappedStatement.getSqlCommandType() != SqlCommandType.SELECT && snapshot.shouldMark(mappedStatement.getSqlCommandType())) {
+                markedStatements.computeIfAbsent(mappedStatement, this::copyMappedStatement);
+            }
+        }
+        warmUpConfigurations.add(configuration);
+
+        // 触发节点标识的后台解析，并走一遍标记流程加载相关类
+        idGenerator.generatePFinderId();
+        idGenerator.generateTraceId();
+        if (sample != null) {
+            SqlMarkingInfo markingInfo = new SqlMarkingInfo();
+            markingInfo.setStatementId(sample.getId());
+            markingInfo.setSqlCommandType(sample.getSqlCommandType());
+            markingInfo.setExecutionId(0L);
+            markingInfo.setThreadId(Thread.currentThread().getId());
+            markingInfo.setTimestamp(System.currentTimeMillis());
+            markingInfo.setRoute(SqlMarkingRoute.classify(sample.getSqlCommandType(), null, null, false));
+            if (snapshot.isOpenTelemetryBridge()) {
+                SqlMarkingOpenTelemetry.apply(markingInfo);
+            }
+            processor.markSql(snapshot.getPlan(sample).getStaticSql(), markingInfo, snapshot, snapshot.getPlan(sample));
+        }
+        SqlMarkingContext.getCurrentContext();
+
+        log.info("SQL标记预热完成: statements={}, static={}, 耗时={}ms",
+                statements.size(), staticCount, (System.nanoTime() - startNanos) / 1_000_000);
+    }
+
+    /**
+     * 获取当前生效的配置快照
+     *
+     * @return 配置快照
+     */
+    public SqlMarkingConfigSnapshot getSnapshot() {
+        return snapshot;
+    }
+
+    private void publish(SqlMarkingConfig config, SqlMarkingConfigSnapshot compiled) {
+        if ("opentelemetry".equals(config.getTraceBridge()) && !compiled.isOpenTelemetryBridge()) {
+            log.warn("未找到OpenTelemetry API，trace-bridge=opentelemetry不生效，使用本地生成的追踪标识");
+        }
+        // 新快照的标记计划为空，先为已预热的语句编译好再发布
+        for (Configuration configuration : warmUpConfigurations) {
+            for (Object value : configuration.getMappedStatements()) {
+                if (value instanceof MappedStatement) {
+                    compiled.getPlan((MappedStatement) value);
+                }
+            }
+        }
+        this.config = config;
+        idGenerator.setNodeId(compiled.getNodeId());
+        processor.applySnapshot(config, compiled);
+        this.snapshot = compiled;
+        applyHotKeyConfig(compiled);
+        applyExplainConfig(compiled);
+    }
+
+    private void applyExplainConfig(SqlMarkingConfigSnapshot compiled) {
+        SqlExplainCapture capture = explainCapture;
+        if (compiled.isExplainEnabled() && capture != null
+                && capture.hasSize(compiled.getExplainQueueSize(), compiled.getExplainHistorySize())) {
+            return;
+        }
+        explainCapture = compiled.isExplainEnabled()
+                ? new SqlExplainCapture(compiled.getExplainQueueSize(), compiled.getExplainHistorySize())
+                : null;
+        if (capture != null) {
+            capture.shutdown();
+        }
+    }
+
+    /**
+     * 按新快照创建或替换热点检测器，sketch大小不变时保留已有计数
+     */
+    private void applyHotKeyConfig(SqlMarkingConfigSnapshot compiled) {
+        if (!compiled.isHotKeyDetectEnabled()) {
+            hotKeyDetector = null;
+            scheduleHotKeyReport(0);
+            return;
+        }
+        SqlHotKeyDetector detector = hotKeyDetector;
+        if (detector == null || !detector.hasSize(compiled.getHotKeySketchWidth(), compiled.getHotKeyTopK())) {
+            hotKeyDetector = new SqlHotKeyDetector(compiled.getHotKeySketchWidth(), compiled.getHotKeyTopK());
+        }
+        scheduleHotKeyReport(compiled.getHotKeyReportSeconds());
+    }
+
+    private void scheduleHotKeyReport(int seconds) {
+        if (seconds == hotKeyReportSeconds && (seconds == 0 || hotKeyReport != null)) {
+            return;
+        }
+        if (hotKeyReport != null) {
+            hotKeyReport.cancel(false);
+            hotKeyReport = null;
+        }
+        hotKeyReportSeconds = seconds;
+        if (seconds > 0) {
+            if (hotKeyReporter == null) {
+                hotKeyReporter = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                    Thread thread = new Thread(runnable, "sql-marking-hotkey-reporter");
+                    thread.setDaemon(true);
+                    return thread;
+                });
+            }
+            hotKeyReport = hotKeyReporter.scheduleAtFixedRate(this::reportHotKeys, seconds, seconds, TimeUnit.SECONDS);
         }
     }
 
+    /**
+     * 输出本周期的热点参数组合并开始新的周期
+     */
+    private void reportHotKeys() {
+        SqlHotKeyDetector detector = hotKeyDetector;
+        if (detector == null) {
+            return;
+        }
+        try {
+            SqlMarkingConfigSnapshot snapshot = this.snapshot;
+            List<SqlHotKey> hotKeys = detector.getHotKeys(snapshot.getHotKeyMinCount(), snapshot.getHotKeySampleRate());
+            long sampledCount = detector.getSampledCount();
+            detector.reset();
+            if (hotKeys.isEmpty()) {
+                log.debug("SQL热点参数报告 - 最近{}秒采样{}次查询，没有达到阈值的参数组合", hotKeyReportSeconds, sampledCount);
+                return;
+            }
+            StringBuilder report = new StringBuilder();
+            for (SqlHotKey hotKey : hotKeys) {
+                report.append("\n  ").append(hotKey.getStatementId())
+                        .append(" fingerprint=").append(hotKey.getFingerprint())
+                        .append(" count≈").append(hotKey.getEstimatedCount());
+            }
+            log.info("SQL热点参数报告 - 最近{}秒采样{}次查询，以下参数组合重复执行较多，可以考虑缓存:{}",
+                    hotKeyReportSeconds, sampledCount, report);
+        } catch (Exception e) {
+            log.warn("SQL热点参数报告失败: {}", e.getMessage(), e);
+        }
+    }
+
+    /**
+     * 获取当前统计周期的热点参数组合
+     *
+     * @return 按次数从高到低排序的热点，未启用时返回空列表
+     */
+    public List<SqlHotKey> getHotKeys() {
+        SqlHotKeyDetector detector = hotKeyDetector;
+        SqlMarkingConfigSnapshot snapshot = this.snapshot;
+        return detector != null ? detector.getHotKeys(snapshot.getHotKeyMinCount(), snapshot.getHotKeySampleRate())
+                : Collections.emptyList();
+    }
+
+    /**
+     * 获取当前统计周期的热点采样次数
+     *
+     * @return 采样次数，未启用时返回0
+     */
+    public long getHotKeySampledCount() {
+        SqlHotKeyDetector detector = hotKeyDetector;
+        return detector != null ? detector.getSampledCount() : 0;
+    }
+
+    /**
+     * 获取各statementId最近采集的执行计划
+     *
+     * @return statementId到执行计划列表（最新的在前），未启用时返回空Map
+     */
+    public Map<String, List<SqlExplainResult>> getExplainResults() {
+        SqlExplainCapture capture = explainCapture;
+        return capture != null ? capture.snapshot() : Collections.emptyMap();
+    }
+
+    /**
+     * 获取执行计划采集器
+     *
+     * @return 采集器，未启用时返回null
+     */
+    public SqlExplainCapture getExplainCapture() {
+        return explainCapture;
+    }
+
+    /**
+     * 创建单键查询合并加载器，是否合并、合并窗口和批量上限使用当前配置，运行时修改立即生效
+     *
+     * @param name          加载器名称，用于日志
+     * @param batchFunction 批量查询，如 {@code ids -> mapper.selectBatchIds(ids)}
+     * @param keyFunction   从结果中取出键，如 User::getId
+     * @param <K>           键类型
+     * @param <V>           结果类型
+     * @return 加载器
+     */
+    public <K, V> SqlBatchLoader<K, V> newBatchLoader(String name, Function<List<K>, List<V>> batchFunction,
+                                                      Function<V, K> keyFunction) {
+        return new SqlBatchLoader<>(name, this, batchFunction, keyFunction);
+    }
+
+    /**
+     * 获取自适应并发限制
+     *
+     * @return 并发限制
+     */
+    public SqlConcurrencyLimiter getConcurrencyLimiter() {
+        return concurrencyLimiter;
+    }
+
+    /**
+     * 获取按用户或租户的数据库耗时统计
+     *
+     * @return 统计
+     */
+    public SqlTenantAccounting getAccounting() {
+        return accounting;
+    }
+
+    /**
+     * 获取Spring事务剖析
+     *
+     * @return 事务剖析
+     */
+    public SqlTransactionTracker getTransactionTracker() {
+        return transactionTracker;
+    }
+
+    /**
+     * 获取死锁和锁等待超时归因
+     *
+     * @return 锁冲突归因
+     */
+    public SqlLockConflictTracker getLockConflictTracker() {
+        return lockConflictTracker;
+    }
+
+    /**
+     * 获取数据库耗时最高的用户或租户，数量为accountingTopN
+     *
+     * @return 按累计耗时从高到低排序的统计
+     */
+    public Map<String, Map<String, Object>> getTopAccounts() {
+        return accounting.getTop(snapshot.getAccountingTopN());
+    }
+
     /**
      * 获取执行统计信息
      *
@@ -287,4 +1369,31 @@ public class SqlMarkingInterceptor implements Interceptor {
     public void resetExecutionCount() {
         executionCounter.set(0);
     }
+
+    /**
+     * 获取上下文查询缓存命中次数
+     *
+     * @return 命中次数
+     */
+    public long getContextCacheHitCount() {
+        return contextCacheHitCount.get();
+    }
+
+    /**
+     * 获取查询返回行数统计
+     *
+     * @return 行数统计
+     */
+    public SqlRowCountTracker getRowCountTracker() {
+        return rowCountTracker;
+    }
+
+    /**
+     * 获取检测到的N+1查询次数
+     *
+     * @return 检测次数
+     */
+    public long getNPlusOneDetectedCount() {
+        return nPlusOneDetector.getDetectedCount();
+    }
 }
\ No newline at end of file
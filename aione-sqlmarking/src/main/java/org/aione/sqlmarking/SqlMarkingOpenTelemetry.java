@@ -0,0 +1,61 @@
+package org.aione.sqlmarking;
+
+import io.opentelemetry.api.trace.Span;
+import io.opentelemetry.api.trace.SpanContext;
+import org.springframework.util.ClassUtils;
+
+/**
+ * OpenTelemetry追踪上下文桥接
+ * <p>
+ * 标记时直接读取当前线程的Span，使用W3C TraceId（32位十六进制）作为trace字段，
+ * SpanId（16位十六进制）作为pf字段，数据库中的SQL标记可以直接关联到链路追踪系统，
+ * 不需要在每个请求中创建SqlMarkingContext并手动复制标识，也不再生成本地标识。
+ * <p>
+ * SpanContext中的TraceId和SpanId在创建时已编码为字符串，读取不产生新的对象。
+ * OpenTelemetry API为可选依赖，不存在时本类不会加载任何OpenTelemetry类
+ *
+ * @author Billy
+ */
+public final class SqlMarkingOpenTelemetry {
+
+    private static final boolean AVAILABLE = ClassUtils.isPresent(
+            "io.opentelemetry.api.trace.Span", SqlMarkingOpenTelemetry.class.getClassLoader());
+
+    private SqlMarkingOpenTelemetry() {
+    }
+
+    /**
+     * 判断OpenTelemetry API是否存在
+     *
+     * @return 是否存在
+     */
+    public static boolean isAvailable() {
+        return AVAILABLE;
+    }
+
+    /**
+     * 使用当前Span的TraceId和SpanId填充标记信息
+     *
+     * @param markingInfo 标记信息
+     * @return 当前存在有效的Span并已填充时返回true
+     */
+    public static boolean apply(SqlMarkingInfo markingInfo) {
+        return AVAILABLE && SpanAccessor.apply(markingInfo);
+    }
+
+    /**
+     * 引用OpenTelemetry类的代码放在单独的类中，API不存在时不会被加载
+     */
+    private static final class SpanAccessor {
+
+        static boolean apply(SqlMarkingInfo markingInfo) {
+            SpanContext spanContext = Span.current().getSpanContext();
+            if (!spanContext.isValid()) {
+                return false;
+            }
+            markingInfo.setTraceId(spanContext.getTraceId());
+            markingInfo.setPFinderId(spanContext.getSpanId());
+            return true;
+        }
+    }
+}
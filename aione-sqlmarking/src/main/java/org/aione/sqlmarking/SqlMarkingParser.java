@@ -0,0 +1,157 @@
+package org.aione.sqlmarking;
+
+/**
+ * SQL标记解析器
+ * 将标记后的SQL解码为{@link SqlMarkingView}，直接在CharSequence上扫描，不创建中间字符串
+ * <p>
+ * 同时支持完整格式和简化格式，前缀、后缀和分隔符与{@link SqlMarkingConfig}保持一致。
+ * 解析器本身无状态，可在多线程间共享；视图对象由调用方按线程持有并复用。
+ *
+ * @author Billy
+ */
+public class SqlMarkingParser {
+
+    private final String prefix;
+    private final String suffix;
+    private final String separator;
+
+    public SqlMarkingParser(SqlMarkingConfig config) {
+        this(config.getMarkPrefix(), config.getMarkSuffix(), config.getInfoSeparator());
+    }
+
+    public SqlMarkingParser(String prefix, String suffix, String separator) {
+        if (prefix == null || prefix.isEmpty() || suffix == null || suffix.isEmpty()
+                || separator == null || separator.isEmpty()) {
+            throw new IllegalArgumentException("标记前缀、后缀和分隔符不能为空");
+        }
+        this.prefix = prefix;
+        this.suffix = suffix;
+        this.separator = separator;
+    }
+
+    /**
+     * 判断解析器的标记格式是否与配置一致
+     *
+     * @param config 配置
+     * @return 一致返回true
+     */
+    public boolean matches(SqlMarkingConfig config) {
+        return prefix.equals(config.getMarkPrefix()) && suffix.equals(config.getMarkSuffix())
+                && separator.equals(config.getInfoSeparator());
+    }
+
+    /**
+     * 解析整个字符序列中的第一个标记
+     *
+     * @param text 标记后的SQL
+     * @param view 用于接收结果的视图
+     * @return 解析到标记返回true
+     */
+    public boolean parse(CharSequence text, SqlMarkingView view) {
+        return parse(text, 0, text != null ? text.length() : 0, view);
+    }
+
+    /**
+     * 解析字符序列指定区间内的第一个标记
+     *
+     * @param text 标记后的SQL或日志内容
+     * @param from 区间起始位置（包含）
+     * @param to   区间结束位置（不包含）
+     * @param view 用于接收结果的视图
+     * @return 解析到标记返回true
+     */
+    public boolean parse(CharSequence text, int from, int to, SqlMarkingView view) {
+        view.reset(text);
+        if (text == null) {
+            return false;
+        }
+
+        int markerStart = indexOf(text, prefix, from, to);
+        if (markerStart < 0) {
+            return false;
+        }
+        int infoStart = markerStart + prefix.length();
+        int infoEnd = indexOf(text, suffix, infoStart, to);
+        if (infoEnd < 0) {
+            return false;
+        }
+
+        int pos = skipWhitespace(text, infoStart, infoEnd);
+        int end = trimEnd(text, pos, infoEnd);
+        view.setMarker(markerStart, pos, end, infoEnd + suffix.length());
+
+        while (pos < end) {
+            int next = indexOf(text, separator, pos, end);
+            int fieldEnd = next < 0 ? end : next;
+            int eq = indexOf(text, '=', pos, fieldEnd);
+            if (eq > pos) {
+                int keyEnd = trimEnd(text, pos, eq);
+                SqlMarkingField field = SqlMarkingField.match(text, pos, keyEnd);
+                if (field == SqlMarkingField.CUSTOM) {
+                    // 自定义信息位于末尾，其值可能包含分隔符，取到标记结束
+                    view.setField(field, eq + 1, end, false);
+                    break;
+                }
+                if (field != null) {
+                    boolean simpleKey = !SqlMarkingField.regionEquals(text, pos, keyEnd, field.getKey());
+                    view.setField(field, eq + 1, trimEnd(text, eq + 1, fieldEnd), simpleKey);
+                }
+            }
+            if (next < 0) {
+                break;
+            }
+            pos = skipWhitespace(text, next + separator.length(), end);
+        }
+        return true;
+    }
+
+    /**
+     * 判断区间内是否包含完整的标记（前缀和后缀）
+     *
+     * @param text 要检查的字符序列
+     * @return 包含标记返回true
+     */
+    public boolean isMarked(CharSequence text) {
+        if (text == null) {
+            return false;
+        }
+        int markerStart = indexOf(text, prefix, 0, text.length());
+        return markerStart >= 0 && indexOf(text, suffix, markerStart + prefix.length(), text.length()) >= 0;
+    }
+
+    static int indexOf(CharSequence text, String pattern, int from, int to) {
+        char first = pattern.charAt(0);
+        int last = to - pattern.length();
+        for (int i = from; i <= last; i++) {
+            if (text.charAt(i) == first && SqlMarkingField.regionEquals(text, i, i + pattern.length(), pattern)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static int indexOf(CharSequence text, char target, int from, int to) {
+        for (int i = from; i < to; i++) {
+            if (text.charAt(i) == target) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static int skipWhitespace(CharSequence text, int from, int to) {
+        int pos = from;
+        while (pos < to && Character.isWhitespace(text.charAt(pos))) {
+            pos++;
+        }
+        return pos;
+    }
+
+    private static int trimEnd(CharSequence text, int from, int to) {
+        int end = to;
+        while (end > from && Character.isWhitespace(text.charAt(end - 1))) {
+            end--;
+        }
+        return end;
+    }
+}
@@ -0,0 +1,83 @@
+package org.aione.sqlmarking;
+
+import lombok.Getter;
+import org.apache.ibatis.mapping.SqlCommandType;
+
+/**
+ * 单个statementId的标记计划
+ * 由配置快照按statementId编译并缓存，配置变更后随快照一起替换，
+ * 避免每次执行都重新匹配规则和拼接不变的部分
+ * <p>
+ * 静态SQL（不含动态标签的注解或XML语句）每次执行的SQL文本相同，
+ * 编译时即确定标记注释的插入位置并插入优化器提示，执行时只需拼接标记注释
+ *
+ * @author Billy
+ */
+@Getter
+public final class SqlMarkingPlan {
+
+    /**
+     * MyBatis StatementId
+     */
+    private final String statementId;
+
+    /**
+     * DataSource代理按SQL文本识别的SQL类型，MyBatis语句的计划为null（使用MappedStatement中的类型）
+     */
+    private final SqlCommandType sqlCommandType;
+
+    /**
+     * 匹配的优化器提示内容，多条规则匹配时按配置顺序以空格连接，无匹配时为null
+     */
+    private final String optimizerHint;
+
+    /**
+     * 完整格式下标记注释中不变的开头部分（标记前缀和stmt字段），简化格式时为null
+     */
+    private final String markerHead;
+
+    /**
+     * 静态SQL原文，动态SQL为null
+     */
+    private final String staticSql;
+
+    /**
+     * 静态SQL是否已经包含标记
+     */
+    private final boolean staticSqlMarked;
+
+    /**
+     * 静态SQL的规范化摘要，动态SQL或未启用摘要时为null
+     */
+    private final String staticSqlDigest;
+
+    /**
+     * 静态SQL在标记注释之前和之后的部分，之后的部分已插入优化器提示
+     */
+    private final String sqlBeforeMarker;
+    private final String sqlAfterMarker;
+
+    SqlMarkingPlan(String statementId, SqlCommandType sqlCommandType, String optimizerHint, String markerHead,
+                   String staticSql, boolean staticSqlMarked, String staticSqlDigest, String sqlBeforeMarker,
+                   String sqlAfterMarker) {
+        this.statementId = statementId;
+        this.sqlCommandType = sqlCommandType;
+        this.optimizerHint = optimizerHint;
+        this.markerHead = markerHead;
+        this.staticSql = staticSql;
+        this.staticSqlMarked = staticSqlMarked;
+        this.staticSqlDigest = staticSqlDigest;
+        this.sqlBeforeMarker = sqlBeforeMarker;
+        this.sqlAfterMarker = sqlAfterMarker;
+    }
+
+    /**
+     * 判断SQL是否为本计划预先处理过的静态SQL
+     *
+     * @param sql 本次执行的SQL
+     * @return 是否可以直接使用预先计算的结果
+     */
+    public boolean isStaticSql(String sql) {
+        return staticSql != null && (staticSql == sql || staticSql.equals(sql));
+    }
+}
@@ -1,6 +1,9 @@
 package org.aione.sqlmarking;
 
 import lombok.extern.slf4j.Slf4j;
+import org.apache.ibatis.mapping.SqlCommandType;
+
+import java.util.Locale;
 
 /**
  * SQL染色处理器
@@ -12,16 +15,27 @@ import lombok.extern.slf4j.Slf4j;
 public class SqlMarkingProcessor {
 
     /**
-     * 默认配置
+     * 当前配置
      */
     private SqlMarkingConfig config;
 
+    /**
+     * 当前配置快照，与拦截器共享同一份不可变对象
+     */
+    private volatile SqlMarkingConfigSnapshot snapshot;
+
+    /**
+     * 可以携带优化器提示的SQL关键字
+     */
+    private static final String[] HINT_KEYWORDS = {"SELECT", "INSERT", "UPDATE", "DELETE", "REPLACE"};
+
     public SqlMarkingProcessor() {
-        this.config = new SqlMarkingConfig();
+        this(new SqlMarkingConfig());
     }
 
     public SqlMarkingProcessor(SqlMarkingConfig config) {
         this.config = config;
+        this.snapshot = SqlMarkingConfigSnapshot.compile(config, 0);
     }
 
     /**
@@ -32,6 +46,35 @@ public class SqlMarkingProcessor {
      * @return 标记后的SQL语句
      */
     public String markSql(String originalSql, SqlMarkingInfo markingInfo) {
+        return markSql(originalSql, markingInfo, snapshot);
+    }
+
+    /**
+     * 按指定的配置快照对SQL进行标记处理
+     * 拦截器在一次执行中只读取一次快照，并将其传入此方法
+     *
+     * @param originalSql 原始SQL语句
+     * @param markingInfo 标记信息
+     * @param snapshot    配置快照
+     * @return 标记后的SQL语句
+     */
+    public String markSql(String originalSql, SqlMarkingInfo markingInfo, SqlMarkingConfigSnapshot snapshot) {
+        return markSql(originalSql, markingInfo, snapshot,
+                markingInfo != null ? snapshot.getPlan(markingInfo.getStatementId()) : null);
+    }
+
+    /**
+     * 按指定的配置快照和标记计划对SQL进行标记处理
+     * 静态SQL直接使用计划中预先计算的插入位置，不再逐次查找
+     *
+     * @param originalSql 原始SQL语句
+     * @param markingInfo 标记信息
+     * @param snapshot    配置快照
+     * @param plan        标记计划，可以为null
+     * @return 标记后的SQL语句
+     */
+    public String markSql(String originalSql, SqlMarkingInfo markingInfo, SqlMarkingConfigSnapshot snapshot,
+                          SqlMarkingPlan plan) {
         if (originalSql == null || originalSql.trim().isEmpty()) {
             return originalSql;
         }
@@ -43,10 +86,29 @@ public class SqlMarkingProcessor {
 
         try {
             // 构建标记注释
-            String markingComment = buildMarkingComment(markingInfo);
-            
-            // 将标记注释插入到SQL中
-            return insertMarkingComment(originalSql, markingComment);
+            String markingComment = buildMarkingComment(markingInfo, snapshot, plan);
+
+            String markedSql;
+            if (plan != null && plan.isStaticSql(originalSql)) {
+                // 静态SQL的插入位置和优化器提示已预先计算
+                markedSql = plan.getSqlBeforeMarker() + markingComment + plan.getSqlAfterMarker();
+            } else {
+                // 将标记注释插入到SQL中
+                markedSql = insertMarkingComment(originalSql, markingComment);
+
+                // 优化器提示需要紧跟在SQL关键字之后
+                if (plan != null && plan.getOptimizerHint() != null) {
+                    markedSql = insertOptimizerHint(markedSql, plan.getOptimizerHint());
+                }
+            }
+
+            // 分片提示和路由提示需要位于SQL开头，SQL代理才能识别
+            String shardHint = snapshot.getShardHint(markingInfo.getShardKey());
+            if (shardHint != null) {
+                markedSql = shardHint + " " + markedSql;
+            }
+            String routeHint = snapshot.getRouteHint(markingInfo.getRoute());
+            return routeHint != null ? routeHint + " " + markedSql : markedSql;
             
         } catch (Exception e) {
             log.error("SQL标记处理异常，返回原始SQL: {}", e.getMessage(), e);
@@ -56,28 +118,64 @@ public class SqlMarkingProcessor {
 
     /**
      * 构建标记注释
+     * 完整格式下不变的标记前缀和stmt字段取自标记计划
      */
-    private String buildMarkingComment(SqlMarkingInfo markingInfo) {
-        StringBuilder comment = new StringBuilder();
-        comment.append(config.getMarkPrefix());
-
-        if (config.isIncludeFullInfo()) {
-            // 包含完整信息
-            comment.append(markingInfo.getFullInfoString());
+    private String buildMarkingComment(SqlMarkingInfo markingInfo, SqlMarkingConfigSnapshot snapshot,
+                                       SqlMarkingPlan plan) {
+        StringBuilder comment = new StringBuilder(128);
+        int infoStart;
+        if (snapshot.isIncludeFullInfo() && plan != null && plan.getMarkerHead() != null
+                && plan.getStatementId().equals(markingInfo.getStatementId())) {
+            comment.append(plan.getMarkerHead());
+            infoStart = comment.length();
+            markingInfo.appendFullInfo(comment, 0, snapshot.getInfoSeparator());
         } else {
-            // 只包含简化信息
-            comment.append(markingInfo.getSimpleInfoString());
+            comment.append(snapshot.getMarkPrefix());
+            infoStart = comment.length();
+            if (snapshot.isIncludeFullInfo()) {
+                // 包含完整信息
+                comment.append(markingInfo.getFullInfoString(snapshot.getInfoSeparator()));
+            } else {
+                // 只包含简化信息
+                comment.append(markingInfo.getSimpleInfoString(snapshot.getInfoSeparator()));
+            }
         }
+        neutralizeCommentDelimiters(comment, infoStart);
 
-        comment.append(config.getMarkSuffix());
+        comment.append(snapshot.getMarkSuffix());
         return comment.toString();
     }
 
+    /**
+     * 标记信息中的userId、自定义信息等来自业务输入，其中的 * / 会提前结束注释，
+     * / * 在支持嵌套注释的数据库（如PostgreSQL）中会开启新的注释，两者都会改变SQL语义，
+     * 因此在两个字符之间插入空格使其失效
+     */
+    static void neutralizeCommentDelimiters(StringBuilder text, int from) {
+        for (int i = from; i < text.length() - 1; i++) {
+            char c = text.charAt(i);
+            char next = text.charAt(i + 1);
+            if ((c == '*' && next == '/') || (c == '/' && next == '*')) {
+                text.insert(i + 1, ' ');
+                i++;
+            }
+        }
+    }
+
     /**
      * 将标记注释插入到SQL中
      * 策略：在SQL语句的开头插入注释，不影响SQL的执行计划
      */
     private String insertMarkingComment(String originalSql, String markingComment) {
+        String[] parts = splitAtMarker(originalSql);
+        return parts[0] + markingComment + parts[1];
+    }
+
+    /**
+     * 将SQL拆分为标记注释之前和之后两部分
+     * SQL已经以注释开头时，标记注释插入到第一个注释之后，否则插入到SQL开头
+     */
+    static String[] splitAtMarker(String originalSql) {
         String trimmedSql = originalSql.trim();
         
         // 检查SQL是否已经以注释开头
@@ -85,14 +183,97 @@ public class SqlMarkingProcessor {
             // 如果已有注释，在第一个注释后插入标记注释
             int commentEndIndex = trimmedSql.indexOf("*/");
             if (commentEndIndex > 0) {
-                String beforeComment = trimmedSql.substring(0, commentEndIndex + 2);
-                String afterComment = trimmedSql.substring(commentEndIndex + 2);
-                return beforeComment + " " + markingComment + afterComment;
+                return new String[]{trimmedSql.substring(0, commentEndIndex + 2) + " ", trimmedSql.substring(commentEndIndex + 2)};
             }
         }
         
         // 在SQL开头插入标记注释
-        return markingComment + " " + trimmedSql;
+        return new String[]{"", " " + trimmedSql};
+    }
+
+    /**
+     * 将优化器提示插入到SQL中
+     * MySQL只识别紧跟在SELECT、INSERT、UPDATE、DELETE、REPLACE关键字之后的 /*+ ... *&#47; 注释，
+     * 因此跳过开头的空白和注释找到第一个关键字，在其后插入；关键字后已有提示注释时合并到该注释中。
+     * 无法识别关键字（如WITH开头的SQL）时返回原SQL
+     */
+    static String insertOptimizerHint(String sql, String hint) {
+        int start = skipLeadingComments(sql, 0);
+        int keywordEnd = -1;
+        for (String keyword : HINT_KEYWORDS) {
+            int end = start + keyword.length();
+            if (sql.regionMatches(true, start, keyword, 0, keyword.length())
+                    && (end == sql.length() || !Character.isJavaIdentifierPart(sql.charAt(end)))) {
+                keywordEnd = end;
+                break;
+            }
+        }
+        if (keywordEnd < 0) {
+            log.debug("未找到可插入优化器提示的SQL关键字，跳过: {}", sql);
+            return sql;
+        }
+        int next = keywordEnd;
+        while (next < sql.length() && Character.isWhitespace(sql.charAt(next))) {
+            next++;
+        }
+        StringBuilder result = new StringBuilder(sql.length() + hint.length() + 8);
+        if (sql.startsWith("/*+", next)) {
+            result.append(sql, 0, next + 3).append(' ').append(hint).append(sql, next + 3, sql.length());
+        } else {
+            result.append(sql, 0, keywordEnd).append(" /*+ ").append(hint).append(" */").append(sql, keywordEnd, sql.length());
+        }
+        return result.toString();
+    }
+
+    /**
+     * 按开头的关键字识别SQL类型，用于不经过MyBatis的SQL
+     * WITH开头的SQL按查询处理，REPLACE和MERGE按插入处理，其他语句（DDL、CALL等）返回UNKNOWN
+     */
+    static SqlCommandType detectCommandType(String sql) {
+        int start = skipLeadingComments(sql, 0);
+        int end = start;
+        while (end < sql.length() && Character.isLetter(sql.charAt(end))) {
+            end++;
+        }
+        switch (sql.substring(start, end).toUpperCase(Locale.ROOT)) {
+            case "SELECT":
+            case "WITH":
+                return SqlCommandType.SELECT;
+            case "INSERT":
+            case "REPLACE":
+            case "MERGE":
+                return SqlCommandType.INSERT;
+            case "UPDATE":
+                return SqlCommandType.UPDATE;
+            case "DELETE":
+                return SqlCommandType.DELETE;
+            default:
+                return SqlCommandType.UNKNOWN;
+        }
+    }
+
+    private static int skipLeadingComments(String sql, int from) {
+        int i = from;
+        while (i < sql.length()) {
+            if (Character.isWhitespace(sql.charAt(i))) {
+                i++;
+            } else if (sql.startsWith("/*", i)) {
+                int end = sql.indexOf("*/", i + 2);
+                if (end < 0) {
+                    return i;
+                }
+                i = end + 2;
+            } else if (sql.startsWith("--", i)) {
+                int end = sql.indexOf('\n', i);
+                if (end < 0) {
+                    return sql.length();
+                }
+                i = end + 1;
+            } else {
+                break;
+            }
+        }
+        return i;
     }
 
     /**
@@ -102,10 +283,7 @@ public class SqlMarkingProcessor {
      * @return 如果SQL已被标记返回true，否则返回false
      */
     public boolean isAlreadyMarked(String sql) {
-        if (sql == null) {
-            return false;
-        }
-        return sql.contains(config.getMarkPrefix()) && sql.contains(config.getMarkSuffix());
+        return snapshot.isAlreadyMarked(sql);
     }
 
     /**
@@ -115,26 +293,15 @@ public class SqlMarkingProcessor {
      * @return 提取出的原始SQL语句
      */
     public String extractOriginalSql(String markedSql) {
-        if (markedSql == null || !isAlreadyMarked(markedSql)) {
-            return markedSql;
+        if (markedSql == null) {
+            return null;
         }
 
-        try {
-            int prefixIndex = markedSql.indexOf(config.getMarkPrefix());
-            int suffixIndex = markedSql.indexOf(config.getMarkSuffix(), prefixIndex);
-            
-            if (prefixIndex >= 0 && suffixIndex > prefixIndex) {
-                // 移除标记注释
-                String beforeComment = markedSql.substring(0, prefixIndex);
-                String afterComment = markedSql.substring(suffixIndex + config.getMarkSuffix().length());
-                return (beforeComment + afterComment).trim();
-            }
-            
-        } catch (Exception e) {
-            log.warn("提取原始SQL失败: {}", e.getMessage());
+        SqlMarkingView view = new SqlMarkingView();
+        if (!snapshot.getParser().parse(markedSql, view)) {
+            return markedSql;
         }
-        
-        return markedSql;
+        return view.appendOriginalSql(new StringBuilder(markedSql.length())).toString();
     }
 
     /**
@@ -144,24 +311,32 @@ public class SqlMarkingProcessor {
      * @return 提取出的标记信息字符串，如果没有标记信息则返回null
      */
     public String extractMarkingInfo(String markedSql) {
-        if (markedSql == null || !isAlreadyMarked(markedSql)) {
+        if (markedSql == null) {
             return null;
         }
 
-        try {
-            int prefixIndex = markedSql.indexOf(config.getMarkPrefix());
-            int suffixIndex = markedSql.indexOf(config.getMarkSuffix(), prefixIndex);
-            
-            if (prefixIndex >= 0 && suffixIndex > prefixIndex) {
-                int infoStart = prefixIndex + config.getMarkPrefix().length();
-                return markedSql.substring(infoStart, suffixIndex).trim();
-            }
-            
-        } catch (Exception e) {
-            log.warn("提取标记信息失败: {}", e.getMessage());
-        }
-        
-        return null;
+        SqlMarkingView view = new SqlMarkingView();
+        return snapshot.getParser().parse(markedSql, view) ? view.toString() : null;
+    }
+
+    /**
+     * 从标记的SQL中解析结构化的标记信息
+     *
+     * @param markedSql 标记后的SQL语句
+     * @return 解析出的标记信息，如果没有标记信息则返回null
+     */
+    public SqlMarkingInfo parseMarkingInfo(CharSequence markedSql) {
+        SqlMarkingView view = new SqlMarkingView();
+        return snapshot.getParser().parse(markedSql, view) ? view.toMarkingInfo() : null;
+    }
+
+    /**
+     * 获取与当前配置一致的标记解析器
+     *
+     * @return 标记解析器
+     */
+    public SqlMarkingParser getParser() {
+        return snapshot.getParser();
     }
 
     /**
@@ -186,12 +361,34 @@ public class SqlMarkingProcessor {
     }
 
     /**
-     * 设置配置
+     * 设置配置，并重新编译配置快照
      * 
      * @param config 要设置的SqlMarkingConfig配置对象
      */
     public void setConfig(SqlMarkingConfig config) {
+        SqlMarkingConfigSnapshot compiled = SqlMarkingConfigSnapshot.compile(config, snapshot.getVersion() + 1);
         this.config = config;
+        this.snapshot = compiled;
+    }
+
+    /**
+     * 替换配置快照，由拦截器在配置变更时调用，使两者共享同一份快照
+     *
+     * @param config   快照对应的配置对象
+     * @param snapshot 已编译的配置快照
+     */
+    public void applySnapshot(SqlMarkingConfig config, SqlMarkingConfigSnapshot snapshot) {
+        this.config = config;
+        this.snapshot = snapshot;
+    }
+
+    /**
+     * 获取当前配置快照
+     *
+     * @return 配置快照
+     */
+    public SqlMarkingConfigSnapshot getSnapshot() {
+        return snapshot;
     }
 
     /**
@@ -0,0 +1,234 @@
+package org.aione.sqlmarking;
+
+import org.apache.ibatis.mapping.SqlCommandType;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 染色上下文的数据库性能剖析数据
+ * 记录SQL执行次数、数据库总耗时、按命令类型的分布以及按开始时间排序的执行时间线，
+ * 可导出为Chrome Trace Event格式（chrome://tracing 或 Perfetto 打开）
+ * <p>
+ * 同一上下文可能被子线程继承，记录方法是线程安全的。
+ *
+ * @author Billy
+ */
+public class SqlMarkingProfile {
+
+    private static final int TYPE_COUNT = SqlCommandType.values().length;
+
+    /**
+     * 时间线的基准时间（上下文创建时的System.nanoTime）
+     */
+    private final long baseNanos;
+
+    private final AtomicLong sqlCount = new AtomicLong();
+    private final AtomicLong totalNanos = new AtomicLong();
+    private final AtomicLongArray typeCounts = new AtomicLongArray(TYPE_COUNT);
+    private final AtomicLongArray typeNanos = new AtomicLongArray(TYPE_COUNT);
+
+    /**
+     * 执行时间线，超过上限后不再记录明细
+     */
+    private final List<SqlProfileEntry> timeline = new ArrayList<>();
+
+    /**
+     * 因超过上限未记录明细的执行次数
+     */
+    private final AtomicLong droppedEvents = new AtomicLong();
+
+    public SqlMarkingProfile(long baseNanos) {
+        this.baseNanos = baseNanos;
+    }
+
+    /**
+     * 记录一次SQL执行
+     *
+     * @param statementId    StatementId
+     * @param sqlCommandType SQL命令类型
+     * @param startNanos     开始时间（System.nanoTime）
+     * @param durationNanos  执行耗时（纳秒）
+     * @param success        是否执行成功
+     * @param maxEvents      时间线最大记录数
+     */
+    public void record(String statementId, SqlCommandType sqlCommandType, long startNanos, long durationNanos,
+                       boolean success, int maxEvents) {
+        sqlCount.incrementAndGet();
+        totalNanos.addAndGet(durationNanos);
+        typeCounts.incrementAndGet(sqlCommandType.ordinal());
+        typeNanos.addAndGet(sqlCommandType.ordinal(), durationNanos);
+
+        SqlProfileEntry entry = new SqlProfileEntry(statementId, sqlCommandType, Thread.currentThread().getId(),
+                startNanos - baseNanos, durationNanos, success);
+        synchronized (timeline) {
+            if (timeline.size() < maxEvents) {
+                timeline.add(entry);
+                return;
+            }
+        }
+        droppedEvents.incrementAndGet();
+    }
+
+    /**
+     * 获取SQL执行次数
+     *
+     * @return 执行次数
+     */
+    public long getSqlCount() {
+        return sqlCount.get();
+    }
+
+    /**
+     * 获取数据库总耗时
+     *
+     * @return 总耗时（纳秒）
+     */
+    public long getTotalNanos() {
+        return totalNanos.get();
+    }
+
+    /**
+     * 获取指定命令类型的执行次数
+     *
+     * @param sqlCommandType SQL命令类型
+     * @return 执行次数
+     */
+    public long getCount(SqlCommandType sqlCommandType) {
+        return typeCounts.get(sqlCommandType.ordinal());
+    }
+
+    /**
+     * 获取指定命令类型的总耗时
+     *
+     * @param sqlCommandType SQL命令类型
+     * @return 总耗时（纳秒）
+     */
+    public long getTotalNanos(SqlCommandType sqlCommandType) {
+        return typeNanos.get(sqlCommandType.ordinal());
+    }
+
+    /**
+     * 获取因超过上限未记录明细的执行次数
+     *
+     * @return 丢弃次数
+     */
+    public long getDroppedEvents() {
+        return droppedEvents.get();
+    }
+
+    /**
+     * 获取按开始时间排序的执行时间线
+     *
+     * @return 时间线副本
+     */
+    public List<SqlProfileEntry> getTimeline() {
+        List<SqlProfileEntry> copy;
+        synchronized (timeline) {
+            copy = new ArrayList<>(timeline);
+        }
+        copy.sort((a, b) -> Long.compare(a.getStartOffsetNanos(), b.getStartOffsetNanos()));
+        return Collections.unmodifiableList(copy);
+    }
+
+    /**
+     * 获取剖析摘要信息
+     *
+     * @return 摘要，如 sql=12, db=35.200ms, SELECT=10/30.100ms, UPDATE=2/5.100ms
+     */
+    public String getSummary() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("sql=").append(getSqlCount())
+                .append(", db=").append(formatMillis(getTotalNanos())).append("ms");
+        for (SqlCommandType type : SqlCommandType.values()) {
+            long count = getCount(type);
+            if (count > 0) {
+                sb.append(", ").append(type.name()).append('=').append(count)
+                        .append('/').append(formatMillis(getTotalNanos(type))).append("ms");
+            }
+        }
+        if (getDroppedEvents() > 0) {
+            sb.append(", dropped=").append(getDroppedEvents());
+        }
+        return sb.toString();
+    }
+
+    /**
+     * 导出为Chrome Trace Event格式的JSON
+     * 每条SQL执行对应一个完整事件（ph=X），时间单位为微秒，tid为执行线程ID
+     *
+     * @param context 所属的染色上下文，用于生成进程名称
+     * @return JSON字符串
+     */
+    public String toChromeTrace(SqlMarkingContext context) {
+        StringBuilder sb = new StringBuilder(256);
+        sb.append("{\"displayTimeUnit\":\"ms\",\"traceEvents\":[");
+        sb.append("{\"name\":\"process_name\",\"ph\":\"M\",\"pid\":1,\"tid\":0,\"args\":{\"name\":");
+        appendJsonString(sb, "SqlMarkingContext user=" + context.getUserId() + " trace=" + context.getTraceId());
+        sb.append("}}");
+
+        for (SqlProfileEntry entry : getTimeline()) {
+            sb.append(",{\"name\":");
+            appendJsonString(sb, simpleName(entry.getStatementId()));
+            sb.append(",\"cat\":\"").append(entry.getSqlCommandType().name()).append('"');
+            sb.append(",\"ph\":\"X\",\"pid\":1,\"tid\":").append(entry.getThreadId());
+            sb.append(",\"ts\":").append(entry.getStartOffsetNanos() / 1000);
+            sb.append(",\"dur\":").append(entry.getDurationNanos() / 1000);
+            sb.append(",\"args\":{\"statementId\":");
+            appendJsonString(sb, entry.getStatementId());
+            sb.append(",\"success\":").append(entry.isSuccess()).append("}}");
+        }
+
+        sb.append("],\"otherData\":{\"summary\":");
+        appendJsonString(sb, getSummary());
+        sb.append("}}");
+        return sb.toString();
+    }
+
+    private static String simpleName(String statementId) {
+        int secondLastDot = statementId.lastIndexOf('.', statementId.lastIndexOf('.') - 1);
+        return secondLastDot > 0 ? statementId.substring(secondLastDot + 1) : statementId;
+    }
+
+    private static String formatMillis(long nanos) {
+        return String.format("%.3f", nanos / 1_000_000.0);
+    }
+
+    private static void appendJsonString(StringBuilder sb, String value) {
+        if (value == null) {
+            sb.append("null");
+            return;
+        }
+        sb.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"':
+                    sb.append("\\\"");
+                    break;
+                case '\\':
+                    sb.append("\\\\");
+                    break;
+                case '\n':
+                    sb.append("\\n");
+                    break;
+                case '\r':
+                    sb.append("\\r");
+                    break;
+                case '\t':
+                    sb.append("\\t");
+                    break;
+                default:
+                    if (c < 0x20) {
+                        sb.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        sb.append(c);
+                    }
+            }
+        }
+        sb.append('"');
+    }
+}
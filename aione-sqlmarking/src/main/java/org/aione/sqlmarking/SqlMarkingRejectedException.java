@@ -0,0 +1,33 @@
+package org.aione.sqlmarking;
+
+import org.apache.ibatis.exceptions.PersistenceException;
+
+/**
+ * SQL被插件拒绝执行或拒绝返回结果时抛出，如查询返回行数超过max-rows
+ * 继承PersistenceException，与MyBatis自身的异常一样由Spring转换为MyBatisSystemException
+ *
+ * @author Billy
+ */
+public class SqlMarkingRejectedException extends PersistenceException {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * 被拒绝的MyBatis StatementId
+     */
+    private final String statementId;
+
+    public SqlMarkingRejectedException(String statementId, String message) {
+        super(message);
+        this.statementId = statementId;
+    }
+
+    /**
+     * 获取被拒绝的StatementId
+     *
+     * @return StatementId
+     */
+    public String getStatementId() {
+        return statementId;
+    }
+}
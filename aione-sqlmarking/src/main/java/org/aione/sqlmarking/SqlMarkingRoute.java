@@ -0,0 +1,111 @@
+package org.aione.sqlmarking;
+
+import org.apache.ibatis.mapping.SqlCommandType;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.util.ClassUtils;
+
+/**
+ * SQL读写路由
+ * 根据SQL类型、事务状态和上下文标记判断SQL应该发往主库还是从库，
+ * 结果写入标记字段rw，并可生成SQL代理（ProxySQL、ShardingSphere等）能够识别的路由提示
+ *
+ * @author Billy
+ */
+public enum SqlMarkingRoute {
+
+    /**
+     * 读，可以路由到从库
+     */
+    READ("r"),
+
+    /**
+     * 写，必须路由到主库
+     */
+    WRITE("w");
+
+    private static final boolean SPRING_TX_PRESENT = ClassUtils.isPresent(
+            "org.springframework.transaction.support.TransactionSynchronizationManager",
+            SqlMarkingRoute.class.getClassLoader());
+
+    /**
+     * 标记中的取值
+     */
+    private final String code;
+
+    SqlMarkingRoute(String code) {
+        this.code = code;
+    }
+
+    public String getCode() {
+        return code;
+    }
+
+    /**
+     * 根据标记中的取值获取路由
+     *
+     * @param code 标记中的取值
+     * @return 路由，未知取值返回null
+     */
+    public static SqlMarkingRoute of(String code) {
+        for (SqlMarkingRoute route : values()) {
+            if (route.code.equals(code)) {
+                return route;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 判断SQL的读写路由
+     * <p>
+     * 以下情况路由到主库：
+     * 1. INSERT、UPDATE、DELETE等非SELECT语句
+     * 2. SELECT ... FOR UPDATE / FOR SHARE / LOCK IN SHARE MODE 等加锁读
+     * 3. 处于非只读的Spring事务中
+     * 4. 上下文设置了forceWriteRoute
+     * 5. 启用写后读粘滞时，同一上下文中已经执行过写操作
+     * <p>
+     * 非SELECT语句会在上下文中记录写操作，用于后续读请求的粘滞判断
+     *
+     * @param sqlCommandType SQL类型
+     * @param sql            SQL语句，未知时传null
+     * @param context        当前上下文，可以为null
+     * @param stickyWrite    是否启用写后读粘滞
+     * @return 读写路由
+     */
+    public static SqlMarkingRoute classify(SqlCommandType sqlCommandType, String sql,
+                                           SqlMarkingContext context, boolean stickyWrite) {
+        if (sqlCommandType != SqlCommandType.SELECT) {
+            if (context != null) {
+                context.markWriteOccurred();
+            }
+            return WRITE;
+        }
+        if (context != null && (context.isForceWriteRoute() || (stickyWrite && context.isWriteOccurred()))) {
+            return WRITE;
+        }
+        if (SPRING_TX_PRESENT && TransactionSynchronizationManager.isActualTransactionActive()
+                && !TransactionSynchronizationManager.isCurrentTransactionReadOnly()) {
+            return WRITE;
+        }
+        return sql != null && isLockingRead(sql) ? WRITE : READ;
+    }
+
+    /**
+     * 判断是否为加锁读
+     */
+    static boolean isLockingRead(String sql) {
+        return containsIgnoreCase(sql, "FOR UPDATE") || containsIgnoreCase(sql, "FOR SHARE")
+                || containsIgnoreCase(sql, "LOCK IN SHARE MODE");
+    }
+
+    private static boolean containsIgnoreCase(String text, String keyword) {
+        int last = text.length() - keyword.length();
+        for (int i = 0; i <= last; i++) {
+            if (text.regionMatches(true, i, keyword, 0, keyword.length())) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
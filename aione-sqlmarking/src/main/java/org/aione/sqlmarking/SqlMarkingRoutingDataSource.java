@@ -0,0 +1,70 @@
+package org.aione.sqlmarking;
+
+import org.springframework.jdbc.datasource.lookup.AbstractRoutingDataSource;
+
+import javax.sql.DataSource;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * 按SQL标记读写路由选择数据源
+ * <p>
+ * 启用route-enabled后，拦截器在执行每条SQL前设置当前线程的读写路由，
+ * 本数据源据此在获取连接时选择主库或从库；未设置路由时使用主库。
+ * <p>
+ * 注意：连接在获取时确定数据源。Spring事务开始时即获取连接，因此事务内的SQL都走主库；
+ * 无事务时MyBatis在执行SQL时才获取连接，SELECT可以路由到从库。
+ *
+ * <pre>
+ * &#64;Bean
+ * public DataSource dataSource(DataSource primary, DataSource replica) {
+ *     return new SqlMarkingRoutingDataSource(primary, replica);
+ * }
+ * </pre>
+ *
+ * @author Billy
+ */
+public class SqlMarkingRoutingDataSource extends AbstractRoutingDataSource {
+
+    private static final ThreadLocal<SqlMarkingRoute> CURRENT_ROUTE = new ThreadLocal<>();
+
+    public SqlMarkingRoutingDataSource(DataSource writeDataSource, DataSource readDataSource) {
+        Map<Object, Object> targetDataSources = new HashMap<>();
+        targetDataSources.put(SqlMarkingRoute.WRITE, writeDataSource);
+        targetDataSources.put(SqlMarkingRoute.READ, readDataSource);
+        setTargetDataSources(targetDataSources);
+        setDefaultTargetDataSource(writeDataSource);
+        afterPropertiesSet();
+    }
+
+    @Override
+    protected Object determineCurrentLookupKey() {
+        SqlMarkingRoute route = CURRENT_ROUTE.get();
+        return route != null ? route : SqlMarkingRoute.WRITE;
+    }
+
+    /**
+     * 获取当前线程的读写路由
+     *
+     * @return 读写路由，未设置时返回null
+     */
+    public static SqlMarkingRoute getCurrentRoute() {
+        return CURRENT_ROUTE.get();
+    }
+
+    /**
+     * 设置当前线程的读写路由
+     *
+     * @param route 读写路由，为null时清除
+     * @return 设置前的路由，用于执行结束后恢复
+     */
+    public static SqlMarkingRoute setCurrentRoute(SqlMarkingRoute route) {
+        SqlMarkingRoute previous = CURRENT_ROUTE.get();
+        if (route == null) {
+            CURRENT_ROUTE.remove();
+        } else {
+            CURRENT_ROUTE.set(route);
+        }
+        return previous;
+    }
+}
@@ -0,0 +1,322 @@
+package org.aione.sqlmarking;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * SQL标记视图
+ * 由{@link SqlMarkingParser}填充，只记录各字段在原始字符序列中的位置，不复制字符
+ * <p>
+ * 实例可重复使用，非线程安全，适合在日志解析等高吞吐场景中每个线程持有一个实例。
+ * 需要字符串时再通过{@link #get(SqlMarkingField)}或{@link #toMarkingInfo()}按需生成。
+ *
+ * @author Billy
+ */
+public class SqlMarkingView {
+
+    private static final int FIELD_COUNT = SqlMarkingField.values().length;
+
+    private final int[] starts = new int[FIELD_COUNT];
+    private final int[] ends = new int[FIELD_COUNT];
+
+    private CharSequence text;
+    private int markerStart = -1;
+    private int markerEnd = -1;
+    private int infoStart = -1;
+    private int infoEnd = -1;
+    private boolean simpleFormat;
+
+    public SqlMarkingView() {
+        reset(null);
+    }
+
+    /**
+     * 重置视图，清除所有字段位置
+     *
+     * @param text 新的字符序列
+     */
+    void reset(CharSequence text) {
+        this.text = text;
+        Arrays.fill(starts, -1);
+        Arrays.fill(ends, -1);
+        markerStart = markerEnd = infoStart = infoEnd = -1;
+        simpleFormat = false;
+    }
+
+    void setMarker(int markerStart, int infoStart, int infoEnd, int markerEnd) {
+        this.markerStart = markerStart;
+        this.infoStart = infoStart;
+        this.infoEnd = infoEnd;
+        this.markerEnd = markerEnd;
+    }
+
+    void setField(SqlMarkingField field, int start, int end, boolean simpleKey) {
+        starts[field.ordinal()] = start;
+        ends[field.ordinal()] = end;
+        if (simpleKey && !field.getSimpleKey().equals(field.getKey())) {
+            simpleFormat = true;
+        }
+    }
+
+    /**
+     * 是否解析到了标记
+     *
+     * @return 解析成功返回true
+     */
+    public boolean isMarked() {
+        return markerStart >= 0;
+    }
+
+    /**
+     * 是否为简化格式的标记（包含简化格式特有的字段名，如t=）
+     *
+     * @return 简化格式返回true
+     */
+    public boolean isSimpleFormat() {
+        return simpleFormat;
+    }
+
+    /**
+     * 获取被解析的字符序列
+     *
+     * @return 字符序列
+     */
+    public CharSequence getText() {
+        return text;
+    }
+
+    /**
+     * 标记注释（含前缀和后缀）的起始位置
+     *
+     * @return 起始位置，未解析到标记时返回-1
+     */
+    public int getMarkerStart() {
+        return markerStart;
+    }
+
+    /**
+     * 标记注释（含前缀和后缀）的结束位置（不包含）
+     *
+     * @return 结束位置，未解析到标记时返回-1
+     */
+    public int getMarkerEnd() {
+        return markerEnd;
+    }
+
+    /**
+     * 标记信息（不含前缀和后缀）的起始位置
+     *
+     * @return 起始位置，未解析到标记时返回-1
+     */
+    public int getInfoStart() {
+        return infoStart;
+    }
+
+    /**
+     * 标记信息（不含前缀和后缀）的结束位置（不包含）
+     *
+     * @return 结束位置，未解析到标记时返回-1
+     */
+    public int getInfoEnd() {
+        return infoEnd;
+    }
+
+    /**
+     * 是否包含指定字段
+     *
+     * @param field 标记字段
+     * @return 包含返回true
+     */
+    public boolean has(SqlMarkingField field) {
+        return starts[field.ordinal()] >= 0;
+    }
+
+    /**
+     * 字段值的起始位置
+     *
+     * @param field 标记字段
+     * @return 起始位置，字段不存在时返回-1
+     */
+    public int start(SqlMarkingField field) {
+        return starts[field.ordinal()];
+    }
+
+    /**
+     * 字段值的结束位置（不包含）
+     *
+     * @param field 标记字段
+     * @return 结束位置，字段不存在时返回-1
+     */
+    public int end(SqlMarkingField field) {
+        return ends[field.ordinal()];
+    }
+
+    /**
+     * 获取字段值的字符串
+     *
+     * @param field 标记字段
+     * @return 字段值，字段不存在时返回null
+     */
+    public String get(SqlMarkingField field) {
+        int start = starts[field.ordinal()];
+        return start >= 0 ? text.subSequence(start, ends[field.ordinal()]).toString() : null;
+    }
+
+    /**
+     * 将字段值解析为long，不创建中间字符串
+     *
+     * @param field        标记字段
+     * @param defaultValue 字段不存在或不是整数时的默认值
+     * @return 字段的数值
+     */
+    public long getLong(SqlMarkingField field, long defaultValue) {
+        int start = starts[field.ordinal()];
+        int end = ends[field.ordinal()];
+        if (start < 0 || start == end) {
+            return defaultValue;
+        }
+        boolean negative = text.charAt(start) == '-';
+        int pos = negative ? start + 1 : start;
+        if (pos == end) {
+            return defaultValue;
+        }
+        long value = 0;
+        for (; pos < end; pos++) {
+            char c = text.charAt(pos);
+            if (c < '0' || c > '9') {
+                return defaultValue;
+            }
+            value = value * 10 + (c - '0');
+        }
+        return negative ? -value : value;
+    }
+
+    /**
+     * 比较字段值与给定字符序列是否相等，不创建中间字符串
+     *
+     * @param field 标记字段
+     * @param value 要比较的值
+     * @return 相等返回true，字段不存在时返回false
+     */
+    public boolean matches(SqlMarkingField field, CharSequence value) {
+        int start = starts[field.ordinal()];
+        int end = ends[field.ordinal()];
+        if (start < 0 || value == null || end - start != value.length()) {
+            return false;
+        }
+        for (int i = 0; i < value.length(); i++) {
+            if (text.charAt(start + i) != value.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 将字段值追加到StringBuilder
+     *
+     * @param field 标记字段
+     * @param sb    目标StringBuilder
+     * @return 传入的StringBuilder
+     */
+    public StringBuilder appendTo(SqlMarkingField field, StringBuilder sb) {
+        int start = starts[field.ordinal()];
+        if (start >= 0) {
+            sb.append(text, start, ends[field.ordinal()]);
+        }
+        return sb;
+    }
+
+    /**
+     * 将去除标记注释后的原始SQL追加到StringBuilder
+     *
+     * @param sb 目标StringBuilder
+     * @return 传入的StringBuilder
+     */
+    public StringBuilder appendOriginalSql(StringBuilder sb) {
+        if (!isMarked()) {
+            return sb.append(text);
+        }
+        int start = 0;
+        int end = text.length();
+        while (start < markerStart && Character.isWhitespace(text.charAt(start))) {
+            start++;
+        }
+        while (end > markerEnd && Character.isWhitespace(text.charAt(end - 1))) {
+            end--;
+        }
+        sb.append(text, start, markerStart);
+        int after = markerEnd;
+        if (start == markerStart) {
+            // 标记位于开头时，去掉标记与SQL之间的空白
+            while (after < end && Character.isWhitespace(text.charAt(after))) {
+                after++;
+            }
+        }
+        return sb.append(text, after, end);
+    }
+
+    /**
+     * 生成对应的SqlMarkingInfo
+     * SQL命令类型不包含在标记中，结果中为null
+     *
+     * @return 标记信息，未解析到标记时返回null
+     */
+    public SqlMarkingInfo toMarkingInfo() {
+        if (!isMarked()) {
+            return null;
+        }
+        SqlMarkingInfo info = new SqlMarkingInfo();
+        info.setStatementId(get(SqlMarkingField.STATEMENT));
+        info.setPFinderId(get(SqlMarkingField.PFINDER_ID));
+        info.setTraceId(get(SqlMarkingField.TRACE_ID));
+        info.setUserId(get(SqlMarkingField.USER_ID));
+        info.setShardKey(get(SqlMarkingField.SHARD_KEY));
+        info.setDigest(get(SqlMarkingField.DIGEST));
+        info.setTransactionId(get(SqlMarkingField.TRANSACTION_ID));
+        if (has(SqlMarkingField.ROUTE)) {
+            info.setRoute(SqlMarkingRoute.of(get(SqlMarkingField.ROUTE)));
+        }
+        if (has(SqlMarkingField.EXECUTION_ID)) {
+            info.setExecutionId(getLong(SqlMarkingField.EXECUTION_ID, 0));
+        }
+        if (has(SqlMarkingField.THREAD_ID)) {
+            info.setThreadId(getLong(SqlMarkingField.THREAD_ID, 0));
+        }
+        if (has(SqlMarkingField.TIMESTAMP)) {
+            info.setTimestamp(getLong(SqlMarkingField.TIMESTAMP, 0));
+        }
+        if (has(SqlMarkingField.CUSTOM)) {
+            info.setCustomInfo(parseCustomInfo(start(SqlMarkingField.CUSTOM), end(SqlMarkingField.CUSTOM)));
+        }
+        return info;
+    }
+
+    /**
+     * 解析自定义信息，格式为 key1=value1,key2=value2
+     */
+    private ConcurrentHashMap<String, Object> parseCustomInfo(int start, int end) {
+        ConcurrentHashMap<String, Object> customInfo = new ConcurrentHashMap<>();
+        int pos = start;
+        while (pos < end) {
+            int next = pos;
+            while (next < end && text.charAt(next) != ',') {
+                next++;
+            }
+            int eq = pos;
+            while (eq < next && text.charAt(eq) != '=') {
+                eq++;
+            }
+            if (eq > pos && eq < next) {
+                customInfo.put(text.subSequence(pos, eq).toString(), text.subSequence(eq + 1, next).toString());
+            }
+            pos = next + 1;
+        }
+        return customInfo;
+    }
+
+    @Override
+    public String toString() {
+        return isMarked() ? text.subSequence(infoStart, infoEnd).toString() : "";
+    }
+}
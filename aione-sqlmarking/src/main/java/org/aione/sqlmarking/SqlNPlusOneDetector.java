@@ -0,0 +1,148 @@
+package org.aione.sqlmarking;
+
+import lombok.extern.slf4j.Slf4j;
+import org.apache.ibatis.mapping.MappedStatement;
+
+import java.lang.reflect.Array;
+import java.util.Collection;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * N+1查询检测器
+ * 在同一个染色上下文（通常对应一次请求）内，按statementId和参数形态统计执行次数，
+ * 超过阈值时输出告警日志，包含调用位置，便于定位循环中逐条查询的代码
+ * <p>
+ * 每个statementId和参数形态的组合在同一上下文中只告警一次。
+ *
+ * @author Billy
+ */
+@Slf4j
+public class SqlNPlusOneDetector {
+
+    /**
+     * 插件自身所在的包，查找调用位置时跳过
+     */
+    private static final String PLUGIN_PACKAGE = SqlNPlusOneDetector.class.getPackage().getName() + ".";
+
+    /**
+     * 查找调用位置时跳过的框架包前缀
+     */
+    private static final String[] FRAMEWORK_PREFIXES = {
+            "java.", "javax.", "sun.", "jdk.", "com.sun.",
+            "org.apache.ibatis.", "org.mybatis.", "com.baomidou.", "org.springframework."
+    };
+
+    /**
+     * 检测到的N+1查询次数
+     */
+    private final AtomicLong detectedCount = new AtomicLong(0);
+
+    /**
+     * 记录一次SQL执行，超过阈值时告警
+     *
+     * @param context         当前染色上下文
+     * @param mappedStatement 执行的MappedStatement
+     * @param parameter       执行参数
+     * @param threshold       告警阈值
+     */
+    public void record(SqlMarkingContext context, MappedStatement mappedStatement, Object parameter, int threshold) {
+        String shape = parameterShape(parameter);
+        String key = mappedStatement.getId() + "(" + shape + ")";
+        int count = context.getStatementCounts()
+                .computeIfAbsent(key, k -> new AtomicInteger())
+                .incrementAndGet();
+
+        if (count == threshold) {
+            detectedCount.incrementAndGet();
+            log.warn("检测到疑似N+1查询 - StatementId: {}, 参数形态: {}, 当前上下文执行次数: {}, 调用位置: {}, UserId: {}, TraceId: {}",
+                    mappedStatement.getId(), shape, count, findCallSite(), context.getUserId(), context.getTraceId());
+        }
+    }
+
+    /**
+     * 获取检测到的N+1查询次数
+     *
+     * @return 检测次数
+     */
+    public long getDetectedCount() {
+        return detectedCount.get();
+    }
+
+    /**
+     * 重置检测次数
+     */
+    public void resetDetectedCount() {
+        detectedCount.set(0);
+    }
+
+    /**
+     * 计算参数形态
+     * Map参数取参数名（忽略MyBatis生成的paramN），集合和数组取元素个数，其他取类名
+     */
+    static String parameterShape(Object parameter) {
+        if (parameter == null) {
+            return "null";
+        }
+        if (parameter instanceof Map) {
+            TreeSet<String> names = new TreeSet<>();
+            for (Object key : ((Map<?, ?>) parameter).keySet()) {
+                String name = String.valueOf(key);
+                if (!isGeneratedParamName(name)) {
+                    names.add(name);
+                }
+            }
+            return names.toString();
+        }
+        if (parameter instanceof Collection) {
+            return "Collection[" + ((Collection<?>) parameter).size() + "]";
+        }
+        if (parameter.getClass().isArray()) {
+            return "Array[" + Array.getLength(parameter) + "]";
+        }
+        return parameter.getClass().getSimpleName();
+    }
+
+    private static boolean isGeneratedParamName(String name) {
+        if (!name.startsWith("param") || name.length() == 5) {
+            return false;
+        }
+        for (int i = 5; i < name.length(); i++) {
+            if (!Character.isDigit(name.charAt(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 查找业务代码中的调用位置
+     */
+    static String findCallSite() {
+        for (StackTraceElement element : new Throwable().getStackTrace()) {
+            String className = element.getClassName();
+            if (isFrameworkClass(className)) {
+                continue;
+            }
+            return element.toString();
+        }
+        return "unknown";
+    }
+
+    private static boolean isFrameworkClass(String className) {
+        if (className.startsWith(PLUGIN_PACKAGE) && className.indexOf('.', PLUGIN_PACKAGE.length()) < 0) {
+            return true;
+        }
+        if (className.contains("$Proxy") || className.contains("$$")) {
+            return true;
+        }
+        for (String prefix : FRAMEWORK_PREFIXES) {
+            if (className.startsWith(prefix)) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
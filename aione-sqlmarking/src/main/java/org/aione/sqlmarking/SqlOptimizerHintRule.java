@@ -0,0 +1,88 @@
+package org.aione.sqlmarking;
+
+import lombok.Getter;
+
+import java.util.regex.Pattern;
+
+/**
+ * 优化器提示规则
+ * 格式为 statementId通配符=提示内容，如 *.UserMapper.findByAgeRange=MAX_EXECUTION_TIME(1000)，
+ * 通配符中*匹配任意字符，?匹配单个字符
+ *
+ * @author Billy
+ */
+@Getter
+public final class SqlOptimizerHintRule {
+
+    /**
+     * statementId通配符
+     */
+    private final String statementPattern;
+
+    /**
+     * 提示内容，不含 /*+ 和 *&#47;
+     */
+    private final String hint;
+
+    private final Pattern pattern;
+
+    private SqlOptimizerHintRule(String statementPattern, String hint) {
+        this.statementPattern = statementPattern;
+        this.hint = hint;
+        this.pattern = compileGlob(statementPattern);
+    }
+
+    /**
+     * 解析规则
+     *
+     * @param rule 规则文本
+     * @return 优化器提示规则
+     * @throws IllegalArgumentException 规则格式错误或提示内容包含注释符时抛出
+     */
+    public static SqlOptimizerHintRule parse(String rule) {
+        int eq = rule == null ? -1 : rule.indexOf('=');
+        if (eq <= 0 || eq == rule.length() - 1) {
+            throw new IllegalArgumentException("优化器提示规则格式错误，应为 statementId通配符=提示内容: " + rule);
+        }
+        String statementPattern = rule.substring(0, eq).trim();
+        String hint = rule.substring(eq + 1).trim();
+        if (statementPattern.isEmpty() || hint.isEmpty() || hint.contains("*/") || hint.contains("/*")) {
+            throw new IllegalArgumentException("优化器提示规则无效: " + rule);
+        }
+        return new SqlOptimizerHintRule(statementPattern, hint);
+    }
+
+    /**
+     * 判断规则是否适用于指定的statementId
+     *
+     * @param statementId MyBatis StatementId
+     * @return 是否匹配
+     */
+    public boolean matches(String statementId) {
+        return pattern.matcher(statementId).matches();
+    }
+
+    private static Pattern compileGlob(String glob) {
+        StringBuilder regex = new StringBuilder(glob.length() + 8);
+        int literalStart = 0;
+        for (int i = 0; i < glob.length(); i++) {
+            char c = glob.charAt(i);
+            if (c == '*' || c == '?') {
+                if (i > literalStart) {
+                    regex.append(Pattern.quote(glob.substring(literalStart, i)));
+                }
+                regex.append(c == '*' ? ".*" : ".");
+                literalStart = i + 1;
+            }
+        }
+        if (literalStart < glob.length()) {
+            regex.append(Pattern.quote(glob.substring(literalStart)));
+        }
+        return Pattern.compile(regex.toString());
+    }
+
+    @Override
+    public String toString() {
+        return statementPattern + "=" + hint;
+    }
+}
@@ -0,0 +1,53 @@
+package org.aione.sqlmarking;
+
+import lombok.Getter;
+import org.apache.ibatis.mapping.SqlCommandType;
+
+/**
+ * SQL执行时间线中的一条记录
+ *
+ * @author Billy
+ */
+@Getter
+public class SqlProfileEntry {
+
+    /**
+     * MyBatis StatementId
+     */
+    private final String statementId;
+
+    /**
+     * SQL命令类型
+     */
+    private final SqlCommandType sqlCommandType;
+
+    /**
+     * 执行线程ID
+     */
+    private final long threadId;
+
+    /**
+     * 相对上下文创建时间的开始偏移（纳秒）
+     */
+    private final long startOffsetNanos;
+
+    /**
+     * 执行耗时（纳秒）
+     */
+    private final long durationNanos;
+
+    /**
+     * 是否执行成功
+     */
+    private final boolean success;
+
+    public SqlProfileEntry(String statementId, SqlCommandType sqlCommandType, long threadId,
+                           long startOffsetNanos, long durationNanos, boolean success) {
+        this.statementId = statementId;
+        this.sqlCommandType = sqlCommandType;
+        this.threadId = threadId;
+        this.startOffsetNanos = startOffsetNanos;
+        this.durationNanos = durationNanos;
+        this.success = success;
+    }
+}
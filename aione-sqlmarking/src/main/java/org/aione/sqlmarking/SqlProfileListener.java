@@ -0,0 +1,19 @@
+package org.aione.sqlmarking;
+
+/**
+ * SQL性能剖析监听器
+ * 在染色上下文清除时接收该上下文的剖析数据，实现类注册为Spring Bean后自动生效
+ *
+ * @author Billy
+ */
+@FunctionalInterface
+public interface SqlProfileListener {
+
+    /**
+     * 上下文结束时回调
+     *
+     * @param context 结束的染色上下文
+     * @param profile 该上下文的剖析数据
+     */
+    void onProfile(SqlMarkingContext context, SqlMarkingProfile profile);
+}
@@ -0,0 +1,140 @@
+package org.aione.sqlmarking;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 查询返回行数统计
+ * 按statementId记录每次查询返回的行数，分布按2的幂分桶：0、1、2-3、4-7、8-15……，
+ * 记录只需要一次数组下标计算和几次原子累加，不保存每次的行数
+ *
+ * @author Billy
+ */
+public class SqlRowCountTracker {
+
+    /**
+     * 分桶数量，覆盖int范围内的全部行数
+     */
+    static final int BUCKETS = 32;
+
+    /**
+     * 按statementId保存的行数分布
+     */
+    private final ConcurrentMap<String, Histogram> histograms = new ConcurrentHashMap<>();
+
+    /**
+     * 返回行数超过上限的次数
+     */
+    private final AtomicLong exceededCount = new AtomicLong(0);
+
+    /**
+     * 记录一次查询返回的行数
+     *
+     * @param statementId MyBatis StatementId
+     * @param rows        返回行数
+     */
+    public void record(String statementId, int rows) {
+        Histogram histogram = histograms.get(statementId);
+        if (histogram == null) {
+            histogram = histograms.computeIfAbsent(statementId, id -> new Histogram());
+        }
+        histogram.record(rows);
+    }
+
+    /**
+     * 记录一次返回行数超过上限
+     */
+    void recordExceeded() {
+        exceededCount.incrementAndGet();
+    }
+
+    /**
+     * 获取返回行数超过上限的次数
+     *
+     * @return 超限次数
+     */
+    public long getExceededCount() {
+        return exceededCount.get();
+    }
+
+    /**
+     * 导出当前统计，按statementId排序
+     * 每个statementId包含 count（查询次数）、totalRows、maxRows、avgRows 和 buckets（分桶标签到次数，省略为0的桶）
+     *
+     * @return 统计结果
+     */
+    public Map<String, Map<String, Object>> snapshot() {
+        Map<String, Map<String, Object>> result = new TreeMap<>();
+        histograms.forEach((statementId, histogram) -> result.put(statementId, histogram.toMap()));
+        return result;
+    }
+
+    /**
+     * 清空统计
+     */
+    public void reset() {
+        histograms.clear();
+        exceededCount.set(0);
+    }
+
+    /**
+     * 计算行数所在的分桶，0行为第0桶，[2^(n-1), 2^n - 1]为第n桶
+     */
+    static int bucketOf(int rows) {
+        return rows <= 0 ? 0 : Integer.SIZE - Integer.numberOfLeadingZeros(rows);
+    }
+
+    /**
+     * 分桶标签，如 0、1、2-3、4-7
+     */
+    static String bucketLabel(int bucket) {
+        if (bucket <= 1) {
+            return String.valueOf(bucket);
+        }
+        return (1L << (bucket - 1)) + "-" + ((1L << bucket) - 1);
+    }
+
+    /**
+     * 单个statementId的行数分布
+     */
+    private static final class Histogram {
+
+        private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+        private final LongAdder count = new LongAdder();
+        private final LongAdder totalRows = new LongAdder();
+        private final LongAccumulator maxRows = new LongAccumulator(Math::max, 0);
+
+        void record(int rows) {
+            buckets.incrementAndGet(bucketOf(rows));
+            count.increment();
+            totalRows.add(rows);
+            maxRows.accumulate(rows);
+        }
+
+        Map<String, Object> toMap() {
+            long queries = count.sum();
+            long total = totalRows.sum();
+            Map<String, Object> map = new LinkedHashMap<>();
+            map.put("count", queries);
+            map.put("totalRows", total);
+            map.put("maxRows", maxRows.get());
+            map.put("avgRows", queries > 0 ? (double) total / queries : 0);
+            Map<String, Long> distribution = new LinkedHashMap<>();
+            for (int i = 0; i < BUCKETS; i++) {
+                long value = buckets.get(i);
+                if (value > 0) {
+                    distribution.put(bucketLabel(i), value);
+                }
+            }
+            map.put("buckets", distribution);
+            return map;
+        }
+    }
+}
@@ -0,0 +1,344 @@
+package org.aione.sqlmarking;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 按用户或租户统计数据库耗时和SQL执行次数
+ * <p>
+ * 计数使用LongAdder分段累加，高并发下不在同一个计数器上竞争。
+ * 统计的键数量有上限，内存占用不随用户数增长。达到上限后按Space-Saving算法淘汰估计耗时最小的键，
+ * 新的键继承被淘汰键的估计耗时作为误差，后出现的高耗时租户同样能获得独立的统计项和配额，
+ * 被淘汰键的统计并入 {@link #OTHER_KEY}，淘汰后仍在执行的SQL也记录到 {@link #OTHER_KEY}。
+ * 淘汰候选保存在按估计耗时排序的最小堆中，淘汰一个键的开销为O(log n)，不需要扫描全部统计项。
+ * 每个键另外记录当前一秒内的数据库耗时，用于判断是否超过每秒耗时配额
+ *
+ * @author Billy
+ */
+public class SqlTenantAccounting {
+
+    /**
+     * 达到键数量上限后被淘汰的键并入的统计项
+     */
+    public static final String OTHER_KEY = "~other";
+
+    /**
+     * 上下文中没有用户或租户标识时计入的统计项
+     */
+    public static final String ANONYMOUS_KEY = "~anonymous";
+
+    private final ConcurrentMap<String, Account> accounts = new ConcurrentHashMap<>();
+
+    /**
+     * 普通键的淘汰候选，按入堆时的估计耗时排序，只在持有本对象的锁时访问。
+     * 估计耗时只增不减，堆顶的值过期时按当前值重新入堆，堆顶的值与当前值一致时即为估计耗时最小的键
+     */
+    private final PriorityQueue<Candidate> candidates =
+            new PriorityQueue<>(Comparator.comparingLong(candidate -> candidate.estimatedNanos));
+
+    /**
+     * 获取键对应的统计项，键数量达到上限时淘汰估计耗时最小的键
+     *
+     * @param key     用户或租户标识，为null时使用 {@link #ANONYMOUS_KEY}
+     * @param maxKeys 键数量上限，不包括 {@link #OTHER_KEY} 和 {@link #ANONYMOUS_KEY}
+     * @return 统计项
+     */
+    public Account getAccount(String key, int maxKeys) {
+        String accountKey = key != null ? key : ANONYMOUS_KEY;
+        Account account = accounts.get(accountKey);
+        if (account != null) {
+            return account;
+        }
+        if (isReserved(accountKey)) {
+            return accounts.computeIfAbsent(accountKey, Account::new);
+        }
+        synchronized (this) {
+            account = accounts.get(accountKey);
+            if (account != null) {
+                return account;
+            }
+            long errorNanos = 0;
+            while (regularSize() >= maxKeys) {
+                Account evicted = evictSmallest();
+                if (evicted == null) {
+                    break;
+                }
+                errorNanos = Math.max(errorNanos, evicted.getEstimatedNanos());
+            }
+            account = new Account(accountKey, errorNanos);
+            accounts.put(accountKey, account);
+            candidates.add(new Candidate(account, errorNanos));
+            return account;
+        }
+    }
+
+    /**
+     * 淘汰估计耗时最小的键，统计并入 {@link #OTHER_KEY}，在持有本对象的锁时调用
+     *
+     * @return 被淘汰的统计项，没有可淘汰的键时返回null
+     */
+    private Account evictSmallest() {
+        // 并发记录可能让堆顶不断过期，最多按当前值刷新一轮，之后直接淘汰堆顶
+        int refreshes = candidates.size();
+        Candidate candidate;
+        while ((candidate = candidates.poll()) != null) {
+            Account account = candidate.account;
+            if (accounts.get(account.key) != account) {
+                continue;
+            }
+            long estimatedNanos = account.getEstimatedNanos();
+            if (estimatedNanos > candidate.estimatedNanos && refreshes-- > 0) {
+                candidates.add(new Candidate(account, estimatedNanos));
+                continue;
+            }
+            Account other = accounts.computeIfAbsent(OTHER_KEY, Account::new);
+            account.mergedInto = other;
+            accounts.remove(account.key);
+            other.absorb(account);
+            return account;
+        }
+        return null;
+    }
+
+    private int regularSize() {
+        int size = accounts.size();
+        if (accounts.containsKey(OTHER_KEY)) {
+            size--;
+        }
+        if (accounts.containsKey(ANONYMOUS_KEY)) {
+            size--;
+        }
+        return size;
+    }
+
+    /**
+     * 判断是否为汇总多个标识的统计项，这些统计项不会被淘汰，默认也不受配额限制
+     *
+     * @param key 统计项的键
+     * @return 是否为 {@link #OTHER_KEY} 或 {@link #ANONYMOUS_KEY}
+     */
+    public static boolean isReserved(String key) {
+        return OTHER_KEY.equals(key) || ANONYMOUS_KEY.equals(key);
+    }
+
+    /**
+     * 获取数据库耗时最高的统计项
+     *
+     * @param topN 返回数量
+     * @return 按估计耗时从高到低排序的统计，键为用户或租户标识
+     */
+    public Map<String, Map<String, Object>> getTop(int topN) {
+        List<Account> sorted = new ArrayList<>(accounts.values());
+        sorted.sort(Comparator.comparingLong(Account::getEstimatedNanos).reversed());
+        Map<String, Map<String, Object>> result = new LinkedHashMap<>();
+        for (Account account : sorted.subList(0, Math.min(topN, sorted.size()))) {
+            result.put(account.key, account.describe());
+        }
+        return result;
+    }
+
+    /**
+     * 获取统计的键数量
+     *
+     * @return 键数量
+     */
+    public int size() {
+        return accounts.size();
+    }
+
+    /**
+     * 清空统计
+     */
+    public synchronized void reset() {
+        accounts.clear();
+        candidates.clear();
+    }
+
+    /**
+     * 淘汰候选，记录入堆时的估计耗时
+     */
+    private static final class Candidate {
+
+        private final Account account;
+        private final long estimatedNanos;
+
+        private Candidate(Account account, long estimatedNanos) {
+            this.account = account;
+            this.estimatedNanos = estimatedNanos;
+        }
+    }
+
+    /**
+     * 一个用户或租户的统计项
+     */
+    public static final class Account {
+
+        private final String key;
+
+        /**
+         * 创建时继承的被淘汰键的估计耗时，实际耗时不超过累计耗时加上该值
+         */
+        private final long errorNanos;
+
+        private final LongAdder statementCount = new LongAdder();
+        private final LongAdder totalNanos = new LongAdder();
+        private final LongAdder rejectedCount = new LongAdder();
+        private final LongAdder delayedCount = new LongAdder();
+
+        /**
+         * 当前配额窗口（秒），与windowNanos一起在切换窗口时重置
+         */
+        private volatile long windowSecond;
+
+        /**
+         * 当前一秒内的数据库耗时
+         */
+        private final LongAdder windowNanos = new LongAdder();
+
+        /**
+         * 上一次拒绝所在的秒
+         */
+        private volatile long lastRejectedSecond = -1;
+
+        /**
+         * 被淘汰后并入的统计项，调用方在淘汰前取得的统计项此后的记录转到该统计项
+         */
+        private volatile Account mergedInto;
+
+        Account(String key) {
+            this(key, 0);
+        }
+
+        Account(String key, long errorNanos) {
+            this.key = key;
+            this.errorNanos = errorNanos;
+        }
+
+        /**
+         * 记录一次SQL执行
+         *
+         * @param elapsedNanos 执行耗时
+         */
+        public void record(long elapsedNanos) {
+            Account target = mergedInto;
+            if (target != null) {
+                target.record(elapsedNanos);
+                return;
+            }
+            statementCount.increment();
+            totalNanos.add(elapsedNanos);
+            currentWindow(currentSecond()).add(elapsedNanos);
+        }
+
+        /**
+         * 判断当前一秒内的数据库耗时是否已达到配额
+         *
+         * @param budgetNanos 每秒数据库耗时配额
+         * @return 是否已达到配额
+         */
+        public boolean isOverBudget(long budgetNanos) {
+            return windowSecond == currentSecond() && windowNanos.sum() >= budgetNanos;
+        }
+
+        /**
+         * 记录一次因超过配额被拒绝的执行
+         *
+         * @return 是否为本秒内第一次拒绝，只在第一次时输出告警，避免超额的租户刷屏
+         */
+        boolean recordRejected() {
+            rejectedCount.increment();
+            long second = currentSecond();
+            if (lastRejectedSecond == second) {
+                return false;
+            }
+            lastRejectedSecond = second;
+            return true;
+        }
+
+        void recordDelayed() {
+            delayedCount.increment();
+        }
+
+        /**
+         * 并入被淘汰键的累计统计
+         */
+        private void absorb(Account evicted) {
+            statementCount.add(evicted.statementCount.sum());
+            totalNanos.add(evicted.totalNanos.sum());
+            rejectedCount.add(evicted.rejectedCount.sum());
+            delayedCount.add(evicted.delayedCount.sum());
+        }
+
+        private LongAdder currentWindow(long second) {
+            if (windowSecond != second) {
+                synchronized (this) {
+                    if (windowSecond != second) {
+                        windowNanos.reset();
+                        windowSecond = second;
+                    }
+                }
+            }
+            return windowNanos;
+        }
+
+        private static long currentSecond() {
+            return TimeUnit.NANOSECONDS.toSeconds(System.nanoTime());
+        }
+
+        /**
+         * 获取用户或租户标识
+         *
+         * @return 标识
+         */
+        public String getKey() {
+            return key;
+        }
+
+        /**
+         * 获取累计数据库耗时
+         *
+         * @return 耗时（纳秒）
+         */
+        public long getTotalNanos() {
+            return totalNanos.sum();
+        }
+
+        /**
+         * 获取估计数据库耗时，即累计耗时加上创建时继承的误差，用于淘汰和排序
+         *
+         * @return 耗时（纳秒）
+         */
+        public long getEstimatedNanos() {
+            return totalNanos.sum() + errorNanos;
+        }
+
+        /**
+         * 获取累计SQL执行次数
+         *
+         * @return 执行次数
+         */
+        public long getStatementCount() {
+            return statementCount.sum();
+        }
+
+        private Map<String, Object> describe() {
+            Map<String, Object> result = new LinkedHashMap<>();
+            result.put("statementCount", statementCount.sum());
+            result.put("totalMillis", TimeUnit.NANOSECONDS.toMillis(totalNanos.sum()));
+            result.put("errorMillis", TimeUnit.NANOSECONDS.toMillis(errorNanos));
+            result.put("currentSecondMillis", windowSecond == currentSecond()
+                    ? TimeUnit.NANOSECONDS.toMillis(windowNanos.sum()) : 0L);
+            result.put("rejectedCount", rejectedCount.sum());
+            result.put("delayedCount", delayedCount.sum());
+            return result;
+        }
+    }
+}
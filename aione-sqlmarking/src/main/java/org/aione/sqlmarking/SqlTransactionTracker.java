@@ -0,0 +1,319 @@
+package org.aione.sqlmarking;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.util.ClassUtils;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Spring事务剖析
+ * <p>
+ * 事务中第一次执行SQL时生成事务标识并注册事务同步，同一事务中的SQL在标记中带有相同的tx字段。
+ * 事务结束时统计事务耗时、SQL数量、数据库耗时和SQL之间的空闲时间，
+ * 耗时超过阈值的长事务输出告警并保留SQL列表。
+ * 长事务在提交前一直持有行锁，空闲时间长通常说明事务中夹杂了远程调用等非数据库操作。
+ * 事务耗时从第一条SQL开始计算，开启事务到第一条SQL之间的时间不计入；
+ * 没有spring-tx或当前线程没有激活事务同步时不做任何处理
+ *
+ * @author Billy
+ */
+@Slf4j
+public class SqlTransactionTracker {
+
+    /**
+     * 保留的最近长事务数量
+     */
+    static final int MAX_LONG_TRANSACTIONS = 20;
+
+    private static final boolean SPRING_TX_PRESENT = ClassUtils.isPresent(
+            "org.springframework.transaction.support.TransactionSynchronizationManager",
+            SqlTransactionTracker.class.getClassLoader());
+
+    private final SqlMarkingIdGenerator idGenerator;
+
+    /**
+     * 最近的长事务，最新的在前
+     */
+    private final Deque<Map<String, Object>> longTransactions = new ArrayDeque<>(MAX_LONG_TRANSACTIONS);
+
+    private final AtomicLong transactionCount = new AtomicLong(0);
+    private final AtomicLong longTransactionCount = new AtomicLong(0);
+
+    public SqlTransactionTracker(SqlMarkingIdGenerator idGenerator) {
+        this.idGenerator = idGenerator;
+    }
+
+    /**
+     * 获取当前线程的事务，事务中第一次调用时创建并注册事务同步
+     *
+     * @param thresholdMillis 长事务阈值（毫秒）
+     * @param maxStatements   记录的SQL数量上限
+     * @return 当前事务，不在Spring事务中时返回null
+     */
+    public Transaction current(long thresholdMillis, int maxStatements) {
+        if (!SPRING_TX_PRESENT || !TransactionSynchronizationManager.isSynchronizationActive()
+                || !TransactionSynchronizationManager.isActualTransactionActive()) {
+            return null;
+        }
+        Transaction transaction = (Transaction) TransactionSynchronizationManager.getResource(this);
+        if (transaction == null) {
+            transaction = new Transaction(idGenerator.generateTransactionId(), thresholdMillis, maxStatements);
+            TransactionSynchronizationManager.bindResource(this, transaction);
+            TransactionSynchronizationManager.registerSynchronization(new Synchronization(transaction));
+        }
+        return transaction;
+    }
+
+    /**
+     * 获取当前线程已创建的事务，不创建新的事务
+     *
+     * @return 当前事务，不在Spring事务中或事务中还没有通过 {@link #current(long, int)} 创建时返回null
+     */
+    public Transaction existing() {
+        if (!SPRING_TX_PRESENT || !TransactionSynchronizationManager.isSynchronizationActive()) {
+            return null;
+        }
+        return (Transaction) TransactionSynchronizationManager.getResource(this);
+    }
+
+    /**
+     * 判断当前线程是否处于Spring的实际事务中
+     *
+     * @return 处于事务中时返回true，未引入spring-tx时返回false
+     */
+    static boolean isActualTransactionActive() {
+        return SPRING_TX_PRESENT && TransactionSynchronizationManager.isActualTransactionActive();
+    }
+
+    /**
+     * 获取最近的长事务，最新的在前
+     *
+     * @return 长事务列表
+     */
+    public List<Map<String, Object>> getLongTransactions() {
+        synchronized (longTransactions) {
+            return new ArrayList<>(longTransactions);
+        }
+    }
+
+    /**
+     * 获取已结束的事务数量
+     *
+     * @return 事务数量
+     */
+    public long getTransactionCount() {
+        return transactionCount.get();
+    }
+
+    /**
+     * 获取长事务数量
+     *
+     * @return 长事务数量
+     */
+    public long getLongTransactionCount() {
+        return longTransactionCount.get();
+    }
+
+    /**
+     * 清空统计和保留的长事务
+     */
+    public void reset() {
+        transactionCount.set(0);
+        longTransactionCount.set(0);
+        synchronized (longTransactions) {
+            longTransactions.clear();
+        }
+    }
+
+    /**
+     * 事务结束时统计，超过阈值时告警并保留
+     */
+    private void complete(Transaction transaction, int status) {
+        transactionCount.incrementAndGet();
+        long endNanos = System.nanoTime();
+        long durationMillis = TimeUnit.NANOSECONDS.toMillis(endNanos - transaction.startNanos);
+        if (durationMillis < transaction.thresholdMillis) {
+            log.debug("事务结束 - 事务: {}, 耗时: {}ms, SQL数: {}", transaction.id, durationMillis,
+                    transaction.statementCount);
+            return;
+        }
+        longTransactionCount.incrementAndGet();
+        Map<String, Object> summary = transaction.describe(endNanos, status);
+        synchronized (longTransactions) {
+            longTransactions.addFirst(summary);
+            while (longTransactions.size() > MAX_LONG_TRANSACTIONS) {
+                longTransactions.removeLast();
+            }
+        }
+        log.warn("长事务 - 事务: {}, 状态: {}, 耗时: {}ms, SQL数: {}, 数据库耗时: {}ms, 空闲: {}ms, "
+                        + "最长间隔: {}ms, 最后一条SQL之后: {}ms, SQL列表:{}",
+                transaction.id, summary.get("status"), durationMillis, transaction.statementCount,
+                summary.get("databaseMillis"), summary.get("idleMillis"), summary.get("maxGapMillis"),
+                summary.get("tailMillis"), transaction.formatStatements());
+    }
+
+    /**
+     * 一个Spring事务的剖析数据，只在事务所在的线程中访问
+     */
+    public static final class Transaction {
+
+        private final String id;
+        private final long startNanos = System.nanoTime();
+        private final long thresholdMillis;
+        private final int maxStatements;
+
+        private int statementCount;
+        private long databaseNanos;
+        private long lastEndNanos = startNanos;
+        private long maxGapNanos;
+
+        /**
+         * 记录的SQL，数量不超过maxStatements
+         */
+        private final List<Statement> statements = new ArrayList<>();
+
+        Transaction(String id, long thresholdMillis, int maxStatements) {
+            this.id = id;
+            this.thresholdMillis = thresholdMillis;
+            this.maxStatements = maxStatements;
+        }
+
+        /**
+         * 记录事务中的一次SQL执行
+         *
+         * @param statementId  StatementId
+         * @param startNanos   开始执行时的System.nanoTime
+         * @param elapsedNanos 执行耗时
+         */
+        public void record(String statementId, long startNanos, long elapsedNanos) {
+            long gapNanos = Math.max(0, startNanos - lastEndNanos);
+            statementCount++;
+            databaseNanos += elapsedNanos;
+            maxGapNanos = Math.max(maxGapNanos, gapNanos);
+            lastEndNanos = Math.max(lastEndNanos, startNanos + elapsedNanos);
+            if (statements.size() < maxStatements) {
+                statements.add(new Statement(statementId, startNanos - this.startNanos, elapsedNanos, gapNanos));
+            }
+        }
+
+        /**
+         * 获取事务标识
+         *
+         * @return 事务标识
+         */
+        public String getId() {
+            return id;
+        }
+
+        private Map<String, Object> describe(long endNanos, int status) {
+            long durationNanos = endNanos - startNanos;
+            Map<String, Object> result = new LinkedHashMap<>();
+            result.put("id", id);
+            result.put("status", status == TransactionSynchronization.STATUS_COMMITTED ? "committed"
+                    : status == TransactionSynchronization.STATUS_ROLLED_BACK ? "rolledBack" : "unknown");
+            result.put("endTime", System.currentTimeMillis());
+            result.put("durationMillis", TimeUnit.NANOSECONDS.toMillis(durationNanos));
+            result.put("statementCount", statementCount);
+            result.put("databaseMillis", TimeUnit.NANOSECONDS.toMillis(databaseNanos));
+            result.put("idleMillis", TimeUnit.NANOSECONDS.toMillis(Math.max(0, durationNanos - databaseNanos)));
+            result.put("maxGapMillis", TimeUnit.NANOSECONDS.toMillis(maxGapNanos));
+            result.put("tailMillis", TimeUnit.NANOSECONDS.toMillis(endNanos - lastEndNanos));
+            List<Map<String, Object>> list = new ArrayList<>(statements.size());
+            for (Statement statement : statements) {
+                list.add(statement.describe());
+            }
+            result.put("statements", list);
+            return result;
+        }
+
+        private String formatStatements() {
+            StringBuilder sb = new StringBuilder();
+            for (Statement statement : statements) {
+                sb.append("\n  +").append(TimeUnit.NANOSECONDS.toMillis(statement.offsetNanos)).append("ms ")
+                        .append(statement.statementId)
+                        .append(" 耗时: ").append(TimeUnit.NANOSECONDS.toMillis(statement.elapsedNanos)).append("ms")
+                        .append(" 间隔: ").append(TimeUnit.NANOSECONDS.toMillis(statement.gapNanos)).append("ms");
+            }
+            if (statementCount > statements.size()) {
+                sb.append("\n  ... 另有").append(statementCount - statements.size()).append("条SQL未记录");
+            }
+            return sb.toString();
+        }
+    }
+
+    /**
+     * 事务中的一次SQL执行
+     */
+    private static final class Statement {
+
+        private final String statementId;
+
+        /**
+         * 相对事务开始的时间
+         */
+        private final long offsetNanos;
+        private final long elapsedNanos;
+
+        /**
+         * 与上一条SQL结束之间的间隔
+         */
+        private final long gapNanos;
+
+        Statement(String statementId, long offsetNanos, long elapsedNanos, long gapNanos) {
+            this.statementId = statementId;
+            this.offsetNanos = offsetNanos;
+            this.elapsedNanos = elapsedNanos;
+            this.gapNanos = gapNanos;
+        }
+
+        private Map<String, Object> describe() {
+            Map<String, Object> result = new LinkedHashMap<>();
+            result.put("statementId", statementId);
+            result.put("offsetMillis", TimeUnit.NANOSECONDS.toMillis(offsetNanos));
+            result.put("elapsedMillis", TimeUnit.NANOSECONDS.toMillis(elapsedNanos));
+            result.put("gapMillis", TimeUnit.NANOSECONDS.toMillis(gapNanos));
+            return result;
+        }
+    }
+
+    /**
+     * 事务同步，挂起时解绑事务数据，事务结束时统计
+     */
+    private final class Synchronization implements TransactionSynchronization {
+
+        private final Transaction transaction;
+
+        Synchronization(Transaction transaction) {
+            this.transaction = transaction;
+        }
+
+        @Override
+        public void suspend() {
+            TransactionSynchronizationManager.unbindResourceIfPossible(SqlTransactionTracker.this);
+        }
+
+        @Override
+        public void resume() {
+            TransactionSynchronizationManager.bindResource(SqlTransactionTracker.this, transaction);
+        }
+
+        @Override
+        public void afterCompletion(int status) {
+            TransactionSynchronizationManager.unbindResourceIfPossible(SqlTransactionTracker.this);
+            try {
+                complete(transaction, status);
+            } catch (Exception e) {
+                log.debug("事务剖析统计异常 事务: {}, error: {}", transaction.id, e.getMessage());
+            }
+        }
+    }
+}
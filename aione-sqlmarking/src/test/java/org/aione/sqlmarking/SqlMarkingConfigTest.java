@@ -0,0 +1,73 @@
+package org.aione.sqlmarking;
+
+import org.junit.Test;
+
+import java.util.Properties;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * SqlMarkingConfig校验测试
+ *
+ * @author Billy
+ */
+public class SqlMarkingConfigTest {
+
+    @Test
+    public void routeHintMustBeSingleComment() {
+        assertTrue(validWith("routeReadHint", "/* route=replica */"));
+        assertTrue(validWith("routeWriteHint", " /*+ SET_VAR(x=1) */ "));
+        assertTrue(validWith("routeWriteHint", ""));
+
+        assertFalse(validWith("routeReadHint", "route=replica"));
+        assertFalse(validWith("routeReadHint", "/* route=replica */ SELECT 1;"));
+        assertFalse(validWith("routeWriteHint", "/* a */ /* b */"));
+        assertFalse(validWith("routeWriteHint", "/* unterminated"));
+        assertFalse(validWith("routeWriteHint", "/*/"));
+    }
+
+    @Test
+    public void shardHintTemplateMustWrapOneValueInComment() {
+        assertTrue(validWith("shardHintTemplate", "/* SHARDINGSPHERE_HINT: SHARDING_DATABASE_VALUE={value} */"));
+        assertTrue(validWith("shardHintTemplate", " "));
+
+        assertFalse(validWith("shardHintTemplate", "/* shard */"));
+        assertFalse(validWith("shardHintTemplate", "/* shard={value} */ {value}"));
+        assertFalse(validWith("shardHintTemplate", "/* a={value} b={value} */"));
+        assertFalse(validWith("shardHintTemplate", "/* shard */ {value}"));
+        assertFalse(validWith("shardHintTemplate", "/* a */ /* shard={value} */"));
+
+        SqlMarkingConfig config = new SqlMarkingConfig();
+        config.setShardHintTemplate("/* shard={value} */");
+        SqlMarkingConfigSnapshot snapshot = SqlMarkingConfigSnapshot.compile(config, 1);
+        assertEquals("/* shard=u-1 */", snapshot.getShardHint("u-1"));
+    }
+
+    @Test
+    public void invalidHintKeepsPreviousSnapshot() {
+        SqlMarkingInterceptor interceptor = new SqlMarkingInterceptor();
+        long version = interceptor.getSnapshot().getVersion();
+        Properties properties = new Properties();
+        properties.setProperty("routeHintStyle", "custom");
+        properties.setProperty("routeWriteHint", "/* route=primary */ DROP TABLE t; /* x */");
+        try {
+            interceptor.reloadConfig(properties);
+            fail("无效的路由提示应被拒绝");
+        } catch (IllegalArgumentException expected) {
+            // 原配置继续生效
+        }
+        assertEquals(version, interceptor.getSnapshot().getVersion());
+        assertEquals("marker", interceptor.getConfig().getRouteHintStyle());
+    }
+
+    static boolean validWith(String name, String value) {
+        SqlMarkingConfig config = new SqlMarkingConfig();
+        Properties properties = new Properties();
+        properties.setProperty(name, value);
+        config.loadFromProperties(properties);
+        return config.isValid();
+    }
+}
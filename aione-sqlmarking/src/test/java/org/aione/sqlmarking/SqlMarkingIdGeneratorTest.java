@@ -0,0 +1,109 @@
+package org.aione.sqlmarking;
+
+import org.junit.Test;
+
+import java.net.InetAddress;
+import java.net.NetworkInterface;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * SqlMarkingIdGenerator测试
+ *
+ * @author Billy
+ */
+public class SqlMarkingIdGeneratorTest {
+
+    private static final String PFINDER_ID = "[0-9A-F]{8}-[0-9A-F]{4}-\\d+-\\d+";
+
+    /**
+     * 网卡枚举被阻塞时，构造和生成标识都不等待解析结果
+     */
+    @Test(timeout = 10_000)
+    public void constructorDoesNotWaitForInterfaceEnumeration() throws Exception {
+        CountDownLatch entered = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        long begin = System.nanoTime();
+        SqlMarkingIdGenerator generator = new SqlMarkingIdGenerator() {
+            @Override
+            Enumeration<NetworkInterface> networkInterfaces() {
+                entered.countDown();
+                awaitQuietly(release);
+                return Collections.emptyEnumeration();
+            }
+        };
+        long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - begin);
+        try {
+            assertTrue("构造耗时" + elapsedMillis + "ms", elapsedMillis < 1000);
+            assertEquals("构造过程不应枚举网卡", 1, entered.getCount());
+
+            String machineId = generator.getMachineId();
+            assertTrue(generator.generatePFinderId().matches(PFINDER_ID));
+            assertTrue("首次生成标识后应在后台开始解析", entered.await(5, TimeUnit.SECONDS));
+            assertTrue(generator.generateTraceId().startsWith(machineId + generator.getProcessId()));
+        } finally {
+            release.countDown();
+        }
+    }
+
+    @Test(timeout = 10_000)
+    public void clearingNodeIdRestartsResolution() throws Exception {
+        CountDownLatch resolved = new CountDownLatch(1);
+        SqlMarkingIdGenerator generator = new SqlMarkingIdGenerator("abc") {
+            @Override
+            Enumeration<NetworkInterface> networkInterfaces() {
+                resolved.countDown();
+                return Collections.emptyEnumeration();
+            }
+        };
+        assertEquals("00000ABC", generator.getMachineId());
+        generator.generatePFinderId();
+        assertFalse("配置nodeId时不应解析", resolved.await(200, TimeUnit.MILLISECONDS));
+
+        generator.setNodeId(" ");
+        assertNotEquals("00000ABC", generator.getMachineId());
+        assertTrue(generator.generatePFinderId().matches(PFINDER_ID));
+        assertTrue("清除nodeId后应重新解析", resolved.await(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void skipsLinkLocalAndTemporaryAddresses() throws Exception {
+        Set<String> temporary = SqlMarkingIdGenerator.parseTemporaryAddresses(Arrays.asList(
+                "20010db8000000001c2d3e4f5a6b7c8d 02 40 00 01     eth0",
+                "20010db800000000021122fffe334455 02 40 00 80     eth0",
+                "fe80000000000000021122fffe334455 02 40 20 80     eth0"));
+        assertEquals(Collections.singleton("20010db8000000001c2d3e4f5a6b7c8d"), temporary);
+
+        InetAddress eui64 = InetAddress.getByName("2001:db8::211:22ff:fe33:4455");
+        InetAddress privacy = InetAddress.getByName("2001:db8::1c2d:3e4f:5a6b:7c8d");
+        InetAddress linkLocal = InetAddress.getByName("fe80::211:22ff:fe33:4455");
+        InetAddress ipv4 = InetAddress.getByName("192.168.1.10");
+
+        assertTrue(SqlMarkingIdGenerator.isStableAddress(eui64, temporary));
+        assertFalse(SqlMarkingIdGenerator.isStableAddress(privacy, temporary));
+        assertFalse(SqlMarkingIdGenerator.isStableAddress(linkLocal, temporary));
+        assertTrue(SqlMarkingIdGenerator.isStableAddress(ipv4, temporary));
+
+        // 无法读取内核标志时只保留EUI-64地址
+        assertTrue(SqlMarkingIdGenerator.isStableAddress(eui64, null));
+        assertFalse(SqlMarkingIdGenerator.isStableAddress(privacy, null));
+        assertTrue(SqlMarkingIdGenerator.isStableAddress(ipv4, null));
+    }
+
+    private static void awaitQuietly(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
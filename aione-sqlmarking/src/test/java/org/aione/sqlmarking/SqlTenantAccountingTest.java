@@ -0,0 +1,47 @@
+package org.aione.sqlmarking;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+/**
+ * SqlTenantAccounting测试
+ *
+ * @author Billy
+ */
+public class SqlTenantAccountingTest {
+
+    @Test
+    public void evictsSmallestEstimateAfterRecords() {
+        SqlTenantAccounting accounting = new SqlTenantAccounting();
+        SqlTenantAccounting.Account a = accounting.getAccount("a", 3);
+        SqlTenantAccounting.Account b = accounting.getAccount("b", 3);
+        SqlTenantAccounting.Account c = accounting.getAccount("c", 3);
+        // 入堆时都为0，之后的记录使a、c的估计耗时超过b
+        a.record(300);
+        b.record(100);
+        c.record(200);
+
+        SqlTenantAccounting.Account d = accounting.getAccount("d", 3);
+        assertEquals(100, d.getEstimatedNanos());
+        assertNotSame(b, accounting.getAccount("b", 4));
+        assertSame(a, accounting.getAccount("a", 4));
+        assertSame(c, accounting.getAccount("c", 4));
+    }
+
+    @Test
+    public void recordsAfterEvictionGoToOther() {
+        SqlTenantAccounting accounting = new SqlTenantAccounting();
+        SqlTenantAccounting.Account evicted = accounting.getAccount("a", 1);
+        evicted.record(10);
+        accounting.getAccount("b", 1);
+
+        evicted.record(5);
+        SqlTenantAccounting.Account other = accounting.getAccount(SqlTenantAccounting.OTHER_KEY, 1);
+        assertEquals(15, other.getTotalNanos());
+        assertEquals(2, other.getStatementCount());
+        assertEquals(10, evicted.getTotalNanos());
+    }
+}